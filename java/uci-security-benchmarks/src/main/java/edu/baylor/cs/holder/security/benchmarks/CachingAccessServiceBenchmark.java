@@ -0,0 +1,123 @@
+package edu.baylor.cs.holder.security.benchmarks;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.baylor.cs.holder.security.service.SecurityCache;
+import edu.baylor.cs.holder.security.service.accessobjects.AccessRule;
+import edu.baylor.cs.holder.security.service.accessobjects.AccessRuleKey;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMappingKey;
+import edu.baylor.cs.holder.security.service.impl.BoundedSecurityCache;
+import edu.baylor.cs.holder.security.service.impl.GenericCachingAccessServiceImpl;
+import edu.baylor.cs.holder.security.test.model.Contest;
+import edu.baylor.cs.holder.security.util.Pair;
+
+/**
+ * Measures user and veto role lookups through
+ * {@link GenericCachingAccessServiceImpl} with the default
+ * {@link BoundedSecurityCache} and with a cache that holds nothing, so every
+ * lookup goes to the underlying repository.
+ *
+ * @author holder
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode( { Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CachingAccessServiceBenchmark {
+
+    @Param( { "bounded", "none" })
+    public String cache;
+
+    @Param( { "10000" })
+    public int mappings;
+
+    private GenericCachingAccessServiceImpl accessService;
+    private RoleMappingKey roleMappingKey;
+    private AccessRuleKey accessRuleKey;
+
+    @Setup
+    public void setup() {
+        accessService = Fixtures.createCachingAccessService(Fixtures.createRepositoryAccessService(mappings));
+        if ("none".equals(cache)) {
+            accessService.setSecurityCache(new EmptySecurityCache());
+        } else if (!"bounded".equals(cache)) {
+            throw new IllegalArgumentException("Unknown cache: " + cache);
+        }
+        roleMappingKey = new RoleMappingKey(1L, Contest.class, 1L);
+        accessRuleKey = new AccessRuleKey(Fixtures.CATEGORY, Fixtures.action(1), Collections
+                .<Class<?>> singletonList(Contest.class));
+    }
+
+    @Benchmark
+    public Set<String> getUserRoles() {
+        return accessService.getUserRoles(roleMappingKey);
+    }
+
+    @Benchmark
+    public Set<String> getVetoRoles() {
+        return accessService.getVetoRoles(accessRuleKey, roleMappingKey);
+    }
+
+    /**
+     * A cache that never holds anything.
+     */
+    private static class EmptySecurityCache implements SecurityCache {
+
+        private final Map<RoleMappingKey, Set<String>> userRoleCache = new EmptyMap<RoleMappingKey, Set<String>>();
+
+        private final Map<Pair<AccessRuleKey, RoleMappingKey>, Set<String>> vetoRoleCache =
+                new EmptyMap<Pair<AccessRuleKey, RoleMappingKey>, Set<String>>();
+
+        private final Map<AccessRule, Set<String>> accessRuleCache = new EmptyMap<AccessRule, Set<String>>();
+
+        public Map<RoleMappingKey, Set<String>> getUserRoleCache() {
+            return userRoleCache;
+        }
+
+        public Map<Pair<AccessRuleKey, RoleMappingKey>, Set<String>> getVetoRoleCache() {
+            return vetoRoleCache;
+        }
+
+        @Deprecated
+        public Map<AccessRule, Set<String>> getAccessRuleCache() {
+            return accessRuleCache;
+        }
+
+        public void clear() {
+        }
+    }
+
+    /**
+     * A map that ignores every put.
+     */
+    private static class EmptyMap<K, V> extends AbstractMap<K, V> {
+
+        @Override
+        public V put(K key, V value) {
+            return null;
+        }
+
+        @Override
+        public Set<Map.Entry<K, V>> entrySet() {
+            return Collections.emptySet();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package edu.baylor.cs.holder.security.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+
+import edu.baylor.cs.holder.security.service.AccessService;
+import edu.baylor.cs.holder.security.service.impl.Dom4jSecurityRepository;
+import edu.baylor.cs.holder.security.service.impl.GenericCachingAccessServiceImpl;
+import edu.baylor.cs.holder.security.service.impl.RepositoryAccessServiceImpl;
+import edu.baylor.cs.holder.security.service.impl.SecurityServiceImpl;
+import edu.baylor.cs.holder.security.test.model.Contest;
+import edu.baylor.cs.holder.security.test.model.Institution;
+import edu.baylor.cs.holder.security.test.model.Person;
+import edu.baylor.cs.holder.security.test.tools.ModelDomainService;
+
+/**
+ * Generates the security repositories the benchmarks run against, so that no
+ * fixture files or network access are needed.
+ *
+ * A repository has a single category with an action for each number of
+ * contexts from 0 to 5, named "action0" to "action5", whose contexts cycle
+ * through {@link Contest}, {@link Institution} and {@link Person}. Each user
+ * has a mapping of every key form, (userId, *, *), (userId, Contest, *),
+ * (userId, Contest, userId) and (userId, Institution, userId), along with a
+ * single (*, *, *) mapping granting every rule, so access is granted for any
+ * user and contexts.
+ *
+ * @author holder
+ */
+public class Fixtures {
+
+    public static final String CATEGORY = "category";
+
+    // mappings generated for each user
+    public static final int MAPPINGS_PER_USER = 4;
+
+    private static final int ROLE_COUNT = 16;
+
+    private static final Class<?>[] CONTEXT_TYPES = new Class<?>[] { Contest.class, Institution.class,
+            Person.class };
+
+    /**
+     * Return the XML of a repository with about the given number of role
+     * mappings.
+     *
+     * @param mappingCount
+     * @return
+     */
+    public static byte[] createRepositoryXml(int mappingCount) {
+        int userCount = Math.max(1, mappingCount / MAPPINGS_PER_USER);
+        StringBuilder xml = new StringBuilder(128 * mappingCount + 4096);
+        xml.append("<securityRepository>");
+
+        xml.append("<contextPackages><package>").append(Contest.class.getPackage().getName());
+        xml.append("</package></contextPackages>");
+
+        xml.append("<roles>");
+        for (int i = 0; i < ROLE_COUNT; i++) {
+            xml.append("<role>").append(role(i)).append("</role>");
+        }
+        xml.append("</roles>");
+
+        xml.append("<categories><category name=\"").append(CATEGORY).append("\">");
+        for (int contexts = 0; contexts <= SecurityServiceImpl.MAXCONTEXTLENGTH; contexts++) {
+            xml.append("<accessRule action=\"").append(action(contexts)).append("\" active=\"true\">");
+            for (int i = 0; i < contexts; i++) {
+                xml.append("<context>").append(CONTEXT_TYPES[i % CONTEXT_TYPES.length].getSimpleName());
+                xml.append("</context>");
+            }
+            xml.append("<role>").append(role(0)).append("</role>");
+            xml.append("<role>").append(role(1)).append("</role>");
+            xml.append("</accessRule>");
+        }
+        xml.append("</category></categories>");
+
+        xml.append("<roleMappings>");
+        appendMapping(xml, null, null, null, role(0));
+        for (long userId = 1; userId <= userCount; userId++) {
+            appendMapping(xml, userId, null, null, role((int) (userId % ROLE_COUNT)));
+            appendMapping(xml, userId, Contest.class, null, role((int) ((userId + 1) % ROLE_COUNT)));
+            appendMapping(xml, userId, Contest.class, userId, role((int) ((userId + 2) % ROLE_COUNT)));
+            appendMapping(xml, userId, Institution.class, userId, role((int) ((userId + 3) % ROLE_COUNT)));
+        }
+        xml.append("</roleMappings>");
+
+        xml.append("</securityRepository>");
+        try {
+            return xml.toString().getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Return a populated repository with about the given number of role
+     * mappings.
+     *
+     * @param mappingCount
+     * @return
+     */
+    public static Dom4jSecurityRepository createRepository(int mappingCount) {
+        Dom4jSecurityRepository repository = new Dom4jSecurityRepository();
+        repository.populate(new ByteArrayInputStream(createRepositoryXml(mappingCount)));
+        return repository;
+    }
+
+    /**
+     * Return an access service loaded with a repository of about the given
+     * number of role mappings.
+     *
+     * @param mappingCount
+     * @return
+     */
+    public static RepositoryAccessServiceImpl createRepositoryAccessService(int mappingCount) {
+        RepositoryAccessServiceImpl repositoryAccessService = new RepositoryAccessServiceImpl();
+        repositoryAccessService.update(createRepository(mappingCount));
+        return repositoryAccessService;
+    }
+
+    /**
+     * Return a caching access service over the given access service.
+     *
+     * @param accessService
+     * @return
+     */
+    public static GenericCachingAccessServiceImpl createCachingAccessService(AccessService accessService) {
+        GenericCachingAccessServiceImpl cachingAccessService = new GenericCachingAccessServiceImpl();
+        cachingAccessService.setAccessServices(Collections.singletonList(accessService));
+        return cachingAccessService;
+    }
+
+    /**
+     * Return a security service over the given access service.
+     *
+     * @param accessService
+     * @return
+     */
+    public static SecurityServiceImpl createSecurityService(AccessService accessService) {
+        SecurityServiceImpl securityService = new SecurityServiceImpl();
+        securityService.setAccessService(accessService);
+        securityService.setDomainService(new ModelDomainService());
+        return securityService;
+    }
+
+    /**
+     * Return the given number of contexts with the given id, of the types
+     * expected by the action of that many contexts.
+     *
+     * @param contexts
+     * @param id
+     * @return
+     */
+    public static Object[] createContexts(int contexts, long id) {
+        Object[] context = new Object[contexts];
+        for (int i = 0; i < contexts; i++) {
+            Class<?> contextType = CONTEXT_TYPES[i % CONTEXT_TYPES.length];
+            if (contextType == Contest.class) {
+                context[i] = new Contest(id);
+            } else if (contextType == Institution.class) {
+                context[i] = new Institution(id);
+            } else {
+                context[i] = createPerson(id);
+            }
+        }
+        return context;
+    }
+
+    public static Person createPerson(long id) {
+        Person person = new Person();
+        person.setId(id);
+        return person;
+    }
+
+    public static String action(int contexts) {
+        return "action" + contexts;
+    }
+
+    private static String role(int i) {
+        return "ROLE_" + i;
+    }
+
+    private static void appendMapping(StringBuilder xml, Long userId, Class<?> contextType, Long contextId,
+            String role) {
+        xml.append("<roleMapping");
+        if (userId != null) {
+            xml.append(" userId=\"").append(userId).append('"');
+        }
+        if (contextType != null) {
+            xml.append(" contextType=\"").append(contextType.getSimpleName()).append('"');
+        }
+        if (contextId != null) {
+            xml.append(" contextId=\"").append(contextId).append('"');
+        }
+        xml.append("><role>").append(role).append("</role></roleMapping>");
+    }
+}
@@ -0,0 +1,84 @@
+package edu.baylor.cs.holder.security.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.baylor.cs.holder.security.service.accessobjects.AccessHandle;
+import edu.baylor.cs.holder.security.service.impl.SecurityServiceImpl;
+import edu.baylor.cs.holder.security.test.model.Person;
+
+/**
+ * Measures {@link SecurityServiceImpl#hasAccess} with 0 to 5 context objects
+ * against a cached repository, both with a context array and with an
+ * {@link AccessHandle} and the fixed arity overloads where there is one.
+ *
+ * @author holder
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode( { Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HasAccessBenchmark {
+
+    @Param( { "0", "1", "2", "3", "4", "5" })
+    public int contexts;
+
+    @Param( { "10000" })
+    public int mappings;
+
+    @Param( { "false", "true" })
+    public boolean reuseEvaluationState;
+
+    private SecurityServiceImpl securityService;
+    private String action;
+    private AccessHandle handle;
+    private Person user;
+    private Object[] context;
+
+    @Setup
+    public void setup() {
+        securityService = Fixtures.createSecurityService(Fixtures.createCachingAccessService(Fixtures
+                .createRepositoryAccessService(mappings)));
+        securityService.setReuseEvaluationState(reuseEvaluationState);
+        action = Fixtures.action(contexts);
+        handle = new AccessHandle(Fixtures.CATEGORY, action);
+        user = Fixtures.createPerson(1L);
+        context = Fixtures.createContexts(contexts, 1L);
+
+        if (!hasAccess() || !hasAccessWithHandle()) {
+            throw new IllegalStateException("Access should be granted for " + contexts + " contexts");
+        }
+    }
+
+    @Benchmark
+    public boolean hasAccess() {
+        return securityService.hasAccess(Fixtures.CATEGORY, action, user, context);
+    }
+
+    @Benchmark
+    public boolean hasAccessWithHandle() {
+        switch (contexts) {
+        case 0:
+            return securityService.hasAccess(handle, user);
+        case 1:
+            return securityService.hasAccess(handle, user, context[0]);
+        case 2:
+            return securityService.hasAccess(handle, user, context[0], context[1]);
+        default:
+            return securityService.hasAccess(handle, user, context);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package edu.baylor.cs.holder.security.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.baylor.cs.holder.security.service.impl.Dom4jSecurityRepository;
+import edu.baylor.cs.holder.security.test.tools.SecurityRepositoryGenerator;
+
+/**
+ * Measures {@link Dom4jSecurityRepository#populate} over repositories of 1K
+ * to 1M role mappings, generated up front by a
+ * {@link SecurityRepositoryGenerator} so that only parsing is measured.
+ *
+ * @author holder
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode( { Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class PopulateBenchmark {
+
+    private static final int MAPPINGS_PER_USER = 4;
+
+    @Param( { "1000", "10000", "100000", "1000000" })
+    public int mappings;
+
+    private byte[] xml;
+
+    @Setup
+    public void setup() {
+        SecurityRepositoryGenerator generator = new SecurityRepositoryGenerator();
+        generator.setMaxContextLength(SecurityRepositoryGenerator.MAXCONTEXTLENGTH);
+        generator.setUserCount(mappings / MAPPINGS_PER_USER);
+        generator.setMappingsPerUser(MAPPINGS_PER_USER);
+        generator.setSharedMappingCount(0);
+        xml = generator.generateXml();
+    }
+
+    @Benchmark
+    public Dom4jSecurityRepository populate() {
+        Dom4jSecurityRepository repository = new Dom4jSecurityRepository();
+        repository.populate(new ByteArrayInputStream(xml));
+        return repository;
+    }
+}
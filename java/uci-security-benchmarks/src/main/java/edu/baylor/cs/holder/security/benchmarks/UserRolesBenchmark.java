@@ -0,0 +1,69 @@
+package edu.baylor.cs.holder.security.benchmarks;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMappingKey;
+import edu.baylor.cs.holder.security.service.impl.RepositoryAccessServiceImpl;
+import edu.baylor.cs.holder.security.test.model.Contest;
+
+/**
+ * Measures {@link RepositoryAccessServiceImpl#getUserRoles(RoleMappingKey)}
+ * for each form of lookup key, (*, *, *), (userId, *, *),
+ * (userId, contextType, *) and (userId, contextType, contextId).
+ *
+ * @author holder
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode( { Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserRolesBenchmark {
+
+    @Param( { "ALL", "USER", "USER_TYPE", "USER_TYPE_ID" })
+    public String keyForm;
+
+    @Param( { "10000", "1000000" })
+    public int mappings;
+
+    private RepositoryAccessServiceImpl accessService;
+    private RoleMappingKey key;
+
+    @Setup
+    public void setup() {
+        accessService = Fixtures.createRepositoryAccessService(mappings);
+
+        // a user in the middle of the repository
+        Long userId = Long.valueOf(mappings / Fixtures.MAPPINGS_PER_USER / 2 + 1);
+        if ("ALL".equals(keyForm)) {
+            key = new RoleMappingKey(null, null, null);
+        } else if ("USER".equals(keyForm)) {
+            key = new RoleMappingKey(userId, null, null);
+        } else if ("USER_TYPE".equals(keyForm)) {
+            key = new RoleMappingKey(userId, Contest.class, null);
+        } else if ("USER_TYPE_ID".equals(keyForm)) {
+            key = new RoleMappingKey(userId, Contest.class, userId);
+        } else {
+            throw new IllegalArgumentException("Unknown key form: " + keyForm);
+        }
+    }
+
+    @Benchmark
+    public Set<String> getUserRoles() {
+        return accessService.getUserRoles(key);
+    }
+}
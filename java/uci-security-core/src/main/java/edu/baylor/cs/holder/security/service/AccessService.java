@@ -9,6 +9,11 @@ import edu.baylor.cs.holder.security.service.accessobjects.RoleMappingKey;
  * This interface is used to retrieve access rules and roles for given users for
  * evaluating user access.
  * 
+ * Keys handed to the methods of this interface may be reused by the caller
+ * once the method returns, see
+ * {@link edu.baylor.cs.holder.security.service.impl.SecurityServiceImpl#setReuseEvaluationState(boolean)}.
+ * Implementations that retain a key, such as in a cache, should retain a copy.
+ * 
  * @author holder
  */
 public interface AccessService {
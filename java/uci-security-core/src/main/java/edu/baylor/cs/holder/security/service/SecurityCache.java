@@ -13,6 +13,10 @@ import edu.baylor.cs.holder.security.util.Pair;
  * This class provides various security related caches to improve the
  * performance of security access checks.
  * 
+ * Implement {@link VersionedSecurityCache} instead to also cache access rule
+ * lookups and to have cached lookups invalidated precisely when the content
+ * they were loaded from changes.
+ * 
  * @author holder
  * 
  */
@@ -37,7 +41,10 @@ public interface SecurityCache {
      * AccessService.getAccessRuleRoles().
      * 
      * @return
+     * @deprecated access rule lookups are keyed by {@link AccessRuleKey}, see
+     *             {@link VersionedSecurityCache#getAccessRuleKeyCache()}
      */
+    @Deprecated
     public Map<AccessRule, Set<String>> getAccessRuleCache();
 
     /**
@@ -0,0 +1,86 @@
+package edu.baylor.cs.holder.security.service;
+
+/**
+ * This interface receives measurements of the security engine as it runs,
+ * such as access decisions, cache activity and lookup latencies. Every
+ * method may be called by many threads at once for every access check, so
+ * implementations must be thread safe and should return quickly without
+ * allocating.
+ * 
+ * @author holder
+ */
+public interface SecurityMetrics {
+
+    /**
+     * Name of the cache of user role lookups.
+     */
+    public static final String USER_ROLE_CACHE = "userRole";
+
+    /**
+     * Name of the cache of veto role lookups.
+     */
+    public static final String VETO_ROLE_CACHE = "vetoRole";
+
+    /**
+     * Name of the cache of access rule lookups.
+     */
+    public static final String ACCESS_RULE_CACHE = "accessRule";
+
+    /**
+     * Record a single access check.
+     * 
+     * @param category
+     * @param action
+     * @param granted
+     *            true if access was granted
+     * @param elapsedNanos
+     *            time taken by the check
+     */
+    public void recordAccessDecision(String category, String action, boolean granted, long elapsedNanos);
+
+    /**
+     * Record a lookup that was answered by the named cache.
+     * 
+     * @param cache
+     */
+    public void recordCacheHit(String cache);
+
+    /**
+     * Record a lookup that the named cache could not answer.
+     * 
+     * @param cache
+     */
+    public void recordCacheMiss(String cache);
+
+    /**
+     * Record a cache miss that waited for the same lookup of another thread
+     * instead of making its own.
+     * 
+     * @param cache
+     */
+    public void recordCoalescedMiss(String cache);
+
+    /**
+     * Record an entry removed from the named cache to bound its size or
+     * because it expired.
+     * 
+     * @param cache
+     */
+    public void recordCacheEviction(String cache);
+
+    /**
+     * Record a lookup made against several access services at once.
+     * 
+     * @param elapsedNanos
+     *            time taken by the slowest access service
+     */
+    public void recordFanOut(long elapsedNanos);
+
+    /**
+     * Record the loading of a security repository.
+     * 
+     * @param elapsedNanos
+     *            time taken to load the repository
+     */
+    public void recordRepositoryLoad(long elapsedNanos);
+}
@@ -3,11 +3,14 @@ package edu.baylor.cs.holder.security.service;
 import java.util.Set;
 
 import edu.baylor.cs.holder.security.service.accessobjects.AccessRule;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleHierarchy;
 import edu.baylor.cs.holder.security.service.accessobjects.RoleMapping;
+import edu.baylor.cs.holder.security.service.accessobjects.VetoRule;
 
 /**
  * Implementations of this interface provide access to {@link AccessRule}'s,
- * {@link RoleMapping}'s, and available roles.
+ * including wildcard ones, {@link VetoRule}'s, {@link RoleMapping}'s,
+ * available roles and the {@link RoleHierarchy} among them.
  * 
  * @author rholder
  */
@@ -20,6 +23,23 @@ public interface SecurityRepository {
      */
     public Set<AccessRule> getAccessRules();
 
+    /**
+     * Return a {@link Set} of wildcard {@link AccessRule}'s, whose actions are
+     * regular expressions matching the names of actions, or null if there are
+     * none. An access rule with the exact key of a lookup takes precedence over
+     * any wildcard rule.
+     * 
+     * @return
+     */
+    public Set<AccessRule> getWildcardAccessRules();
+
+    /**
+     * Return a {@link Set} of {@link VetoRule}'s, or null if there are none.
+     * 
+     * @return
+     */
+    public Set<VetoRule> getVetoRules();
+
     /**
      * Return a {@link Set} of {@link RoleMapping}'s.
      * 
@@ -40,4 +60,12 @@ public interface SecurityRepository {
      * @return
      */
     public Set<String> getContextPackages();
+
+    /**
+     * Return the {@link RoleHierarchy} of the available roles, or null if no
+     * role implies another.
+     * 
+     * @return
+     */
+    public RoleHierarchy getRoleHierarchy();
 }
@@ -1,7 +1,11 @@
 package edu.baylor.cs.holder.security.service;
 
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 
+import edu.baylor.cs.holder.security.service.accessobjects.AccessHandle;
 import edu.baylor.cs.holder.security.service.accessobjects.User;
 
 /**
@@ -41,6 +45,156 @@ public interface SecurityService {
      */
     public boolean hasAccess(String category, String action, User person, Object... context);
 
+    /**
+     * Same as {@link #hasAccess(String, String, User, Object...)} with no
+     * context, without building a context array.
+     *
+     * @param category
+     *            name of the category
+     * @param action
+     *            action in the given category
+     * @param user
+     *            user being checked for access
+     * @return true if access if allowed; false otherwise
+     */
+    public boolean hasAccess(String category, String action, User user);
+
+    /**
+     * Same as {@link #hasAccess(String, String, User, Object...)} with a
+     * single context object, without building a context array.
+     *
+     * @param category
+     *            name of the category
+     * @param action
+     *            action in the given category
+     * @param user
+     *            user being checked for access
+     * @param context
+     *            object being checked for access with respect to the user
+     * @return true if access if allowed; false otherwise
+     */
+    public boolean hasAccess(String category, String action, User user, Object context);
+
+    /**
+     * Same as {@link #hasAccess(String, String, User, Object...)} with two
+     * context objects, without building a context array.
+     *
+     * @param category
+     *            name of the category
+     * @param action
+     *            action in the given category
+     * @param user
+     *            user being checked for access
+     * @param context1
+     *            first object being checked for access with respect to the
+     *            user
+     * @param context2
+     *            second object being checked for access with respect to the
+     *            user
+     * @return true if access if allowed; false otherwise
+     */
+    public boolean hasAccess(String category, String action, User user, Object context1, Object context2);
+
+    /**
+     * Same as {@link #hasAccess(String, String, User, Object...)} for the
+     * category and action of the given {@link AccessHandle}, which keeps the
+     * access rule keys it was checked with so that they aren't built again.
+     *
+     * @param handle
+     *            category and action being checked
+     * @param user
+     *            user being checked for access
+     * @param context
+     *            objects being checked for access with respect to the user
+     * @return true if access if allowed; false otherwise
+     */
+    public boolean hasAccess(AccessHandle handle, User user, Object... context);
+
+    /**
+     * Same as {@link #hasAccess(AccessHandle, User, Object...)} with no
+     * context, without building a context array.
+     *
+     * @param handle
+     *            category and action being checked
+     * @param user
+     *            user being checked for access
+     * @return true if access if allowed; false otherwise
+     */
+    public boolean hasAccess(AccessHandle handle, User user);
+
+    /**
+     * Same as {@link #hasAccess(AccessHandle, User, Object...)} with a single
+     * context object, without building a context array.
+     *
+     * @param handle
+     *            category and action being checked
+     * @param user
+     *            user being checked for access
+     * @param context
+     *            object being checked for access with respect to the user
+     * @return true if access if allowed; false otherwise
+     */
+    public boolean hasAccess(AccessHandle handle, User user, Object context);
+
+    /**
+     * Same as {@link #hasAccess(AccessHandle, User, Object...)} with two
+     * context objects, without building a context array.
+     *
+     * @param handle
+     *            category and action being checked
+     * @param user
+     *            user being checked for access
+     * @param context1
+     *            first object being checked for access with respect to the
+     *            user
+     * @param context2
+     *            second object being checked for access with respect to the
+     *            user
+     * @return true if access if allowed; false otherwise
+     */
+    public boolean hasAccess(AccessHandle handle, User user, Object context1, Object context2);
+
+    /**
+     * Return the elements of the given collection that the given user can
+     * access with the given category and action, in iteration order. Each
+     * element is evaluated as the single object of the context, so the result
+     * is the same as calling
+     * {@link #hasAccess(String, String, User, Object...)} once per element,
+     * but the access rule and available roles are only resolved once for each
+     * type of element.
+     * 
+     * @param <T>
+     *            type of the elements
+     * @param category
+     *            name of the category
+     * @param action
+     *            action in the given category
+     * @param user
+     *            user being checked for access
+     * @param contexts
+     *            objects to check for access, one at a time
+     * @return the accessible elements
+     */
+    public <T> List<T> filterAccessible(String category, String action, User user, Collection<T> contexts);
+
+    /**
+     * Return a {@link BitSet} with the bit at each position of the given
+     * collection's iteration order set when the user can access the element
+     * at that position, as evaluated by
+     * {@link #filterAccessible(String, String, User, Collection)}.
+     * 
+     * @param category
+     *            name of the category
+     * @param action
+     *            action in the given category
+     * @param user
+     *            user being checked for access
+     * @param contexts
+     *            objects to check for access, one at a time
+     * @return positions of the accessible elements
+     */
+    public BitSet getAccessiblePositions(String category, String action, User user, Collection<?> contexts);
+
     /**
      * Returns true if the given user has the given role in any context.
      * 
@@ -0,0 +1,20 @@
+package edu.baylor.cs.holder.security.service;
+
+/**
+ * An {@link AccessService} whose content may be replaced while it is in use.
+ * Callers that make several lookups for a single access check should make
+ * them against the {@link AccessService} returned by {@link #getSnapshot()}
+ * so that every lookup sees the same content.
+ * 
+ * @author holder
+ */
+public interface SnapshotAccessService extends AccessService {
+
+    /**
+     * Return an {@link AccessService} holding the current content of this
+     * service, which is not affected by any later updates.
+     * 
+     * @return
+     */
+    public AccessService getSnapshot();
+}
@@ -0,0 +1,34 @@
+package edu.baylor.cs.holder.security.service;
+
+import java.util.Map;
+import java.util.Set;
+
+import edu.baylor.cs.holder.security.service.accessobjects.AccessRuleKey;
+import edu.baylor.cs.holder.security.util.CacheGeneration;
+
+/**
+ * A {@link SecurityCache} that also caches access rule lookups, and whose
+ * content is changed under a {@link CacheGeneration} so that lookups can tell
+ * whether the entries they read belong to the content they expect.
+ * 
+ * @author holder
+ */
+public interface VersionedSecurityCache extends SecurityCache {
+
+    /**
+     * Return the access rule role cache, useful for
+     * AccessService.getAccessRuleRoles(). Rules that don't exist are cached
+     * too, with an empty set of roles.
+     * 
+     * @return
+     */
+    public Map<AccessRuleKey, Set<String>> getAccessRuleKeyCache();
+
+    /**
+     * Return the {@link CacheGeneration} that the content cached here is
+     * changed under.
+     * 
+     * @return
+     */
+    public CacheGeneration getCacheGeneration();
+}
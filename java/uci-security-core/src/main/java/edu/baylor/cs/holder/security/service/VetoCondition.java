@@ -0,0 +1,34 @@
+package edu.baylor.cs.holder.security.service;
+
+import edu.baylor.cs.holder.security.service.accessobjects.AccessRuleKey;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMappingKey;
+import edu.baylor.cs.holder.security.service.accessobjects.VetoRule;
+
+/**
+ * Implementations of this interface decide whether the roles of a
+ * {@link VetoRule} naming them are vetoed for a particular lookup, such as
+ * checking whether the Entry identified by the context id has been certified
+ * for the World Finals.
+ *
+ * Vetoed roles are cached by key in the veto role cache of the
+ * {@link SecurityCache}, so the outcome should only depend on the given keys.
+ * When the underlying state changes, such as when an Entry is certified, the
+ * veto role cache should be cleared.
+ *
+ * @author holder
+ */
+public interface VetoCondition {
+
+    /**
+     * Return true if the roles of the veto rule should be removed for the
+     * given lookup. Implementations must be safe for use by concurrent
+     * threads.
+     *
+     * @param accessRuleKey
+     *            key of the access rule being evaluated
+     * @param roleMappingKey
+     *            user and context the roles are looked up for
+     * @return true if the roles should be vetoed
+     */
+    public boolean holds(AccessRuleKey accessRuleKey, RoleMappingKey roleMappingKey);
+}
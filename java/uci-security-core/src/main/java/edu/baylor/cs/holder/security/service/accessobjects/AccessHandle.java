@@ -0,0 +1,133 @@
+package edu.baylor.cs.holder.security.service.accessobjects;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Identifies a category and action that are checked over and over, usually
+ * by a single call site holding the handle in a static field, so that the
+ * {@link AccessRuleKey} for each type of context only has to be built once.
+ * Checking access with a handle then takes a lookup by the class of each
+ * context object rather than hashing the category, action and context types
+ * of a new key.
+ *
+ * Keys are kept for checks with no context, one context or two contexts,
+ * which are only ever as many as the types of context objects the handle is
+ * checked with. Checks with more or null context objects have their key
+ * interned instead.
+ *
+ * Instances of this class are thread safe.
+ *
+ * @author holder
+ */
+public final class AccessHandle {
+
+    // Name of the category checked with this handle
+    private final String category;
+
+    // Name of the action checked with this handle
+    private final String action;
+
+    // key of the access rule with no context
+    private final ImmutableAccessRuleKey noContextKey;
+
+    // keys of the access rules with a single context, by its type
+    private final ConcurrentMap<Class<?>, ImmutableAccessRuleKey> singleContextKeys =
+            new ConcurrentHashMap<Class<?>, ImmutableAccessRuleKey>(4);
+
+    // keys of the access rules with two contexts, by the type of the first
+    // and then the type of the second
+    private final ConcurrentMap<Class<?>, ConcurrentMap<Class<?>, ImmutableAccessRuleKey>> pairContextKeys =
+            new ConcurrentHashMap<Class<?>, ConcurrentMap<Class<?>, ImmutableAccessRuleKey>>(4);
+
+    /**
+     * Create a handle for the given category and action.
+     *
+     * @param category
+     *            name of the category
+     * @param action
+     *            action in the given category
+     */
+    public AccessHandle(String category, String action) {
+        if (category == null || action == null) {
+            throw new IllegalArgumentException("An access handle requires a category and an action");
+        }
+        this.category = category;
+        this.action = action;
+        this.noContextKey = new ImmutableAccessRuleKey(category, action, Collections.<Class<?>> emptyList());
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    /**
+     * Return the key of the access rule of this handle's category and action
+     * for the given context types, or null when the key isn't kept by this
+     * handle because there are more than two types or one of them is null.
+     *
+     * @param contextTypes
+     *            types of the context objects
+     * @return
+     */
+    public ImmutableAccessRuleKey getAccessRuleKey(List<Class<?>> contextTypes) {
+        switch (contextTypes.size()) {
+        case 0:
+            return noContextKey;
+        case 1: {
+            Class<?> contextType = contextTypes.get(0);
+            if (contextType == null) {
+                return null;
+            }
+            return getAccessRuleKey(singleContextKeys, contextType, contextTypes);
+        }
+        case 2: {
+            Class<?> firstType = contextTypes.get(0);
+            Class<?> secondType = contextTypes.get(1);
+            if (firstType == null || secondType == null) {
+                return null;
+            }
+            ConcurrentMap<Class<?>, ImmutableAccessRuleKey> keys = pairContextKeys.get(firstType);
+            if (keys == null) {
+                keys = new ConcurrentHashMap<Class<?>, ImmutableAccessRuleKey>(4);
+                ConcurrentMap<Class<?>, ImmutableAccessRuleKey> existing = pairContextKeys.putIfAbsent(firstType,
+                        keys);
+                if (existing != null) {
+                    keys = existing;
+                }
+            }
+            return getAccessRuleKey(keys, secondType, contextTypes);
+        }
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Return the key held by the given table for the given type, creating it
+     * for the given context types when there is none yet.
+     */
+    private ImmutableAccessRuleKey getAccessRuleKey(ConcurrentMap<Class<?>, ImmutableAccessRuleKey> keys,
+            Class<?> contextType, List<Class<?>> contextTypes) {
+        ImmutableAccessRuleKey key = keys.get(contextType);
+        if (key == null) {
+            key = new ImmutableAccessRuleKey(category, action, contextTypes);
+            ImmutableAccessRuleKey existing = keys.putIfAbsent(contextType, key);
+            if (existing != null) {
+                key = existing;
+            }
+        }
+        return key;
+    }
+
+    @Override
+    public String toString() {
+        return category + ", " + action;
+    }
+}
@@ -3,6 +3,7 @@ package edu.baylor.cs.holder.security.service.accessobjects;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.RandomAccess;
 
 /**
  * Defines the key for a set of roles any of which, if held by the user, allow
@@ -39,6 +40,18 @@ public class AccessRuleKey implements Serializable {
         this.contexts = contexts;
     }
 
+    /**
+     * Create a copy of the given key with its own list of contexts, useful when
+     * a key needs to be retained beyond the call it was handed to.
+     * 
+     * @param key
+     *            key to copy
+     */
+    public AccessRuleKey(AccessRuleKey key) {
+        this(key.getCategory(), key.getAction(), key.getContexts() == null ? null : new ArrayList<Class<?>>(
+                key.getContexts()));
+    }
+
     public String getCategory() {
         return category;
     }
@@ -94,6 +107,18 @@ public class AccessRuleKey implements Serializable {
         }
         return false;
     }
+
+    /**
+     * Matches like {@link #matches(AccessRuleKey)}, except that the action of
+     * "this" key is a regular expression the action of the "otherKey" must
+     * match. The expression is compiled on every call, so snapshots of a
+     * repository index their wildcard rules with precompiled patterns
+     * instead.
+     *
+     * @param otherKey
+     *            other key to match
+     * @return true if this key "matches" the other given key
+     */
     public boolean wildMatches(AccessRuleKey otherKey) {
     	// null is a wildcard
     	
@@ -122,7 +147,7 @@ public class AccessRuleKey implements Serializable {
         result = prime * result
                 + ((getAction() == null) ? 0 : getAction().hashCode());
         result = prime * result
-                + ((getContexts() == null) ? 0 : getContexts().hashCode());
+                + ((getContexts() == null) ? 0 : contextsHashCode(getContexts()));
         result = prime
                 * result
                 + ((getCategory() == null) ? 0 : getCategory()
@@ -147,7 +172,7 @@ public class AccessRuleKey implements Serializable {
         if (getContexts() == null) {
             if (other.getContexts() != null)
                 return false;
-        } else if (!getContexts().equals(other.getContexts()))
+        } else if (!contextsEqual(getContexts(), other.getContexts()))
             return false;
         if (getCategory() == null) {
             if (other.getCategory() != null)
@@ -157,6 +182,39 @@ public class AccessRuleKey implements Serializable {
         return true;
     }
     
+    /**
+     * Return the same hash code as {@link List#hashCode()}, computed by index
+     * when possible since iterating the list would allocate an iterator.
+     */
+    private static int contextsHashCode(List<Class<?>> contexts) {
+        if (!(contexts instanceof RandomAccess))
+            return contexts.hashCode();
+        int hash = 1;
+        for (int i = 0; i < contexts.size(); i++) {
+            Class<?> context = contexts.get(i);
+            hash = 31 * hash + (context == null ? 0 : context.hashCode());
+        }
+        return hash;
+    }
+    
+    /**
+     * Compare the given contexts by index when possible, since comparing
+     * different types of lists would allocate iterators.
+     */
+    private static boolean contextsEqual(List<Class<?>> contexts, List<Class<?>> otherContexts) {
+        if (contexts == otherContexts)
+            return true;
+        if (otherContexts == null || contexts.size() != otherContexts.size())
+            return false;
+        if (!(contexts instanceof RandomAccess) || !(otherContexts instanceof RandomAccess))
+            return contexts.equals(otherContexts);
+        for (int i = 0; i < contexts.size(); i++) {
+            if (contexts.get(i) != otherContexts.get(i))
+                return false;
+        }
+        return true;
+    }
+
     @Override
     public String toString() {
         String id = category + ", " + action;
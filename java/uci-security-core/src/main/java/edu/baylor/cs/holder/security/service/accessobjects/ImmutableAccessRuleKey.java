@@ -0,0 +1,80 @@
+package edu.baylor.cs.holder.security.service.accessobjects;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An {@link AccessRuleKey} that can't be changed once created, which makes it
+ * safe to keep as the key of a shared cache. Its hash code is computed once
+ * rather than walking the contexts on every map probe.
+ *
+ * Keys obtained from the same {@link KeyInterner} are usually the same
+ * instance when equal, so that comparing them takes a reference comparison.
+ * An immutable key is still equal to a mutable {@link AccessRuleKey} with the
+ * same properties, and has the same hash code.
+ *
+ * @author holder
+ */
+public final class ImmutableAccessRuleKey extends AccessRuleKey {
+
+    /**
+     * UID
+     */
+    private static final long serialVersionUID = 4316680924719521064L;
+
+    // hash code of the properties, computed once
+    private final int hash;
+
+    ImmutableAccessRuleKey(String category, String action, List<Class<?>> contexts) {
+        super(category, action, contexts == null ? null : Collections.unmodifiableList(new ArrayList<Class<?>>(
+                contexts)));
+        this.hash = super.hashCode();
+    }
+
+    /**
+     * Return an immutable copy of the given key, or the key itself if it is
+     * already immutable. The copy is not interned, see {@link KeyInterner}.
+     *
+     * @param key
+     *            key to copy
+     * @return
+     */
+    public static ImmutableAccessRuleKey copyOf(AccessRuleKey key) {
+        if (key instanceof ImmutableAccessRuleKey) {
+            return (ImmutableAccessRuleKey) key;
+        }
+        return new ImmutableAccessRuleKey(key.getCategory(), key.getAction(), key.getContexts());
+    }
+
+    @Override
+    public void setCategory(String category) {
+        throw new UnsupportedOperationException("Immutable key may not be changed");
+    }
+
+    @Override
+    public void setAction(String action) {
+        throw new UnsupportedOperationException("Immutable key may not be changed");
+    }
+
+    @Override
+    public void setContexts(List<Class<?>> contexts) {
+        throw new UnsupportedOperationException("Immutable key may not be changed");
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+
+        // interned keys are rarely equal without being the same instance
+        if (obj instanceof ImmutableAccessRuleKey && ((ImmutableAccessRuleKey) obj).hash != hash)
+            return false;
+        return super.equals(obj);
+    }
+}
@@ -0,0 +1,92 @@
+package edu.baylor.cs.holder.security.service.accessobjects;
+
+/**
+ * A {@link RoleMappingKey} that can't be changed once created, which makes it
+ * safe to keep as the key of a shared cache. Its hash code is computed once,
+ * and its ids are also held as primitive longs so that comparing two
+ * immutable keys doesn't go through the boxed ids.
+ *
+ * Keys obtained from the same {@link KeyInterner} are usually the same
+ * instance when equal. An immutable key is still equal to a mutable
+ * {@link RoleMappingKey} with the same properties, and has the same hash
+ * code.
+ *
+ * @author holder
+ */
+public final class ImmutableRoleMappingKey extends RoleMappingKey {
+
+    /**
+     * UID
+     */
+    private static final long serialVersionUID = -7151904822370385946L;
+
+    // set when the user id is a wildcard
+    private static final int USER_WILDCARD = 1;
+
+    // set when the context id is a wildcard
+    private static final int CONTEXT_WILDCARD = 2;
+
+    // ids as primitives, 0 when the matching wildcard flag is set
+    private final long userIdValue;
+    private final long contextIdValue;
+    private final int wildcards;
+
+    // hash code of the properties, computed once
+    private final int hash;
+
+    ImmutableRoleMappingKey(Long userId, Class<?> contextType, Long contextId) {
+        super(userId, contextType, contextId);
+        this.userIdValue = userId == null ? 0 : userId.longValue();
+        this.contextIdValue = contextId == null ? 0 : contextId.longValue();
+        this.wildcards = (userId == null ? USER_WILDCARD : 0) | (contextId == null ? CONTEXT_WILDCARD : 0);
+        this.hash = super.hashCode();
+    }
+
+    /**
+     * Return an immutable copy of the given key, or the key itself if it is
+     * already immutable. The copy is not interned, see {@link KeyInterner}.
+     *
+     * @param key
+     *            key to copy
+     * @return
+     */
+    public static ImmutableRoleMappingKey copyOf(RoleMappingKey key) {
+        if (key instanceof ImmutableRoleMappingKey) {
+            return (ImmutableRoleMappingKey) key;
+        }
+        return new ImmutableRoleMappingKey(key.getUserId(), key.getContextType(), key.getContextId());
+    }
+
+    @Override
+    public void setUserId(Long userId) {
+        throw new UnsupportedOperationException("Immutable key may not be changed");
+    }
+
+    @Override
+    public void setContextType(Class<?> contextType) {
+        throw new UnsupportedOperationException("Immutable key may not be changed");
+    }
+
+    @Override
+    public void setContextId(Long contextId) {
+        throw new UnsupportedOperationException("Immutable key may not be changed");
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+
+        if (obj instanceof ImmutableRoleMappingKey) {
+            final ImmutableRoleMappingKey other = (ImmutableRoleMappingKey) obj;
+            return hash == other.hash && userIdValue == other.userIdValue && contextIdValue == other.contextIdValue
+                    && wildcards == other.wildcards && getContextType() == other.getContextType();
+        }
+        return super.equals(obj);
+    }
+}
@@ -0,0 +1,121 @@
+package edu.baylor.cs.holder.security.service.accessobjects;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import edu.baylor.cs.holder.security.util.BoundedCacheMap;
+
+/**
+ * This class creates {@link ImmutableAccessRuleKey}'s and
+ * {@link ImmutableRoleMappingKey}'s, handing out the same instance for equal
+ * keys so that they can be compared by reference, their hash codes are only
+ * computed once and keys looked up over and over aren't copied each time.
+ *
+ * The interned keys are held by a {@link BoundedCacheMap} of each kind so that
+ * interning an unbounded number of distinct keys, such as one per context id,
+ * can't exhaust memory. A key that was evicted, or raced with another thread
+ * interning an equal key, is interned again as a new instance, which is still
+ * equal to the earlier one.
+ *
+ * Instances of this class are thread safe.
+ *
+ * @author holder
+ */
+public class KeyInterner {
+
+    /**
+     * Default maximum number of interned keys of each kind.
+     */
+    public static final long DEFAULT_MAXIMUM_SIZE = 10000;
+
+    private final BoundedCacheMap<AccessRuleKey, ImmutableAccessRuleKey> accessRuleKeys;
+    private final BoundedCacheMap<RoleMappingKey, ImmutableRoleMappingKey> roleMappingKeys;
+
+    /**
+     * Create an interner holding the default maximum number of keys.
+     */
+    public KeyInterner() {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * Create an interner holding at most the given number of keys of each
+     * kind.
+     *
+     * @param maximumSize
+     *            maximum number of interned keys of each kind
+     */
+    public KeyInterner(long maximumSize) {
+        accessRuleKeys = new BoundedCacheMap<AccessRuleKey, ImmutableAccessRuleKey>(maximumSize, 0,
+                TimeUnit.MILLISECONDS);
+        roleMappingKeys = new BoundedCacheMap<RoleMappingKey, ImmutableRoleMappingKey>(maximumSize, 0,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Return the interned key equal to the given key, which is the key itself
+     * if it is already immutable. The given key may be reused by the caller
+     * afterwards.
+     *
+     * @param key
+     *            key to intern
+     * @return
+     */
+    public ImmutableAccessRuleKey intern(AccessRuleKey key) {
+        if (key instanceof ImmutableAccessRuleKey) {
+            return (ImmutableAccessRuleKey) key;
+        }
+        ImmutableAccessRuleKey interned = accessRuleKeys.get(key);
+        if (interned == null) {
+            interned = ImmutableAccessRuleKey.copyOf(key);
+            accessRuleKeys.put(interned, interned);
+        }
+        return interned;
+    }
+
+    /**
+     * Return the interned key equal to the given key, which is the key itself
+     * if it is already immutable. The given key may be reused by the caller
+     * afterwards.
+     *
+     * @param key
+     *            key to intern
+     * @return
+     */
+    public ImmutableRoleMappingKey intern(RoleMappingKey key) {
+        if (key instanceof ImmutableRoleMappingKey) {
+            return (ImmutableRoleMappingKey) key;
+        }
+        ImmutableRoleMappingKey interned = roleMappingKeys.get(key);
+        if (interned == null) {
+            interned = ImmutableRoleMappingKey.copyOf(key);
+            roleMappingKeys.put(interned, interned);
+        }
+        return interned;
+    }
+
+    /**
+     * Return the interned key with the given properties.
+     *
+     * @param category
+     * @param action
+     * @param contexts
+     * @return
+     */
+    public ImmutableAccessRuleKey getAccessRuleKey(String category, String action, List<Class<?>> contexts) {
+        return intern(new AccessRuleKey(category, action, contexts));
+    }
+
+    /**
+     * Return the interned key with the given properties, null ids being
+     * wildcards.
+     *
+     * @param userId
+     * @param contextType
+     * @param contextId
+     * @return
+     */
+    public ImmutableRoleMappingKey getRoleMappingKey(Long userId, Class<?> contextType, Long contextId) {
+        return intern(new RoleMappingKey(userId, contextType, contextId));
+    }
+}
@@ -0,0 +1,183 @@
+package edu.baylor.cs.holder.security.service.accessobjects;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Assigns each role of a closed set of roles a dense integer id so that sets
+ * of roles can be encoded as bitmasks, see {@link RoleSet}. Ids are assigned
+ * in the natural order of the role names, so the same roles always produce the
+ * same dictionary. Instances of this class are immutable.
+ *
+ * @author holder
+ */
+public class RoleDictionary implements Serializable {
+
+    /**
+     * UID
+     */
+    private static final long serialVersionUID = -3528851342046213364L;
+
+    // role name for each id
+    private final String[] roles;
+
+    // id for each role name
+    private final Map<String, Integer> ids;
+
+    // number of 64 bit words needed to hold a bit for each role
+    private final int wordCount;
+
+    // shared instances, all roles and no roles
+    private final RoleSet allRoles;
+    private final RoleSet emptyRoles;
+
+    /**
+     * Create a new dictionary for the given roles, duplicates are ignored.
+     *
+     * @param roles
+     *            the closed set of roles to assign ids to
+     */
+    public RoleDictionary(Collection<String> roles) {
+        TreeSet<String> sortedRoles = new TreeSet<String>(roles);
+        this.roles = sortedRoles.toArray(new String[sortedRoles.size()]);
+        this.ids = new HashMap<String, Integer>();
+        for (int i = 0; i < this.roles.length; i++) {
+            ids.put(this.roles[i], i);
+        }
+        this.wordCount = (this.roles.length + 63) >>> 6;
+
+        long[] all = new long[wordCount];
+        for (int i = 0; i < this.roles.length; i++) {
+            all[i >>> 6] |= 1L << i;
+        }
+        this.allRoles = new RoleSet(this, all);
+        this.emptyRoles = new RoleSet(this, new long[wordCount]);
+    }
+
+    /**
+     * Return the id of the given role or -1 if the role is unknown to this
+     * dictionary.
+     *
+     * @param role
+     * @return
+     */
+    public int getId(String role) {
+        Integer id = ids.get(role);
+        return id == null ? -1 : id.intValue();
+    }
+
+    /**
+     * Return the role with the given id.
+     *
+     * @param id
+     * @return
+     */
+    public String getRole(int id) {
+        return roles[id];
+    }
+
+    /**
+     * Return true if the given role has an id in this dictionary.
+     *
+     * @param role
+     * @return
+     */
+    public boolean contains(String role) {
+        return ids.containsKey(role);
+    }
+
+    /**
+     * Return the number of roles in this dictionary.
+     *
+     * @return
+     */
+    public int size() {
+        return roles.length;
+    }
+
+    /**
+     * Return the number of 64 bit words in the bitmask of every
+     * {@link RoleSet} encoded by this dictionary.
+     *
+     * @return
+     */
+    public int getWordCount() {
+        return wordCount;
+    }
+
+    /**
+     * Return a {@link RoleSet} containing every role in this dictionary.
+     *
+     * @return
+     */
+    public RoleSet getAllRoles() {
+        return allRoles;
+    }
+
+    /**
+     * Return an empty {@link RoleSet} for this dictionary.
+     *
+     * @return
+     */
+    public RoleSet getEmptyRoles() {
+        return emptyRoles;
+    }
+
+    /**
+     * Encode the given roles as a {@link RoleSet}, throwing an
+     * {@link IllegalArgumentException} if any role is unknown to this
+     * dictionary.
+     *
+     * @param roles
+     *            roles to encode
+     * @return an immutable {@link RoleSet} containing the given roles
+     * @throws IllegalArgumentException
+     *             thrown when a role is not in this dictionary
+     */
+    public RoleSet encode(Collection<String> roles) throws IllegalArgumentException {
+        if (roles instanceof RoleSet && ((RoleSet) roles).getDictionary() == this) {
+            return (RoleSet) roles;
+        }
+        if (roles.isEmpty()) {
+            return emptyRoles;
+        }
+
+        long[] words = new long[wordCount];
+        for (String role : roles) {
+            int id = getId(role);
+            if (id < 0) {
+                throw new IllegalArgumentException("An invalid role has been detected: " + role);
+            }
+            words[id >>> 6] |= 1L << id;
+        }
+        return new RoleSet(this, words);
+    }
+
+    /**
+     * Return a {@link RoleSet} for the given bitmask words, as returned by
+     * {@link RoleSet#getWord(int)}. The words are not copied and must not be
+     * modified after being handed off.
+     *
+     * @param words
+     *            bitmask of role ids
+     * @return an immutable {@link RoleSet} containing the roles of the given
+     *         ids
+     * @throws IllegalArgumentException
+     *             thrown when the words hold an id that is not in this
+     *             dictionary
+     */
+    public RoleSet decode(long[] words) throws IllegalArgumentException {
+        if (words.length != wordCount) {
+            throw new IllegalArgumentException("Expected " + wordCount + " words but found " + words.length);
+        }
+        for (int i = 0; i < wordCount; i++) {
+            if ((words[i] & ~allRoles.getWord(i)) != 0) {
+                throw new IllegalArgumentException("An invalid role id has been detected in word " + i);
+            }
+        }
+        return new RoleSet(this, words);
+    }
+}
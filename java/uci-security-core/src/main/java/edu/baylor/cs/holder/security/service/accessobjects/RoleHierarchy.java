@@ -0,0 +1,158 @@
+package edu.baylor.cs.holder.security.service.accessobjects;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Holds which roles imply which other roles, such as ROLE_ADMIN implying
+ * ROLE_CONTEST_MANAGER, so that a user holding a role also holds every role it
+ * implies directly or through other roles. The transitive closure is computed
+ * once when the hierarchy is created, and cycles are rejected at that point.
+ * Instances of this class are immutable.
+ *
+ * @author holder
+ */
+public class RoleHierarchy implements Serializable {
+
+    /**
+     * UID
+     */
+    private static final long serialVersionUID = 4721384017623558214L;
+
+    /**
+     * A hierarchy in which no role implies another.
+     */
+    public static final RoleHierarchy EMPTY = new RoleHierarchy(Collections.<String, Set<String>> emptyMap());
+
+    // roles each role implies directly, as declared
+    private final Map<String, Set<String>> implications;
+
+    // roles each role implies directly or indirectly, not including itself
+    private final Map<String, Set<String>> impliedRoles;
+
+    /**
+     * Create a new hierarchy from the roles each role implies directly.
+     *
+     * @param implications
+     *            roles implied directly by each role
+     * @throws IllegalArgumentException
+     *             thrown when a role implies itself directly or indirectly
+     */
+    public RoleHierarchy(Map<String, ? extends Collection<String>> implications) throws IllegalArgumentException {
+        Map<String, Set<String>> declared = new TreeMap<String, Set<String>>();
+        for (Map.Entry<String, ? extends Collection<String>> implication : implications.entrySet()) {
+            if (!implication.getValue().isEmpty()) {
+                declared.put(implication.getKey(), Collections.unmodifiableSet(new TreeSet<String>(implication
+                        .getValue())));
+            }
+        }
+        this.implications = Collections.unmodifiableMap(declared);
+
+        Map<String, Set<String>> closure = new HashMap<String, Set<String>>();
+        for (String role : declared.keySet()) {
+            close(role, closure, new ArrayList<String>());
+        }
+        this.impliedRoles = closure;
+    }
+
+    /**
+     * Return the roles implied by the given role directly or indirectly, not
+     * including the role itself.
+     *
+     * @param role
+     * @return
+     */
+    public Set<String> getImpliedRoles(String role) {
+        Set<String> implied = impliedRoles.get(role);
+        return implied == null ? Collections.<String> emptySet() : implied;
+    }
+
+    /**
+     * Return the roles each role implies directly, as declared.
+     *
+     * @return
+     */
+    public Map<String, Set<String>> getImplications() {
+        return implications;
+    }
+
+    /**
+     * Return the given roles along with every role they imply.
+     *
+     * @param roles
+     * @return
+     */
+    public Set<String> expand(Collection<String> roles) {
+        Set<String> expanded = new HashSet<String>(roles);
+        for (String role : roles) {
+            expanded.addAll(getImpliedRoles(role));
+        }
+        return expanded;
+    }
+
+    /**
+     * Return true if no role implies another.
+     *
+     * @return
+     */
+    public boolean isEmpty() {
+        return implications.isEmpty();
+    }
+
+    /**
+     * Compute the roles implied by the given role, depth first, along with
+     * those of every role it implies.
+     *
+     * @param role
+     *            role to compute the closure of
+     * @param closure
+     *            roles already computed
+     * @param path
+     *            roles being computed, each implying the next
+     * @throws IllegalArgumentException
+     *             thrown when the role is already on the path
+     */
+    private Set<String> close(String role, Map<String, Set<String>> closure, List<String> path)
+            throws IllegalArgumentException {
+        Set<String> implied = closure.get(role);
+        if (implied != null) {
+            return implied;
+        }
+
+        int start = path.indexOf(role);
+        if (start >= 0) {
+            StringBuilder cycle = new StringBuilder();
+            for (String step : path.subList(start, path.size())) {
+                cycle.append(step).append(" -> ");
+            }
+            throw new IllegalArgumentException("A cycle has been detected in the role hierarchy: "
+                    + cycle.append(role));
+        }
+
+        Set<String> direct = implications.get(role);
+        if (direct == null) {
+            return Collections.emptySet();
+        }
+        path.add(role);
+        implied = new LinkedHashSet<String>();
+        for (String impliedRole : direct) {
+            implied.add(impliedRole);
+            implied.addAll(close(impliedRole, closure, path));
+        }
+        path.remove(path.size() - 1);
+
+        implied = Collections.unmodifiableSet(implied);
+        closure.put(role, implied);
+        return implied;
+    }
+}
@@ -34,6 +34,17 @@ public class RoleMappingKey implements Serializable {
         this.contextId = contextId;
     }
 
+    /**
+     * Create a copy of the given key, useful when a key needs to be retained
+     * beyond the call it was handed to.
+     * 
+     * @param key
+     *            key to copy
+     */
+    public RoleMappingKey(RoleMappingKey key) {
+        this(key.getUserId(), key.getContextType(), key.getContextId());
+    }
+
     public Class<?> getContextType() {
         return contextType;
     }
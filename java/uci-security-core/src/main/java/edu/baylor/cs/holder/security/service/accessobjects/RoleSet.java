@@ -0,0 +1,225 @@
+package edu.baylor.cs.holder.security.service.accessobjects;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable {@link Set} of roles encoded as a bitmask of the role ids
+ * assigned by a {@link RoleDictionary}. It can be used anywhere a
+ * {@link Set} of role names is expected, but when every set involved in an
+ * access check shares the same dictionary the set algebra can be done a
+ * word at a time with {@link #getWord(int)} instead.
+ *
+ * @author holder
+ */
+public class RoleSet extends AbstractSet<String> implements Serializable {
+
+    /**
+     * UID
+     */
+    private static final long serialVersionUID = 5920391185471021838L;
+
+    // dictionary used to encode the roles in this set
+    private final RoleDictionary dictionary;
+
+    // bit i of word (i / 64) is set when role id i is in this set
+    private final long[] words;
+
+    // number of roles in this set
+    private final int size;
+
+    // cached Set.hashCode(), 0 until computed
+    private int hash;
+
+    /**
+     * Create a new set from the given words which must not be modified after
+     * being handed off.
+     *
+     * @param dictionary
+     * @param words
+     */
+    RoleSet(RoleDictionary dictionary, long[] words) {
+        this.dictionary = dictionary;
+        this.words = words;
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        this.size = count;
+    }
+
+    /**
+     * Return the union of the two given sets which must share a dictionary.
+     * When one set already contains the other, that set is returned as is.
+     *
+     * @param a
+     * @param b
+     * @return
+     */
+    public static RoleSet union(RoleSet a, RoleSet b) {
+        if (a.dictionary != b.dictionary) {
+            throw new IllegalArgumentException("Role sets do not share a dictionary");
+        }
+
+        long[] words = new long[a.words.length];
+        boolean aContainsB = true;
+        boolean bContainsA = true;
+        for (int i = 0; i < words.length; i++) {
+            words[i] = a.words[i] | b.words[i];
+            aContainsB &= words[i] == a.words[i];
+            bContainsA &= words[i] == b.words[i];
+        }
+        if (aContainsB) {
+            return a;
+        }
+        if (bContainsA) {
+            return b;
+        }
+        return new RoleSet(a.dictionary, words);
+    }
+
+    /**
+     * Return the intersection of the two given sets which must share a
+     * dictionary.
+     * 
+     * @param a
+     * @param b
+     * @return
+     */
+    public static RoleSet intersection(RoleSet a, RoleSet b) {
+        if (a.dictionary != b.dictionary) {
+            throw new IllegalArgumentException("Role sets do not share a dictionary");
+        }
+
+        long[] words = new long[a.words.length];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = a.words[i] & b.words[i];
+        }
+        return new RoleSet(a.dictionary, words);
+    }
+
+    /**
+     * Return the union of the two given sets of roles without modifying either
+     * of them. The result is a {@link RoleSet} when both sets are
+     * {@link RoleSet}'s that share a dictionary, and when either set is empty
+     * the other set is returned as is.
+     * 
+     * @param a
+     * @param b
+     * @return
+     */
+    public static Set<String> merge(Set<String> a, Set<String> b) {
+        if (a.isEmpty()) {
+            return b;
+        }
+        if (b.isEmpty()) {
+            return a;
+        }
+        if (a instanceof RoleSet && b instanceof RoleSet
+                && ((RoleSet) a).dictionary == ((RoleSet) b).dictionary) {
+            return union((RoleSet) a, (RoleSet) b);
+        }
+        Set<String> union = new HashSet<String>(a);
+        union.addAll(b);
+        return union;
+    }
+
+    public RoleDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Return the word of the bitmask at the given index, see
+     * {@link RoleDictionary#getWordCount()}.
+     *
+     * @param index
+     * @return
+     */
+    public long getWord(int index) {
+        return words[index];
+    }
+
+    /**
+     * Return true if the role with the given id is in this set.
+     *
+     * @param id
+     * @return
+     */
+    public boolean containsId(int id) {
+        return (words[id >>> 6] & (1L << id)) != 0;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof String)) {
+            return false;
+        }
+        int id = dictionary.getId((String) o);
+        return id >= 0 && containsId(id);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+
+            // index of the word holding the next bit
+            private int index = 0;
+
+            // bits of the current word not yet returned
+            private long remaining = words.length == 0 ? 0 : words[0];
+
+            public boolean hasNext() {
+                while (remaining == 0 && index < words.length - 1) {
+                    remaining = words[++index];
+                }
+                return remaining != 0;
+            }
+
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int bit = Long.numberOfTrailingZeros(remaining);
+                remaining &= remaining - 1;
+                return dictionary.getRole((index << 6) + bit);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException("RoleSet is immutable");
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof RoleSet && ((RoleSet) o).dictionary == dictionary) {
+            return Arrays.equals(words, ((RoleSet) o).words);
+        }
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = super.hashCode();
+            hash = h;
+        }
+        return h;
+    }
+}
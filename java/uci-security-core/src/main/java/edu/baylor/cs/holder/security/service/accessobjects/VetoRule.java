@@ -0,0 +1,121 @@
+package edu.baylor.cs.holder.security.service.accessobjects;
+
+import java.io.Serializable;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Defines a set of roles to be removed from the roles a user holds for the
+ * actions of a category matching a pattern, with respect to a particular type
+ * of context, whenever a named condition holds. For example, the roles that
+ * may update an Entry are vetoed once the Entry has been certified. See
+ * {@link edu.baylor.cs.holder.security.service.VetoCondition}.
+ *
+ * @author holder
+ */
+public class VetoRule implements Serializable {
+
+    /**
+     * UID
+     */
+    private static final long serialVersionUID = -6804473311869316152L;
+
+    // Category of the vetoed actions, null for any category
+    private String category;
+
+    // Regular expression matching the vetoed actions, null for any action
+    private String action;
+
+    // Type of context the roles are vetoed for, null for lookups without one
+    private Class<?> contextType;
+
+    // Name of the condition that must hold, null to always veto
+    private String condition;
+
+    // Roles to veto
+    private Set<String> roles = new HashSet<String>();
+
+    public String getCategory() {
+        return category;
+    }
+
+    public void setCategory(String category) {
+        this.category = category;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    public void setAction(String action) {
+        this.action = action;
+    }
+
+    public Class<?> getContextType() {
+        return contextType;
+    }
+
+    public void setContextType(Class<?> contextType) {
+        this.contextType = contextType;
+    }
+
+    public String getCondition() {
+        return condition;
+    }
+
+    public void setCondition(String condition) {
+        this.condition = condition;
+    }
+
+    public Set<String> getRoles() {
+        return roles;
+    }
+
+    public void setRoles(Set<String> roles) {
+        this.roles = roles;
+    }
+
+    /**
+     * Adds the given role to the roles vetoed by this rule. This method is
+     * used when deserializing rules from XML.
+     *
+     * @param role
+     *            role to add
+     */
+    public void addRole(String role) {
+        this.roles.add(role);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof VetoRule))
+            return false;
+        final VetoRule other = (VetoRule) obj;
+        return equal(category, other.category) && equal(action, other.action)
+                && equal(contextType, other.contextType) && equal(condition, other.condition)
+                && roles.equals(other.roles);
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + ((category == null) ? 0 : category.hashCode());
+        result = prime * result + ((action == null) ? 0 : action.hashCode());
+        result = prime * result + ((contextType == null) ? 0 : contextType.hashCode());
+        result = prime * result + ((condition == null) ? 0 : condition.hashCode());
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return category + "." + action + " [" + (contextType == null ? "" : contextType.getName()) + "] if "
+                + condition + ": " + roles;
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
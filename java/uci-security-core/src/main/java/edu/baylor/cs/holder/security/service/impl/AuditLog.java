@@ -0,0 +1,658 @@
+package edu.baylor.cs.holder.security.service.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * This class writes an audit trail of the access decisions made by
+ * {@link SecurityServiceImpl}, see
+ * {@link SecurityServiceImpl#setAuditLog(AuditLog)}. Denied decisions are
+ * always audited, granted decisions only when {@link #setAuditGranted(boolean)}
+ * is set.
+ *
+ * Deciding threads never touch the file. Each decision is copied into the
+ * next free slot of a bounded lock-free queue, and a single background thread
+ * drains the queue in batches, appending each batch to the log file with one
+ * {@link FileChannel} write. When the queue is full, decisions are either
+ * dropped and counted or the deciding thread waits for room, see
+ * {@link OverflowPolicy}.
+ *
+ * The log file starts with {@link #MAGIC} and {@link #VERSION}, followed by
+ * records that are each an int length and that many bytes, so that a record
+ * cut short by a crash can be detected. Once a file would grow beyond its
+ * maximum size it is renamed to file.1, any older file.N being renamed to
+ * file.N+1 up to the maximum number of backups, and a new file is started.
+ * When the file can't be rotated, records keep being appended to it and
+ * rotation is tried again once it has grown by another maximum size. Use
+ * {@link AuditLogReader} to read the files back.
+ *
+ * {@link #close()} must be called to write the decisions still queued.
+ *
+ * @author holder
+ */
+public class AuditLog {
+
+    /**
+     * What to do with a decision when the queue is full.
+     */
+    public enum OverflowPolicy {
+
+        /**
+         * Drop the decision, counting it in {@link AuditLog#getDroppedCount()}.
+         */
+        DROP,
+
+        /**
+         * Make the deciding thread wait until the decision can be queued.
+         */
+        BLOCK
+    }
+
+    /**
+     * Marks the start of an audit log file, "UCIA".
+     */
+    public static final int MAGIC = 0x55434941;
+
+    /**
+     * Version of the record format.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Default number of decisions the queue holds.
+     */
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    /**
+     * Default size in bytes a log file may grow to before it is rotated.
+     */
+    public static final long DEFAULT_MAXIMUM_FILE_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * Default number of rotated log files to keep.
+     */
+    public static final int DEFAULT_MAXIMUM_BACKUPS = 10;
+
+    // size of the file header
+    private static final int HEADER_SIZE = 8;
+
+    // largest number of records written at once
+    private static final int MAXIMUM_BATCH = 1024;
+
+    // time the writer sleeps for when there is nothing to write
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static final Log log = LogFactory.getLog(AuditLog.class);
+
+    // decisions waiting to be written, each owned by a producer while its
+    // sequence is its position and by the writer while it is position + 1
+    private final Slot[] slots;
+    private final AtomicLongArray slotSequences;
+
+    // position of the next slot to fill
+    private final AtomicLong tail = new AtomicLong();
+
+    // position of the next slot to write, only changed by the writer
+    private volatile long head = 0;
+
+    private final OverflowPolicy overflowPolicy;
+
+    // log file and its rotation
+    private final File file;
+    private final long maximumFileSize;
+    private final int maximumBackups;
+
+    // open log file and its size, only used by the writer once started
+    private FileChannel channel;
+    private long fileSize;
+
+    // size the log file may grow to before it is rotated, raised when a
+    // rotation fails, only used by the writer once started
+    private long rotationSize;
+
+    // records of a batch, only used by the writer
+    private final ByteArrayOutputStream batch = new ByteArrayOutputStream(64 * 1024);
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+    private final DataOutputStream recordData = new DataOutputStream(record);
+
+    // true when granted decisions are audited too
+    private volatile boolean auditGranted = false;
+
+    // drains the queue into the log file
+    private final Thread writer;
+
+    // true while the writer is about to sleep
+    private volatile boolean writerIdle = false;
+
+    // position up to which a flush has been requested, and up to which the
+    // log file has been forced to disk
+    private volatile long flushRequested = 0;
+    private volatile long flushed = 0;
+
+    // the last write failure, reported by flush()
+    private volatile IOException failure;
+
+    private volatile boolean closed = false;
+
+    private final AtomicLong droppedRecords = new AtomicLong();
+    private final AtomicLong writtenRecords = new AtomicLong();
+
+    /**
+     * Audit to the given file with the default queue capacity, rotation and a
+     * {@link OverflowPolicy#DROP} policy.
+     *
+     * @param file
+     * @throws IOException
+     *             thrown when the file can't be opened
+     */
+    public AuditLog(File file) throws IOException {
+        this(file, DEFAULT_CAPACITY, OverflowPolicy.DROP, DEFAULT_MAXIMUM_FILE_SIZE, DEFAULT_MAXIMUM_BACKUPS);
+    }
+
+    /**
+     * Audit to the given file, appending to it if it exists.
+     *
+     * @param file
+     *            log file
+     * @param capacity
+     *            number of decisions the queue holds, rounded up to a power
+     *            of two
+     * @param overflowPolicy
+     *            what to do with a decision when the queue is full
+     * @param maximumFileSize
+     *            size in bytes a log file may grow to before it is rotated
+     * @param maximumBackups
+     *            number of rotated log files to keep
+     * @throws IOException
+     *             thrown when the file can't be opened
+     */
+    public AuditLog(File file, int capacity, OverflowPolicy overflowPolicy, long maximumFileSize,
+            int maximumBackups) throws IOException {
+        if (capacity <= 0 || capacity > 1 << 24) {
+            throw new IllegalArgumentException("Capacity must be from 1 to " + (1 << 24) + ": " + capacity);
+        }
+        if (maximumFileSize <= HEADER_SIZE) {
+            throw new IllegalArgumentException("Maximum file size is too small: " + maximumFileSize);
+        }
+        if (maximumBackups < 0) {
+            throw new IllegalArgumentException("Maximum backups may not be negative: " + maximumBackups);
+        }
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new Slot[size];
+        this.slotSequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+            slotSequences.set(i, i);
+        }
+        this.overflowPolicy = overflowPolicy;
+        this.file = file;
+        this.maximumFileSize = maximumFileSize;
+        this.maximumBackups = maximumBackups;
+        this.rotationSize = maximumFileSize;
+        open();
+
+        writer = new Thread(new Runnable() {
+            public void run() {
+                write();
+            }
+        }, "audit-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * When set to true granted decisions are audited as well as denied ones.
+     * Defaults to false.
+     *
+     * @param auditGranted
+     */
+    public void setAuditGranted(boolean auditGranted) {
+        this.auditGranted = auditGranted;
+    }
+
+    /**
+     * Return true if a decision with the given outcome should be audited.
+     *
+     * @param granted
+     * @return
+     */
+    public boolean isAudited(boolean granted) {
+        return !granted || auditGranted;
+    }
+
+    /**
+     * Queue a decision to be written. Only the references and values are
+     * copied, nothing is allocated.
+     *
+     * @param category
+     * @param action
+     * @param userId
+     *            id of the user, null if there was no user
+     * @param contextTypes
+     *            type of each context object
+     * @param contextIds
+     *            id of each context object
+     * @param contextCount
+     *            number of context objects to audit
+     * @param granted
+     *            true if access was granted
+     */
+    void record(String category, String action, Long userId, List<Class<?>> contextTypes, Long[] contextIds,
+            int contextCount, boolean granted) {
+        if (closed) {
+            droppedRecords.incrementAndGet();
+            return;
+        }
+
+        long position = tail.get();
+        int index;
+        while (true) {
+            index = (int) position & (slots.length - 1);
+            long difference = slotSequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (difference < 0) {
+                // the queue is full, and won't drain without a writer
+                if (overflowPolicy == OverflowPolicy.DROP || closed || !writer.isAlive()) {
+                    droppedRecords.incrementAndGet();
+                    return;
+                }
+                LockSupport.unpark(writer);
+                LockSupport.parkNanos(this, 1000);
+            }
+            position = tail.get();
+        }
+
+        Slot slot = slots[index];
+        slot.timeMillis = System.currentTimeMillis();
+        slot.category = category;
+        slot.action = action;
+        slot.userId = userId;
+        slot.granted = granted;
+        slot.contextCount = Math.min(contextCount, slot.contextTypes.length);
+        for (int i = 0; i < slot.contextCount; i++) {
+            slot.contextTypes[i] = contextTypes.get(i);
+            slot.contextIds[i] = contextIds[i];
+        }
+        slotSequences.set(index, position + 1);
+
+        if (writerIdle) {
+            LockSupport.unpark(writer);
+        }
+        if (closed) {
+            // closed after the check above, so the writer may have stopped
+            // before this record was queued
+            awaitWritten(position);
+        }
+    }
+
+    /**
+     * Wait until the writer has taken the record at the given position from
+     * the queue, counting it as dropped if the writer stops first.
+     */
+    private void awaitWritten(long position) {
+        while (head <= position && writer.isAlive()) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(this, 1000);
+        }
+        if (head <= position) {
+            droppedRecords.incrementAndGet();
+        }
+    }
+
+    /**
+     * Wait until every decision queued so far has been written and forced to
+     * disk.
+     *
+     * @throws IOException
+     *             thrown when a write has failed since the last flush
+     */
+    public void flush() throws IOException {
+        long target = tail.get();
+        synchronized (this) {
+            if (flushRequested < target) {
+                flushRequested = target;
+            }
+        }
+        while (flushed < target && writer.isAlive()) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        IOException e = failure;
+        if (e != null) {
+            failure = null;
+            throw e;
+        }
+    }
+
+    /**
+     * Write every queued decision, stop the writer and close the log file.
+     * Decisions made afterwards are dropped.
+     *
+     * @throws IOException
+     *             thrown when the last writes have failed
+     */
+    public void close() throws IOException {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing audit log");
+        }
+        IOException e = failure;
+        if (e != null) {
+            failure = null;
+            throw e;
+        }
+    }
+
+    /**
+     * Return the number of decisions that were not audited because the queue
+     * was full or the log closed.
+     *
+     * @return
+     */
+    public long getDroppedCount() {
+        return droppedRecords.get();
+    }
+
+    /**
+     * Return the number of decisions written to the log.
+     *
+     * @return
+     */
+    public long getWrittenCount() {
+        return writtenRecords.get();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Drain the queue into the log file until closed.
+     */
+    private void write() {
+        try {
+            while (true) {
+                if (writeBatch() > 0) {
+                    continue;
+                }
+                if (flushRequested > flushed && head > flushed) {
+                    force();
+                    continue;
+                }
+                if (closed && tail.get() == head) {
+                    break;
+                }
+                writerIdle = true;
+                if (!isReadable(head)) {
+                    LockSupport.parkNanos(this, IDLE_NANOS);
+                }
+                writerIdle = false;
+            }
+            force();
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+    }
+
+    /**
+     * Write up to a batch of queued records to the log file, rotating it
+     * between records when it would grow too large, and return how many were
+     * taken from the queue. Records taken from the queue but not written are
+     * counted as dropped.
+     */
+    private int writeBatch() {
+        batch.reset();
+        int count = 0;
+        // records taken from the queue and not yet written, including the
+        // one being appended
+        int pending = 0;
+        try {
+            long position = head;
+            while (count < MAXIMUM_BATCH && isReadable(position)) {
+                int index = (int) position & (slots.length - 1);
+                boolean encoded = encode(slots[index]);
+                slots[index].clear();
+                slotSequences.set(index, position + slots.length);
+                head = ++position;
+                count++;
+                if (!encoded) {
+                    droppedRecords.incrementAndGet();
+                    continue;
+                }
+                pending++;
+
+                long size = fileSize + batch.size();
+                if (size > HEADER_SIZE && size + 4 + record.size() > rotationSize) {
+                    writeBuffer(pending - 1);
+                    pending = 1;
+                    rotate();
+                }
+                append();
+            }
+            if (pending > 0) {
+                writeBuffer(pending);
+            }
+        } catch (IOException e) {
+            droppedRecords.addAndGet(pending);
+            fail(e);
+        }
+        return count;
+    }
+
+    private boolean isReadable(long position) {
+        return slotSequences.get((int) position & (slots.length - 1)) == position + 1;
+    }
+
+    /**
+     * Encode the given slot into the record buffer, returning false if it
+     * can't be encoded, such as when a string is too long.
+     */
+    private boolean encode(Slot slot) {
+        try {
+            record.reset();
+            recordData.writeLong(slot.timeMillis);
+            recordData.writeBoolean(slot.granted);
+            writeLong(recordData, slot.userId);
+            writeString(recordData, slot.category);
+            writeString(recordData, slot.action);
+            recordData.writeByte(slot.contextCount);
+            for (int i = 0; i < slot.contextCount; i++) {
+                writeString(recordData, slot.contextTypes[i] == null ? null : slot.contextTypes[i].getName());
+                writeLong(recordData, slot.contextIds[i]);
+            }
+            recordData.flush();
+            return true;
+        } catch (IOException e) {
+            // only thrown for strings too long to encode
+            if (log.isErrorEnabled()) {
+                log.error("Unable to encode audit record for " + slot.category + "." + slot.action, e);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Append the record buffer to the batch, prefixed by its length.
+     */
+    private void append() throws IOException {
+        int length = record.size();
+        batch.write(length >>> 24);
+        batch.write(length >>> 16);
+        batch.write(length >>> 8);
+        batch.write(length);
+        record.writeTo(batch);
+    }
+
+    /**
+     * Write the batch, holding the given number of records, to the log file.
+     */
+    private void writeBuffer(int count) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(batch.toByteArray());
+        batch.reset();
+        if (!channel.isOpen()) {
+            // reopening failed after an earlier rotation
+            open();
+        }
+        while (buffer.hasRemaining()) {
+            fileSize += channel.write(buffer);
+        }
+        writtenRecords.addAndGet(count);
+    }
+
+    /**
+     * Force the log file to disk, covering every record written so far.
+     */
+    private void force() {
+        long position = head;
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            fail(e);
+        }
+        flushed = position;
+    }
+
+    /**
+     * Rename the current log file to file.1, shifting older backups, and
+     * start a new one. When the file can't be renamed it is reopened, and
+     * rotation is put off until it has grown by another maximum size.
+     */
+    private void rotate() throws IOException {
+        channel.force(false);
+        channel.close();
+        try {
+            rename();
+        } catch (IOException e) {
+            fail(e);
+            open();
+            rotationSize = fileSize + maximumFileSize;
+            return;
+        }
+        open();
+        rotationSize = maximumFileSize;
+
+        if (log.isInfoEnabled()) {
+            log.info("Rotated audit log " + file);
+        }
+    }
+
+    /**
+     * Rename the current log file to file.1, shifting older backups.
+     */
+    private void rename() throws IOException {
+        File oldest = getBackup(maximumBackups);
+        if (oldest.exists() && !oldest.delete()) {
+            throw new IOException("Unable to delete " + oldest);
+        }
+        for (int i = maximumBackups - 1; i >= 1; i--) {
+            File backup = getBackup(i);
+            if (backup.exists() && !backup.renameTo(getBackup(i + 1))) {
+                throw new IOException("Unable to rename " + backup);
+            }
+        }
+        if (maximumBackups == 0 ? !file.delete() : !file.renameTo(getBackup(1))) {
+            throw new IOException("Unable to rotate " + file);
+        }
+    }
+
+    private File getBackup(int index) {
+        return new File(file.getPath() + "." + index);
+    }
+
+    private void fail(IOException e) {
+        failure = e;
+        if (log.isErrorEnabled()) {
+            log.error("Unable to write audit log " + file, e);
+        }
+    }
+
+    /**
+     * Open the log file for appending, writing the header if it is new.
+     */
+    private void open() throws IOException {
+        channel = new FileOutputStream(file, true).getChannel();
+        fileSize = channel.size();
+        if (fileSize == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            while (header.hasRemaining()) {
+                fileSize += channel.write(header);
+            }
+        }
+    }
+
+    /**
+     * Write a long that may be null.
+     */
+    private static void writeLong(DataOutputStream data, Long value) throws IOException {
+        data.writeBoolean(value != null);
+        if (value != null) {
+            data.writeLong(value);
+        }
+    }
+
+    /**
+     * Write a string that may be null.
+     */
+    private static void writeString(DataOutputStream data, String value) throws IOException {
+        data.writeBoolean(value != null);
+        if (value != null) {
+            data.writeUTF(value);
+        }
+    }
+
+    /**
+     * A preallocated entry of the queue, overwritten in place.
+     */
+    private static class Slot {
+
+        private long timeMillis;
+        private String category;
+        private String action;
+        private Long userId;
+        private boolean granted;
+        private int contextCount;
+        private final Class<?>[] contextTypes = new Class<?>[SecurityServiceImpl.MAXCONTEXTLENGTH];
+        private final Long[] contextIds = new Long[SecurityServiceImpl.MAXCONTEXTLENGTH];
+
+        /**
+         * Drop references to the written decision.
+         */
+        public void clear() {
+            category = null;
+            action = null;
+            userId = null;
+            for (int i = 0; i < contextCount; i++) {
+                contextTypes[i] = null;
+                contextIds[i] = null;
+            }
+        }
+    }
+}
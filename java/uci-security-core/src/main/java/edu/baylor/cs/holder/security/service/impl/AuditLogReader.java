@@ -0,0 +1,138 @@
+package edu.baylor.cs.holder.security.service.impl;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class reads back the audit log files written by {@link AuditLog} for
+ * offline analysis. A record cut short at the end of a file, such as by a
+ * crash while it was being written, is treated as the end of the file.
+ *
+ * Run from the command line, it prints every record of the given files.
+ *
+ * @author holder
+ */
+public class AuditLogReader {
+
+    private final DataInputStream data;
+
+    /**
+     * Read the given audit log file.
+     *
+     * @param file
+     * @throws IOException
+     *             thrown when the file can't be opened
+     * @throws IllegalArgumentException
+     *             thrown when the file is not an audit log of a supported
+     *             version
+     */
+    public AuditLogReader(File file) throws IOException, IllegalArgumentException {
+        data = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (data.readInt() != AuditLog.MAGIC) {
+                throw new IllegalArgumentException("Not an audit log: " + file);
+            }
+            int version = data.readInt();
+            if (version != AuditLog.VERSION) {
+                throw new IllegalArgumentException("Unsupported audit log version: " + version);
+            }
+        } catch (EOFException e) {
+            data.close();
+            throw new IllegalArgumentException("Not an audit log: " + file, e);
+        } catch (IllegalArgumentException e) {
+            data.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Return the next record, or null at the end of the file.
+     *
+     * @return
+     * @throws IOException
+     *             thrown when the file can't be read
+     */
+    public AuditRecord read() throws IOException {
+        byte[] bytes;
+        try {
+            bytes = new byte[data.readInt()];
+            data.readFully(bytes);
+        } catch (EOFException e) {
+            return null;
+        }
+
+        DataInputStream record = new DataInputStream(new ByteArrayInputStream(bytes));
+        long timeMillis = record.readLong();
+        boolean granted = record.readBoolean();
+        Long userId = readLong(record);
+        String category = readString(record);
+        String action = readString(record);
+        int contextCount = record.readUnsignedByte();
+        List<String> contextTypes = new ArrayList<String>(contextCount);
+        List<Long> contextIds = new ArrayList<Long>(contextCount);
+        for (int i = 0; i < contextCount; i++) {
+            contextTypes.add(readString(record));
+            contextIds.add(readLong(record));
+        }
+        return new AuditRecord(timeMillis, granted, userId, category, action, contextTypes, contextIds);
+    }
+
+    /**
+     * Return every record of the file.
+     *
+     * @return
+     * @throws IOException
+     *             thrown when the file can't be read
+     */
+    public List<AuditRecord> readAll() throws IOException {
+        List<AuditRecord> records = new ArrayList<AuditRecord>();
+        AuditRecord record;
+        while ((record = read()) != null) {
+            records.add(record);
+        }
+        return records;
+    }
+
+    public void close() throws IOException {
+        data.close();
+    }
+
+    /**
+     * Print every record of the audit log files given as arguments.
+     *
+     * @param args
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: AuditLogReader <file>...");
+            System.exit(1);
+        }
+        for (String name : args) {
+            AuditLogReader reader = new AuditLogReader(new File(name));
+            try {
+                AuditRecord record;
+                while ((record = reader.read()) != null) {
+                    System.out.println(record);
+                }
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    private static Long readLong(DataInputStream data) throws IOException {
+        return data.readBoolean() ? Long.valueOf(data.readLong()) : null;
+    }
+
+    private static String readString(DataInputStream data) throws IOException {
+        return data.readBoolean() ? data.readUTF() : null;
+    }
+}
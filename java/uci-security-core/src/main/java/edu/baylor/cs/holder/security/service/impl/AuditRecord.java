@@ -0,0 +1,92 @@
+package edu.baylor.cs.holder.security.service.impl;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A single access decision read back from an audit log by
+ * {@link AuditLogReader}. Context types are held by class name, since the
+ * classes need not be available when the log is analyzed.
+ *
+ * @author holder
+ */
+public class AuditRecord {
+
+    private final long timeMillis;
+    private final boolean granted;
+    private final Long userId;
+    private final String category;
+    private final String action;
+    private final List<String> contextTypes;
+    private final List<Long> contextIds;
+
+    AuditRecord(long timeMillis, boolean granted, Long userId, String category, String action,
+            List<String> contextTypes, List<Long> contextIds) {
+        this.timeMillis = timeMillis;
+        this.granted = granted;
+        this.userId = userId;
+        this.category = category;
+        this.action = action;
+        this.contextTypes = Collections.unmodifiableList(contextTypes);
+        this.contextIds = Collections.unmodifiableList(contextIds);
+    }
+
+    /**
+     * Return the time the decision was queued, in milliseconds since the
+     * epoch.
+     *
+     * @return
+     */
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    public boolean isGranted() {
+        return granted;
+    }
+
+    /**
+     * Return the id of the user, or null if there was no user.
+     *
+     * @return
+     */
+    public Long getUserId() {
+        return userId;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    /**
+     * Return the class name of each context object, null for a null object.
+     *
+     * @return
+     */
+    public List<String> getContextTypes() {
+        return contextTypes;
+    }
+
+    public List<Long> getContextIds() {
+        return contextIds;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        result.append(new Date(timeMillis)).append(granted ? " GRANTED " : " DENIED ");
+        result.append(category).append('.').append(action).append(" user ").append(userId);
+        for (int i = 0; i < contextTypes.size(); i++) {
+            result.append(i == 0 ? " (" : ", ").append(contextTypes.get(i)).append(' ').append(contextIds.get(i));
+        }
+        if (!contextTypes.isEmpty()) {
+            result.append(')');
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,139 @@
+package edu.baylor.cs.holder.security.service.impl;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import edu.baylor.cs.holder.security.service.SecurityMetrics;
+import edu.baylor.cs.holder.security.service.VersionedSecurityCache;
+import edu.baylor.cs.holder.security.service.accessobjects.AccessRule;
+import edu.baylor.cs.holder.security.service.accessobjects.AccessRuleKey;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMappingKey;
+import edu.baylor.cs.holder.security.util.BoundedCacheMap;
+import edu.baylor.cs.holder.security.util.CacheGeneration;
+import edu.baylor.cs.holder.security.util.Pair;
+
+/**
+ * A thread safe {@link VersionedSecurityCache} whose caches are each a
+ * {@link BoundedCacheMap}, so their size stays bounded no matter how many
+ * distinct users are looked up and their entries are reloaded a fixed time
+ * after being cached. This is the default cache of
+ * {@link GenericCachingAccessServiceImpl}.
+ * 
+ * Entries evicted to bound a cache or because they expired are reported to
+ * the {@link SecurityMetrics}, if set.
+ * 
+ * @author holder
+ */
+public class BoundedSecurityCache implements VersionedSecurityCache {
+
+    /**
+     * Default maximum number of entries of each cache.
+     */
+    public static final long DEFAULT_MAXIMUM_WEIGHT = 10000;
+
+    /**
+     * Default number of minutes an entry lives after being cached.
+     */
+    public static final long DEFAULT_EXPIRE_AFTER_WRITE_MINUTES = 5;
+
+    // receives evictions, null when not measured
+    private volatile SecurityMetrics securityMetrics;
+
+    private final BoundedCacheMap<RoleMappingKey, Set<String>> userRoleCache;
+    private final BoundedCacheMap<Pair<AccessRuleKey, RoleMappingKey>, Set<String>> vetoRoleCache;
+    private final BoundedCacheMap<AccessRuleKey, Set<String>> accessRuleKeyCache;
+
+    // only kept for callers of the deprecated getAccessRuleCache()
+    private final BoundedCacheMap<AccessRule, Set<String>> accessRuleCache;
+
+    // changed around each invalidation of the cached content
+    private final CacheGeneration cacheGeneration = new CacheGeneration();
+
+    /**
+     * Create a cache with the default bounds.
+     */
+    public BoundedSecurityCache() {
+        this(DEFAULT_MAXIMUM_WEIGHT, DEFAULT_EXPIRE_AFTER_WRITE_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Create a cache where each of the caches holds at most the given number
+     * of entries, and each entry lives for the given time after being cached.
+     * 
+     * @param maximumWeight
+     *            maximum number of entries of each cache
+     * @param expireAfterWrite
+     *            time an entry lives after being cached, 0 to never expire
+     * @param unit
+     *            unit of expireAfterWrite
+     */
+    public BoundedSecurityCache(long maximumWeight, long expireAfterWrite, TimeUnit unit) {
+        userRoleCache = new MeteredCacheMap<RoleMappingKey, Set<String>>(SecurityMetrics.USER_ROLE_CACHE,
+                maximumWeight, expireAfterWrite, unit);
+        vetoRoleCache = new MeteredCacheMap<Pair<AccessRuleKey, RoleMappingKey>, Set<String>>(
+                SecurityMetrics.VETO_ROLE_CACHE, maximumWeight, expireAfterWrite, unit);
+        accessRuleKeyCache = new MeteredCacheMap<AccessRuleKey, Set<String>>(SecurityMetrics.ACCESS_RULE_CACHE,
+                maximumWeight, expireAfterWrite, unit);
+        accessRuleCache = new BoundedCacheMap<AccessRule, Set<String>>(maximumWeight, expireAfterWrite, unit);
+    }
+
+    public Map<RoleMappingKey, Set<String>> getUserRoleCache() {
+        return userRoleCache;
+    }
+
+    public Map<Pair<AccessRuleKey, RoleMappingKey>, Set<String>> getVetoRoleCache() {
+        return vetoRoleCache;
+    }
+
+    public Map<AccessRuleKey, Set<String>> getAccessRuleKeyCache() {
+        return accessRuleKeyCache;
+    }
+
+    @Deprecated
+    public Map<AccessRule, Set<String>> getAccessRuleCache() {
+        return accessRuleCache;
+    }
+
+    public void clear() {
+        userRoleCache.clear();
+        vetoRoleCache.clear();
+        accessRuleKeyCache.clear();
+        accessRuleCache.clear();
+    }
+
+    public CacheGeneration getCacheGeneration() {
+        return cacheGeneration;
+    }
+
+    /**
+     * Set the {@link SecurityMetrics} that evictions are reported to, or null
+     * to stop reporting them. Defaults to null.
+     * 
+     * @param securityMetrics
+     */
+    public void setSecurityMetrics(SecurityMetrics securityMetrics) {
+        this.securityMetrics = securityMetrics;
+    }
+
+    /**
+     * Reports the evictions of one of the caches under its name.
+     */
+    private class MeteredCacheMap<K, V> extends BoundedCacheMap<K, V> {
+
+        private final String name;
+
+        public MeteredCacheMap(String name, long maximumWeight, long expireAfterWrite, TimeUnit unit) {
+            super(maximumWeight, expireAfterWrite, unit);
+            this.name = name;
+        }
+
+        @Override
+        protected void onEviction(K key, V value) {
+            SecurityMetrics metrics = securityMetrics;
+            if (metrics != null) {
+                metrics.recordCacheEviction(name);
+            }
+        }
+    }
+}
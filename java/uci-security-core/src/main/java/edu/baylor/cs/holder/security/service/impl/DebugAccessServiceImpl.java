@@ -18,6 +18,13 @@ import edu.baylor.cs.holder.security.service.accessobjects.RoleMappingKey;
  * also does not make use of any caching of security lookups, allowing for full
  * debugging of each call to the security service.
  * 
+ * Messages are only built when debug logging is enabled. To trace decisions
+ * under load use a {@link DecisionTracer} instead, see
+ * {@link SecurityServiceImpl#setDecisionTracer(DecisionTracer)}.
+ * 
+ * The underlying access services are queried one after another, unless a
+ * {@link DelegateFanOut} is set to query them concurrently.
+ * 
  * @author holder
  */
 public class DebugAccessServiceImpl implements AccessService {
@@ -25,34 +32,54 @@ public class DebugAccessServiceImpl implements AccessService {
     // List of each access service we use when retrieving access rules and role
     // mappings
     private List<AccessService> accessServices = new ArrayList<AccessService>();
+
+    // queries the access services concurrently when set
+    private volatile DelegateFanOut delegateFanOut;
     
     private Log log = LogFactory.getLog(getClass());
 
     public Set<String> getAccessRuleRoles(AccessRuleKey key) {
-        Set<String> roles = new HashSet<String>();
-        for (AccessService service : accessServices) {
-            roles.addAll(service.getAccessRuleRoles(key));
+        DelegateFanOut fanOut = delegateFanOut;
+        final AccessRuleKey lookupKey = fanOut == null ? key : new AccessRuleKey(key);
+        Set<String> roles = mergeRoles(fanOut, new DelegateFanOut.Lookup() {
+            public Set<String> lookup(AccessService service) {
+                return service.getAccessRuleRoles(lookupKey);
+            }
+        }, false);
+        if (log.isDebugEnabled()) {
+            logAllowedRoles(key, roles);
         }
-        logAllowedRoles(key, roles);
         return roles;
     }
 
     public Set<String> getUserRoles(RoleMappingKey key) {
-        Set<String> roles = new HashSet<String>();
-        for (AccessService service : accessServices) {
-            roles.addAll(service.getUserRoles(key));
+        DelegateFanOut fanOut = delegateFanOut;
+        final RoleMappingKey lookupKey = fanOut == null ? key : new RoleMappingKey(key);
+        Set<String> roles = mergeRoles(fanOut, new DelegateFanOut.Lookup() {
+            public Set<String> lookup(AccessService service) {
+                return service.getUserRoles(lookupKey);
+            }
+        }, false);
+        if (log.isDebugEnabled()) {
+            logGrantedRoles(key, roles);
         }
-        logGrantedRoles(key, roles);
         return roles;
     }
     
     public Set<String> getVetoRoles(AccessRuleKey accessRuleKey,
             RoleMappingKey roleMappingKey) {
-        Set<String> roles = new HashSet<String>();
-        for (AccessService service : accessServices) {
-            roles.addAll(service.getVetoRoles(accessRuleKey, roleMappingKey));
+        DelegateFanOut fanOut = delegateFanOut;
+        final AccessRuleKey lookupAccessRuleKey = fanOut == null ? accessRuleKey : new AccessRuleKey(accessRuleKey);
+        final RoleMappingKey lookupRoleMappingKey = fanOut == null ? roleMappingKey : new RoleMappingKey(
+                roleMappingKey);
+        Set<String> roles = mergeRoles(fanOut, new DelegateFanOut.Lookup() {
+            public Set<String> lookup(AccessService service) {
+                return service.getVetoRoles(lookupAccessRuleKey, lookupRoleMappingKey);
+            }
+        }, true);
+        if (log.isDebugEnabled()) {
+            logVetoedRoles(accessRuleKey, roleMappingKey, roles);
         }
-        logVetoedRoles(accessRuleKey, roleMappingKey, roles);
         return roles;
     }
     
@@ -61,7 +88,9 @@ public class DebugAccessServiceImpl implements AccessService {
         for (AccessService service : accessServices) {
             roles.addAll(service.getAllAvailableRoles());
         }
-        log.debug("All available roles: " + roles);
+        if (log.isDebugEnabled()) {
+            log.debug("All available roles: " + roles);
+        }
         return roles;
     }
     
@@ -72,10 +101,51 @@ public class DebugAccessServiceImpl implements AccessService {
         for (AccessService service : accessServices) {
             packages.addAll(service.getContextPackages());
         }
-        log.debug("All context packages: " + packages);
+        if (log.isDebugEnabled()) {
+            log.debug("All context packages: " + packages);
+        }
         return packages;
     }
 
+    public void setAccessServices(List<AccessService> accessServices) {
+        this.accessServices = accessServices;
+    }
+
+    /**
+     * Set the {@link DelegateFanOut} used to query the underlying access
+     * services concurrently, or null to query them one after another. Defaults
+     * to null.
+     * 
+     * @param delegateFanOut
+     */
+    public void setDelegateFanOut(DelegateFanOut delegateFanOut) {
+        this.delegateFanOut = delegateFanOut;
+    }
+
+    /**
+     * Return a {@link HashSet} of the roles found by the given lookup against
+     * each underlying access service, using the given {@link DelegateFanOut}
+     * if not null. Lookups made through a fan out must be given copies of the
+     * keys since a timed out service may still read them.
+     * 
+     * @param fanOut
+     * @param lookup
+     * @param vetoing
+     *            true if the lookup returns vetoed roles
+     * @return
+     */
+    private Set<String> mergeRoles(DelegateFanOut fanOut, DelegateFanOut.Lookup lookup, boolean vetoing) {
+        if (fanOut != null) {
+            return new HashSet<String>(fanOut.merge(accessServices.toArray(new AccessService[accessServices
+                    .size()]), lookup, vetoing));
+        }
+        Set<String> roles = new HashSet<String>();
+        for (AccessService service : accessServices) {
+            roles.addAll(lookup.lookup(service));
+        }
+        return roles;
+    }
+
     /**
      * Log output for the given RoleMappingKey and AccessRoles.
      * 
@@ -87,7 +157,7 @@ public class DebugAccessServiceImpl implements AccessService {
         String contextType = key.getContextType() == null ? null : key.getContextType().getSimpleName();
 
         result.append("Granted roles for (");
-        result.append(key.getUserId() + ", " + contextType + ", " + key.getUserId() + "): ");
+        result.append(key.getUserId() + ", " + contextType + ", " + key.getContextId() + "): ");
 
         for (String role : roles) {
             result.append(role.toString() + " ");
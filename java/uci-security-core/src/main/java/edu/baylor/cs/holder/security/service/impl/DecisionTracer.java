@@ -0,0 +1,319 @@
+package edu.baylor.cs.holder.security.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import edu.baylor.cs.holder.security.service.accessobjects.AccessRuleKey;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMappingKey;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleSet;
+
+/**
+ * This class records a sample of the access decisions made by
+ * {@link SecurityServiceImpl} into a ring buffer of fixed size, see
+ * {@link SecurityServiceImpl#setDecisionTracer(DecisionTracer)}. It is meant
+ * to stay enabled under load where {@link DebugAccessServiceImpl} can't.
+ *
+ * Every slot of the buffer is allocated up front, and recording a decision
+ * only copies the keys and references to the role sets of the decision into
+ * the next slot, so nothing is allocated or formatted while deciding. Events
+ * are copied out of the buffer and formatted only when the buffer is read by
+ * {@link #drain()} or {@link #getEvents()}. Once the buffer is full, the
+ * oldest events are overwritten.
+ *
+ * The role sets of an event are those returned by the access service and
+ * are not copied, which is safe for the immutable {@link RoleSet}'s returned
+ * by the access services of this package.
+ *
+ * @author holder
+ */
+public class DecisionTracer {
+
+    /**
+     * Default number of events held by the buffer.
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    // sequence of a slot being written
+    private static final long WRITING = -1;
+
+    // slots of the ring buffer
+    private final Slot[] slots;
+
+    // sequence of the event held by each slot, or WRITING
+    private final AtomicLongArray slotSequences;
+
+    // sequence of the next event to record
+    private final AtomicLong nextSequence = new AtomicLong();
+
+    // sequence of the next event to drain
+    private final AtomicLong drainSequence = new AtomicLong();
+
+    // events dropped because another thread was still writing their slot
+    private final AtomicLong droppedEvents = new AtomicLong();
+
+    // a random draw below this threshold of 2^53 samples a decision
+    private volatile long sampleThreshold;
+
+    // random state of each thread, for sampling
+    private final ThreadLocal<long[]> sampleSeed = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            long seed = (Thread.currentThread().getId() + 1) * 0x9e3779b97f4a7c15L ^ System.nanoTime();
+            return new long[] { seed == 0 ? 1 : seed };
+        }
+    };
+
+    /**
+     * Record every decision into a buffer of the default capacity.
+     */
+    public DecisionTracer() {
+        this(DEFAULT_CAPACITY, 1);
+    }
+
+    /**
+     * Record the given fraction of decisions into a buffer holding at least
+     * the given number of events.
+     *
+     * @param capacity
+     *            number of events to hold, rounded up to a power of two
+     * @param sampleRate
+     *            fraction of decisions to record, from 0 to 1
+     */
+    public DecisionTracer(int capacity, double sampleRate) {
+        if (capacity <= 0 || capacity > 1 << 24) {
+            throw new IllegalArgumentException("Capacity must be from 1 to " + (1 << 24) + ": " + capacity);
+        }
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        slots = new Slot[size];
+        slotSequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+            // no event has this sequence
+            slotSequences.set(i, Long.MIN_VALUE);
+        }
+        setSampleRate(sampleRate);
+    }
+
+    /**
+     * Set the fraction of decisions to record, from 0 to 1.
+     *
+     * @param sampleRate
+     */
+    public void setSampleRate(double sampleRate) {
+        if (!(sampleRate >= 0 && sampleRate <= 1)) {
+            throw new IllegalArgumentException("Sample rate must be from 0 to 1: " + sampleRate);
+        }
+        this.sampleThreshold = (long) (sampleRate * (1L << 53));
+    }
+
+    /**
+     * Return the number of events the buffer holds.
+     *
+     * @return
+     */
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    /**
+     * Return the number of events that were sampled but dropped because the
+     * buffer wrapped around onto a slot that was still being written.
+     *
+     * @return
+     */
+    public long getDroppedCount() {
+        return droppedEvents.get();
+    }
+
+    /**
+     * Return true if the decision about to be made by the current thread
+     * should be recorded.
+     *
+     * @return
+     */
+    boolean sample() {
+        long threshold = sampleThreshold;
+        if (threshold == 0) {
+            return false;
+        }
+        long[] seed = sampleSeed.get();
+        long x = seed[0];
+        x ^= x << 13;
+        x ^= x >>> 7;
+        x ^= x << 17;
+        seed[0] = x;
+        return (x >>> 11) < threshold;
+    }
+
+    /**
+     * Record a decision into the next slot of the buffer.
+     *
+     * @param accessRuleKey
+     *            key of the access rule, may be reused by the caller
+     * @param allowedRoles
+     *            roles of the access rule
+     * @param availableRoles
+     *            all available roles when there is a context, otherwise null
+     * @param roleMappingKeys
+     *            keys of the role lookups, may be reused by the caller
+     * @param userRoles
+     *            roles looked up for each key
+     * @param vetoRoles
+     *            vetoed roles looked up for each key
+     * @param lookups
+     *            number of role lookups made, 0 when there is no access rule
+     * @param granted
+     *            true if access was granted
+     * @param elapsedNanos
+     *            time taken by the decision
+     */
+    void record(AccessRuleKey accessRuleKey, Set<String> allowedRoles, Set<String> availableRoles,
+            RoleMappingKey[] roleMappingKeys, Set<String>[] userRoles, Set<String>[] vetoRoles, int lookups,
+            boolean granted, long elapsedNanos) {
+        long sequence = nextSequence.getAndIncrement();
+        int index = (int) sequence & (slots.length - 1);
+        long previous = slotSequences.get(index);
+        if (previous == WRITING || !slotSequences.compareAndSet(index, previous, WRITING)) {
+            droppedEvents.incrementAndGet();
+            return;
+        }
+
+        Slot slot = slots[index];
+        slot.timeMillis = System.currentTimeMillis();
+        slot.elapsedNanos = elapsedNanos;
+        slot.threadId = Thread.currentThread().getId();
+        slot.granted = granted;
+        slot.category = accessRuleKey.getCategory();
+        slot.action = accessRuleKey.getAction();
+        List<Class<?>> contexts = accessRuleKey.getContexts();
+        slot.contextCount = contexts == null ? -1 : Math.min(contexts.size(), slot.contexts.length);
+        for (int i = 0; i < slot.contextCount; i++) {
+            slot.contexts[i] = contexts.get(i);
+        }
+        slot.allowedRoles = allowedRoles;
+        slot.availableRoles = availableRoles;
+        slot.lookups = Math.min(lookups, slot.userIds.length);
+        for (int i = 0; i < slot.lookups; i++) {
+            slot.userIds[i] = roleMappingKeys[i].getUserId();
+            slot.contextTypes[i] = roleMappingKeys[i].getContextType();
+            slot.contextIds[i] = roleMappingKeys[i].getContextId();
+            slot.userRoles[i] = userRoles[i];
+            slot.vetoRoles[i] = vetoRoles[i];
+        }
+
+        slotSequences.set(index, sequence);
+    }
+
+    /**
+     * Return the events recorded since the last drain, oldest first, and
+     * remove them from the buffer. Events overwritten before they could be
+     * drained are lost.
+     *
+     * @return
+     */
+    public synchronized List<TracedDecision> drain() {
+        long end = nextSequence.get();
+        List<TracedDecision> events = copyEvents(drainSequence.get(), end);
+        drainSequence.set(end);
+        return events;
+    }
+
+    /**
+     * Return the events recorded since the last drain or clear that are still
+     * held by the buffer, oldest first, without removing them.
+     *
+     * @return
+     */
+    public List<TracedDecision> getEvents() {
+        return copyEvents(drainSequence.get(), nextSequence.get());
+    }
+
+    /**
+     * Remove every event from the buffer.
+     */
+    public synchronized void clear() {
+        drainSequence.set(nextSequence.get());
+    }
+
+    /**
+     * Copy the events from the start sequence up to but excluding the end
+     * sequence that are still held by the buffer, skipping any slot that is
+     * written while being copied.
+     */
+    private List<TracedDecision> copyEvents(long start, long end) {
+        start = Math.max(start, end - slots.length);
+        if (start >= end) {
+            return Collections.emptyList();
+        }
+        List<TracedDecision> events = new ArrayList<TracedDecision>((int) (end - start));
+        for (long sequence = start; sequence < end; sequence++) {
+            int index = (int) sequence & (slots.length - 1);
+            if (slotSequences.get(index) != sequence) {
+                continue;
+            }
+            TracedDecision event = slots[index].copy();
+            if (slotSequences.get(index) == sequence) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    /**
+     * A preallocated event of the ring buffer, overwritten in place.
+     */
+    private static class Slot {
+
+        private long timeMillis;
+        private long elapsedNanos;
+        private long threadId;
+        private boolean granted;
+
+        // access rule key
+        private String category;
+        private String action;
+        private int contextCount;
+        private final Class<?>[] contexts = new Class<?>[SecurityServiceImpl.MAXCONTEXTLENGTH];
+
+        // roles of the access rule and all available roles
+        private Set<String> allowedRoles;
+        private Set<String> availableRoles;
+
+        // role mapping keys and the roles looked up for each
+        private int lookups;
+        private final Long[] userIds = new Long[SecurityServiceImpl.MAXCONTEXTLENGTH];
+        private final Class<?>[] contextTypes = new Class<?>[SecurityServiceImpl.MAXCONTEXTLENGTH];
+        private final Long[] contextIds = new Long[SecurityServiceImpl.MAXCONTEXTLENGTH];
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private final Set<String>[] userRoles = new Set[SecurityServiceImpl.MAXCONTEXTLENGTH];
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private final Set<String>[] vetoRoles = new Set[SecurityServiceImpl.MAXCONTEXTLENGTH];
+
+        public TracedDecision copy() {
+            List<Class<?>> ruleContexts = null;
+            if (contextCount >= 0) {
+                ruleContexts = new ArrayList<Class<?>>(contextCount);
+                for (int i = 0; i < contextCount; i++) {
+                    ruleContexts.add(contexts[i]);
+                }
+            }
+            List<RoleMappingKey> keys = new ArrayList<RoleMappingKey>(lookups);
+            List<Set<String>> users = new ArrayList<Set<String>>(lookups);
+            List<Set<String>> vetoes = new ArrayList<Set<String>>(lookups);
+            for (int i = 0; i < lookups; i++) {
+                keys.add(new RoleMappingKey(userIds[i], contextTypes[i], contextIds[i]));
+                users.add(userRoles[i]);
+                vetoes.add(vetoRoles[i]);
+            }
+            return new TracedDecision(timeMillis, elapsedNanos, threadId, granted, new AccessRuleKey(category,
+                    action, ruleContexts), allowedRoles, availableRoles, keys, users, vetoes);
+        }
+    }
+}
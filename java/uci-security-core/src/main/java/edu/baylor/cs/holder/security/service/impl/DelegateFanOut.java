@@ -0,0 +1,319 @@
+package edu.baylor.cs.holder.security.service.impl;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import edu.baylor.cs.holder.security.service.AccessService;
+import edu.baylor.cs.holder.security.service.SecurityMetrics;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleSet;
+
+/**
+ * This class queries several delegate {@link AccessService}'s concurrently
+ * and merges their roles as each of them completes, so that a lookup takes
+ * about as long as the slowest delegate rather than the sum of all of them.
+ *
+ * Every delegate of a lookup shares the same timeout. A delegate that times
+ * out is cancelled, and its roles are left out of a lookup of granted roles
+ * since that can only deny access. Such a lookup is reported as incomplete by
+ * {@link #query(AccessService[], Lookup, boolean)}, so that callers don't
+ * keep its roles beyond the current request. For a lookup of vetoed roles
+ * leaving them out could grant access, so an {@link IllegalStateException} is
+ * thrown instead.
+ *
+ * Keys handed to a lookup may still be read by a cancelled delegate after the
+ * lookup returns, so callers should hand over keys they won't reuse.
+ *
+ * The time taken by each lookup that queries delegates concurrently is
+ * reported to a {@link SecurityMetrics} when one is set.
+ *
+ * @author holder
+ */
+public class DelegateFanOut {
+
+    /**
+     * Default number of milliseconds to wait for the delegates of a lookup.
+     */
+    public static final long DEFAULT_TIMEOUT_MILLIS = 5000;
+
+    private static final Log log = LogFactory.getLog(DelegateFanOut.class);
+
+    // created when first needed, see getDefaultExecutor()
+    private static ExecutorService defaultExecutor;
+
+    // runs the queries of each delegate
+    private final ExecutorService executor;
+
+    // time to wait for the delegates of a single lookup
+    private final long timeoutNanos;
+
+    // receives the time taken by each lookup, null when not measured
+    private volatile SecurityMetrics securityMetrics;
+
+    /**
+     * A single lookup against a delegate.
+     */
+    public interface Lookup {
+
+        /**
+         * Return the roles the given delegate holds for this lookup.
+         *
+         * @param service
+         * @return
+         */
+        public Set<String> lookup(AccessService service);
+    }
+
+    /**
+     * The roles merged by a lookup, and whether every delegate contributed to
+     * them.
+     */
+    public static class Result {
+
+        private final Set<String> roles;
+
+        // number of delegates left out of the roles after timing out
+        private final int timedOut;
+
+        public Result(Set<String> roles, int timedOut) {
+            this.roles = roles;
+            this.timedOut = timedOut;
+        }
+
+        /**
+         * Return the merged roles.
+         * 
+         * @return
+         */
+        public Set<String> getRoles() {
+            return roles;
+        }
+
+        /**
+         * Return the number of delegates whose roles were left out after
+         * timing out.
+         * 
+         * @return
+         */
+        public int getTimedOutCount() {
+            return timedOut;
+        }
+
+        /**
+         * Return true if every delegate contributed to the roles.
+         * 
+         * @return
+         */
+        public boolean isComplete() {
+            return timedOut == 0;
+        }
+    }
+
+    /**
+     * Query delegates with the default executor and timeout.
+     */
+    public DelegateFanOut() {
+        this(getDefaultExecutor(), DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Query delegates with the given executor, waiting at most the given time
+     * for the delegates of each lookup.
+     *
+     * @param executor
+     * @param timeout
+     * @param unit
+     */
+    public DelegateFanOut(ExecutorService executor, long timeout, TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Timeout must be positive: " + timeout);
+        }
+        this.executor = executor;
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * Return the union of the roles found by the given lookup against each of
+     * the given delegates, see {@link RoleSet#merge(Set, Set)}.
+     *
+     * @param services
+     *            delegates to query
+     * @param lookup
+     *            lookup to run against each delegate
+     * @param vetoing
+     *            true if the lookup returns vetoed roles, so that a delegate
+     *            timing out must fail the lookup
+     * @return the merged roles
+     * @throws IllegalStateException
+     *             thrown when a vetoing lookup times out or is interrupted
+     */
+    public Set<String> merge(AccessService[] services, Lookup lookup, boolean vetoing) throws IllegalStateException {
+        return query(services, lookup, vetoing).getRoles();
+    }
+
+    /**
+     * Return the union of the roles found by the given lookup against each of
+     * the given delegates, along with the number of delegates left out after
+     * timing out. Roles of an incomplete result should only be used for the
+     * current request and never cached.
+     *
+     * @param services
+     *            delegates to query
+     * @param lookup
+     *            lookup to run against each delegate
+     * @param vetoing
+     *            true if the lookup returns vetoed roles, so that a delegate
+     *            timing out must fail the lookup
+     * @return the merged roles
+     * @throws IllegalStateException
+     *             thrown when a vetoing lookup times out or is interrupted
+     */
+    public Result query(AccessService[] services, final Lookup lookup, boolean vetoing)
+            throws IllegalStateException {
+        Set<String> roles = Collections.emptySet();
+        if (services.length == 1) {
+            // nothing to overlap with
+            return new Result(RoleSet.merge(roles, lookup.lookup(services[0])), 0);
+        }
+
+        long start = System.nanoTime();
+        long deadline = start + timeoutNanos;
+        CompletionService<Set<String>> completion = new ExecutorCompletionService<Set<String>>(executor);
+        List<Future<Set<String>>> futures = new ArrayList<Future<Set<String>>>(services.length);
+        try {
+            for (final AccessService service : services) {
+                futures.add(completion.submit(new Callable<Set<String>>() {
+                    public Set<String> call() {
+                        return lookup.lookup(service);
+                    }
+                }));
+            }
+
+            for (int completed = 0; completed < services.length; completed++) {
+                Future<Set<String>> done = completion.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (done == null) {
+                    return timedOut(roles, services.length - completed, vetoing);
+                }
+                roles = RoleSet.merge(roles, getRoles(done));
+            }
+            return new Result(roles, 0);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for access services", e);
+        } finally {
+            // stop any delegate still running after a timeout or failure
+            for (Future<Set<String>> future : futures) {
+                future.cancel(true);
+            }
+            SecurityMetrics metrics = securityMetrics;
+            if (metrics != null) {
+                metrics.recordFanOut(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Set the {@link SecurityMetrics} that the time taken by each lookup is
+     * reported to, or null to stop reporting it. Defaults to null.
+     *
+     * @param securityMetrics
+     */
+    public void setSecurityMetrics(SecurityMetrics securityMetrics) {
+        this.securityMetrics = securityMetrics;
+    }
+
+    /**
+     * Return the roles merged so far when some delegates have timed out,
+     * unless the lookup is vetoing.
+     */
+    private Result timedOut(Set<String> roles, int pending, boolean vetoing) {
+        if (vetoing) {
+            throw new IllegalStateException(pending + " access service(s) timed out looking up vetoed roles");
+        }
+        if (log.isWarnEnabled()) {
+            log.warn(pending + " access service(s) timed out, leaving out their roles");
+        }
+        return new Result(roles, pending);
+    }
+
+    /**
+     * Return the roles of a completed lookup, rethrowing any exception thrown
+     * by its delegate.
+     */
+    private static Set<String> getRoles(Future<Set<String>> done) throws InterruptedException {
+        try {
+            return done.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Unable to query access service", cause);
+        }
+    }
+
+    /**
+     * Return the executor shared by instances created without one. It starts
+     * a virtual thread for each task when the JVM supports them, and
+     * otherwise uses a cached pool of daemon threads.
+     *
+     * @return
+     */
+    public static synchronized ExecutorService getDefaultExecutor() {
+        if (defaultExecutor == null) {
+            defaultExecutor = createVirtualThreadExecutor();
+            if (defaultExecutor == null) {
+                defaultExecutor = Executors.newCachedThreadPool(new DaemonThreadFactory());
+            }
+        }
+        return defaultExecutor;
+    }
+
+    /**
+     * Return an executor that starts a virtual thread per task, or null if
+     * they are not available. Found by reflection so that older JVMs can still
+     * load this class.
+     */
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (Exception e) {
+            // not available (or still a preview feature) on this JVM
+            return null;
+        }
+    }
+
+    /**
+     * Names the threads of the fallback pool and keeps them from holding up
+     * JVM shutdown.
+     */
+    private static class DaemonThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "access-service-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -1,10 +1,14 @@
 package edu.baylor.cs.holder.security.service.impl;
 
 import java.io.InputStream;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import org.dom4j.Document;
 import org.dom4j.DocumentException;
@@ -13,8 +17,10 @@ import org.dom4j.io.SAXReader;
 
 import edu.baylor.cs.holder.security.service.SecurityRepository;
 import edu.baylor.cs.holder.security.service.accessobjects.AccessRule;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleHierarchy;
 import edu.baylor.cs.holder.security.service.accessobjects.RoleMapping;
-import edu.baylor.cs.holder.security.util.ReflectionUtils;
+import edu.baylor.cs.holder.security.service.accessobjects.VetoRule;
+import edu.baylor.cs.holder.security.util.ContextClassResolver;
 
 @SuppressWarnings("unchecked")
 public class Dom4jSecurityRepository implements SecurityRepository {
@@ -26,11 +32,15 @@ public class Dom4jSecurityRepository implements SecurityRepository {
     private static final String CATEGORY = "category";
     private static final String NAME = "name";
     private static final String ACCESS_RULE = "accessRule";
+    private static final String WILDCARD_RULE = "wildcardRule";
     private static final String ACTION = "action";
     private static final String CONTEXT = "context";
     private static final String ACTIVE = "active";
+    private static final String VETO_RULE = "vetoRule";
+    private static final String CONDITION = "condition";
     private static final String ROLES = "roles";
     private static final String ROLE = "role";
+    private static final String IMPLIES = "implies";
 
     private static final String ROLE_MAPPINGS = "roleMappings";
     private static final String ROLE_MAPPING = "roleMapping";
@@ -41,9 +51,21 @@ public class Dom4jSecurityRepository implements SecurityRepository {
     private Set<String> roles = new HashSet<String>();
     private Set<String> packages = new TreeSet<String>(); // search order matters here
 
+    // roles implied directly by each role, and their closure
+    private Map<String, Set<String>> implications = new HashMap<String, Set<String>>();
+    private RoleHierarchy roleHierarchy = RoleHierarchy.EMPTY;
+
     private Set<AccessRule> accessRules = new HashSet<AccessRule>();
+    private Set<AccessRule> wildcardAccessRules = new HashSet<AccessRule>();
+    private Set<VetoRule> vetoRules = new HashSet<VetoRule>();
     private Set<RoleMapping> roleMappings = new HashSet<RoleMapping>();
 
+    // shared resolver of context names, null to use one per populate
+    private ContextClassResolver contextClassResolver;
+
+    // resolves context names while populating
+    private ContextClassResolver contextClasses;
+
     /**
      * Populate this {@link SecurityRepository} with XML input from the given
      * stream.
@@ -59,14 +81,38 @@ public class Dom4jSecurityRepository implements SecurityRepository {
             
             processRoles(root);
             processPackages(root);
+            contextClasses = getContextClassResolver(packages);
             processCategories(root);
             processRoleMappings(root);
             
         } catch (DocumentException e) {
             throw new IllegalArgumentException("An error has occurred while parsing InputStream", e);
+        } finally {
+            contextClasses = null;
         }
     }
 
+    /**
+     * Set the {@link ContextClassResolver} that context names are resolved
+     * with, which then resolves them against its own packages rather than
+     * those of the input. This lets classes registered up front, or resolved
+     * before, be shared between repositories. Defaults to null, resolving
+     * with a new resolver for each input.
+     * 
+     * @param contextClassResolver
+     */
+    public void setContextClassResolver(ContextClassResolver contextClassResolver) {
+        this.contextClassResolver = contextClassResolver;
+    }
+
+    /**
+     * Return the {@link ContextClassResolver} to resolve context names
+     * against the given packages with.
+     */
+    private ContextClassResolver getContextClassResolver(Set<String> searchPackages) {
+        return contextClassResolver == null ? new ContextClassResolver(searchPackages) : contextClassResolver;
+    }
+
     /**
      * Parse an {@link InputStream} and populate the security objects.
      * 
@@ -81,11 +127,14 @@ public class Dom4jSecurityRepository implements SecurityRepository {
     }
 
     /**
-     * Process the set of available roles from the root {@link Element}.
+     * Process the set of available roles from the root {@link Element}, along
+     * with the roles each of them implies, rejecting unknown implied roles and
+     * cycles.
      * 
      * @param root
+     * @throws DocumentException
      */
-    private void processRoles(Element root) {
+    private void processRoles(Element root) throws DocumentException {
 
         // iterate through child elements of root with element name ROLES
         for (Iterator<Element> allRolesElements = root.elementIterator(ROLES); allRolesElements.hasNext();) {
@@ -95,6 +144,42 @@ public class Dom4jSecurityRepository implements SecurityRepository {
             for (Iterator<Element> allRoleElements = rolesElement.elementIterator(ROLE); allRoleElements.hasNext();) {
                 Element roleElement = allRoleElements.next();
                 roles.add(roleElement.getText());
+
+                // a comma or space separated list of roles
+                String implies = roleElement.attributeValue(IMPLIES);
+                if (implies != null) {
+                    addImplications(roleElement.getText(), implies.trim().split("[,\\s]+"));
+                }
+            }
+        }
+
+        // validate against all roles specified in the root by
+        // <roles></roles>
+        for (Set<String> impliedRoles : implications.values()) {
+            for (String impliedRole : impliedRoles) {
+                if (!roles.contains(impliedRole)) {
+                    throw new DocumentException("An invalid role has been detected: " + impliedRole);
+                }
+            }
+        }
+        roleHierarchy = new RoleHierarchy(implications);
+    }
+
+    /**
+     * Add the given roles to the roles implied by the given role.
+     * 
+     * @param role
+     * @param impliedRoles
+     */
+    private void addImplications(String role, String[] impliedRoles) {
+        Set<String> implied = implications.get(role);
+        if (implied == null) {
+            implied = new HashSet<String>();
+            implications.put(role, implied);
+        }
+        for (String impliedRole : impliedRoles) {
+            if (impliedRole.length() > 0) {
+                implied.add(impliedRole);
             }
         }
     }
@@ -135,6 +220,8 @@ public class Dom4jSecurityRepository implements SecurityRepository {
             for (Iterator<Element> allCategoryElements = categoriesElement.elementIterator(CATEGORY); allCategoryElements.hasNext();) {
                 Element categoryElement = allCategoryElements.next();
                 processAccessRules(categoryElement);
+                processWildcardRules(categoryElement);
+                processVetoRules(categoryElement);
             }
         }
     }
@@ -152,21 +239,115 @@ public class Dom4jSecurityRepository implements SecurityRepository {
         // iterate through child elements of root with element name ACCESS_RULE
         for (Iterator<Element> allAccessRuleElements = categoryElement.elementIterator(ACCESS_RULE); allAccessRuleElements.hasNext();) {
             Element accessRuleElement = allAccessRuleElements.next();
-            
-            // use element attributes to create the new AccessRule
-            
-            String action = accessRuleElement.attributeValue(ACTION);
-            Boolean active = Boolean.valueOf(accessRuleElement.attributeValue(ACTIVE));
-            
-            AccessRule accessRule = new AccessRule();
-            accessRule.setCategory(category);
-            accessRule.setAction(action);
-            accessRule.setActive(active);
-            
-            processAccessRuleRoles(accessRuleElement, accessRule);
-            processAccessRuleContexts(accessRuleElement, accessRule);
-            
-            accessRules.add(accessRule);
+            accessRules.add(processAccessRule(category, accessRuleElement));
+        }
+    }
+
+    /**
+     * Process wildcard {@link AccessRule}'s from a category {@link Element},
+     * whose actions are regular expressions.
+     * 
+     * @param categoryElement
+     * @throws DocumentException
+     */
+    private void processWildcardRules(Element categoryElement) throws DocumentException {
+
+        String category = categoryElement.attributeValue(NAME);
+
+        // iterate through child elements of category with element name WILDCARD_RULE
+        for (Iterator<Element> allWildcardRuleElements = categoryElement.elementIterator(WILDCARD_RULE); allWildcardRuleElements.hasNext();) {
+            AccessRule accessRule = processAccessRule(category, allWildcardRuleElements.next());
+
+            // the action is a regular expression
+            String action = accessRule.getKey().getAction();
+            if (action != null) {
+                try {
+                    Pattern.compile(action);
+                } catch (PatternSyntaxException e) {
+                    throw new DocumentException("An invalid action pattern has been detected: " + action);
+                }
+            }
+            wildcardAccessRules.add(accessRule);
+        }
+    }
+
+    /**
+     * Create an {@link AccessRule} of the given category from an access rule
+     * {@link Element}.
+     * 
+     * @param category
+     * @param accessRuleElement
+     * @return
+     * @throws DocumentException
+     */
+    private AccessRule processAccessRule(String category, Element accessRuleElement) throws DocumentException {
+
+        // use element attributes to create the new AccessRule
+
+        String action = accessRuleElement.attributeValue(ACTION);
+        Boolean active = Boolean.valueOf(accessRuleElement.attributeValue(ACTIVE));
+
+        AccessRule accessRule = new AccessRule();
+        accessRule.setCategory(category);
+        accessRule.setAction(action);
+        accessRule.setActive(active);
+
+        processAccessRuleRoles(accessRuleElement, accessRule);
+        processAccessRuleContexts(accessRuleElement, accessRule);
+        return accessRule;
+    }
+
+    /**
+     * Process {@link VetoRule}'s from a category {@link Element}.
+     * 
+     * @param categoryElement
+     * @throws DocumentException
+     */
+    private void processVetoRules(Element categoryElement) throws DocumentException {
+
+        String category = categoryElement.attributeValue(NAME);
+
+        // iterate through child elements of category with element name VETO_RULE
+        for (Iterator<Element> allVetoRuleElements = categoryElement.elementIterator(VETO_RULE); allVetoRuleElements.hasNext();) {
+            Element vetoRuleElement = allVetoRuleElements.next();
+
+            // use element attributes to create the new VetoRule
+            String action = vetoRuleElement.attributeValue(ACTION);
+            String contextType = vetoRuleElement.attributeValue(CONTEXT);
+
+            VetoRule vetoRule = new VetoRule();
+            vetoRule.setCategory(category);
+            vetoRule.setAction(action);
+            vetoRule.setCondition(vetoRuleElement.attributeValue(CONDITION));
+
+            // the action is a regular expression
+            if (action != null) {
+                try {
+                    Pattern.compile(action);
+                } catch (PatternSyntaxException e) {
+                    throw new DocumentException("An invalid action pattern has been detected: " + action);
+                }
+            }
+
+            if (contextType != null) {
+                Class<?> contextClass = contextClasses.getContextClass(contextType);
+                if (contextClass == null) {
+                    throw new DocumentException("No class found for context: " + contextType
+                            + " while searching through available contextPackages");
+                }
+                vetoRule.setContextType(contextClass);
+            }
+
+            // iterate through child elements of vetoRuleElement with element name ROLE
+            for (Iterator<Element> allRoleElements = vetoRuleElement.elementIterator(ROLE); allRoleElements.hasNext();) {
+                String role = allRoleElements.next().getText();
+                if (!roles.contains(role)) {
+                    throw new DocumentException("An invalid role has been detected: " + role);
+                }
+                vetoRule.addRole(role);
+            }
+
+            vetoRules.add(vetoRule);
         }
     }
 
@@ -183,7 +364,7 @@ public class Dom4jSecurityRepository implements SecurityRepository {
         for (Iterator<Element> allContextElements = accessRuleElement.elementIterator(CONTEXT); allContextElements.hasNext();) {
             Element contextElement = allContextElements.next();
             String contextType = contextElement.getText();
-            Class<?> contextClass = ReflectionUtils.getContextClass(packages, contextType);
+            Class<?> contextClass = contextClasses.getContextClass(contextType);
             
             if(contextClass == null) {
                 throw new DocumentException("No class found for context: " + contextType
@@ -242,7 +423,7 @@ public class Dom4jSecurityRepository implements SecurityRepository {
                 
                 RoleMapping roleMapping = new RoleMapping();
                 roleMapping.setUserId(userId == null ? null : Long.valueOf(userId));
-                roleMapping.setContextType(contextType == null ? null : ReflectionUtils.getContextClass(packages, contextType));
+                roleMapping.setContextType(contextType == null ? null : contextClasses.getContextClass(contextType));
                 roleMapping.setContextId(contextId == null ? null : Long.valueOf(contextId));
                 
                 processRoleMappingRoles(roleMappingElement, roleMapping);
@@ -280,6 +461,14 @@ public class Dom4jSecurityRepository implements SecurityRepository {
         return accessRules;
     }
 
+    public Set<AccessRule> getWildcardAccessRules() {
+        return wildcardAccessRules;
+    }
+
+    public Set<VetoRule> getVetoRules() {
+        return vetoRules;
+    }
+
     public Set<RoleMapping> getRoleMappings() {
         return roleMappings;
     }
@@ -291,4 +480,8 @@ public class Dom4jSecurityRepository implements SecurityRepository {
     public Set<String> getContextPackages() {
         return packages;
     }
+
+    public RoleHierarchy getRoleHierarchy() {
+        return roleHierarchy;
+    }
 }
@@ -4,7 +4,9 @@ import java.util.Set;
 
 import edu.baylor.cs.holder.security.service.SecurityRepository;
 import edu.baylor.cs.holder.security.service.accessobjects.AccessRule;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleHierarchy;
 import edu.baylor.cs.holder.security.service.accessobjects.RoleMapping;
+import edu.baylor.cs.holder.security.service.accessobjects.VetoRule;
 
 // FIXME implement Apache POI-based Excel processor to use *.xlsx files, http://poi.apache.org/
 public class ExcelSecurityRepositoryImpl implements SecurityRepository {
@@ -15,6 +17,16 @@ public class ExcelSecurityRepositoryImpl implements SecurityRepository {
         return null;
     }
 
+    public Set<AccessRule> getWildcardAccessRules() {
+        // TODO Auto-generated method stub
+        return null;
+    }
+
+    public Set<VetoRule> getVetoRules() {
+        // TODO Auto-generated method stub
+        return null;
+    }
+
     public Set<String> getAllRoles() {
         // TODO Auto-generated method stub
         return null;
@@ -30,4 +42,9 @@ public class ExcelSecurityRepositoryImpl implements SecurityRepository {
         return null;
     }
 
+    public RoleHierarchy getRoleHierarchy() {
+        // TODO Auto-generated method stub
+        return null;
+    }
+
 }
@@ -0,0 +1,267 @@
+package edu.baylor.cs.holder.security.service.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import edu.baylor.cs.holder.security.service.SecurityRepository;
+import edu.baylor.cs.holder.security.service.accessobjects.AccessRule;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleHierarchy;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMapping;
+import edu.baylor.cs.holder.security.service.accessobjects.VetoRule;
+
+/**
+ * This {@link SecurityRepository} is composed of any number of XML fragments,
+ * each in the format read by {@link Dom4jSecurityRepository}, such as one file
+ * per category of rules and several shards of generated role mappings. Roles
+ * and context packages declared by any fragment may be used by every other,
+ * and a role may imply roles declared by other fragments.
+ *
+ * Fragments are parsed in parallel on a {@link ForkJoinPool} by
+ * {@link StaxSecurityRepository}, first reading every fragment and collecting its roles and packages, then
+ * validating the rules and mappings of every fragment against all of them.
+ * Only merging the results is done on a single thread. A rule or mapping
+ * defined by more than one fragment is rejected with the same message as a
+ * duplicate in a single repository, see {@link RepositorySnapshot}.
+ *
+ * @author holder
+ */
+public class FragmentedSecurityRepository implements SecurityRepository {
+
+    private Set<String> roles = new HashSet<String>();
+    private Set<String> packages = new TreeSet<String>(); // search order matters here
+    private RoleHierarchy roleHierarchy = RoleHierarchy.EMPTY;
+
+    private Set<AccessRule> accessRules = new HashSet<AccessRule>();
+    private Set<AccessRule> wildcardAccessRules = new HashSet<AccessRule>();
+    private Set<VetoRule> vetoRules = new HashSet<VetoRule>();
+    private Set<RoleMapping> roleMappings = new HashSet<RoleMapping>();
+
+    // parses the fragments, null to use a pool sized to the processors
+    private ForkJoinPool forkJoinPool;
+
+    /**
+     * Set the pool that fragments are parsed on, which is left running.
+     * Defaults to a pool with a thread for each available processor that is
+     * shut down once populated.
+     *
+     * @param forkJoinPool
+     */
+    public void setForkJoinPool(ForkJoinPool forkJoinPool) {
+        this.forkJoinPool = forkJoinPool;
+    }
+
+    /**
+     * Populate this {@link SecurityRepository} with the given XML fragments,
+     * replacing any existing content. Nothing is replaced when any fragment is
+     * invalid.
+     *
+     * @param fragments
+     *            XML fragments making up the repository
+     * @throws IllegalArgumentException
+     *             thrown when a fragment can't be read or parsed, uses an
+     *             unknown role or context, duplicates the rule or mapping
+     *             of another fragment, or the roles of the fragments imply
+     *             each other in a cycle
+     */
+    public void populate(List<File> fragments) throws IllegalArgumentException {
+        ForkJoinPool pool = forkJoinPool;
+        if (pool == null) {
+            pool = new ForkJoinPool(Math.max(1, Math.min(fragments.size(), Runtime.getRuntime()
+                    .availableProcessors())));
+        }
+        try {
+            populate(fragments, pool);
+        } finally {
+            if (pool != forkJoinPool) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    public Set<AccessRule> getAccessRules() {
+        return accessRules;
+    }
+
+    public Set<AccessRule> getWildcardAccessRules() {
+        return wildcardAccessRules;
+    }
+
+    public Set<VetoRule> getVetoRules() {
+        return vetoRules;
+    }
+
+    public Set<RoleMapping> getRoleMappings() {
+        return roleMappings;
+    }
+
+    public Set<String> getAllRoles() {
+        return roles;
+    }
+
+    public Set<String> getContextPackages() {
+        return packages;
+    }
+
+    public RoleHierarchy getRoleHierarchy() {
+        return roleHierarchy;
+    }
+
+    private void populate(List<File> fragments, ForkJoinPool pool) throws IllegalArgumentException {
+
+        // read every fragment, collecting the roles and packages of all
+        final List<StaxSecurityRepository> parts = new ArrayList<StaxSecurityRepository>();
+        List<Callable<Object>> reads = new ArrayList<Callable<Object>>();
+        for (final File fragment : fragments) {
+            final StaxSecurityRepository part = new StaxSecurityRepository();
+            parts.add(part);
+            reads.add(new Callable<Object>() {
+                public Object call() throws IOException {
+                    InputStream xmlInput = new FileInputStream(fragment);
+                    try {
+                        part.read(xmlInput);
+                    } finally {
+                        xmlInput.close();
+                    }
+                    return null;
+                }
+            });
+        }
+        invokeAll(pool, reads, fragments);
+
+        final Set<String> allRoles = new HashSet<String>();
+        final Set<String> allPackages = new TreeSet<String>();
+        for (StaxSecurityRepository part : parts) {
+            allRoles.addAll(part.getAllRoles());
+            allPackages.addAll(part.getContextPackages());
+        }
+
+        // validate every fragment against them
+        List<Callable<Object>> resolves = new ArrayList<Callable<Object>>();
+        for (final StaxSecurityRepository part : parts) {
+            resolves.add(new Callable<Object>() {
+                public Object call() {
+                    part.resolve(allRoles, allPackages);
+                    return null;
+                }
+            });
+        }
+        invokeAll(pool, resolves, fragments);
+
+        // a cycle may span several fragments
+        Map<String, Set<String>> allImplications = new HashMap<String, Set<String>>();
+        for (StaxSecurityRepository part : parts) {
+            for (Map.Entry<String, Set<String>> implication : part.getImplications().entrySet()) {
+                Set<String> implied = allImplications.get(implication.getKey());
+                if (implied == null) {
+                    implied = new HashSet<String>();
+                    allImplications.put(implication.getKey(), implied);
+                }
+                implied.addAll(implication.getValue());
+            }
+        }
+        RoleHierarchy allRoleHierarchy = new RoleHierarchy(allImplications);
+
+        // rules and mappings are only equal when their keys are, so a failed
+        // add is a duplicate of an earlier fragment
+        int accessRuleCount = 0;
+        int roleMappingCount = 0;
+        for (StaxSecurityRepository part : parts) {
+            accessRuleCount += part.getAccessRules().size();
+            roleMappingCount += part.getRoleMappings().size();
+        }
+        Set<AccessRule> allAccessRules = new HashSet<AccessRule>(accessRuleCount * 2);
+        Set<AccessRule> allWildcardAccessRules = new HashSet<AccessRule>();
+        Set<VetoRule> allVetoRules = new HashSet<VetoRule>();
+        Set<RoleMapping> allRoleMappings = new HashSet<RoleMapping>(roleMappingCount * 2);
+        for (int i = 0; i < parts.size(); i++) {
+            // veto rules only ever add up, so duplicates are harmless
+            allVetoRules.addAll(parts.get(i).getVetoRules());
+            for (AccessRule rule : parts.get(i).getAccessRules()) {
+                if (!allAccessRules.add(rule)) {
+                    throw new IllegalArgumentException("Duplicate access rule detected: "
+                            + rule.getKey().getCategory() + "." + rule.getKey().getAction() + " in "
+                            + findFragment(parts, fragments, rule) + " and " + fragments.get(i));
+                }
+            }
+            for (AccessRule rule : parts.get(i).getWildcardAccessRules()) {
+                if (!allWildcardAccessRules.add(rule)) {
+                    throw new IllegalArgumentException("Duplicate wildcard rule detected: "
+                            + rule.getKey().getCategory() + "." + rule.getKey().getAction() + " in "
+                            + findFragment(parts, fragments, rule) + " and " + fragments.get(i));
+                }
+            }
+            for (RoleMapping mapping : parts.get(i).getRoleMappings()) {
+                if (!allRoleMappings.add(mapping)) {
+                    throw new IllegalArgumentException("Duplicate mapping detected: "
+                            + mapping.getKey().getUserId() + ":"
+                            + mapping.getKey().getContextType() + ":"
+                            + mapping.getKey().getContextId() + " in "
+                            + findFragment(parts, fragments, mapping) + " and " + fragments.get(i));
+                }
+            }
+        }
+
+        roles = allRoles;
+        packages = allPackages;
+        roleHierarchy = allRoleHierarchy;
+        accessRules = allAccessRules;
+        wildcardAccessRules = allWildcardAccessRules;
+        vetoRules = allVetoRules;
+        roleMappings = allRoleMappings;
+    }
+
+    /**
+     * Return the first fragment holding the given rule or mapping.
+     */
+    private static File findFragment(List<StaxSecurityRepository> parts, List<File> fragments, Object ruleOrMapping) {
+        for (int i = 0; i < parts.size(); i++) {
+            if (parts.get(i).getAccessRules().contains(ruleOrMapping)
+                    || parts.get(i).getWildcardAccessRules().contains(ruleOrMapping)
+                    || parts.get(i).getRoleMappings().contains(ruleOrMapping)) {
+                return fragments.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Run the given tasks, one for each fragment, and wait for all of them,
+     * throwing an {@link IllegalArgumentException} for the first fragment
+     * that failed.
+     */
+    private static void invokeAll(ForkJoinPool pool, List<Callable<Object>> tasks, List<File> fragments)
+            throws IllegalArgumentException {
+        List<Future<Object>> futures = pool.invokeAll(tasks);
+
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalArgumentException("Interrupted while parsing fragments", e);
+            } catch (ExecutionException e) {
+                // report the underlying problem rather than its wrapper
+                Throwable cause = e.getCause();
+                Throwable reason = cause;
+                while (reason.getCause() != null) {
+                    reason = reason.getCause();
+                }
+                throw new IllegalArgumentException("Failed to load fragment " + fragments.get(i) + ": "
+                        + reason.getMessage(), cause);
+            }
+        }
+    }
+}
@@ -1,130 +1,662 @@
 package edu.baylor.cs.holder.security.service.impl;
 
-import java.util.ArrayList;
+import java.util.AbstractMap;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 import edu.baylor.cs.holder.security.service.AccessService;
 import edu.baylor.cs.holder.security.service.SecurityCache;
+import edu.baylor.cs.holder.security.service.SecurityMetrics;
+import edu.baylor.cs.holder.security.service.SnapshotAccessService;
+import edu.baylor.cs.holder.security.service.VersionedSecurityCache;
 import edu.baylor.cs.holder.security.service.accessobjects.AccessRule;
 import edu.baylor.cs.holder.security.service.accessobjects.AccessRuleKey;
+import edu.baylor.cs.holder.security.service.accessobjects.KeyInterner;
 import edu.baylor.cs.holder.security.service.accessobjects.RoleMappingKey;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleSet;
+import edu.baylor.cs.holder.security.util.CacheGeneration;
 import edu.baylor.cs.holder.security.util.Pair;
 
 /**
  * This class merges derived roles. Calls to methods in this class represent the
  * union of the sets of all underlying access services configured here. It also
- * makes use of the security cache to speed up expensive lookups.
+ * makes use of the security cache to speed up expensive lookups. Roles
+ * returned as {@link RoleSet}'s by the underlying services stay encoded when
+ * merged, see {@link RoleSet#merge(Set, Set)}.
  * 
- * TODO Extensions of this class should override getSecurityCache() and provide
- * a caching backend appropriate for their integration, such as an HTTP session
- * based cache that resets on user logout.
+ * Lookups are cached in a {@link BoundedSecurityCache} unless another
+ * {@link SecurityCache} is set. Extensions of this class may also override
+ * getSecurityCache() to provide a caching backend appropriate for their
+ * integration, such as an HTTP session based cache that resets on user logout.
+ * Access rule lookups are cached even when no rule exists, so that repeated
+ * checks of an unknown action don't reach the underlying services. A cache
+ * that isn't a {@link VersionedSecurityCache} only caches user and veto role
+ * lookups, and is cleared whole whenever it is invalidated.
+ * 
+ * Concurrent cache misses for the same key are coalesced, so only one thread
+ * queries the underlying access services while the others wait for its
+ * result. An underlying service must therefore not look up the same key
+ * through this service while loading it.
+ * 
+ * The underlying access services are queried one after another, unless a
+ * {@link DelegateFanOut} is set to query them concurrently. Roles of a lookup
+ * that an underlying service timed out of are returned but not cached.
+ * 
+ * Callers that make several lookups for a single access check make them
+ * through {@link #getSnapshot()}, so that an update of an underlying service
+ * during the check can't mix old and new roles. The cache is cleared when an
+ * underlying {@link SnapshotAccessService} changes its snapshot without
+ * invalidating the cache itself, so a reload or delta of a
+ * {@link RepositoryAccessServiceImpl} is seen right away even when it doesn't
+ * share this service's cache.
+ * 
+ * Cache hits, misses and coalesced misses are reported to a
+ * {@link SecurityMetrics} when one is set.
  * 
  * @author holder
  */
-public class GenericCachingAccessServiceImpl implements AccessService {
+public class GenericCachingAccessServiceImpl implements SnapshotAccessService {
 
     /**
      * UID
      */
     private static final long serialVersionUID = 8334539489269348330L;
 
-    // List of each access service we use when retrieving access rules and role
-    // mappings
-    private List<AccessService> accessServices = new ArrayList<AccessService>();
+    // Each access service we use when retrieving access rules and role
+    // mappings, held as an array so iterating it allocates nothing
+    private AccessService[] accessServices = new AccessService[0];
+
+    // queries the access services concurrently when set
+    private volatile DelegateFanOut delegateFanOut;
+
+    // receives cache activity, null when not measured
+    private volatile SecurityMetrics securityMetrics;
+
+    // cache of access rule, user and veto role lookups
+    private SecurityCache securityCache = new BoundedSecurityCache();
+
+    // versioned view of the last cache that isn't a VersionedSecurityCache
+    private volatile LegacySecurityCache legacyCache;
+
+    // view of the current content, reused while neither it nor the cache
+    // changes, see getSnapshot()
+    private volatile CachingSnapshot currentSnapshot;
+
+    // access rule lookups currently being loaded, keyed by a copy of the key
+    private final ConcurrentMap<AccessRuleKey, Load> accessRuleLoads = new ConcurrentHashMap<AccessRuleKey, Load>();
+
+    // user role lookups currently being loaded, keyed by a copy of the key
+    private final ConcurrentMap<RoleMappingKey, Load> userRoleLoads = new ConcurrentHashMap<RoleMappingKey, Load>();
+
+    // veto role lookups currently being loaded, keyed by copies of the keys
+    private final ConcurrentMap<Pair<AccessRuleKey, RoleMappingKey>, Load> vetoRoleLoads = new ConcurrentHashMap<Pair<AccessRuleKey, RoleMappingKey>, Load>();
+
+    // number of cache misses that waited for another thread's lookup
+    private final AtomicLong coalescedMisses = new AtomicLong();
+
+    // Hands out the immutable keys stored in the caches
+    private final KeyInterner keyInterner = new KeyInterner();
+
+    // Reusable veto cache lookup key for each thread, only used for cache
+    // lookups and never stored in the cache
+    private static final ThreadLocal<Pair<AccessRuleKey, RoleMappingKey>> vetoLookupKey = new ThreadLocal<Pair<AccessRuleKey, RoleMappingKey>>() {
+        @Override
+        protected Pair<AccessRuleKey, RoleMappingKey> initialValue() {
+            return new Pair<AccessRuleKey, RoleMappingKey>();
+        }
+    };
 
     public void setAccessServices(List<AccessService> accessServices) {
-        this.accessServices = accessServices;
+        this.accessServices = accessServices.toArray(new AccessService[accessServices.size()]);
     }
 
     public Set<String> getAccessRuleRoles(AccessRuleKey key) {
-        Set<String> roles = new HashSet<String>();
-        for (AccessService service : accessServices) {
-            roles.addAll(service.getAccessRuleRoles(key));
-        }
-        return roles;
+        return getSnapshot().getAccessRuleRoles(key);
     }
 
     public Set<String> getUserRoles(RoleMappingKey key) {
+        return getSnapshot().getUserRoles(key);
+    }
 
-        // Use the cached version if it exists
-        Map<RoleMappingKey, Set<String>> cache = getSecurityCache().getUserRoleCache();
-        Set<String> roles = cache.get(key);
-        if (roles == null) {
-            roles = new HashSet<String>();
-            for (AccessService service : accessServices) {
-                roles.addAll(service.getUserRoles(key));
-            }
-            // Add this lookup to the cache
-            cache.put(key, roles);
+    public Set<String> getVetoRoles(AccessRuleKey accessRuleKey, RoleMappingKey roleMappingKey) {
+        return getSnapshot().getVetoRoles(accessRuleKey, roleMappingKey);
+    }
+
+    public Set<String> getAllAvailableRoles() {
+        return getSnapshot().getAllAvailableRoles();
+    }
+
+    public Set<String> getContextPackages() {
+        return getSnapshot().getContextPackages();
+    }
+
+    /**
+     * Return a view of the current content of the underlying access services,
+     * each of which is pinned to its own snapshot when it is a
+     * {@link SnapshotAccessService}. Every lookup made through the view sees
+     * that content, so a single access check can't mix roles from before and
+     * after an update of an underlying service.
+     * 
+     * The view only uses the cache while no invalidation has been made since
+     * it was created, see {@link CacheGeneration}. Underlying services may
+     * change their content under the generation of this service's cache, as
+     * {@link RepositoryAccessServiceImpl} does when its {@link VersionedSecurityCache}
+     * is set to the same cache, so that only the affected entries are removed.
+     * When an underlying service changes its snapshot without doing so, the
+     * whole cache is cleared before a view of the new content is created.
+     * Lookups made while the cache is being invalidated are made against the
+     * pinned services directly. The view is reused until the content or the
+     * cache changes, so taking one allocates nothing.
+     * 
+     * @return
+     */
+    public AccessService getSnapshot() {
+        VersionedSecurityCache cache = versioned(getSecurityCache());
+        AccessService[] services = accessServices;
+        CachingSnapshot snapshot = currentSnapshot;
+        if (snapshot != null && snapshot.isCurrent(cache, services)) {
+            return snapshot;
+        }
+        if (snapshot != null && snapshot.isStale(cache, services)) {
+            invalidate(snapshot);
+        }
+        snapshot = new CachingSnapshot(cache, services);
+        if (snapshot.cached) {
+            currentSnapshot = snapshot;
         }
-        return roles;
+        return snapshot;
     }
 
-    public Set<String> getVetoRoles(AccessRuleKey accessRuleKey, RoleMappingKey roleMappingKey) {
-        
-        // Use the cached version if it exists
-        Map<Pair<AccessRuleKey, RoleMappingKey>, Set<String>> cache = getSecurityCache().getVetoRoleCache();
+    /**
+     * Clear the cache of the given view, whose underlying services have
+     * changed their content without invalidating the cache, unless another
+     * thread already has.
+     */
+    private synchronized void invalidate(CachingSnapshot stale) {
+        if (currentSnapshot != stale || !stale.isSettled()) {
+            // replaced, or the cache was invalidated after all
+            return;
+        }
+        CacheGeneration cacheGeneration = stale.cacheGeneration;
+        cacheGeneration.beginInvalidation();
+        try {
+            stale.securityCache.clear();
+        } finally {
+            cacheGeneration.endInvalidation();
+        }
+        currentSnapshot = null;
+    }
+
+    /**
+     * Return the given cache when it is a {@link VersionedSecurityCache},
+     * otherwise a versioned view of it that is kept while the cache is in use.
+     */
+    private VersionedSecurityCache versioned(SecurityCache cache) {
+        if (cache instanceof VersionedSecurityCache) {
+            return (VersionedSecurityCache) cache;
+        }
+        LegacySecurityCache legacy = legacyCache;
+        if (legacy == null || legacy.securityCache != cache) {
+            legacy = new LegacySecurityCache(cache);
+            legacyCache = legacy;
+        }
+        return legacy;
+    }
+
+    /**
+     * Return the snapshot of the given service when it is a
+     * {@link SnapshotAccessService}, otherwise the service itself.
+     */
+    private static AccessService pin(AccessService service) {
+        if (service instanceof SnapshotAccessService) {
+            return ((SnapshotAccessService) service).getSnapshot();
+        }
+        return service;
+    }
+
+    /**
+     * Return the union of the roles found by the given lookup against each
+     * of the given access services, which is incomplete when a service timed
+     * out.
+     * 
+     * @param services
+     * @param lookup
+     * @param vetoing
+     *            true if the lookup returns vetoed roles
+     * @return
+     */
+    private DelegateFanOut.Result mergeRoles(AccessService[] services, DelegateFanOut.Lookup lookup,
+            boolean vetoing) {
+        DelegateFanOut fanOut = delegateFanOut;
+        if (fanOut != null) {
+            return fanOut.query(services, lookup, vetoing);
+        }
+        Set<String> roles = Collections.emptySet();
+        for (AccessService service : services) {
+            roles = RoleSet.merge(roles, lookup.lookup(service));
+        }
+        return new DelegateFanOut.Result(roles, 0);
+    }
 
-        // Check the cache
-        Pair<AccessRuleKey, RoleMappingKey> lookupKey = new Pair<AccessRuleKey, RoleMappingKey>(accessRuleKey,
-                roleMappingKey);
-        Set<String> roles = cache.get(lookupKey);
-        if (roles == null) {
-            roles = new HashSet<String>();
+    /**
+     * Run the given loader for the given key unless another thread is already
+     * loading it for the same generation of the cache, in which case wait for
+     * that thread's result instead.
+     * 
+     * @param cacheName
+     *            name of the cache being loaded, see {@link SecurityMetrics}
+     * @param loads
+     *            loads currently in progress
+     * @param key
+     *            key to load, which is not reused by the caller
+     * @param generation
+     *            generation of the cache the roles are loaded for
+     * @param loader
+     *            loads and caches the roles of the key
+     * @return the loaded roles
+     */
+    private <K> Set<String> loadOnce(String cacheName, ConcurrentMap<K, Load> loads, K key, long generation,
+            Callable<Set<String>> loader) {
+        Load load = new Load(loader, generation);
+        Load running = loads.putIfAbsent(key, load);
+        if (running == null) {
+            try {
+                load.run();
+            } finally {
+                loads.remove(key, load);
+            }
+        } else if (running.generation != generation) {
+            // the running load is of other content, so its roles won't do
+            load.run();
+        } else {
+            coalescedMisses.incrementAndGet();
+            SecurityMetrics metrics = securityMetrics;
+            if (metrics != null) {
+                metrics.recordCoalescedMiss(cacheName);
+            }
+            load = running;
+        }
 
-            for (AccessService service : accessServices) {
-                roles.addAll(service.getVetoRoles(accessRuleKey, roleMappingKey));
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for roles to load", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
             }
-            // Add this lookup to the cache
-            cache.put(lookupKey, roles);
+            throw new IllegalStateException("Unable to load roles", cause);
         }
-        return roles;
     }
-    
-    public Set<String> getAllAvailableRoles() {
-        // TODO cache this?
-        Set<String> roles = new HashSet<String>();
-        for (AccessService service : accessServices) {
-            roles.addAll(service.getAllAvailableRoles());
+
+    /**
+     * Report a lookup of the named cache to the {@link SecurityMetrics}, if
+     * set.
+     */
+    private void recordLookup(String cacheName, boolean hit) {
+        SecurityMetrics metrics = securityMetrics;
+        if (metrics != null) {
+            if (hit) {
+                metrics.recordCacheHit(cacheName);
+            } else {
+                metrics.recordCacheMiss(cacheName);
+            }
         }
-        return roles;
+    }
+
+    /**
+     * Return the number of cache misses that waited for the lookup of another
+     * thread instead of querying the underlying access services themselves.
+     * 
+     * @return
+     */
+    public long getCoalescedMissCount() {
+        return coalescedMisses.get();
     }
     
-    public Set<String> getContextPackages() {
-        // TODO cache this?
-        Set<String> packages = new HashSet<String>();
-        for(AccessService service : accessServices) {
-            packages.addAll(service.getContextPackages());
-        }
-        return packages;
-    }
-	
-    // FIXME decide how to pull out the caching functionality
-    // properly, for now just extend the class and replace this call
-	protected SecurityCache getSecurityCache() {
-	    return EMPTY_CACHE;
-	}
-    
-	private static final SecurityCache EMPTY_CACHE = new SecurityCache() {
+    /**
+     * Return the cache used for access rule, user and veto role lookups.
+     * 
+     * @return
+     */
+    protected SecurityCache getSecurityCache() {
+        return securityCache;
+    }
 
-        public void clear() {
-            // nothing really to clear here...
+    /**
+     * Set the {@link DelegateFanOut} used to query the underlying access
+     * services concurrently, or null to query them one after another. Defaults
+     * to null.
+     * 
+     * @param delegateFanOut
+     */
+    public void setDelegateFanOut(DelegateFanOut delegateFanOut) {
+        this.delegateFanOut = delegateFanOut;
+    }
+
+    /**
+     * Set the cache used for access rule, user and veto role lookups, which must be safe
+     * for use by concurrent threads. Defaults to a {@link BoundedSecurityCache}.
+     * 
+     * @param securityCache
+     */
+    public void setSecurityCache(SecurityCache securityCache) {
+        this.securityCache = securityCache;
+        if (securityCache instanceof BoundedSecurityCache) {
+            ((BoundedSecurityCache) securityCache).setSecurityMetrics(securityMetrics);
         }
+    }
 
-        public Map<AccessRule, Set<String>> getAccessRuleCache() {
-            return Collections.emptyMap();
+    /**
+     * Set the {@link SecurityMetrics} that cache activity is reported to, or
+     * null to stop reporting it. Evictions are reported too when the cache is
+     * a {@link BoundedSecurityCache}. Defaults to null.
+     * 
+     * @param securityMetrics
+     */
+    public void setSecurityMetrics(SecurityMetrics securityMetrics) {
+        this.securityMetrics = securityMetrics;
+        SecurityCache cache = getSecurityCache();
+        if (cache instanceof BoundedSecurityCache) {
+            ((BoundedSecurityCache) cache).setSecurityMetrics(securityMetrics);
+        }
+    }
+
+    /**
+     * A {@link VersionedSecurityCache} view of a {@link SecurityCache} that
+     * predates it, which caches no access rule lookups and has a generation of
+     * its own.
+     */
+    private static class LegacySecurityCache implements VersionedSecurityCache {
+
+        // cache this view is of
+        private final SecurityCache securityCache;
+
+        // drops the access rule lookups, which the cache has no room for
+        private final Map<AccessRuleKey, Set<String>> accessRuleKeyCache =
+                new UncachedMap<AccessRuleKey, Set<String>>();
+
+        private final CacheGeneration cacheGeneration = new CacheGeneration();
+
+        public LegacySecurityCache(SecurityCache securityCache) {
+            this.securityCache = securityCache;
         }
 
         public Map<RoleMappingKey, Set<String>> getUserRoleCache() {
-            return Collections.emptyMap();
+            return securityCache.getUserRoleCache();
         }
 
         public Map<Pair<AccessRuleKey, RoleMappingKey>, Set<String>> getVetoRoleCache() {
-            return Collections.emptyMap();
+            return securityCache.getVetoRoleCache();
         }
-    };
+
+        @Deprecated
+        public Map<AccessRule, Set<String>> getAccessRuleCache() {
+            return securityCache.getAccessRuleCache();
+        }
+
+        public Map<AccessRuleKey, Set<String>> getAccessRuleKeyCache() {
+            return accessRuleKeyCache;
+        }
+
+        public CacheGeneration getCacheGeneration() {
+            return cacheGeneration;
+        }
+
+        public void clear() {
+            securityCache.clear();
+        }
+    }
+
+    /**
+     * An always empty map that drops whatever is put in it.
+     */
+    private static class UncachedMap<K, V> extends AbstractMap<K, V> {
+
+        @Override
+        public V put(K key, V value) {
+            return null;
+        }
+
+        @Override
+        public Set<Map.Entry<K, V>> entrySet() {
+            return Collections.emptySet();
+        }
+    }
+
+    /**
+     * A load of roles for a single generation of the cache.
+     */
+    private static class Load extends FutureTask<Set<String>> {
+
+        // generation of the cache the roles are loaded for
+        private final long generation;
+
+        public Load(Callable<Set<String>> loader, long generation) {
+            super(loader);
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * A view of the underlying access services pinned to their content when
+     * the view was created, which only uses the cache while the generation of
+     * the cache stays what it was then.
+     */
+    private class CachingSnapshot implements AccessService {
+
+        // cache this view was created for
+        private final VersionedSecurityCache securityCache;
+
+        // generation of the cache when this view was created
+        private final CacheGeneration cacheGeneration;
+        private final long generation;
+
+        // underlying access services this view was created for, and each of
+        // them pinned to its content
+        private final AccessService[] delegates;
+        private final AccessService[] services;
+
+        // true if the cache held only lookups of the pinned content when this
+        // view was created
+        private final boolean cached;
+
+        public CachingSnapshot(VersionedSecurityCache securityCache, AccessService[] delegates) {
+            this.securityCache = securityCache;
+            this.cacheGeneration = securityCache.getCacheGeneration();
+            this.delegates = delegates;
+            long generation = cacheGeneration.getGeneration();
+            services = new AccessService[delegates.length];
+            for (int i = 0; i < delegates.length; i++) {
+                services[i] = pin(delegates[i]);
+            }
+            this.generation = generation;
+            this.cached = CacheGeneration.isSettled(generation) && generation == cacheGeneration.getGeneration();
+        }
+
+        /**
+         * Return true if this view still holds the current content of the
+         * given services and may use the given cache.
+         */
+        public boolean isCurrent(VersionedSecurityCache cache, AccessService[] accessServices) {
+            if (cache != securityCache || accessServices != delegates || !isSettled()) {
+                return false;
+            }
+            for (int i = 0; i < delegates.length; i++) {
+                if (pin(delegates[i]) != services[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Return true if an underlying service of the given ones has changed
+         * its content since this view was created while the given cache,
+         * which is this view's, hasn't been invalidated, so that the cache
+         * holds lookups of the previous content.
+         */
+        public boolean isStale(VersionedSecurityCache cache, AccessService[] accessServices) {
+            if (cache != securityCache || accessServices != delegates || !isSettled()) {
+                return false;
+            }
+            for (int i = 0; i < delegates.length; i++) {
+                if (pin(delegates[i]) != services[i]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Return true if the cache may be used, since it held only lookups
+         * of the pinned content and has not been invalidated since.
+         */
+        private boolean isSettled() {
+            return cached && cacheGeneration.getGeneration() == generation;
+        }
+
+        /**
+         * Return the roles cached for the given key, or null if there are
+         * none or they may not be of the pinned content.
+         */
+        private <K> Set<String> getCached(Map<K, Set<String>> cache, K key) {
+            if (!cached) {
+                return null;
+            }
+            Set<String> roles = cache.get(key);
+            if (roles != null && cacheGeneration.getGeneration() != generation) {
+                // invalidated since this view was created
+                return null;
+            }
+            return roles;
+        }
+
+        /**
+         * Cache the given roles, unless the cache has been or is being
+         * invalidated since this view was created.
+         */
+        private <K> void cache(Map<K, Set<String>> cache, K key, Set<String> roles) {
+            cacheGeneration.putIfCurrent(cache, key, roles, generation);
+        }
+
+        /**
+         * Load the roles of the given key from the pinned services, caching
+         * them when allowed and every service returned its roles.
+         */
+        private <K> Set<String> load(String cacheName, ConcurrentMap<K, Load> loads, final Map<K, Set<String>> cache,
+                final K key, final DelegateFanOut.Lookup lookup, final boolean vetoing) {
+            if (!cached) {
+                return mergeRoles(services, lookup, vetoing).getRoles();
+            }
+            return loadOnce(cacheName, loads, key, generation, new Callable<Set<String>>() {
+                public Set<String> call() {
+                    // another thread may have just finished the lookup
+                    Set<String> roles = getCached(cache, key);
+                    if (roles == null) {
+                        DelegateFanOut.Result result = mergeRoles(services, lookup, vetoing);
+                        roles = result.getRoles();
+                        if (result.isComplete()) {
+                            cache(cache, key, roles);
+                        }
+                    }
+                    return roles;
+                }
+            });
+        }
+
+        public Set<String> getAccessRuleRoles(AccessRuleKey key) {
+
+            // Use the cached version if it exists
+            Map<AccessRuleKey, Set<String>> cache = securityCache.getAccessRuleKeyCache();
+            Set<String> roles = getCached(cache, key);
+            recordLookup(SecurityMetrics.ACCESS_RULE_CACHE, roles != null);
+            if (roles == null) {
+                // Intern the key since callers may reuse it, and cache the
+                // lookup even without a rule
+                final AccessRuleKey cacheKey = keyInterner.intern(key);
+                roles = load(SecurityMetrics.ACCESS_RULE_CACHE, accessRuleLoads, cache, cacheKey,
+                        new DelegateFanOut.Lookup() {
+                            public Set<String> lookup(AccessService service) {
+                                return service.getAccessRuleRoles(cacheKey);
+                            }
+                        }, false);
+            }
+            return roles;
+        }
+
+        public Set<String> getUserRoles(RoleMappingKey key) {
+
+            // Use the cached version if it exists
+            Map<RoleMappingKey, Set<String>> cache = securityCache.getUserRoleCache();
+            Set<String> roles = getCached(cache, key);
+            recordLookup(SecurityMetrics.USER_ROLE_CACHE, roles != null);
+            if (roles == null) {
+                // Intern the key since callers may reuse it
+                final RoleMappingKey cacheKey = keyInterner.intern(key);
+                roles = load(SecurityMetrics.USER_ROLE_CACHE, userRoleLoads, cache, cacheKey,
+                        new DelegateFanOut.Lookup() {
+                            public Set<String> lookup(AccessService service) {
+                                return service.getUserRoles(cacheKey);
+                            }
+                        }, false);
+            }
+            return roles;
+        }
+
+        public Set<String> getVetoRoles(AccessRuleKey accessRuleKey, RoleMappingKey roleMappingKey) {
+
+            // Use the cached version if it exists
+            Map<Pair<AccessRuleKey, RoleMappingKey>, Set<String>> cache = securityCache.getVetoRoleCache();
+            Pair<AccessRuleKey, RoleMappingKey> lookupKey = vetoLookupKey.get();
+            lookupKey.setX(accessRuleKey);
+            lookupKey.setY(roleMappingKey);
+            Set<String> roles = getCached(cache, lookupKey);
+            lookupKey.setX(null);
+            lookupKey.setY(null);
+            recordLookup(SecurityMetrics.VETO_ROLE_CACHE, roles != null);
+            if (roles == null) {
+                // Intern the keys since callers may reuse them
+                final Pair<AccessRuleKey, RoleMappingKey> cacheKey = new Pair<AccessRuleKey, RoleMappingKey>(
+                        keyInterner.intern(accessRuleKey), keyInterner.intern(roleMappingKey));
+                roles = load(SecurityMetrics.VETO_ROLE_CACHE, vetoRoleLoads, cache, cacheKey,
+                        new DelegateFanOut.Lookup() {
+                            public Set<String> lookup(AccessService service) {
+                                return service.getVetoRoles(cacheKey.getX(), cacheKey.getY());
+                            }
+                        }, true);
+            }
+            return roles;
+        }
+
+        public Set<String> getAllAvailableRoles() {
+            Set<String> roles = Collections.emptySet();
+            for (AccessService service : services) {
+                roles = RoleSet.merge(roles, service.getAllAvailableRoles());
+            }
+            return roles;
+        }
+
+        public Set<String> getContextPackages() {
+            Set<String> packages = new HashSet<String>();
+            for (AccessService service : services) {
+                packages.addAll(service.getContextPackages());
+            }
+            return packages;
+        }
+    }
 }
@@ -0,0 +1,125 @@
+package edu.baylor.cs.holder.security.service.impl;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMappingKey;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleSet;
+import edu.baylor.cs.holder.security.util.LayeredMap;
+
+/**
+ * This class serves explicit role mappings from another
+ * {@link RoleMappingSource} with the changes made by {@link RepositoryDelta}'s
+ * layered on top, so a {@link RepositorySnapshot} can be changed without
+ * copying its mappings. Instances are immutable, {@link #with(Map, int)}
+ * returns a new instance sharing the base and the earlier changes.
+ *
+ * Since a changed mapping replaces the base mapping with the same key, lookups
+ * probe each of the at most eight stored keys that can match, see
+ * {@link RoleMappingIndex}, in the changes before the base.
+ *
+ * @author holder
+ */
+public class LayeredRoleMappings implements RoleMappingSource {
+
+    // marks a mapping removed by the changes, compared by identity
+    static final Set<String> REMOVED = Collections.unmodifiableSet(new HashSet<String>());
+
+    // mappings below the changes, never modified
+    private final RoleMappingSource base;
+
+    // roles of each changed mapping, REMOVED for removed mappings
+    private final LayeredMap<RoleMappingKey, Set<String>> changes;
+
+    // number of stored mappings
+    private final int size;
+
+    /**
+     * Serve lookups from the given mappings without any changes.
+     *
+     * @param base
+     */
+    LayeredRoleMappings(RoleMappingSource base) {
+        this(base, new LayeredMap<RoleMappingKey, Set<String>>(new HashMap<RoleMappingKey, Set<String>>()),
+                base.size());
+    }
+
+    private LayeredRoleMappings(RoleMappingSource base, LayeredMap<RoleMappingKey, Set<String>> changes, int size) {
+        this.base = base;
+        this.changes = changes;
+        this.size = size;
+    }
+
+    /**
+     * Return new mappings with the given changes applied on top of these.
+     *
+     * @param changed
+     *            roles of each changed mapping, {@link #REMOVED} for removed
+     *            mappings, keyed by keys that are no longer modified
+     * @param size
+     *            number of mappings after the changes
+     * @return
+     */
+    LayeredRoleMappings with(Map<RoleMappingKey, Set<String>> changed, int size) {
+        return new LayeredRoleMappings(base, changes.with(changed), size);
+    }
+
+    public Set<String> get(RoleMappingKey key) {
+        Set<String> roles = changes.get(key);
+        if (roles == null) {
+            return base.get(key);
+        }
+        return roles == REMOVED ? null : roles;
+    }
+
+    public Set<String> getMatchingRoles(RoleMappingKey key) {
+        if (changes.isEmpty()) {
+            return base.getMatchingRoles(key);
+        }
+
+        Set<String> matched = null;
+        Set<String> union = null;
+        RoleMappingKey candidate = new RoleMappingKey();
+        for (int u = 0; u < (key.getUserId() == null ? 1 : 2); u++) {
+            candidate.setUserId(u == 0 ? key.getUserId() : null);
+            for (int t = 0; t < (key.getContextType() == null ? 1 : 2); t++) {
+                candidate.setContextType(t == 0 ? key.getContextType() : null);
+                for (int i = 0; i < (key.getContextId() == null ? 1 : 2); i++) {
+                    candidate.setContextId(i == 0 ? key.getContextId() : null);
+                    Set<String> roles = get(candidate);
+                    if (roles == null) {
+                        continue;
+                    }
+
+                    // only start copying once a second mapping matches
+                    if (matched == null) {
+                        matched = roles;
+                    } else if (union == null && matched instanceof RoleSet && roles instanceof RoleSet
+                            && ((RoleSet) matched).getDictionary() == ((RoleSet) roles).getDictionary()) {
+                        matched = RoleSet.union((RoleSet) matched, (RoleSet) roles);
+                    } else {
+                        if (union == null) {
+                            union = new HashSet<String>(matched);
+                        }
+                        union.addAll(roles);
+                    }
+                }
+            }
+        }
+
+        if (union != null) {
+            return union;
+        }
+        if (matched != null) {
+            return matched;
+        }
+        return Collections.emptySet();
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,233 @@
+package edu.baylor.cs.holder.security.service.impl;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Set;
+
+import edu.baylor.cs.holder.security.service.accessobjects.RoleDictionary;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMappingKey;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleSet;
+
+/**
+ * This class serves explicit role mappings straight from the sorted mapping
+ * records of a snapshot written by {@link SnapshotCompiler}, usually memory
+ * mapped by {@link MappedSnapshotLoader}. Nothing is copied onto the heap at
+ * load time, and JVMs mapping the same snapshot share its pages.
+ *
+ * Each record is laid out as:
+ * <ul>
+ * <li>int flags, see {@link #USER_WILDCARD} and {@link #CONTEXT_WILDCARD}</li>
+ * <li>int context class id or {@link #NO_CONTEXT_TYPE}</li>
+ * <li>long userId, 0 for the wildcard user</li>
+ * <li>long contextId, 0 for the wildcard context</li>
+ * <li>the bitmask of the mapped roles</li>
+ * </ul>
+ * Records are sorted as ordered by
+ * {@link #compare(int, long, int, long, int, long, int, long)}, so each of the
+ * at most eight stored keys that can match a lookup, see
+ * {@link RoleMappingIndex}, is found with a binary search.
+ *
+ * The records are only read with absolute gets, so any number of threads may
+ * look up roles at the same time.
+ *
+ * @author holder
+ */
+public class MappedRoleMappings implements RoleMappingSource {
+
+    // record flags
+    static final int USER_WILDCARD = 1;
+    static final int CONTEXT_WILDCARD = 2;
+
+    // context class id of a record without a context type
+    static final int NO_CONTEXT_TYPE = -1;
+
+    // context class id of a lookup for a class this snapshot doesn't know
+    private static final int UNKNOWN_CONTEXT_TYPE = -2;
+
+    // size of a record without its bitmask
+    private static final int RECORD_HEADER_SIZE = 24;
+
+    // sorted records
+    private final ByteBuffer records;
+
+    // number of records
+    private final int count;
+
+    // size of each record in bytes
+    private final int recordSize;
+
+    private final RoleDictionary roleDictionary;
+
+    // id of each context class of the snapshot
+    private final Map<Class<?>, Integer> contextTypeIds;
+
+    /**
+     * Serve lookups from the given records, which start at index 0 of the
+     * buffer.
+     *
+     * @param records
+     *            sorted mapping records
+     * @param count
+     *            number of records
+     * @param roleDictionary
+     *            dictionary of the role bitmasks
+     * @param contextTypeIds
+     *            id of each context class
+     */
+    MappedRoleMappings(ByteBuffer records, int count, RoleDictionary roleDictionary,
+            Map<Class<?>, Integer> contextTypeIds) {
+        this.records = records;
+        this.count = count;
+        this.recordSize = getRecordSize(roleDictionary);
+        this.roleDictionary = roleDictionary;
+        this.contextTypeIds = contextTypeIds;
+    }
+
+    /**
+     * Return the size in bytes of a record holding roles of the given
+     * dictionary.
+     *
+     * @param roleDictionary
+     * @return
+     */
+    static int getRecordSize(RoleDictionary roleDictionary) {
+        return RECORD_HEADER_SIZE + 8 * roleDictionary.getWordCount();
+    }
+
+    public Set<String> getMatchingRoles(RoleMappingKey key) {
+        int lookupContextType = NO_CONTEXT_TYPE;
+        if (key.getContextType() != null) {
+            Integer id = contextTypeIds.get(key.getContextType());
+            lookupContextType = id == null ? UNKNOWN_CONTEXT_TYPE : id.intValue();
+        }
+
+        long[] words = null;
+        int userFlag = key.getUserId() == null ? USER_WILDCARD : 0;
+        long userId = key.getUserId() == null ? 0 : key.getUserId();
+        for (int u = 0; u < 2; u++) {
+            // second pass checks the wildcard user, unless we already did
+            if (u == 1) {
+                if (userFlag == USER_WILDCARD) {
+                    break;
+                }
+                userFlag = USER_WILDCARD;
+                userId = 0;
+            }
+
+            int contextType = lookupContextType;
+            for (int t = 0; t < 2; t++) {
+                if (t == 1) {
+                    if (contextType == NO_CONTEXT_TYPE) {
+                        break;
+                    }
+                    contextType = NO_CONTEXT_TYPE;
+                } else if (contextType == UNKNOWN_CONTEXT_TYPE) {
+                    // only mappings without a context type can match
+                    continue;
+                }
+
+                int contextFlag = key.getContextId() == null ? CONTEXT_WILDCARD : 0;
+                long contextId = key.getContextId() == null ? 0 : key.getContextId();
+                for (int i = 0; i < 2; i++) {
+                    if (i == 1) {
+                        if (contextFlag == CONTEXT_WILDCARD) {
+                            break;
+                        }
+                        contextFlag = CONTEXT_WILDCARD;
+                        contextId = 0;
+                    }
+                    int offset = find(userFlag | contextFlag, userId, contextType, contextId);
+                    if (offset >= 0) {
+                        words = readRoles(offset, words);
+                    }
+                }
+            }
+        }
+
+        return words == null ? roleDictionary.getEmptyRoles() : roleDictionary.decode(words);
+    }
+
+    public Set<String> get(RoleMappingKey key) {
+        int contextType = NO_CONTEXT_TYPE;
+        if (key.getContextType() != null) {
+            Integer id = contextTypeIds.get(key.getContextType());
+            if (id == null) {
+                return null;
+            }
+            contextType = id.intValue();
+        }
+        int flags = (key.getUserId() == null ? USER_WILDCARD : 0) | (key.getContextId() == null ? CONTEXT_WILDCARD : 0);
+        int offset = find(flags, key.getUserId() == null ? 0 : key.getUserId(), contextType,
+                key.getContextId() == null ? 0 : key.getContextId());
+        return offset < 0 ? null : roleDictionary.decode(readRoles(offset, null));
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Return the offset of the record with the exact given key or -1 if there
+     * is no such record.
+     */
+    private int find(int flags, long userId, int contextType, long contextId) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int offset = middle * recordSize;
+            int c = compare(records.getInt(offset), records.getLong(offset + 8), records.getInt(offset + 4),
+                    records.getLong(offset + 16), flags, userId, contextType, contextId);
+            if (c < 0) {
+                low = middle + 1;
+            } else if (c > 0) {
+                high = middle - 1;
+            } else {
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Add the roles of the record at the given offset to the given words,
+     * allocating them if null.
+     */
+    private long[] readRoles(int offset, long[] words) {
+        if (words == null) {
+            words = new long[roleDictionary.getWordCount()];
+        }
+        for (int i = 0; i < words.length; i++) {
+            words[i] |= records.getLong(offset + RECORD_HEADER_SIZE + 8 * i);
+        }
+        return words;
+    }
+
+    /**
+     * Compare two record keys, ordering by userId then contextType then
+     * contextId, with wildcard userIds and contextIds first.
+     *
+     * @return
+     */
+    static int compare(int flagsA, long userIdA, int contextTypeA, long contextIdA, int flagsB, long userIdB,
+            int contextTypeB, long contextIdB) {
+        int c = (flagsB & USER_WILDCARD) - (flagsA & USER_WILDCARD);
+        if (c == 0) {
+            c = compare(userIdA, userIdB);
+        }
+        if (c == 0) {
+            c = compare(contextTypeA, contextTypeB);
+        }
+        if (c == 0) {
+            c = (flagsB & CONTEXT_WILDCARD) - (flagsA & CONTEXT_WILDCARD);
+        }
+        if (c == 0) {
+            c = compare(contextIdA, contextIdB);
+        }
+        return c;
+    }
+
+    private static int compare(long a, long b) {
+        return a < b ? -1 : (a > b ? 1 : 0);
+    }
+}
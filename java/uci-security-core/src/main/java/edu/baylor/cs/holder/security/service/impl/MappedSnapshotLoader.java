@@ -0,0 +1,265 @@
+package edu.baylor.cs.holder.security.service.impl;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import edu.baylor.cs.holder.security.service.accessobjects.AccessRuleKey;
+import edu.baylor.cs.holder.security.service.accessobjects.ImmutableAccessRuleKey;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleDictionary;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleHierarchy;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleSet;
+
+/**
+ * This class loads a snapshot written by {@link SnapshotCompiler} into a
+ * {@link RepositorySnapshot} that {@link RepositoryAccessServiceImpl} can
+ * serve lookups from, see
+ * {@link RepositoryAccessServiceImpl#update(RepositorySnapshot)}.
+ *
+ * The snapshot file is memory mapped. Only the dictionaries and access rules
+ * are read onto the heap, while role mappings are looked up directly in the
+ * mapped file by {@link MappedRoleMappings}, so loading takes time
+ * proportional to the number of rules rather than the number of mappings and
+ * JVMs on the same host share the mapped pages.
+ *
+ * The content of a snapshot was validated when it was compiled and is not
+ * validated again, apart from its format version, so a snapshot file must
+ * not be modified once written.
+ *
+ * @author holder
+ */
+public class MappedSnapshotLoader {
+
+    private static final Log log = LogFactory.getLog(MappedSnapshotLoader.class);
+
+    /**
+     * Memory map the given snapshot file and return its content.
+     *
+     * @param file
+     *            snapshot written by {@link SnapshotCompiler}
+     * @return the content of the snapshot
+     * @throws IOException
+     *             thrown when the file can't be mapped
+     * @throws IllegalArgumentException
+     *             thrown when the file is not a snapshot of a supported
+     *             version or its context classes can't be found
+     */
+    public static RepositorySnapshot load(File file) throws IOException, IllegalArgumentException {
+        ByteBuffer buffer;
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Snapshot is too large to map: " + file);
+            }
+            // the mapping stays valid once the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            in.close();
+        }
+
+        RepositorySnapshot snapshot = load(buffer);
+        if (log.isInfoEnabled()) {
+            log.info("Mapped snapshot " + file + " of " + buffer.capacity() + " bytes");
+        }
+        return snapshot;
+    }
+
+    /**
+     * Return the content of the snapshot held by the given buffer, from its
+     * current position to its limit. Role mappings are served from the buffer
+     * itself, which must not be modified afterwards.
+     *
+     * @param buffer
+     *            snapshot written by {@link SnapshotCompiler}
+     * @return the content of the snapshot
+     * @throws IllegalArgumentException
+     *             thrown when the buffer does not hold a snapshot of a
+     *             supported version or its context classes can't be found
+     */
+    public static RepositorySnapshot load(ByteBuffer buffer) throws IllegalArgumentException {
+        buffer = buffer.duplicate();
+        DataInputStream data = new DataInputStream(new BufferInputStream(buffer));
+        try {
+            if (data.readInt() != SnapshotCompiler.MAGIC) {
+                throw new IllegalArgumentException("Not a security snapshot");
+            }
+            int version = data.readInt();
+            if (version != SnapshotCompiler.VERSION) {
+                throw new IllegalArgumentException("Unsupported snapshot version: " + version);
+            }
+
+            RoleDictionary roleDictionary = readRoleDictionary(data);
+
+            Set<String> contextPackages = new LinkedHashSet<String>();
+            int packageCount = data.readInt();
+            for (int i = 0; i < packageCount; i++) {
+                contextPackages.add(data.readUTF());
+            }
+
+            Class<?>[] contextTypes = new Class<?>[data.readInt()];
+            Map<Class<?>, Integer> contextTypeIds = new HashMap<Class<?>, Integer>();
+            for (int id = 0; id < contextTypes.length; id++) {
+                contextTypes[id] = getContextClass(data.readUTF());
+                contextTypeIds.put(contextTypes[id], id);
+            }
+
+            RoleSet allAvailableRoles = readRoles(data, roleDictionary);
+            RoleHierarchy roleHierarchy = readRoleHierarchy(data, roleDictionary);
+            Map<AccessRuleKey, Set<String>> accessRuleMap = readAccessRules(data, roleDictionary, contextTypes);
+            Map<AccessRuleKey, Set<String>> wildcardRuleMap = readAccessRules(data, roleDictionary, contextTypes);
+            List<VetoRuleIndex.Entry> vetoRules = readVetoRules(data, roleDictionary, contextTypes);
+
+            // the remainder of the snapshot holds the mapping records
+            int mappingCount = data.readInt();
+            ByteBuffer records = buffer.slice();
+            if (records.capacity() != (long) mappingCount * MappedRoleMappings.getRecordSize(roleDictionary)) {
+                throw new IllegalArgumentException("Snapshot holds " + records.capacity()
+                        + " bytes of role mappings, expected " + mappingCount + " mappings");
+            }
+            MappedRoleMappings roleMappings = new MappedRoleMappings(records, mappingCount, roleDictionary,
+                    contextTypeIds);
+
+            return new RepositorySnapshot(roleDictionary, roleHierarchy, accessRuleMap, wildcardRuleMap, vetoRules,
+                    roleMappings, allAvailableRoles, contextPackages);
+        } catch (EOFException e) {
+            throw new IllegalArgumentException("Snapshot is truncated", e);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("An error has occurred while reading snapshot", e);
+        }
+    }
+
+    private static RoleHierarchy readRoleHierarchy(DataInputStream data, RoleDictionary roleDictionary)
+            throws IOException {
+        Map<String, Set<String>> implications = new HashMap<String, Set<String>>();
+        for (int id = 0; id < roleDictionary.size(); id++) {
+            RoleSet implied = readRoles(data, roleDictionary);
+            if (!implied.isEmpty()) {
+                implications.put(roleDictionary.getRole(id), implied);
+            }
+        }
+        return implications.isEmpty() ? RoleHierarchy.EMPTY : new RoleHierarchy(implications);
+    }
+
+    private static RoleDictionary readRoleDictionary(DataInputStream data) throws IOException {
+        List<String> roles = new ArrayList<String>();
+        int roleCount = data.readInt();
+        for (int i = 0; i < roleCount; i++) {
+            roles.add(data.readUTF());
+        }
+
+        // ids are assigned the same way they were when compiling
+        RoleDictionary roleDictionary = new RoleDictionary(roles);
+        for (int id = 0; id < roleCount; id++) {
+            if (!roles.get(id).equals(roleDictionary.getRole(id))) {
+                throw new IllegalArgumentException("Snapshot roles are out of order at: " + roles.get(id));
+            }
+        }
+        return roleDictionary;
+    }
+
+    private static Map<AccessRuleKey, Set<String>> readAccessRules(DataInputStream data,
+            RoleDictionary roleDictionary, Class<?>[] contextTypes) throws IOException {
+        Map<AccessRuleKey, Set<String>> accessRuleMap = new HashMap<AccessRuleKey, Set<String>>();
+        int ruleCount = data.readInt();
+        for (int i = 0; i < ruleCount; i++) {
+            String category = readString(data);
+            String action = readString(data);
+
+            List<Class<?>> contexts = null;
+            int contextCount = data.readInt();
+            if (contextCount >= 0) {
+                contexts = new ArrayList<Class<?>>(contextCount);
+                for (int j = 0; j < contextCount; j++) {
+                    contexts.add(contextTypes[data.readInt()]);
+                }
+            }
+            AccessRuleKey key = ImmutableAccessRuleKey.copyOf(new AccessRuleKey(category, action, contexts));
+            accessRuleMap.put(key, readRoles(data, roleDictionary));
+        }
+        return accessRuleMap;
+    }
+
+    private static RoleSet readRoles(DataInputStream data, RoleDictionary roleDictionary) throws IOException {
+        long[] words = new long[roleDictionary.getWordCount()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = data.readLong();
+        }
+        return roleDictionary.decode(words);
+    }
+
+    private static List<VetoRuleIndex.Entry> readVetoRules(DataInputStream data, RoleDictionary roleDictionary,
+            Class<?>[] contextTypes) throws IOException {
+        int vetoRuleCount = data.readInt();
+        List<VetoRuleIndex.Entry> vetoRules = new ArrayList<VetoRuleIndex.Entry>(vetoRuleCount);
+        for (int i = 0; i < vetoRuleCount; i++) {
+            String category = readString(data);
+            String action = readString(data);
+            int contextType = data.readInt();
+            String condition = readString(data);
+            vetoRules.add(new VetoRuleIndex.Entry(category, action, contextType < 0 ? null
+                    : contextTypes[contextType], condition, readRoles(data, roleDictionary)));
+        }
+        return vetoRules;
+    }
+
+    /**
+     * Read a string that may be null.
+     */
+    private static String readString(DataInputStream data) throws IOException {
+        return data.readBoolean() ? data.readUTF() : null;
+    }
+
+    private static Class<?> getContextClass(String className) throws IllegalArgumentException {
+        try {
+            return Class.forName(className);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("No class found for context: " + className, e);
+        }
+    }
+
+    /**
+     * Reads a {@link ByteBuffer} from its position, leaving the position just
+     * past the last byte read.
+     */
+    private static class BufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        public BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            length = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, length);
+            return length;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package edu.baylor.cs.holder.security.service.impl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+
+import edu.baylor.cs.holder.security.service.accessobjects.AccessRuleKey;
+import edu.baylor.cs.holder.security.service.accessobjects.ImmutableAccessRuleKey;
+
+/**
+ * This class reports lookups of access rules that don't exist without
+ * logging every one of them. The first lookup of each missing rule is logged
+ * straight away, after which lookups are counted per rule and the counts are
+ * logged at most once per interval, on the first lookup after the interval
+ * has passed.
+ *
+ * At most {@link #MAXIMUM_KEYS} distinct rules are counted on their own, so
+ * that lookups of ever new rules can't exhaust memory. Lookups of rules
+ * beyond that are counted together.
+ *
+ * Veto conditions that veto rules name but that aren't set are logged once
+ * each, until {@link #clearMissingConditions()}.
+ *
+ * @author holder
+ */
+public class MissingRuleReporter {
+
+    /**
+     * Default number of milliseconds between reports.
+     */
+    public static final long DEFAULT_INTERVAL_MILLIS = 60000;
+
+    /**
+     * Largest number of distinct missing rules counted on their own.
+     */
+    public static final int MAXIMUM_KEYS = 1000;
+
+    // time of the next report before the first lookup
+    private static final long UNSCHEDULED = Long.MIN_VALUE;
+
+    private final Log log;
+
+    private final long intervalMillis;
+
+    // lookups of each missing rule since the last report, keyed by copies
+    private final ConcurrentMap<AccessRuleKey, AtomicLong> counts = new ConcurrentHashMap<AccessRuleKey, AtomicLong>();
+
+    // lookups of missing rules beyond MAXIMUM_KEYS since the last report
+    private final AtomicLong otherCount = new AtomicLong();
+
+    // time of the next report
+    private final AtomicLong nextReport = new AtomicLong(UNSCHEDULED);
+
+    // names of the veto conditions found missing, named by the veto rules
+    private final ConcurrentMap<String, Boolean> missingConditions = new ConcurrentHashMap<String, Boolean>();
+
+    /**
+     * Report to the given log with the default interval.
+     *
+     * @param log
+     */
+    public MissingRuleReporter(Log log) {
+        this(log, DEFAULT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Report to the given log at most once per given interval.
+     *
+     * @param log
+     * @param intervalMillis
+     */
+    public MissingRuleReporter(Log log, long intervalMillis) {
+        if (intervalMillis < 0) {
+            throw new IllegalArgumentException("Interval may not be negative: " + intervalMillis);
+        }
+        this.log = log;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Count a lookup of the missing rule with the given key, which may be
+     * reused by the caller.
+     *
+     * @param key
+     */
+    public void missing(AccessRuleKey key) {
+        AtomicLong count = counts.get(key);
+        if (count == null) {
+            if (counts.size() >= MAXIMUM_KEYS) {
+                otherCount.incrementAndGet();
+            } else if (counts.putIfAbsent(ImmutableAccessRuleKey.copyOf(key), new AtomicLong()) == null) {
+                if (log.isErrorEnabled()) {
+                    log.error("No rule found for: " + format(key) + ", further lookups are reported every "
+                            + intervalMillis + "ms");
+                }
+            } else {
+                counts.get(key).incrementAndGet();
+            }
+        } else {
+            count.incrementAndGet();
+        }
+
+        long now = currentTimeMillis();
+        long next = nextReport.get();
+        if (next == UNSCHEDULED) {
+            nextReport.compareAndSet(next, now + intervalMillis);
+        } else if (now >= next && nextReport.compareAndSet(next, now + intervalMillis)) {
+            report();
+        }
+    }
+
+    /**
+     * Log the first lookup of the missing veto condition with the given name.
+     *
+     * @param condition
+     */
+    public void missingCondition(String condition) {
+        if (missingConditions.putIfAbsent(condition, Boolean.TRUE) == null && log.isErrorEnabled()) {
+            log.error("No veto condition found for: " + condition + ", vetoing its roles");
+        }
+    }
+
+    /**
+     * Forget the veto conditions found missing, so that each is logged again
+     * if it's still missing.
+     */
+    public void clearMissingConditions() {
+        missingConditions.clear();
+    }
+
+    /**
+     * Log and reset the counts of every missing rule looked up since the last
+     * report.
+     */
+    public void report() {
+        for (Map.Entry<AccessRuleKey, AtomicLong> entry : counts.entrySet()) {
+            long count = entry.getValue().getAndSet(0);
+            if (count > 0 && log.isErrorEnabled()) {
+                log.error("No rule found for: " + format(entry.getKey()) + ", looked up " + count + " times");
+            }
+        }
+        long others = otherCount.getAndSet(0);
+        if (others > 0 && log.isErrorEnabled()) {
+            log.error("No rule found for " + others + " lookups of other rules");
+        }
+    }
+
+    /**
+     * Return the number of lookups of the missing rule with the given key
+     * since the last report, not counting the first lookup which is logged
+     * straight away.
+     *
+     * @param key
+     * @return
+     */
+    public long getCount(AccessRuleKey key) {
+        AtomicLong count = counts.get(key);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * Return the current time in milliseconds, as used for the interval.
+     *
+     * @return
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private static String format(AccessRuleKey key) {
+        return key.getCategory() + "." + key.getAction() + " " + key.getContexts();
+    }
+}
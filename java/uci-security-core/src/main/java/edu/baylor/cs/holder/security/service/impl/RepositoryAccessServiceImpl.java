@@ -1,21 +1,28 @@
 package edu.baylor.cs.holder.security.service.impl;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import edu.baylor.cs.holder.security.service.AccessService;
+import edu.baylor.cs.holder.security.service.VersionedSecurityCache;
+import edu.baylor.cs.holder.security.service.SecurityMetrics;
 import edu.baylor.cs.holder.security.service.SecurityRepository;
+import edu.baylor.cs.holder.security.service.SnapshotAccessService;
+import edu.baylor.cs.holder.security.service.VetoCondition;
 import edu.baylor.cs.holder.security.service.accessobjects.AccessRule;
 import edu.baylor.cs.holder.security.service.accessobjects.AccessRuleKey;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleDictionary;
 import edu.baylor.cs.holder.security.service.accessobjects.RoleMapping;
 import edu.baylor.cs.holder.security.service.accessobjects.RoleMappingKey;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleSet;
+import edu.baylor.cs.holder.security.util.CacheGeneration;
 
 /**
  * This class populates the access rules and explicit role mappings from a
@@ -29,12 +36,40 @@ import edu.baylor.cs.holder.security.service.accessobjects.RoleMappingKey;
  * UserId, ContextType, * <br>
  * UserId, ContextType, ContextId<br>
  * 
+ * Explicit role mappings are held in a {@link RoleMappingIndex} so that each
+ * of these lookups only visits the mappings that actually match the key.
+ * 
+ * All roles handed out by this class are {@link RoleSet}'s encoded by a single
+ * {@link RoleDictionary} built at load time, which allows callers such as
+ * {@link SecurityServiceImpl} to evaluate access with bitwise operations.
+ * 
  * This class also returns those AccessRule roles stored for the given
  * AccessRoleKey.
  * 
+ * The content of a repository is loaded into an immutable
+ * {@link RepositorySnapshot} which is published with a single volatile write,
+ * so {@link #update(SecurityRepository)} may be called at any time to reload
+ * the repository while lookups continue without locking. Callers that need a
+ * consistent view across several lookups use {@link #getSnapshot()}.
+ * 
+ * Individual access rules and role mappings may be added, removed or replaced
+ * without reloading through a {@link RepositoryDelta}, see
+ * {@link #apply(RepositoryDelta)}. When a {@link VersionedSecurityCache} is
+ * set, only the entries affected by each change are evicted from it, while
+ * updates clear it. To reload whenever the repository files change on disk, see
+ * {@link RepositoryFileWatcher}.
+ * 
+ * Roles are vetoed by the veto rules of the repository, each of which may
+ * name a {@link VetoCondition} that must hold for its roles to be vetoed, see
+ * {@link #setVetoConditions(Map)}.
+ * 
+ * To skip parsing the repository at startup, its content may instead be
+ * compiled ahead of time by {@link SnapshotCompiler} and memory mapped by
+ * {@link MappedSnapshotLoader}, see {@link #update(RepositorySnapshot)}.
+ * 
  * @author holder
  */
-public class RepositoryAccessServiceImpl implements AccessService {
+public class RepositoryAccessServiceImpl implements SnapshotAccessService {
 
     /**
      * UID
@@ -44,156 +79,359 @@ public class RepositoryAccessServiceImpl implements AccessService {
     private Log log = LogFactory.getLog(getClass());
 
     /**
-     * This map is filled in and keyed with all of the access rules defined in
-     * the system. Its purpose is to allow quick lookup of an access rule given
-     * the category and the action. We can build an access rule key and then
-     * fill in the necessary elements to look up the real access rule that holds
-     * the roles.
+     * Reports lookups of missing rules and veto conditions, handed to each
+     * snapshot.
      */
-    protected Map<AccessRuleKey, Set<String>> accessRuleMap = new HashMap<AccessRuleKey, Set<String>>();
+    private MissingRuleReporter missingRuleReporter = new MissingRuleReporter(log);
 
     /**
-     * This map is filled in and keyed with all of the explicit role mappings.
-     * Its purpose is to allow quick lookup of a role mapping given a UserId and
-     * Context. We can build a role mapping key and then fill in the necessary
-     * elements to look up the real role mapping that holds the roles.
+     * The content of the last loaded repository, replaced as a whole on each
+     * update.
      */
-    protected Map<RoleMappingKey, Set<String>> roleMap = new HashMap<RoleMappingKey, Set<String>>();
-    
+    private volatile RepositorySnapshot snapshot = RepositorySnapshot.EMPTY.withMissingRuleReporter(
+            missingRuleReporter);
+
     /**
-     * This set contains all of the available roles.
+     * Receives the time taken to load each repository, null when not
+     * measured.
      */
-    protected Set<String> allAvailableRoles = Collections.emptySet();
-    
+    private volatile SecurityMetrics securityMetrics;
+
     /**
-     * This set contains all of the context packages.
+     * Cache of lookups served by this service, cleared on each update and
+     * evicted on each incremental change, null when not cached.
      */
-    protected Set<String> allContextPackages = Collections.emptySet();
+    private volatile VersionedSecurityCache securityCache;
 
     /**
-     * Used to only allow a single initialization call to the update() method,
-     * such as at startup to bootstrap this class.
+     * Conditions of the veto rules, keyed by the names the rules refer to
+     * them with, handed to each snapshot.
      */
-    private AtomicBoolean updated = new AtomicBoolean(false);
+    private Map<String, VetoCondition> vetoConditions = Collections.emptyMap();
 
     /**
      * Use the given {@link SecurityRepository} to update this service with new
      * access rules, role mappings, and available roles, replacing all existing
      * content.
      * 
-     * NOTE: Subsequent calls to this method will not result in further updates.
-     * Future versions will include better thread safety to support dynamic
-     * updates, etc.
-     */
-    public void update(SecurityRepository securityRepository) {
-       
-        // only allow one update call, for thread safety right now
-        boolean alreadyUpdated = updated.getAndSet(true);
-        if(!alreadyUpdated) {
-            
-            // clear previous data load up the repository data
-            accessRuleMap.clear();
-            for(AccessRule rule : securityRepository.getAccessRules()) {
-                addAccessRule(rule);
-            }
-            
-            roleMap.clear();
-            for(RoleMapping roleMapping : securityRepository.getRoleMappings()) {
-                addRoleMapping(roleMapping);
+     * The new content is fully built before it replaces the existing content,
+     * so lookups never see a partial update. When the repository is invalid an
+     * {@link IllegalArgumentException} is thrown and the existing content is
+     * kept. Concurrent updates are applied one at a time.
+     * 
+     * @param securityRepository
+     * @throws IllegalArgumentException
+     *             thrown when the repository contains duplicate access rules
+     *             or role mappings
+     */
+    public synchronized void update(SecurityRepository securityRepository) throws IllegalArgumentException {
+        long start = System.nanoTime();
+        RepositorySnapshot updated = new RepositorySnapshot(securityRepository);
+        SecurityMetrics metrics = securityMetrics;
+        if (metrics != null) {
+            metrics.recordRepositoryLoad(System.nanoTime() - start);
+        }
+        update(updated);
+    }
+
+    /**
+     * Replace all existing content with the given snapshot, such as one
+     * compiled by {@link SnapshotCompiler} and loaded by
+     * {@link MappedSnapshotLoader}, clearing the {@link VersionedSecurityCache}
+     * if set. The veto conditions and missing rule reporter of this service replace
+     * those of the snapshot.
+     * 
+     * @param updated
+     */
+    public synchronized void update(RepositorySnapshot updated) {
+        VersionedSecurityCache cache = securityCache;
+        beginInvalidation(cache);
+        try {
+            snapshot = updated.withVetoConditions(vetoConditions).withMissingRuleReporter(missingRuleReporter);
+            if (cache != null) {
+                cache.clear();
             }
-            
-            allAvailableRoles = Collections.unmodifiableSet(securityRepository.getAllRoles());
-            allContextPackages = Collections.unmodifiableSet(securityRepository.getContextPackages());
+        } finally {
+            endInvalidation(cache);
+        }
+        
+        if (log.isInfoEnabled()) {
+            log.info("Loaded " + updated.getAccessRuleMap().size() + " access rules and "
+                    + updated.getRoleMappingCount() + " role mappings");
         }
     }
 
-    public Set<String> getAccessRuleRoles(AccessRuleKey key) {
-        Set<String> roles = accessRuleMap.get(key);
-        if (roles == null) {
-            if(log.isErrorEnabled()) {
-                log.error("No rule found for: " + key.getCategory() + "."
-                        + key.getAction() + " " + key.getContexts());
+    /**
+     * Apply the changes of the given delta in order, all at once. Lookups see
+     * either none or all of the changes, and when any change is invalid an
+     * {@link IllegalArgumentException} is thrown and none are applied. Time
+     * taken is proportional to the number of changes, see
+     * {@link RepositorySnapshot#apply(RepositoryDelta)}.
+     * 
+     * Once applied, the cache entries affected by the changes are evicted from
+     * the {@link VersionedSecurityCache}, if set. Lookups that were already
+     * loading when the changes were applied don't cache the previous roles, see
+     * {@link CacheGeneration}.
+     * 
+     * @param delta
+     *            changes to apply
+     * @throws IllegalArgumentException
+     *             thrown when a change is invalid
+     */
+    public synchronized void apply(RepositoryDelta delta) throws IllegalArgumentException {
+        if (delta.isEmpty()) {
+            return;
+        }
+        RepositorySnapshot updated = snapshot.apply(delta);
+
+        VersionedSecurityCache cache = securityCache;
+        beginInvalidation(cache);
+        try {
+            snapshot = updated;
+            if (cache != null) {
+                evict(cache, delta);
             }
-            roles = Collections.emptySet();
+        } finally {
+            endInvalidation(cache);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Applied " + delta.size() + " changes");
         }
-        return roles;
     }
 
-    public Set<String> getUserRoles(RoleMappingKey key) {
+    /**
+     * Add the given role mapping, which must not exist yet.
+     * 
+     * @param roleMapping
+     * @throws IllegalArgumentException
+     *             thrown when the mapping exists or has an unknown role
+     */
+    public void addRoleMapping(RoleMapping roleMapping) throws IllegalArgumentException {
+        RepositoryDelta delta = new RepositoryDelta();
+        delta.addRoleMapping(roleMapping);
+        apply(delta);
+    }
+
+    /**
+     * Remove the role mapping with the given key.
+     * 
+     * @param key
+     * @throws IllegalArgumentException
+     *             thrown when the mapping doesn't exist
+     */
+    public void removeRoleMapping(RoleMappingKey key) throws IllegalArgumentException {
+        RepositoryDelta delta = new RepositoryDelta();
+        delta.removeRoleMapping(key);
+        apply(delta);
+    }
+
+    /**
+     * Replace the roles of the existing role mapping with the key of the given
+     * one.
+     * 
+     * @param roleMapping
+     * @throws IllegalArgumentException
+     *             thrown when the mapping doesn't exist or has an unknown role
+     */
+    public void replaceRoleMapping(RoleMapping roleMapping) throws IllegalArgumentException {
+        RepositoryDelta delta = new RepositoryDelta();
+        delta.replaceRoleMapping(roleMapping);
+        apply(delta);
+    }
 
-        // Roles to return
-        Set<String> roles = new HashSet<String>();
+    /**
+     * Add the given access rule, which must not exist yet.
+     * 
+     * @param accessRule
+     * @throws IllegalArgumentException
+     *             thrown when the rule exists or has an unknown role
+     */
+    public void addAccessRule(AccessRule accessRule) throws IllegalArgumentException {
+        RepositoryDelta delta = new RepositoryDelta();
+        delta.addAccessRule(accessRule);
+        apply(delta);
+    }
 
-        // Using naive implementation, this won't scale well if the XML
-        // role mappings grow too large but it's cached anyway so...
-        for (RoleMappingKey existingKey : roleMap.keySet()) {
+    /**
+     * Remove the access rule with the given key.
+     * 
+     * @param key
+     * @throws IllegalArgumentException
+     *             thrown when the rule doesn't exist
+     */
+    public void removeAccessRule(AccessRuleKey key) throws IllegalArgumentException {
+        RepositoryDelta delta = new RepositoryDelta();
+        delta.removeAccessRule(key);
+        apply(delta);
+    }
 
-            // Check if the existing key matches the current key
-            if (existingKey.matches(key)) {
-                Set<String> newRoles = roleMap.get(existingKey);
-                roles.addAll(newRoles);
+    /**
+     * Replace the roles of the existing access rule with the key of the given
+     * one.
+     * 
+     * @param accessRule
+     * @throws IllegalArgumentException
+     *             thrown when the rule doesn't exist or has an unknown role
+     */
+    public void replaceAccessRule(AccessRule accessRule) throws IllegalArgumentException {
+        RepositoryDelta delta = new RepositoryDelta();
+        delta.replaceAccessRule(accessRule);
+        apply(delta);
+    }
+
+    /**
+     * Evict the entries affected by the given changes from the given cache.
+     * Access rules are cached by their exact key, as are the lookups a
+     * mapping without wildcards matches. Mappings with wildcards may match
+     * any number of cached lookups, which are found with a single pass over
+     * the user role cache.
+     */
+    private void evict(VersionedSecurityCache cache, RepositoryDelta delta) {
+        Map<AccessRuleKey, Set<String>> accessRuleCache = cache.getAccessRuleKeyCache();
+        Map<RoleMappingKey, Set<String>> userRoleCache = cache.getUserRoleCache();
+        List<RoleMappingKey> wildcardKeys = new ArrayList<RoleMappingKey>();
+        for (RepositoryDelta.Change change : delta.getChanges()) {
+            if (change.accessRuleKey != null) {
+                accessRuleCache.remove(change.accessRuleKey);
+            } else if (change.roleMappingKey.getUserId() == null || change.roleMappingKey.getContextType() == null
+                    || change.roleMappingKey.getContextId() == null) {
+                wildcardKeys.add(change.roleMappingKey);
+            } else {
+                userRoleCache.remove(change.roleMappingKey);
             }
         }
 
-        return roles;
+        if (!wildcardKeys.isEmpty()) {
+            for (Iterator<RoleMappingKey> i = userRoleCache.keySet().iterator(); i.hasNext();) {
+                RoleMappingKey cached = i.next();
+                for (RoleMappingKey key : wildcardKeys) {
+                    if (key.matches(cached)) {
+                        i.remove();
+                        break;
+                    }
+                }
+            }
+        }
     }
-    
-    public Set<String> getVetoRoles(AccessRuleKey accessRuleKey, RoleMappingKey roleMappingKey) {
-        return Collections.emptySet();
+
+    /**
+     * Set the {@link VersionedSecurityCache} to clear on each update and to
+     * evict the entries affected by incremental changes from, usually the
+     * cache of a {@link GenericCachingAccessServiceImpl} in front of this
+     * service, or null if lookups aren't cached. Defaults to null.
+     * 
+     * @param securityCache
+     */
+    public void setSecurityCache(VersionedSecurityCache securityCache) {
+        this.securityCache = securityCache;
     }
-    
-    public Set<String> getAllAvailableRoles() {
-        return allAvailableRoles;
+
+    /**
+     * Set the conditions that veto rules refer to by name, which take effect
+     * immediately and are kept across updates. The roles of a veto rule naming
+     * a condition that isn't set are always vetoed. Defaults to no conditions.
+     * 
+     * @param vetoConditions
+     *            conditions keyed by name
+     */
+    public synchronized void setVetoConditions(Map<String, VetoCondition> vetoConditions) {
+        this.vetoConditions = Collections.unmodifiableMap(new HashMap<String, VetoCondition>(vetoConditions));
+        missingRuleReporter.clearMissingConditions();
+
+        VersionedSecurityCache cache = securityCache;
+        beginInvalidation(cache);
+        try {
+            snapshot = snapshot.withVetoConditions(this.vetoConditions);
+            if (cache != null) {
+                cache.getVetoRoleCache().clear();
+            }
+        } finally {
+            endInvalidation(cache);
+        }
     }
-    
-    public Set<String> getContextPackages() {
-        return allContextPackages;
+
+    /**
+     * Return the reporter of lookups of missing rules and veto conditions.
+     * 
+     * @return
+     */
+    public synchronized MissingRuleReporter getMissingRuleReporter() {
+        return missingRuleReporter;
     }
 
     /**
-     * Add an access rule to this repository checking for duplicate rules and
-     * throwing an {@link IllegalArgumentException} if they occur.
+     * Set the reporter of lookups of missing rules and veto conditions, which
+     * takes effect immediately and is kept across updates. Defaults to one
+     * reporting to the log of this service every
+     * {@link MissingRuleReporter#DEFAULT_INTERVAL_MILLIS}.
      * 
-     * @param rule
-     *            rule to be added
-     * @throws IllegalArgumentException
-     *             thrown when a duplicate rule is added to the repository
+     * @param missingRuleReporter
      */
-    private void addAccessRule(AccessRule rule) throws IllegalArgumentException {
-        
-        if (accessRuleMap.containsKey(rule.getKey())) {
-            // we have a duplicate rule
-            throw new IllegalArgumentException("Duplicate access rule detected: "
-                    + rule.getKey().getCategory() + "."
-                    + rule.getKey().getAction());
+    public synchronized void setMissingRuleReporter(MissingRuleReporter missingRuleReporter) {
+        this.missingRuleReporter = missingRuleReporter;
+        snapshot = snapshot.withMissingRuleReporter(missingRuleReporter);
+    }
+
+    /**
+     * Begin an invalidation of the given cache, if set, before replacing the
+     * snapshot its entries were loaded from. Lookups pinned to the previous
+     * snapshot then stop trusting the cache, see
+     * {@link GenericCachingAccessServiceImpl#getSnapshot()}.
+     */
+    private static void beginInvalidation(VersionedSecurityCache cache) {
+        if (cache != null) {
+            cache.getCacheGeneration().beginInvalidation();
         }
+    }
 
-        // treat inactive rules as non-existent rules
-        if (rule.getActive()) {
-            accessRuleMap.put(rule.getKey(), rule.getRoles());
+    /**
+     * End the invalidation begun by
+     * {@link #beginInvalidation(VersionedSecurityCache)}, once the affected
+     * entries have been removed.
+     */
+    private static void endInvalidation(VersionedSecurityCache cache) {
+        if (cache != null) {
+            cache.getCacheGeneration().endInvalidation();
         }
     }
 
     /**
-     * Add a role mapping to the repository checking for duplicate role mappings
-     * and throwing an {@link IllegalArgumentException} if they occur.
+     * Set the {@link SecurityMetrics} that the time taken to load each
+     * repository by {@link #update(SecurityRepository)} is reported to, or
+     * null to stop reporting it. Defaults to null.
      * 
-     * @param mapping
-     *            mapping to be added
-     * @throws IllegalArgumentException
-     *             thrown when a duplicate rule is added to the repository
+     * @param securityMetrics
      */
-    private void addRoleMapping(RoleMapping mapping) {
+    public void setSecurityMetrics(SecurityMetrics securityMetrics) {
+        this.securityMetrics = securityMetrics;
+    }
 
-        // add the rule to the explicit role map
-        if (roleMap.containsKey(mapping.getKey())) {
-            // we have a duplicate mapping
-            throw new IllegalArgumentException("Duplicate mapping detected: "
-                    + mapping.getKey().getUserId() + ":"
-                    + mapping.getKey().getContextType() + ":"
-                    + mapping.getKey().getContextId());
-        }
-        
-        roleMap.put(mapping.getKey(), mapping.getRoles());
+    /**
+     * Return the content of the last loaded repository.
+     * 
+     * @return
+     */
+    public RepositorySnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public Set<String> getAccessRuleRoles(AccessRuleKey key) {
+        return snapshot.getAccessRuleRoles(key);
+    }
+
+    public Set<String> getUserRoles(RoleMappingKey key) {
+        return snapshot.getUserRoles(key);
+    }
+    
+    public Set<String> getVetoRoles(AccessRuleKey accessRuleKey, RoleMappingKey roleMappingKey) {
+        return snapshot.getVetoRoles(accessRuleKey, roleMappingKey);
+    }
+    
+    public Set<String> getAllAvailableRoles() {
+        return snapshot.getAllAvailableRoles();
+    }
+    
+    public Set<String> getContextPackages() {
+        return snapshot.getContextPackages();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,154 @@
+package edu.baylor.cs.holder.security.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import edu.baylor.cs.holder.security.service.accessobjects.AccessRule;
+import edu.baylor.cs.holder.security.service.accessobjects.AccessRuleKey;
+import edu.baylor.cs.holder.security.service.accessobjects.ImmutableAccessRuleKey;
+import edu.baylor.cs.holder.security.service.accessobjects.ImmutableRoleMappingKey;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMapping;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMappingKey;
+
+/**
+ * A batch of changes to the access rules and role mappings of a
+ * {@link RepositoryAccessServiceImpl}, applied all at once by
+ * {@link RepositoryAccessServiceImpl#apply(RepositoryDelta)} without reloading
+ * the repository. Changes are applied in the order they were added, so a
+ * mapping may for instance be removed and then added again.
+ *
+ * Keys and roles are copied when a change is added, so the given objects may
+ * be reused afterwards. This class is not thread safe.
+ *
+ * @author holder
+ */
+public class RepositoryDelta {
+
+    /**
+     * The kinds of change.
+     */
+    enum Operation {
+        ADD, REMOVE, REPLACE
+    }
+
+    // changes in the order they were added
+    private final List<Change> changes = new ArrayList<Change>();
+
+    /**
+     * Add the given role mapping, which must not exist yet.
+     *
+     * @param roleMapping
+     */
+    public void addRoleMapping(RoleMapping roleMapping) {
+        changes.add(new Change(Operation.ADD, null, ImmutableRoleMappingKey.copyOf(roleMapping.getKey()),
+                copy(roleMapping.getRoles())));
+    }
+
+    /**
+     * Remove the role mapping with the given key, which must exist.
+     *
+     * @param key
+     */
+    public void removeRoleMapping(RoleMappingKey key) {
+        changes.add(new Change(Operation.REMOVE, null, ImmutableRoleMappingKey.copyOf(key), null));
+    }
+
+    /**
+     * Replace the roles of the existing role mapping with the key of the
+     * given one.
+     *
+     * @param roleMapping
+     */
+    public void replaceRoleMapping(RoleMapping roleMapping) {
+        changes.add(new Change(Operation.REPLACE, null, ImmutableRoleMappingKey.copyOf(roleMapping.getKey()),
+                copy(roleMapping.getRoles())));
+    }
+
+    /**
+     * Add the given access rule, which must not exist yet. Inactive rules are
+     * treated as non-existent rules, as when the repository is loaded.
+     *
+     * @param accessRule
+     */
+    public void addAccessRule(AccessRule accessRule) {
+        changes.add(new Change(Operation.ADD, ImmutableAccessRuleKey.copyOf(accessRule.getKey()), null,
+                getRoles(accessRule)));
+    }
+
+    /**
+     * Remove the access rule with the given key, which must exist.
+     *
+     * @param key
+     */
+    public void removeAccessRule(AccessRuleKey key) {
+        changes.add(new Change(Operation.REMOVE, ImmutableAccessRuleKey.copyOf(key), null, null));
+    }
+
+    /**
+     * Replace the roles of the existing access rule with the key of the given
+     * one, removing the rule if the given one is inactive.
+     *
+     * @param accessRule
+     */
+    public void replaceAccessRule(AccessRule accessRule) {
+        changes.add(new Change(Operation.REPLACE, ImmutableAccessRuleKey.copyOf(accessRule.getKey()), null,
+                getRoles(accessRule)));
+    }
+
+    /**
+     * Return the number of changes.
+     *
+     * @return
+     */
+    public int size() {
+        return changes.size();
+    }
+
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    /**
+     * Return the changes in the order they were added.
+     *
+     * @return
+     */
+    List<Change> getChanges() {
+        return Collections.unmodifiableList(changes);
+    }
+
+    private static Set<String> getRoles(AccessRule accessRule) {
+        return accessRule.getActive() ? copy(accessRule.getRoles()) : null;
+    }
+
+    private static Set<String> copy(Set<String> roles) {
+        return new HashSet<String>(roles);
+    }
+
+    /**
+     * A single change of either an access rule or a role mapping.
+     */
+    static class Change {
+
+        final Operation operation;
+
+        // key of the changed rule, null when a mapping is changed
+        final AccessRuleKey accessRuleKey;
+
+        // key of the changed mapping, null when a rule is changed
+        final RoleMappingKey roleMappingKey;
+
+        // new roles, null when removed or for an inactive rule
+        final Set<String> roles;
+
+        Change(Operation operation, AccessRuleKey accessRuleKey, RoleMappingKey roleMappingKey, Set<String> roles) {
+            this.operation = operation;
+            this.accessRuleKey = accessRuleKey;
+            this.roleMappingKey = roleMappingKey;
+            this.roles = roles;
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package edu.baylor.cs.holder.security.service.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * This class reloads a {@link RepositoryAccessServiceImpl} from one or more
+ * XML files whenever they change on disk, so that edits take effect without
+ * restarting. The files are populated in order into a single
+ * {@link Dom4jSecurityRepository}.
+ *
+ * The directories holding the files are registered with a
+ * {@link WatchService}, and a background thread waits for it to report that
+ * one of the files was created, modified or deleted. Editors and deployment
+ * tools often write a file in several steps, so a reload only starts once no
+ * change has been reported for the quiet period, which turns a burst of
+ * writes into a single reload.
+ *
+ * Parsing and validation happen on the background thread while the previous
+ * content keeps serving lookups, and the new content is only swapped in when
+ * it is valid. Files that fail to parse or validate are logged and counted,
+ * and are not tried again until they change.
+ *
+ * @author holder
+ */
+public class RepositoryFileWatcher {
+
+    /**
+     * Default number of milliseconds the files must stay unchanged before
+     * they are reloaded.
+     */
+    public static final long DEFAULT_QUIET_PERIOD_MILLIS = 2000;
+
+    private Log log = LogFactory.getLog(getClass());
+
+    private final RepositoryAccessServiceImpl repositoryAccessService;
+
+    private final List<File> files;
+
+    // absolute paths of the files, matched against the changes reported
+    private final Set<Path> paths = new HashSet<Path>();
+
+    private volatile long quietPeriodMillis = DEFAULT_QUIET_PERIOD_MILLIS;
+
+    // reports changes in the directories of the files, null until started
+    private WatchService watchService;
+
+    // waits for changes and reloads the files, null until started
+    private Thread thread;
+
+    private final AtomicLong reloadCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+
+    // message of the last failed reload, null after a successful one
+    private volatile String lastFailure;
+
+    /**
+     * Reload the given service from the given files.
+     *
+     * @param repositoryAccessService
+     *            service to reload
+     * @param files
+     *            XML files making up the repository, populated in order
+     */
+    public RepositoryFileWatcher(RepositoryAccessServiceImpl repositoryAccessService, List<File> files) {
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("No files to watch");
+        }
+        this.repositoryAccessService = repositoryAccessService;
+        this.files = new ArrayList<File>(files);
+        for (File file : files) {
+            paths.add(file.getAbsoluteFile().toPath().normalize());
+        }
+    }
+
+    /**
+     * Set the number of milliseconds the files must stay unchanged before
+     * they are reloaded, defaults to {@link #DEFAULT_QUIET_PERIOD_MILLIS}.
+     *
+     * @param quietPeriodMillis
+     */
+    public void setQuietPeriodMillis(long quietPeriodMillis) {
+        if (quietPeriodMillis < 0) {
+            throw new IllegalArgumentException("Quiet period may not be negative: " + quietPeriodMillis);
+        }
+        this.quietPeriodMillis = quietPeriodMillis;
+    }
+
+    /**
+     * Load the files now and start watching them for changes.
+     *
+     * @throws IllegalArgumentException
+     *             thrown when the files can't be loaded or watched, in which
+     *             case they are not watched
+     */
+    public synchronized void start() throws IllegalArgumentException {
+        if (thread != null) {
+            throw new IllegalStateException("Already started");
+        }
+
+        // watch before loading, so that no change made during the load is
+        // missed
+        final WatchService started = register();
+        try {
+            load();
+        } catch (IllegalArgumentException e) {
+            close(started);
+            throw e;
+        }
+
+        watchService = started;
+        thread = new Thread(new Runnable() {
+            public void run() {
+                watch(started);
+            }
+        }, "repository-file-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop watching the files, waiting for a reload in progress to finish.
+     */
+    public void stop() {
+        WatchService stoppingService;
+        Thread stopping;
+        synchronized (this) {
+            stoppingService = watchService;
+            stopping = thread;
+            watchService = null;
+            thread = null;
+        }
+        if (stopping != null) {
+            // wakes the thread up once it is done reloading
+            close(stoppingService);
+            try {
+                stopping.join(TimeUnit.MINUTES.toMillis(1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Return the number of successful reloads since started, not counting the
+     * initial load.
+     *
+     * @return
+     */
+    public long getReloadCount() {
+        return reloadCount.get();
+    }
+
+    /**
+     * Return the number of reloads that failed to parse or validate.
+     *
+     * @return
+     */
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * Return the reason the last reload failed, or null if it succeeded.
+     *
+     * @return
+     */
+    public String getLastFailure() {
+        return lastFailure;
+    }
+
+    public List<File> getFiles() {
+        return files;
+    }
+
+    /**
+     * Return a new {@link WatchService} with the directory of each file
+     * registered.
+     *
+     * @throws IllegalArgumentException
+     *             thrown when a directory can't be watched
+     */
+    private WatchService register() throws IllegalArgumentException {
+        WatchService registered;
+        try {
+            registered = FileSystems.getDefault().newWatchService();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Failed to watch " + files, e);
+        }
+        Set<Path> directories = new HashSet<Path>();
+        for (Path path : paths) {
+            Path directory = path.getParent();
+            if (directories.add(directory)) {
+                try {
+                    directory.register(registered, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                } catch (IOException e) {
+                    close(registered);
+                    throw new IllegalArgumentException("Failed to watch " + directory, e);
+                }
+            }
+        }
+        return registered;
+    }
+
+    /**
+     * Wait for changes of the files reported by the given service and reload
+     * them once they have stayed unchanged for the quiet period, until the
+     * service is closed. Runs on the background thread.
+     */
+    private void watch(WatchService service) {
+        // whether the files changed since last loaded, and when they last did
+        boolean changed = false;
+        long changedMillis = 0;
+        while (true) {
+            WatchKey key;
+            try {
+                if (!changed) {
+                    key = service.take();
+                } else {
+                    long remaining = changedMillis + quietPeriodMillis - System.currentTimeMillis();
+                    key = remaining > 0 ? service.poll(remaining, TimeUnit.MILLISECONDS) : null;
+                }
+            } catch (ClosedWatchServiceException e) {
+                return;
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            if (key == null) {
+                // settled
+                changed = false;
+                reload();
+            } else {
+                if (isWatched(key)) {
+                    changed = true;
+                    changedMillis = System.currentTimeMillis();
+                }
+                key.reset();
+            }
+        }
+    }
+
+    /**
+     * Return true if the events of the given key report a change of one of
+     * the files, or may have been lost.
+     */
+    private boolean isWatched(WatchKey key) {
+        Path directory = (Path) key.watchable();
+        boolean watched = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                watched = true;
+            } else if (paths.contains(directory.resolve((Path) event.context()))) {
+                watched = true;
+            }
+        }
+        return watched;
+    }
+
+    /**
+     * Reload the files, keeping the previous content when they are invalid.
+     */
+    private void reload() {
+        try {
+            load();
+            reloadCount.incrementAndGet();
+            lastFailure = null;
+        } catch (IllegalArgumentException e) {
+            failureCount.incrementAndGet();
+            lastFailure = e.getMessage();
+            log.error("Keeping the previous security repository, failed to reload " + files, e);
+        } catch (RuntimeException e) {
+            // keep watching, the thread would stop on an exception
+            log.error("Failed to reload " + files, e);
+        }
+    }
+
+    /**
+     * Parse and validate the files, replacing the content of the service only
+     * if they are valid.
+     *
+     * @throws IllegalArgumentException
+     *             thrown when a file can't be read, parsed or validated
+     */
+    private void load() throws IllegalArgumentException {
+        Dom4jSecurityRepository securityRepository = new Dom4jSecurityRepository();
+        for (File file : files) {
+            try {
+                InputStream xmlInput = new FileInputStream(file);
+                try {
+                    securityRepository.populate(xmlInput);
+                } finally {
+                    xmlInput.close();
+                }
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Failed to read " + file, e);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Failed to parse " + file + ": " + e.getMessage(), e);
+            }
+        }
+        repositoryAccessService.update(securityRepository);
+    }
+
+    /**
+     * Close the given service, logging a failure to do so.
+     */
+    private void close(WatchService service) {
+        try {
+            service.close();
+        } catch (IOException e) {
+            log.warn("Failed to stop watching " + files, e);
+        }
+    }
+}
@@ -0,0 +1,576 @@
+package edu.baylor.cs.holder.security.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import edu.baylor.cs.holder.security.service.AccessService;
+import edu.baylor.cs.holder.security.service.SecurityRepository;
+import edu.baylor.cs.holder.security.service.VetoCondition;
+import edu.baylor.cs.holder.security.service.accessobjects.AccessRule;
+import edu.baylor.cs.holder.security.service.accessobjects.AccessRuleKey;
+import edu.baylor.cs.holder.security.service.accessobjects.ImmutableAccessRuleKey;
+import edu.baylor.cs.holder.security.service.accessobjects.ImmutableRoleMappingKey;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleDictionary;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleHierarchy;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMapping;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMappingKey;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleSet;
+import edu.baylor.cs.holder.security.service.accessobjects.VetoRule;
+import edu.baylor.cs.holder.security.util.LayeredMap;
+
+/**
+ * This class holds the fully indexed content of a {@link SecurityRepository}
+ * as loaded by {@link RepositoryAccessServiceImpl}. Instances are built off to
+ * the side and never modified once construction completes, so any number of
+ * threads can read from a published snapshot without locking.
+ *
+ * Keys are copied on the way in so that later changes to the objects of the
+ * {@link SecurityRepository} can't leak into a snapshot.
+ *
+ * The roles of every role mapping are expanded with the roles they imply, see
+ * {@link RoleHierarchy}, when they are added to a snapshot. Looking up the
+ * roles of a user therefore returns every role the user holds without walking
+ * the hierarchy.
+ *
+ * Wildcard access rules, whose actions are regular expressions, are indexed
+ * by category with their patterns compiled up front, see
+ * {@link WildcardRuleIndex}. They are only consulted when no access rule has
+ * the exact key of a lookup.
+ *
+ * Veto rules are indexed by the category, action and context type they apply
+ * to, see {@link VetoRuleIndex}, so that looking up vetoed roles takes a
+ * single probe followed by a check of the condition of each candidate rule.
+ *
+ * A {@link RepositoryDelta} is applied by building a new snapshot with
+ * {@link #apply(RepositoryDelta)}, which shares the content of this one and
+ * layers the changes on top, see {@link LayeredMap} and
+ * {@link LayeredRoleMappings}.
+ *
+ * @author holder
+ */
+public class RepositorySnapshot implements AccessService {
+
+    private static final Log log = LogFactory.getLog(RepositorySnapshot.class);
+
+    /**
+     * A snapshot without any content.
+     */
+    public static final RepositorySnapshot EMPTY = new RepositorySnapshot();
+
+    // reports lookups of missing rules and conditions, shared by the
+    // snapshots of a service so that reloading doesn't report them afresh
+    private final MissingRuleReporter missingRuleReporter;
+
+    // active access rules keyed by category, action and contexts
+    private final LayeredMap<AccessRuleKey, Set<String>> accessRuleMap;
+
+    // active wildcard access rules grouped by category
+    private final WildcardRuleIndex wildcardRuleIndex;
+
+    // veto rules keyed by category, action and context type
+    private final VetoRuleIndex vetoRuleIndex;
+
+    // conditions of the veto rules keyed by name
+    private final Map<String, VetoCondition> vetoConditions;
+
+    // explicit role mappings, see RoleMappingIndex and MappedRoleMappings
+    private final RoleMappingSource roleMappings;
+
+    // assigns an id to every role of this snapshot
+    private final RoleDictionary roleDictionary;
+
+    // roles implied by each role, already applied to the role mappings
+    private final RoleHierarchy roleHierarchy;
+
+    // all of the available roles
+    private final Set<String> allAvailableRoles;
+
+    // all of the context packages
+    private final Set<String> allContextPackages;
+
+    private RepositorySnapshot() {
+        this.accessRuleMap = new LayeredMap<AccessRuleKey, Set<String>>(
+                Collections.<AccessRuleKey, Set<String>> emptyMap());
+        this.wildcardRuleIndex = WildcardRuleIndex.EMPTY;
+        this.vetoRuleIndex = VetoRuleIndex.EMPTY;
+        this.vetoConditions = Collections.emptyMap();
+        this.roleMappings = new RoleMappingIndex();
+        this.roleDictionary = new RoleDictionary(Collections.<String> emptySet());
+        this.roleHierarchy = RoleHierarchy.EMPTY;
+        this.allAvailableRoles = roleDictionary.getEmptyRoles();
+        this.allContextPackages = Collections.emptySet();
+        this.missingRuleReporter = new MissingRuleReporter(log);
+    }
+
+    /**
+     * Build a new snapshot of the given {@link SecurityRepository}, throwing
+     * an {@link IllegalArgumentException} when it contains duplicate access
+     * rules or role mappings, or an invalid action pattern.
+     *
+     * @param securityRepository
+     *            repository to take a snapshot of
+     * @throws IllegalArgumentException
+     *             thrown when the repository content is invalid
+     */
+    public RepositorySnapshot(SecurityRepository securityRepository) throws IllegalArgumentException {
+
+        // assign ids to every available role, and to any referenced role
+        // that a hand built repository may have left out
+        this.roleDictionary = createRoleDictionary(securityRepository);
+        this.roleHierarchy = securityRepository.getRoleHierarchy() == null ? RoleHierarchy.EMPTY
+                : securityRepository.getRoleHierarchy();
+
+        Map<AccessRuleKey, Set<String>> rules = new HashMap<AccessRuleKey, Set<String>>();
+        for (AccessRule rule : securityRepository.getAccessRules()) {
+            addAccessRule(rules, rule);
+        }
+        this.accessRuleMap = new LayeredMap<AccessRuleKey, Set<String>>(rules);
+
+        Map<AccessRuleKey, Set<String>> wildcardRules = new HashMap<AccessRuleKey, Set<String>>();
+        if (securityRepository.getWildcardAccessRules() != null) {
+            for (AccessRule rule : securityRepository.getWildcardAccessRules()) {
+                addAccessRule(wildcardRules, rule);
+            }
+        }
+        this.wildcardRuleIndex = new WildcardRuleIndex(wildcardRules);
+
+        List<VetoRuleIndex.Entry> vetoRules = new ArrayList<VetoRuleIndex.Entry>();
+        if (securityRepository.getVetoRules() != null) {
+            for (VetoRule vetoRule : securityRepository.getVetoRules()) {
+                vetoRules.add(new VetoRuleIndex.Entry(vetoRule, roleDictionary.encode(vetoRule.getRoles())));
+            }
+        }
+        this.vetoRuleIndex = new VetoRuleIndex(vetoRules, rules.keySet(), wildcardRules.keySet());
+        this.vetoConditions = Collections.emptyMap();
+
+        RoleMappingIndex roleMappingIndex = new RoleMappingIndex();
+        for (RoleMapping roleMapping : securityRepository.getRoleMappings()) {
+            addRoleMapping(roleMappingIndex, roleMapping);
+        }
+        this.roleMappings = roleMappingIndex;
+
+        this.allAvailableRoles = roleDictionary.encode(securityRepository.getAllRoles());
+        this.allContextPackages = Collections.unmodifiableSet(new LinkedHashSet<String>(
+                securityRepository.getContextPackages()));
+        this.missingRuleReporter = new MissingRuleReporter(log);
+    }
+
+    /**
+     * Build a new snapshot from content that has already been validated, as
+     * done by {@link MappedSnapshotLoader}. Every {@link RoleSet} handed in
+     * must be encoded by the given dictionary, and the roles of the role
+     * mappings must already be expanded by the given hierarchy.
+     *
+     * @param roleDictionary
+     * @param roleHierarchy
+     * @param accessRuleMap
+     *            active access rules
+     * @param wildcardRuleMap
+     *            active wildcard access rules
+     * @param vetoRules
+     *            veto rules
+     * @param roleMappings
+     *            explicit role mappings
+     * @param allAvailableRoles
+     * @param allContextPackages
+     */
+    RepositorySnapshot(RoleDictionary roleDictionary, RoleHierarchy roleHierarchy,
+            Map<AccessRuleKey, Set<String>> accessRuleMap, Map<AccessRuleKey, Set<String>> wildcardRuleMap,
+            List<VetoRuleIndex.Entry> vetoRules, RoleMappingSource roleMappings, RoleSet allAvailableRoles,
+            Set<String> allContextPackages) {
+        this.roleDictionary = roleDictionary;
+        this.roleHierarchy = roleHierarchy;
+        this.accessRuleMap = new LayeredMap<AccessRuleKey, Set<String>>(accessRuleMap);
+        this.wildcardRuleIndex = new WildcardRuleIndex(wildcardRuleMap);
+        this.vetoRuleIndex = new VetoRuleIndex(vetoRules, accessRuleMap.keySet(), wildcardRuleMap.keySet());
+        this.vetoConditions = Collections.emptyMap();
+        this.roleMappings = roleMappings;
+        this.allAvailableRoles = allAvailableRoles;
+        this.allContextPackages = Collections.unmodifiableSet(new LinkedHashSet<String>(allContextPackages));
+        this.missingRuleReporter = new MissingRuleReporter(log);
+    }
+
+    /**
+     * Build a changed copy of the given snapshot, sharing everything but the
+     * given access rules, veto rules, veto conditions, role mappings and
+     * reporter.
+     */
+    private RepositorySnapshot(RepositorySnapshot snapshot, LayeredMap<AccessRuleKey, Set<String>> accessRuleMap,
+            VetoRuleIndex vetoRuleIndex, Map<String, VetoCondition> vetoConditions, RoleMappingSource roleMappings,
+            MissingRuleReporter missingRuleReporter) {
+        this.roleDictionary = snapshot.roleDictionary;
+        this.roleHierarchy = snapshot.roleHierarchy;
+        this.accessRuleMap = accessRuleMap;
+        this.wildcardRuleIndex = snapshot.wildcardRuleIndex;
+        this.vetoRuleIndex = vetoRuleIndex;
+        this.vetoConditions = vetoConditions;
+        this.roleMappings = roleMappings;
+        this.allAvailableRoles = snapshot.allAvailableRoles;
+        this.allContextPackages = snapshot.allContextPackages;
+        this.missingRuleReporter = missingRuleReporter;
+    }
+
+    /**
+     * Return a new snapshot with the changes of the given delta applied in
+     * order, throwing an {@link IllegalArgumentException} and leaving this
+     * snapshot as it is when any change is invalid. This takes time
+     * proportional to the number of changes rather than the size of the
+     * snapshot.
+     *
+     * Roles of the changes must be known to the {@link RoleDictionary} of
+     * this snapshot, since every role set of a snapshot is encoded by it.
+     * Roles of role mappings are expanded by the {@link RoleHierarchy} of this
+     * snapshot. Adding new roles or changing the hierarchy takes a full
+     * reload.
+     *
+     * @param delta
+     *            changes to apply
+     * @return the changed snapshot
+     * @throws IllegalArgumentException
+     *             thrown when a rule or mapping is added that already exists,
+     *             one is removed or replaced that doesn't exist, or an unknown
+     *             role is used
+     */
+    public RepositorySnapshot apply(RepositoryDelta delta) throws IllegalArgumentException {
+        Map<AccessRuleKey, Set<String>> accessRuleChanges = new HashMap<AccessRuleKey, Set<String>>();
+        Map<RoleMappingKey, Set<String>> roleMappingChanges = new HashMap<RoleMappingKey, Set<String>>();
+        int roleMappingCount = roleMappings.size();
+
+        for (RepositoryDelta.Change change : delta.getChanges()) {
+            if (change.accessRuleKey != null) {
+                Set<String> roles = change.roles == null ? null : roleDictionary.encode(change.roles);
+                AccessRuleKey key = change.accessRuleKey;
+                boolean exists = accessRuleChanges.containsKey(key) ? accessRuleChanges.get(key) != null
+                        : accessRuleMap.containsKey(key);
+                checkChange(change.operation, exists, "access rule", key.getCategory() + "." + key.getAction());
+                accessRuleChanges.put(key, roles);
+            } else {
+                Set<String> roles = change.roles == null ? null : encodeUserRoles(change.roles);
+                RoleMappingKey key = change.roleMappingKey;
+                Set<String> current = roleMappingChanges.get(key);
+                boolean exists = current == null ? roleMappings.get(key) != null
+                        : current != LayeredRoleMappings.REMOVED;
+                checkChange(change.operation, exists, "mapping", key.getUserId() + ":" + key.getContextType() + ":"
+                        + key.getContextId());
+                if (roles == null) {
+                    roleMappingChanges.put(key, LayeredRoleMappings.REMOVED);
+                    roleMappingCount--;
+                } else {
+                    roleMappingChanges.put(key, roles);
+                    roleMappingCount += exists ? 0 : 1;
+                }
+            }
+        }
+
+        RoleMappingSource updatedRoleMappings = roleMappings;
+        if (!roleMappingChanges.isEmpty()) {
+            LayeredRoleMappings layered = roleMappings instanceof LayeredRoleMappings
+                    ? (LayeredRoleMappings) roleMappings : new LayeredRoleMappings(roleMappings);
+            updatedRoleMappings = layered.with(roleMappingChanges, roleMappingCount);
+        }
+
+        // added rules may be covered by veto rules
+        List<AccessRuleKey> addedAccessRuleKeys = new ArrayList<AccessRuleKey>();
+        for (Map.Entry<AccessRuleKey, Set<String>> change : accessRuleChanges.entrySet()) {
+            if (change.getValue() != null) {
+                addedAccessRuleKeys.add(change.getKey());
+            }
+        }
+        return new RepositorySnapshot(this, accessRuleMap.with(accessRuleChanges),
+                vetoRuleIndex.with(addedAccessRuleKeys), vetoConditions, updatedRoleMappings, missingRuleReporter);
+    }
+
+    /**
+     * Return the reporter of lookups of missing rules and conditions, which
+     * snapshots built from this one share. A new snapshot has a reporter of
+     * its own until given another, see
+     * {@link #withMissingRuleReporter(MissingRuleReporter)}.
+     *
+     * @return
+     */
+    public MissingRuleReporter getMissingRuleReporter() {
+        return missingRuleReporter;
+    }
+
+    /**
+     * Return a copy of this snapshot sharing all of its content but reporting
+     * lookups of missing rules and conditions to the given reporter.
+     *
+     * @param missingRuleReporter
+     * @return
+     */
+    public RepositorySnapshot withMissingRuleReporter(MissingRuleReporter missingRuleReporter) {
+        return new RepositorySnapshot(this, accessRuleMap, vetoRuleIndex, vetoConditions, roleMappings,
+                missingRuleReporter);
+    }
+
+    /**
+     * Return the roles of the active access rule with the given key, or else
+     * of the most specific active wildcard rule matching it, or null if no
+     * such rule exists.
+     *
+     * @param key
+     * @return
+     */
+    public Set<String> findAccessRuleRoles(AccessRuleKey key) {
+        Set<String> roles = accessRuleMap.get(key);
+        if (roles == null) {
+            roles = wildcardRuleIndex.get(key);
+        }
+        return roles;
+    }
+
+    public Set<String> getAccessRuleRoles(AccessRuleKey key) {
+        Set<String> roles = findAccessRuleRoles(key);
+        if (roles == null) {
+            missingRuleReporter.missing(key);
+            roles = roleDictionary.getEmptyRoles();
+        }
+        return roles;
+    }
+
+    public Set<String> getUserRoles(RoleMappingKey key) {
+        return roleMappings.getMatchingRoles(key);
+    }
+
+    /**
+     * Return a copy of this snapshot sharing all of its content but using the
+     * given conditions for its veto rules.
+     *
+     * @param vetoConditions
+     *            conditions keyed by the names veto rules refer to them with
+     * @return
+     */
+    public RepositorySnapshot withVetoConditions(Map<String, VetoCondition> vetoConditions) {
+        return new RepositorySnapshot(this, accessRuleMap, vetoRuleIndex, vetoConditions, roleMappings,
+                missingRuleReporter);
+    }
+
+    /**
+     * Return the roles vetoed by the veto rules of this snapshot whose
+     * condition holds for the given keys. The roles of a rule naming a
+     * condition that this snapshot doesn't have are always vetoed, since a
+     * missing condition should deny access rather than grant it, see
+     * {@link #withVetoConditions(Map)}. A key only matching a wildcard rule is
+     * vetoed by the veto rules matching that rule, see {@link VetoRuleIndex}.
+     */
+    public Set<String> getVetoRoles(AccessRuleKey accessRuleKey, RoleMappingKey roleMappingKey) {
+        VetoRuleIndex.Entry[] candidates;
+        if (wildcardRuleIndex.isEmpty() || accessRuleMap.containsKey(accessRuleKey)) {
+            candidates = vetoRuleIndex.getCandidates(accessRuleKey.getCategory(), accessRuleKey.getAction(),
+                    roleMappingKey.getContextType());
+        } else {
+            // the key may only match a wildcard rule, whose key is indexed
+            AccessRuleKey wildcardRuleKey = wildcardRuleIndex.getMatchingRule(accessRuleKey);
+            candidates = wildcardRuleKey == null ? null : vetoRuleIndex.getWildcardCandidates(wildcardRuleKey,
+                    roleMappingKey.getContextType());
+        }
+        RoleSet roles = roleDictionary.getEmptyRoles();
+        if (candidates != null) {
+            for (VetoRuleIndex.Entry candidate : candidates) {
+                if (holds(candidate.condition, accessRuleKey, roleMappingKey)) {
+                    roles = RoleSet.union(roles, candidate.roles);
+                }
+            }
+        }
+        return roles;
+    }
+
+    public Set<String> getAllAvailableRoles() {
+        return allAvailableRoles;
+    }
+
+    public Set<String> getContextPackages() {
+        return allContextPackages;
+    }
+
+    /**
+     * Return an unmodifiable view of the active access rules.
+     *
+     * @return
+     */
+    public Map<AccessRuleKey, Set<String>> getAccessRuleMap() {
+        return accessRuleMap;
+    }
+
+    /**
+     * Return an unmodifiable view of the active wildcard access rules, keyed
+     * with their action patterns.
+     *
+     * @return
+     */
+    public Map<AccessRuleKey, Set<String>> getWildcardRuleMap() {
+        return wildcardRuleIndex.getRules();
+    }
+
+    public RoleDictionary getRoleDictionary() {
+        return roleDictionary;
+    }
+
+    public RoleHierarchy getRoleHierarchy() {
+        return roleHierarchy;
+    }
+
+    /**
+     * Return every veto rule.
+     *
+     * @return
+     */
+    List<VetoRuleIndex.Entry> getVetoRules() {
+        return vetoRuleIndex.getEntries();
+    }
+
+    /**
+     * Encode the given roles of a role mapping along with every role they
+     * imply.
+     *
+     * @param roles
+     * @return
+     * @throws IllegalArgumentException
+     *             thrown when a role is unknown to the dictionary of this
+     *             snapshot
+     */
+    RoleSet encodeUserRoles(Collection<String> roles) throws IllegalArgumentException {
+        return roleDictionary.encode(roleHierarchy.isEmpty() ? roles : roleHierarchy.expand(roles));
+    }
+
+    /**
+     * Return the number of explicit role mappings.
+     *
+     * @return
+     */
+    public int getRoleMappingCount() {
+        return roleMappings.size();
+    }
+
+    /**
+     * Return true if the named condition holds for the given keys, or if no
+     * condition is named.
+     */
+    private boolean holds(String condition, AccessRuleKey accessRuleKey, RoleMappingKey roleMappingKey) {
+        if (condition == null) {
+            return true;
+        }
+        VetoCondition vetoCondition = vetoConditions.get(condition);
+        if (vetoCondition == null) {
+            missingRuleReporter.missingCondition(condition);
+            return true;
+        }
+        return vetoCondition.holds(accessRuleKey, roleMappingKey);
+    }
+
+    /**
+     * Check that the given operation can be applied to a rule or mapping that
+     * does or doesn't exist, throwing an {@link IllegalArgumentException}
+     * otherwise.
+     */
+    private static void checkChange(RepositoryDelta.Operation operation, boolean exists, String kind, String key)
+            throws IllegalArgumentException {
+        if (operation == RepositoryDelta.Operation.ADD) {
+            if (exists) {
+                throw new IllegalArgumentException("Duplicate " + kind + " detected: " + key);
+            }
+        } else if (!exists) {
+            throw new IllegalArgumentException("No " + kind + " found for: " + key);
+        }
+    }
+
+    /**
+     * Add an access rule to the given map checking for duplicate rules and
+     * throwing an {@link IllegalArgumentException} if they occur.
+     *
+     * @param rules
+     *            map of active rules
+     * @param rule
+     *            rule to be added
+     * @throws IllegalArgumentException
+     *             thrown when a duplicate rule is added to the repository
+     */
+    private void addAccessRule(Map<AccessRuleKey, Set<String>> rules, AccessRule rule)
+            throws IllegalArgumentException {
+
+        AccessRuleKey key = ImmutableAccessRuleKey.copyOf(rule.getKey());
+        if (rules.containsKey(key)) {
+            // we have a duplicate rule
+            throw new IllegalArgumentException("Duplicate access rule detected: "
+                    + key.getCategory() + "."
+                    + key.getAction());
+        }
+
+        // treat inactive rules as non-existent rules
+        if (rule.getActive()) {
+            rules.put(key, roleDictionary.encode(rule.getRoles()));
+        }
+    }
+
+    /**
+     * Add a role mapping to the index checking for duplicate role mappings and
+     * throwing an {@link IllegalArgumentException} if they occur.
+     *
+     * @param roleMappingIndex
+     *            index of explicit role mappings
+     * @param mapping
+     *            mapping to be added
+     * @throws IllegalArgumentException
+     *             thrown when a duplicate rule is added to the repository
+     */
+    private void addRoleMapping(RoleMappingIndex roleMappingIndex, RoleMapping mapping) throws IllegalArgumentException {
+
+        // add the rule to the explicit role map
+        if (roleMappingIndex.containsKey(mapping.getKey())) {
+            // we have a duplicate mapping
+            throw new IllegalArgumentException("Duplicate mapping detected: "
+                    + mapping.getKey().getUserId() + ":"
+                    + mapping.getKey().getContextType() + ":"
+                    + mapping.getKey().getContextId());
+        }
+
+        roleMappingIndex.put(ImmutableRoleMappingKey.copyOf(mapping.getKey()), encodeUserRoles(mapping.getRoles()));
+    }
+
+    /**
+     * Return a {@link RoleDictionary} for all roles of the given
+     * {@link SecurityRepository} along with every role referenced by its
+     * access rules, wildcard rules, veto rules, role mappings and role hierarchy.
+     *
+     * @param securityRepository
+     * @return
+     */
+    private static RoleDictionary createRoleDictionary(SecurityRepository securityRepository) {
+        Set<String> roles = new HashSet<String>(securityRepository.getAllRoles());
+        for (AccessRule rule : securityRepository.getAccessRules()) {
+            roles.addAll(rule.getRoles());
+        }
+        if (securityRepository.getWildcardAccessRules() != null) {
+            for (AccessRule rule : securityRepository.getWildcardAccessRules()) {
+                roles.addAll(rule.getRoles());
+            }
+        }
+        for (RoleMapping roleMapping : securityRepository.getRoleMappings()) {
+            roles.addAll(roleMapping.getRoles());
+        }
+        if (securityRepository.getVetoRules() != null) {
+            for (VetoRule vetoRule : securityRepository.getVetoRules()) {
+                roles.addAll(vetoRule.getRoles());
+            }
+        }
+        if (securityRepository.getRoleHierarchy() != null) {
+            for (Map.Entry<String, Set<String>> implication : securityRepository.getRoleHierarchy()
+                    .getImplications().entrySet()) {
+                roles.add(implication.getKey());
+                roles.addAll(implication.getValue());
+            }
+        }
+        return new RoleDictionary(roles);
+    }
+}
@@ -0,0 +1,237 @@
+package edu.baylor.cs.holder.security.service.impl;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import edu.baylor.cs.holder.security.service.accessobjects.RoleDictionary;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMappingKey;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleSet;
+
+/**
+ * This class stores explicit role mappings in a multi-level index keyed by
+ * userId, then contextType, then contextId. A null at any level is a
+ * legitimate key and represents a wildcard mapping, as in the (*, *, *)
+ * mapping that grants roles to every user.
+ *
+ * Matching follows {@link RoleMappingKey#matches(RoleMappingKey)} where each
+ * stored mapping is the general key and the lookup key is the specific one.
+ * Since a stored mapping can only match when each of its properties is either
+ * null or equal to the property of the lookup key, a lookup never needs more
+ * than two probes per level. Lookups therefore cost time proportional to the
+ * number of matching mappings rather than the number of stored mappings.
+ *
+ * This class is not thread safe for concurrent modification.
+ *
+ * @author holder
+ */
+public class RoleMappingIndex implements RoleMappingSource {
+
+    // userId -> contextType -> contextId -> roles
+    private final Map<Long, Map<Class<?>, Map<Long, Set<String>>>> index = new HashMap<Long, Map<Class<?>, Map<Long, Set<String>>>>();
+
+    // number of stored mappings
+    private int size = 0;
+
+    /**
+     * Store the given roles for the exact given key, replacing any existing
+     * roles for that key. The stored roles are wrapped as an unmodifiable
+     * {@link Set}, unless they are already an immutable {@link RoleSet},
+     * since they are handed out directly by lookups.
+     *
+     * @param key
+     *            exact key of the mapping, nulls are stored as wildcards
+     * @param roles
+     *            roles of the mapping
+     * @return the previously stored roles or null if none existed
+     */
+    public Set<String> put(RoleMappingKey key, Set<String> roles) {
+        Map<Class<?>, Map<Long, Set<String>>> byContextType = index.get(key.getUserId());
+        if (byContextType == null) {
+            byContextType = new HashMap<Class<?>, Map<Long, Set<String>>>();
+            index.put(key.getUserId(), byContextType);
+        }
+
+        Map<Long, Set<String>> byContextId = byContextType.get(key.getContextType());
+        if (byContextId == null) {
+            byContextId = new HashMap<Long, Set<String>>();
+            byContextType.put(key.getContextType(), byContextId);
+        }
+
+        Set<String> previous = byContextId.put(key.getContextId(),
+                roles instanceof RoleSet ? roles : Collections.unmodifiableSet(roles));
+        if (previous == null) {
+            size++;
+        }
+        return previous;
+    }
+
+    /**
+     * Return the roles stored for the exact given key, without any wildcard
+     * matching, or null if no mapping exists for the key.
+     *
+     * @param key
+     * @return
+     */
+    public Set<String> get(RoleMappingKey key) {
+        Map<Class<?>, Map<Long, Set<String>>> byContextType = index.get(key.getUserId());
+        if (byContextType == null) {
+            return null;
+        }
+        Map<Long, Set<String>> byContextId = byContextType.get(key.getContextType());
+        if (byContextId == null) {
+            return null;
+        }
+        return byContextId.get(key.getContextId());
+    }
+
+    /**
+     * Return true if a mapping exists for the exact given key.
+     *
+     * @param key
+     * @return
+     */
+    public boolean containsKey(RoleMappingKey key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Remove the mapping stored for the exact given key, pruning any levels of
+     * the index that become empty.
+     *
+     * @param key
+     * @return the removed roles or null if no mapping existed for the key
+     */
+    public Set<String> remove(RoleMappingKey key) {
+        Map<Class<?>, Map<Long, Set<String>>> byContextType = index.get(key.getUserId());
+        if (byContextType == null) {
+            return null;
+        }
+        Map<Long, Set<String>> byContextId = byContextType.get(key.getContextType());
+        if (byContextId == null) {
+            return null;
+        }
+        Set<String> removed = byContextId.remove(key.getContextId());
+        if (removed != null) {
+            size--;
+            if (byContextId.isEmpty()) {
+                byContextType.remove(key.getContextType());
+                if (byContextType.isEmpty()) {
+                    index.remove(key.getUserId());
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Return the union of the roles of every stored mapping that matches the
+     * given key. When exactly one mapping matches, its stored (unmodifiable)
+     * roles are returned without copying. When every matching mapping holds a
+     * {@link RoleSet} from the same dictionary the union is also a
+     * {@link RoleSet}. An empty {@link Set} is returned if nothing matches.
+     *
+     * @param key
+     *            key to match stored mappings against
+     * @return roles of all matching mappings
+     */
+    public Set<String> getMatchingRoles(RoleMappingKey key) {
+        Set<String> matched = null;
+        Set<String> union = null;
+
+        Long userId = key.getUserId();
+        for (int u = 0; u < 2; u++) {
+            // second pass checks the wildcard user, unless we already did
+            if (u == 1) {
+                if (userId == null) {
+                    break;
+                }
+                userId = null;
+            }
+            Map<Class<?>, Map<Long, Set<String>>> byContextType = index.get(userId);
+            if (byContextType == null) {
+                continue;
+            }
+
+            Class<?> contextType = key.getContextType();
+            for (int t = 0; t < 2; t++) {
+                if (t == 1) {
+                    if (contextType == null) {
+                        break;
+                    }
+                    contextType = null;
+                }
+                Map<Long, Set<String>> byContextId = byContextType.get(contextType);
+                if (byContextId == null) {
+                    continue;
+                }
+
+                Long contextId = key.getContextId();
+                for (int i = 0; i < 2; i++) {
+                    if (i == 1) {
+                        if (contextId == null) {
+                            break;
+                        }
+                        contextId = null;
+                    }
+                    Set<String> roles = byContextId.get(contextId);
+                    if (roles == null) {
+                        continue;
+                    }
+
+                    // only start copying once a second mapping matches
+                    if (matched == null) {
+                        matched = roles;
+                    } else if (union == null && isSameDictionary(matched, roles)) {
+                        matched = RoleSet.union((RoleSet) matched, (RoleSet) roles);
+                    } else {
+                        if (union == null) {
+                            union = new HashSet<String>(matched);
+                        }
+                        union.addAll(roles);
+                    }
+                }
+            }
+        }
+
+        if (union != null) {
+            return union;
+        }
+        if (matched != null) {
+            return matched;
+        }
+        return Collections.emptySet();
+    }
+
+    /**
+     * Return true if both sets are {@link RoleSet}'s encoded by the same
+     * {@link RoleDictionary}.
+     * 
+     * @param a
+     * @param b
+     * @return
+     */
+    private static boolean isSameDictionary(Set<String> a, Set<String> b) {
+        return a instanceof RoleSet && b instanceof RoleSet
+                && ((RoleSet) a).getDictionary() == ((RoleSet) b).getDictionary();
+    }
+
+    /**
+     * Return the number of stored mappings.
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Remove all stored mappings.
+     */
+    public void clear() {
+        index.clear();
+        size = 0;
+    }
+}
@@ -0,0 +1,43 @@
+package edu.baylor.cs.holder.security.service.impl;
+
+import java.util.Set;
+
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMappingKey;
+
+/**
+ * This interface is implemented by the stores of explicit role mappings that
+ * a {@link RepositorySnapshot} can serve lookups from, such as the heap based
+ * {@link RoleMappingIndex} or the memory mapped {@link MappedRoleMappings}, and
+ * {@link LayeredRoleMappings} which layers incremental changes on top of
+ * either.
+ *
+ * @author holder
+ */
+public interface RoleMappingSource {
+
+    /**
+     * Return the union of the roles of every stored mapping that matches the
+     * given key, see {@link RoleMappingKey#matches(RoleMappingKey)}.
+     *
+     * @param key
+     *            key to match stored mappings against
+     * @return roles of all matching mappings
+     */
+    public Set<String> getMatchingRoles(RoleMappingKey key);
+
+    /**
+     * Return the roles stored for the exact given key, without any wildcard
+     * matching, or null if no mapping exists for the key.
+     *
+     * @param key
+     * @return
+     */
+    public Set<String> get(RoleMappingKey key);
+
+    /**
+     * Return the number of stored mappings.
+     *
+     * @return
+     */
+    public int size();
+}
@@ -1,26 +1,40 @@
 package edu.baylor.cs.holder.security.service.impl;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import edu.baylor.cs.holder.security.service.AccessService;
 import edu.baylor.cs.holder.security.service.DomainService;
+import edu.baylor.cs.holder.security.service.SecurityMetrics;
 import edu.baylor.cs.holder.security.service.SecurityService;
+import edu.baylor.cs.holder.security.service.SnapshotAccessService;
+import edu.baylor.cs.holder.security.service.accessobjects.AccessHandle;
 import edu.baylor.cs.holder.security.service.accessobjects.AccessRuleKey;
+import edu.baylor.cs.holder.security.service.accessobjects.KeyInterner;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleDictionary;
 import edu.baylor.cs.holder.security.service.accessobjects.RoleMappingKey;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleSet;
 import edu.baylor.cs.holder.security.service.accessobjects.User;
 
 public class SecurityServiceImpl implements SecurityService {
     
-    // maximum length of a context array to prevent denial of service attacks
-    private static final int MAXCONTEXTLENGTH = 5;
+    /**
+     * Maximum length of a context array, to prevent denial of service attacks.
+     */
+    public static final int MAXCONTEXTLENGTH = 5;
     
     // empty object array
     private static final Object[] EMTPYARRAY = new Object[0];
@@ -33,6 +47,47 @@ public class SecurityServiceImpl implements SecurityService {
     // service used to retrieve domain objects
     protected DomainService domainService;
     
+    // receives each access decision, null when not measured
+    private volatile SecurityMetrics securityMetrics;
+    
+    // records a sample of access decisions, null when not tracing
+    private volatile DecisionTracer decisionTracer;
+    
+    // receives audited access decisions, null when not auditing
+    private volatile AuditLog auditLog;
+    
+    // hands out a single immutable key for each access rule looked up that
+    // isn't kept by an access handle, so caches compare it by reference and
+    // don't recompute its hash code
+    private final KeyInterner keyInterner = new KeyInterner();
+    
+    // maximum number of access handles created for checks made without one,
+    // so that unknown categories and actions can't exhaust memory
+    static final int MAXACCESSHANDLES = 10000;
+    
+    // handles of the categories and actions checked without a handle, by
+    // category and then action, so that their keys are looked up by the
+    // classes of the context objects rather than hashed and interned
+    private final ConcurrentMap<String, ConcurrentMap<String, AccessHandle>> accessHandles =
+            new ConcurrentHashMap<String, ConcurrentMap<String, AccessHandle>>();
+    
+    // number of handles held by accessHandles
+    private final AtomicInteger accessHandleCount = new AtomicInteger();
+    
+    // true when each thread reuses its evaluation state between access checks
+    private volatile boolean reuseEvaluationState = false;
+    
+    // evaluation state confined to each thread, used when reuseEvaluationState is true
+    private final ThreadLocal<EvaluationState> evaluationState = new ThreadLocal<EvaluationState>() {
+        @Override
+        protected EvaluationState initialValue() {
+            return new EvaluationState(true);
+        }
+    };
+    
+    // true when an extension provides its own context types
+    private final boolean customProcessContext = overridesProcessContext(getClass());
+    
     public boolean hasRole(User user, String roleName) {
         try {
             return getAllRolesForUser(user).contains(roleName);
@@ -61,64 +116,197 @@ public class SecurityServiceImpl implements SecurityService {
         if (context == null) {
             context = EMTPYARRAY;
         }
+        return decide(null, category, action, user, context, 0, null, null);
+    }
+    
+    public boolean hasAccess(String category, String action, User user) {
+        return decide(null, category, action, user, null, 0, null, null);
+    }
+    
+    public boolean hasAccess(String category, String action, User user, Object context) {
+        return decide(null, category, action, user, null, 1, context, null);
+    }
+    
+    public boolean hasAccess(String category, String action, User user, Object context1, Object context2) {
+        return decide(null, category, action, user, null, 2, context1, context2);
+    }
+    
+    public boolean hasAccess(AccessHandle handle, User user, Object... context) {
+        
+        // treat a null context array as an empty Object array
+        if (context == null) {
+            context = EMTPYARRAY;
+        }
+        return decide(handle, handle.getCategory(), handle.getAction(), user, context, 0, null, null);
+    }
+    
+    public boolean hasAccess(AccessHandle handle, User user) {
+        return decide(handle, handle.getCategory(), handle.getAction(), user, null, 0, null, null);
+    }
+    
+    public boolean hasAccess(AccessHandle handle, User user, Object context) {
+        return decide(handle, handle.getCategory(), handle.getAction(), user, null, 1, context, null);
+    }
+    
+    public boolean hasAccess(AccessHandle handle, User user, Object context1, Object context2) {
+        return decide(handle, handle.getCategory(), handle.getAction(), user, null, 2, context1, context2);
+    }
+    
+    /**
+     * Make an access decision, reporting it to the configured metrics, tracer
+     * and audit log. The context is either the given array, or when that is
+     * null the given number of context objects, which are then held by an
+     * array of the {@link EvaluationState} instead of a new one.
+     * 
+     * @param handle
+     *            handle keeping the access rule keys of the category and
+     *            action, or null
+     */
+    private boolean decide(AccessHandle handle, String category, String action, User user, Object[] context,
+            int contextLength, Object context1, Object context2) {
+        
+        SecurityMetrics metrics = securityMetrics;
+        DecisionTracer tracer = decisionTracer;
+        if (tracer != null && !tracer.sample()) {
+            tracer = null;
+        }
+        boolean timed = metrics != null || tracer != null;
+        long start = timed ? System.nanoTime() : 0;
+        
+        boolean granted;
+        long elapsed;
+        EvaluationState state = acquireEvaluationState();
+        try {
+            if (context == null) {
+                context = state.getContext(contextLength, context1, context2);
+            }
+            granted = hasAccess(state, getPinnedAccessService(), handle, category, action, user, context);
+            elapsed = timed ? System.nanoTime() - start : 0;
+            if (tracer != null) {
+                tracer.record(state.accessRuleKey, state.accessRuleRoles, state.availableRoles,
+                        state.roleMappingKeys, state.userRoles, state.vetoRoles, state.lookups, granted, elapsed);
+            }
+            AuditLog audit = auditLog;
+            if (audit != null && audit.isAudited(granted)) {
+                audit(audit, state, category, action, user, context, granted);
+            }
+        } finally {
+            state.release();
+        }
+        
+        if (metrics != null) {
+            metrics.recordAccessDecision(category, action, granted, elapsed);
+        }
+        return granted;
+    }
+    
+    /**
+     * Queue the given decision to be written to the given {@link AuditLog},
+     * with the ids of at most {@link #MAXCONTEXTLENGTH} context objects.
+     */
+    private void audit(AuditLog audit, EvaluationState state, String category, String action, User user,
+            Object[] context, boolean granted) {
+        List<Class<?>> contextTypes = state.accessRuleKey.getContexts();
+        int count = Math.min(Math.min(context.length, contextTypes.size()), MAXCONTEXTLENGTH);
+        Long[] contextIds = state.getContextIds(count);
+        for (int i = 0; i < count; i++) {
+            contextIds[i] = context[i] == null ? null : domainService.getId(context[i]);
+        }
+        audit.record(category, action, user == null ? null : user.getId(), contextTypes, contextIds, count,
+                granted);
+    }
+    
+    /**
+     * Evaluate access using the keys and arrays held by the given
+     * {@link EvaluationState}, making every lookup against the given
+     * {@link AccessService}.
+     */
+    private boolean hasAccess(EvaluationState state, AccessService service, AccessHandle handle, String category,
+            String action, User user, Object[] context) {
         
         // process the context array and return the types
-        List<Class<?>> contextTypes = processContext(context);
+        List<Class<?>> contextTypes = customProcessContext ? processContext(context) : (state.reusable
+                ? getContextTypes(state.contextTypes, context) : getContextTypes(context));
         
         // roles the user must have according to the access rules
-        AccessRuleKey accessRuleKey = new AccessRuleKey(category, action, contextTypes);
-        Set<String> accessRuleRoles = accessService.getAccessRuleRoles(accessRuleKey);
+        if (handle == null) {
+            handle = getAccessHandle(category, action);
+        }
+        AccessRuleKey accessRuleKey = state.getAccessRuleKey(handle, keyInterner, category, action, contextTypes);
+        Set<String> accessRuleRoles = service.getAccessRuleRoles(accessRuleKey);
+        state.accessRuleRoles = accessRuleRoles;
         
         // If there are no valid roles then don't process any further
         if (accessRuleRoles.size() == 0) {
             return false;
         }
         
-        // roles the user has
-        Set<String> personRoles = new HashSet<String>();
+        // Don't process a context array greater than this to lighten a
+        // possible denial of service attack via web services integration in
+        // the future
+        if (context.length > MAXCONTEXTLENGTH) {
+            throw new IllegalArgumentException("Context array has exceeded maximum length.");
+        }
+        
+        // roles the user has, for no context or for each object in the context
+        int lookups = Math.max(context.length, 1);
+        state.prepareLookups(lookups);
+        Set<String>[] userRoles = state.userRoles;
+        
+        // roles that may be vetoed by the access service, for each lookup
+        Set<String>[] vetoRoles = state.vetoRoles;
         
-        // roles that may be vetoed by the access service
-        Set<String> vetoRoles = new HashSet<String>();
+        // all available roles, for an intersect operation
+        Set<String> availableRoles = null;
         
         if (context.length == 0) {
             // no context
             
             // add roles UID, *, *
-            RoleMappingKey roleMappingKey = new RoleMappingKey(user.getId(), null, null);
-            personRoles.addAll(accessService.getUserRoles(roleMappingKey));
+            RoleMappingKey roleMappingKey = state.getRoleMappingKey(0, user.getId(), null, null);
+            userRoles[0] = service.getUserRoles(roleMappingKey);
             
             // Add roles that may be vetoed
-            vetoRoles.addAll(accessService.getVetoRoles(accessRuleKey,
-                    roleMappingKey));
+            vetoRoles[0] = service.getVetoRoles(accessRuleKey, roleMappingKey);
         } else {
-            // Don't process a context array greater than this to lighten a
-            // possible denial of service attack via web services integration in
-            // the future
-            if (context.length > MAXCONTEXTLENGTH) {
-                throw new IllegalArgumentException("Context array has exceeded maximum length.");
-            }
-            
-            // Get all available roles, for an intersect operation
-            Set<String> contextRoles = new HashSet<String>(accessService.getAllAvailableRoles());
-            
-            // You must have the required allowed role for each
-            // object in the context in order for the role to be valid for the
-            // current action to be permitted.
+            availableRoles = service.getAllAvailableRoles();
+            state.availableRoles = availableRoles;
             
-            Iterator<Class<?>> types = contextTypes.iterator();
-            for (Object c : context) {
-                Long entityId = domainService.getId(c);
-                Class<?> entityType = types.next();
+            for (int i = 0; i < context.length; i++) {
+                Long entityId = domainService.getId(context[i]);
+                Class<?> entityType = contextTypes.get(i);
                 
                 // Add roles PID, EntityType, EntityID
-                
-                // Compute intersection of roles derived from each object in
-                // the context.
-                RoleMappingKey roleMappingKey = new RoleMappingKey(user.getId(), entityType, entityId);
-                contextRoles.retainAll(accessService.getUserRoles(roleMappingKey));
+                RoleMappingKey roleMappingKey = state.getRoleMappingKey(i, user.getId(), entityType, entityId);
+                userRoles[i] = service.getUserRoles(roleMappingKey);
                 
                 // Add roles that may be vetoed
-                vetoRoles.addAll(accessService.getVetoRoles(accessRuleKey, roleMappingKey));
+                vetoRoles[i] = service.getVetoRoles(accessRuleKey, roleMappingKey);
+            }
+        }
+        
+        state.lookups = lookups;
+        
+        RoleDictionary dictionary = getSharedDictionary(accessRuleRoles, availableRoles, userRoles, vetoRoles, lookups);
+        if (dictionary != null) {
+            return hasEncodedAccess(dictionary, accessRuleRoles, availableRoles, userRoles, vetoRoles, lookups);
+        }
+        
+        // roles the user has
+        Set<String> personRoles = new HashSet<String>();
+        
+        if (availableRoles == null) {
+            personRoles.addAll(userRoles[0]);
+        } else {
+            // You must have the required allowed role for each
+            // object in the context in order for the role to be valid for the
+            // current action to be permitted.
+            
+            // Compute intersection of roles derived from each object in
+            // the context.
+            Set<String> contextRoles = new HashSet<String>(availableRoles);
+            for (int i = 0; i < lookups; i++) {
+                contextRoles.retainAll(userRoles[i]);
             }
             
             // Add roles derived from the context to the Person's roles
@@ -126,7 +314,9 @@ public class SecurityServiceImpl implements SecurityService {
         }
         
         // Remove the roles that have been vetoed
-        personRoles.removeAll(vetoRoles);
+        for (int i = 0; i < lookups; i++) {
+            personRoles.removeAll(vetoRoles[i]);
+        }
         
         // Intersect with the allowed roles
         personRoles.retainAll(accessRuleRoles);
@@ -136,6 +326,213 @@ public class SecurityServiceImpl implements SecurityService {
         return !personRoles.isEmpty();
     }
     
+    public <T> List<T> filterAccessible(String category, String action, User user, Collection<T> contexts) {
+        BitSet accessible = getAccessiblePositions(category, action, user, contexts);
+        List<T> result = new ArrayList<T>(accessible.cardinality());
+        int position = 0;
+        for (T context : contexts) {
+            if (accessible.get(position++)) {
+                result.add(context);
+            }
+        }
+        return result;
+    }
+    
+    public BitSet getAccessiblePositions(String category, String action, User user, Collection<?> contexts) {
+        BitSet accessible = new BitSet(contexts.size());
+        
+        // extensions may change the types of each context, so let them
+        if (customProcessContext) {
+            int position = 0;
+            for (Object context : contexts) {
+                if (hasAccess(category, action, user, context)) {
+                    accessible.set(position);
+                }
+                position++;
+            }
+            return accessible;
+        }
+        
+        // rule and available roles resolved once for each type of element,
+        // usually there is only the one
+        AccessService service = getPinnedAccessService();
+        Map<Class<?>, ContextTypeAccess> typeAccess = new HashMap<Class<?>, ContextTypeAccess>(4);
+        ContextTypeAccess lastAccess = null;
+        Set<String> availableRoles = null;
+        
+        // each element is reported like a single access check
+        SecurityMetrics metrics = securityMetrics;
+        DecisionTracer tracer = decisionTracer;
+        AuditLog audit = auditLog;
+        EvaluationState state = acquireEvaluationState();
+        try {
+            int position = 0;
+            for (Object context : contexts) {
+                DecisionTracer sampled = tracer != null && tracer.sample() ? tracer : null;
+                boolean timed = metrics != null || sampled != null;
+                long start = timed ? System.nanoTime() : 0;
+                Class<?> contextType = context == null ? null : context.getClass();
+                
+                if (lastAccess == null || lastAccess.contextType != contextType) {
+                    lastAccess = typeAccess.get(contextType);
+                    if (lastAccess == null) {
+                        if (availableRoles == null) {
+                            availableRoles = service.getAllAvailableRoles();
+                        }
+                        lastAccess = new ContextTypeAccess(service, keyInterner.getAccessRuleKey(category, action,
+                                Collections.<Class<?>> singletonList(contextType)), availableRoles);
+                        typeAccess.put(contextType, lastAccess);
+                    }
+                }
+                
+                boolean granted = false;
+                RoleMappingKey roleMappingKey = null;
+                Set<String> userRoles = null;
+                Set<String> vetoRoles = null;
+                if (lastAccess.allowedRoles != null) {
+                    // Add roles PID, EntityType, EntityID
+                    roleMappingKey = new RoleMappingKey(user.getId(), contextType, domainService.getId(context));
+                    userRoles = service.getUserRoles(roleMappingKey);
+                    vetoRoles = service.getVetoRoles(lastAccess.accessRuleKey, roleMappingKey);
+                    granted = isGranted(lastAccess.allowedRoles, userRoles, vetoRoles);
+                }
+                if (granted) {
+                    accessible.set(position);
+                }
+                long elapsed = timed ? System.nanoTime() - start : 0;
+                
+                if (sampled != null) {
+                    int lookups = 0;
+                    if (roleMappingKey != null) {
+                        state.prepareLookups(1);
+                        state.getRoleMappingKey(0, roleMappingKey.getUserId(), contextType,
+                                roleMappingKey.getContextId());
+                        state.userRoles[0] = userRoles;
+                        state.vetoRoles[0] = vetoRoles;
+                        lookups = 1;
+                    }
+                    sampled.record(lastAccess.accessRuleKey, lastAccess.accessRuleRoles, availableRoles,
+                            state.roleMappingKeys, state.userRoles, state.vetoRoles, lookups, granted, elapsed);
+                }
+                if (audit != null && audit.isAudited(granted)) {
+                    Long[] contextIds = state.getContextIds(1);
+                    if (roleMappingKey != null) {
+                        contextIds[0] = roleMappingKey.getContextId();
+                    } else {
+                        contextIds[0] = context == null ? null : domainService.getId(context);
+                    }
+                    audit.record(category, action, user == null ? null : user.getId(), lastAccess.accessRuleKey
+                            .getContexts(), contextIds, 1, granted);
+                }
+                if (metrics != null) {
+                    metrics.recordAccessDecision(category, action, granted, elapsed);
+                }
+                position++;
+            }
+        } finally {
+            state.release();
+        }
+        return accessible;
+    }
+    
+    /**
+     * Return true if any of the allowed roles is held by the user and not
+     * vetoed, without building any intermediate sets.
+     */
+    private static boolean isGranted(Set<String> allowedRoles, Set<String> userRoles, Set<String> vetoRoles) {
+        if (allowedRoles instanceof RoleSet) {
+            RoleDictionary dictionary = ((RoleSet) allowedRoles).getDictionary();
+            if (isEncoded(dictionary, userRoles) && isEncoded(dictionary, vetoRoles)) {
+                for (int w = 0; w < dictionary.getWordCount(); w++) {
+                    if ((getWord(allowedRoles, w) & getWord(userRoles, w) & ~getWord(vetoRoles, w)) != 0) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        }
+        for (String role : allowedRoles) {
+            if (userRoles.contains(role) && !vetoRoles.contains(role)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Evaluate the same set algebra as
+     * {@link #hasAccess(String, String, User, Object...)} one bitmask word at a
+     * time, where every non-empty set is a {@link RoleSet} of the given
+     * {@link RoleDictionary}. Since each word holds an independent slice of the
+     * roles no intermediate sets are needed.
+     * 
+     * @return true if access is allowed; false otherwise
+     */
+    private boolean hasEncodedAccess(RoleDictionary dictionary, Set<String> accessRuleRoles,
+            Set<String> availableRoles, Set<String>[] userRoles, Set<String>[] vetoRoles, int lookups) {
+        
+        for (int w = 0; w < dictionary.getWordCount(); w++) {
+            
+            // roles the user has, the intersection over each context object
+            long personRoles = availableRoles == null ? -1L : getWord(availableRoles, w);
+            for (int i = 0; i < lookups; i++) {
+                personRoles &= getWord(userRoles[i], w);
+            }
+            
+            // remove the vetoed roles
+            for (int i = 0; i < lookups; i++) {
+                personRoles &= ~getWord(vetoRoles[i], w);
+            }
+            
+            // intersect with the allowed roles
+            if ((personRoles & getWord(accessRuleRoles, w)) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Return the {@link RoleDictionary} shared by every non-empty given set
+     * when they are all {@link RoleSet}'s, otherwise null.
+     */
+    private static RoleDictionary getSharedDictionary(Set<String> accessRuleRoles, Set<String> availableRoles,
+            Set<String>[] userRoles, Set<String>[] vetoRoles, int lookups) {
+        
+        if (!(accessRuleRoles instanceof RoleSet)) {
+            return null;
+        }
+        RoleDictionary dictionary = ((RoleSet) accessRuleRoles).getDictionary();
+        if (availableRoles != null && !isEncoded(dictionary, availableRoles)) {
+            return null;
+        }
+        for (int i = 0; i < lookups; i++) {
+            if (!isEncoded(dictionary, userRoles[i]) || !isEncoded(dictionary, vetoRoles[i])) {
+                return null;
+            }
+        }
+        return dictionary;
+    }
+    
+    /**
+     * Return true if the given set can be read as words of the given
+     * {@link RoleDictionary}. Any empty set qualifies.
+     */
+    private static boolean isEncoded(RoleDictionary dictionary, Set<String> roles) {
+        if (roles instanceof RoleSet) {
+            return ((RoleSet) roles).getDictionary() == dictionary;
+        }
+        return roles.isEmpty();
+    }
+    
+    /**
+     * Return the word at the given index of a set accepted by
+     * {@link #isEncoded(RoleDictionary, Set)}.
+     */
+    private static long getWord(Set<String> roles, int index) {
+        return roles instanceof RoleSet ? ((RoleSet) roles).getWord(index) : 0L;
+    }
+    
     /**
      * Extensions of this method can be used to modify the list of returned
      * types or the contents of the object array in place.
@@ -155,7 +552,21 @@ public class SecurityServiceImpl implements SecurityService {
      * @return
      */
     private List<Class<?>> getContextTypes(Object... context) {
-        List<Class<?>> contextTypes = new ArrayList<Class<?>>();
+        return getContextTypes(new ArrayList<Class<?>>(context.length), context);
+    }
+    
+    /**
+     * Fill the given list with the expected class types derived from the array
+     * of context, replacing its previous contents.
+     * 
+     * @param contextTypes
+     *            list to fill
+     * @param context
+     *            Object array to derive types from
+     * @return the given list
+     */
+    private List<Class<?>> getContextTypes(List<Class<?>> contextTypes, Object[] context) {
+        contextTypes.clear();
         for (Object o : context) {
             if (o != null) {
                 contextTypes.add(o.getClass());
@@ -167,6 +578,138 @@ public class SecurityServiceImpl implements SecurityService {
         return contextTypes;
     }
 
+    /**
+     * Return the {@link AccessHandle} of the given category and action,
+     * creating it the first time they are checked. Returns null when either
+     * is null or when {@link #MAXACCESSHANDLES} handles have been created, in
+     * which case the key is interned instead.
+     */
+    private AccessHandle getAccessHandle(String category, String action) {
+        if (category == null || action == null) {
+            return null;
+        }
+        ConcurrentMap<String, AccessHandle> handles = accessHandles.get(category);
+        AccessHandle handle = handles == null ? null : handles.get(action);
+        if (handle != null) {
+            return handle;
+        }
+        if (accessHandleCount.get() >= MAXACCESSHANDLES) {
+            return null;
+        }
+        if (handles == null) {
+            handles = new ConcurrentHashMap<String, AccessHandle>(4);
+            ConcurrentMap<String, AccessHandle> existing = accessHandles.putIfAbsent(category, handles);
+            if (existing != null) {
+                handles = existing;
+            }
+        }
+        handle = new AccessHandle(category, action);
+        AccessHandle existing = handles.putIfAbsent(action, handle);
+        if (existing != null) {
+            return existing;
+        }
+        accessHandleCount.incrementAndGet();
+        return handle;
+    }
+    
+    /**
+     * Return the {@link AccessService} to make the lookups of a single access
+     * check against. When the configured service is a
+     * {@link SnapshotAccessService} its current snapshot is used, so that an
+     * update made during the check can't mix old and new content.
+     */
+    private AccessService getPinnedAccessService() {
+        AccessService service = accessService;
+        if (service instanceof SnapshotAccessService) {
+            return ((SnapshotAccessService) service).getSnapshot();
+        }
+        return service;
+    }
+    
+    /**
+     * Return the {@link EvaluationState} to use for a single access check.
+     * When evaluation state is reused, the state confined to the current
+     * thread is returned unless it is already in use further up the stack,
+     * such as when an {@link AccessService} or {@link DomainService} calls
+     * back into this service.
+     */
+    private EvaluationState acquireEvaluationState() {
+        if (reuseEvaluationState) {
+            EvaluationState state = evaluationState.get();
+            if (!state.inUse) {
+                state.inUse = true;
+                return state;
+            }
+        }
+        return new EvaluationState(false);
+    }
+    
+    /**
+     * Return true if the given class, an extension of this class, overrides
+     * {@link #processContext(Object...)}.
+     */
+    private static boolean overridesProcessContext(Class<?> type) {
+        for (Class<?> c = type; c != SecurityServiceImpl.class; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod("processContext", Object[].class);
+                return true;
+            } catch (NoSuchMethodException e) {
+                ; // ignore
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * When set to true, each thread reuses the same keys, context type list,
+     * context arrays and role arrays for every call to
+     * {@link #hasAccess(String, String, User, Object...)} and its overloads,
+     * so that in steady state an access check allocates nothing as long as the
+     * configured {@link AccessService} returns cached {@link RoleSet}'s. Fixed
+     * arity checks then don't allocate a context array either. The keys handed
+     * to the {@link AccessService} are then only valid for the duration of
+     * each call and must be copied if they are retained, as
+     * {@link GenericCachingAccessServiceImpl} does. Defaults to false.
+     * 
+     * @param reuseEvaluationState
+     */
+    public void setReuseEvaluationState(boolean reuseEvaluationState) {
+        this.reuseEvaluationState = reuseEvaluationState;
+    }
+    
+    /**
+     * Set the {@link SecurityMetrics} that each access decision made by
+     * {@link #hasAccess(String, String, User, Object...)} is reported to, or
+     * null to stop reporting them. Defaults to null.
+     * 
+     * @param securityMetrics
+     */
+    public void setSecurityMetrics(SecurityMetrics securityMetrics) {
+        this.securityMetrics = securityMetrics;
+    }
+    
+    /**
+     * Set the {@link DecisionTracer} that a sample of the access decisions
+     * made by {@link #hasAccess(String, String, User, Object...)} is recorded
+     * by, or null to stop tracing. Defaults to null.
+     * 
+     * @param decisionTracer
+     */
+    public void setDecisionTracer(DecisionTracer decisionTracer) {
+        this.decisionTracer = decisionTracer;
+    }
+    
+    /**
+     * Set the {@link AuditLog} that the access decisions made by
+     * {@link #hasAccess(String, String, User, Object...)} are written to, or
+     * null to stop auditing. Defaults to null.
+     * 
+     * @param auditLog
+     */
+    public void setAuditLog(AuditLog auditLog) {
+        this.auditLog = auditLog;
+    }
+    
     public void setAccessService(AccessService accessService) {
         this.accessService = accessService;
     }
@@ -174,4 +717,197 @@ public class SecurityServiceImpl implements SecurityService {
     public void setDomainService(DomainService domainService) {
         this.domainService = domainService;
     }
+    
+    /**
+     * Holds the access rule of a category and action for a single context
+     * type, used when filtering many context objects at once.
+     */
+    private static class ContextTypeAccess {
+        
+        // type of the context objects
+        private final Class<?> contextType;
+        
+        // key of the access rule for the single context type, and its roles
+        private final AccessRuleKey accessRuleKey;
+        private final Set<String> accessRuleRoles;
+        
+        // roles of the access rule that are also available, null when no
+        // element of this type can be accessed
+        private final Set<String> allowedRoles;
+        
+        public ContextTypeAccess(AccessService accessService, AccessRuleKey accessRuleKey, Set<String> availableRoles) {
+            this.contextType = accessRuleKey.getContexts().get(0);
+            this.accessRuleKey = accessRuleKey;
+            
+            Set<String> accessRuleRoles = accessService.getAccessRuleRoles(accessRuleKey);
+            this.accessRuleRoles = accessRuleRoles;
+            Set<String> roles;
+            if (accessRuleRoles instanceof RoleSet && availableRoles instanceof RoleSet
+                    && ((RoleSet) accessRuleRoles).getDictionary() == ((RoleSet) availableRoles).getDictionary()) {
+                roles = RoleSet.intersection((RoleSet) accessRuleRoles, (RoleSet) availableRoles);
+            } else {
+                roles = new HashSet<String>(accessRuleRoles);
+                roles.retainAll(availableRoles);
+            }
+            this.allowedRoles = roles.isEmpty() ? null : roles;
+        }
+    }
+    
+    /**
+     * Holds the keys and role arrays of a single access check. Instances
+     * confined to a thread are reused for each check made by that thread,
+     * other instances are used once and create their keys and arrays as
+     * needed, sized for the check.
+     */
+    private static class EvaluationState {
+        
+        // true if this state is reused between access checks
+        private final boolean reusable;
+        
+        // true while an access check is using this state
+        private boolean inUse = false;
+        
+        // types derived from the context objects, only held when reusable
+        private final List<Class<?>> contextTypes;
+        
+        // interned key used to look up access rule roles, and the key it was
+        // interned from
+        private AccessRuleKey accessRuleKey;
+        private AccessRuleKey accessRuleProbe;
+        
+        // keys used to look up user and veto roles, one per context object
+        private RoleMappingKey[] roleMappingKeys;
+        
+        // context arrays holding one or two context objects, filled by the
+        // fixed arity access checks, only held when reusable
+        private final Object[] singleContext;
+        private final Object[] pairContext;
+        
+        // ids of the context objects, only looked up for audited decisions
+        private Long[] contextIds;
+        
+        // roles of the access rule, and all available roles when there is a
+        // context
+        private Set<String> accessRuleRoles;
+        private Set<String> availableRoles;
+        
+        // number of keys looked up, 0 until the user roles are looked up
+        private int lookups = 0;
+        
+        // roles looked up for each key
+        private Set<String>[] userRoles;
+        private Set<String>[] vetoRoles;
+        
+        public EvaluationState(boolean reusable) {
+            this.reusable = reusable;
+            if (reusable) {
+                this.contextTypes = new ArrayList<Class<?>>(MAXCONTEXTLENGTH);
+                this.singleContext = new Object[1];
+                this.pairContext = new Object[2];
+                this.contextIds = new Long[MAXCONTEXTLENGTH];
+                prepareLookups(MAXCONTEXTLENGTH);
+            } else {
+                this.contextTypes = null;
+                this.singleContext = null;
+                this.pairContext = null;
+            }
+        }
+        
+        /**
+         * Make room for the keys and roles of the given number of lookups, at
+         * most {@link #MAXCONTEXTLENGTH}, which a reusable state already has.
+         */
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        public void prepareLookups(int lookups) {
+            if (roleMappingKeys == null || !reusable) {
+                roleMappingKeys = new RoleMappingKey[lookups];
+                userRoles = new Set[lookups];
+                vetoRoles = new Set[lookups];
+            }
+        }
+        
+        /**
+         * Return an array for the ids of the given number of context objects,
+         * at most {@link #MAXCONTEXTLENGTH}.
+         */
+        public Long[] getContextIds(int count) {
+            return reusable ? contextIds : new Long[count];
+        }
+        
+        /**
+         * Return an array holding the given number of context objects, at
+         * most two.
+         */
+        public Object[] getContext(int contextLength, Object context1, Object context2) {
+            Object[] context;
+            switch (contextLength) {
+            case 0:
+                return EMTPYARRAY;
+            case 1:
+                context = reusable ? singleContext : new Object[1];
+                break;
+            default:
+                context = reusable ? pairContext : new Object[2];
+                context[1] = context2;
+                break;
+            }
+            context[0] = context1;
+            return context;
+        }
+        
+        public AccessRuleKey getAccessRuleKey(AccessHandle handle, KeyInterner keyInterner, String category,
+                String action, List<Class<?>> contexts) {
+            if (handle != null) {
+                accessRuleKey = handle.getAccessRuleKey(contexts);
+                if (accessRuleKey != null) {
+                    return accessRuleKey;
+                }
+            }
+            if (accessRuleProbe == null || !reusable) {
+                accessRuleProbe = new AccessRuleKey(category, action, contexts);
+            } else {
+                accessRuleProbe.setCategory(category);
+                accessRuleProbe.setAction(action);
+                accessRuleProbe.setContexts(contexts);
+            }
+            accessRuleKey = keyInterner.intern(accessRuleProbe);
+            return accessRuleKey;
+        }
+        
+        public RoleMappingKey getRoleMappingKey(int index, Long userId, Class<?> contextType, Long contextId) {
+            RoleMappingKey key = roleMappingKeys[index];
+            if (key == null || !reusable) {
+                key = new RoleMappingKey(userId, contextType, contextId);
+                roleMappingKeys[index] = key;
+            } else {
+                key.setUserId(userId);
+                key.setContextType(contextType);
+                key.setContextId(contextId);
+            }
+            return key;
+        }
+        
+        /**
+         * Drop references to the roles and context types of the last access
+         * check and make this state available again.
+         */
+        public void release() {
+            if (!reusable) {
+                return;
+            }
+            for (int i = 0; i < MAXCONTEXTLENGTH; i++) {
+                userRoles[i] = null;
+                vetoRoles[i] = null;
+                contextIds[i] = null;
+            }
+            singleContext[0] = null;
+            pairContext[0] = null;
+            pairContext[1] = null;
+            contextTypes.clear();
+            accessRuleRoles = null;
+            availableRoles = null;
+            lookups = 0;
+            inUse = false;
+        }
+    }
 }
@@ -0,0 +1,195 @@
+package edu.baylor.cs.holder.security.service.impl;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import edu.baylor.cs.holder.security.service.SecurityMetrics;
+import edu.baylor.cs.holder.security.util.LatencyHistogram;
+import edu.baylor.cs.holder.security.util.StripedCounter;
+
+/**
+ * The built-in {@link SecurityMetrics}, which keeps counts in
+ * {@link StripedCounter}'s and latencies in {@link LatencyHistogram}'s in
+ * memory for as long as it lives. Recording takes a few uncontended atomic
+ * additions and allocates nothing once each category, action and cache has
+ * been seen, so it can stay enabled in production.
+ *
+ * @author holder
+ */
+public class SimpleSecurityMetrics implements SecurityMetrics {
+
+    // category -> action -> decision counts
+    private final ConcurrentMap<String, ConcurrentMap<String, DecisionCounts>> decisions = new ConcurrentHashMap<String, ConcurrentMap<String, DecisionCounts>>();
+
+    // cache name -> cache counts
+    private final ConcurrentMap<String, CacheCounts> caches = new ConcurrentHashMap<String, CacheCounts>();
+
+    private final LatencyHistogram decisionLatency = new LatencyHistogram();
+    private final LatencyHistogram fanOutLatency = new LatencyHistogram();
+    private final LatencyHistogram repositoryLoadLatency = new LatencyHistogram();
+
+    public void recordAccessDecision(String category, String action, boolean granted, long elapsedNanos) {
+        DecisionCounts counts = getDecisionCounts(String.valueOf(category), String.valueOf(action));
+        if (granted) {
+            counts.grants.increment();
+        } else {
+            counts.denials.increment();
+        }
+        decisionLatency.record(elapsedNanos);
+    }
+
+    public void recordCacheHit(String cache) {
+        getCacheCounts(cache).hits.increment();
+    }
+
+    public void recordCacheMiss(String cache) {
+        getCacheCounts(cache).misses.increment();
+    }
+
+    public void recordCoalescedMiss(String cache) {
+        getCacheCounts(cache).coalescedMisses.increment();
+    }
+
+    public void recordCacheEviction(String cache) {
+        getCacheCounts(cache).evictions.increment();
+    }
+
+    public void recordFanOut(long elapsedNanos) {
+        fanOutLatency.record(elapsedNanos);
+    }
+
+    public void recordRepositoryLoad(long elapsedNanos) {
+        repositoryLoadLatency.record(elapsedNanos);
+    }
+
+    /**
+     * Return the number of access checks for the given category and action
+     * that granted access.
+     *
+     * @param category
+     * @param action
+     * @return
+     */
+    public long getGrantCount(String category, String action) {
+        DecisionCounts counts = findDecisionCounts(category, action);
+        return counts == null ? 0 : counts.grants.sum();
+    }
+
+    /**
+     * Return the number of access checks for the given category and action
+     * that denied access.
+     *
+     * @param category
+     * @param action
+     * @return
+     */
+    public long getDenialCount(String category, String action) {
+        DecisionCounts counts = findDecisionCounts(category, action);
+        return counts == null ? 0 : counts.denials.sum();
+    }
+
+    /**
+     * Return every action that has been checked, keyed by category.
+     *
+     * @return
+     */
+    public Map<String, Set<String>> getCheckedActions() {
+        Map<String, Set<String>> actions = new TreeMap<String, Set<String>>();
+        for (Map.Entry<String, ConcurrentMap<String, DecisionCounts>> entry : decisions.entrySet()) {
+            actions.put(entry.getKey(), Collections.unmodifiableSet(new TreeSet<String>(entry
+                    .getValue().keySet())));
+        }
+        return actions;
+    }
+
+    public long getCacheHitCount(String cache) {
+        CacheCounts counts = caches.get(cache);
+        return counts == null ? 0 : counts.hits.sum();
+    }
+
+    public long getCacheMissCount(String cache) {
+        CacheCounts counts = caches.get(cache);
+        return counts == null ? 0 : counts.misses.sum();
+    }
+
+    public long getCoalescedMissCount(String cache) {
+        CacheCounts counts = caches.get(cache);
+        return counts == null ? 0 : counts.coalescedMisses.sum();
+    }
+
+    public long getCacheEvictionCount(String cache) {
+        CacheCounts counts = caches.get(cache);
+        return counts == null ? 0 : counts.evictions.sum();
+    }
+
+    /**
+     * Return the latencies of every access check.
+     *
+     * @return
+     */
+    public LatencyHistogram getDecisionLatency() {
+        return decisionLatency;
+    }
+
+    public LatencyHistogram getFanOutLatency() {
+        return fanOutLatency;
+    }
+
+    public LatencyHistogram getRepositoryLoadLatency() {
+        return repositoryLoadLatency;
+    }
+
+    private DecisionCounts findDecisionCounts(String category, String action) {
+        ConcurrentMap<String, DecisionCounts> byAction = decisions.get(String.valueOf(category));
+        return byAction == null ? null : byAction.get(String.valueOf(action));
+    }
+
+    private DecisionCounts getDecisionCounts(String category, String action) {
+        ConcurrentMap<String, DecisionCounts> byAction = decisions.get(category);
+        if (byAction == null) {
+            byAction = new ConcurrentHashMap<String, DecisionCounts>();
+            ConcurrentMap<String, DecisionCounts> previous = decisions.putIfAbsent(category, byAction);
+            if (previous != null) {
+                byAction = previous;
+            }
+        }
+        DecisionCounts counts = byAction.get(action);
+        if (counts == null) {
+            counts = new DecisionCounts();
+            DecisionCounts previous = byAction.putIfAbsent(action, counts);
+            if (previous != null) {
+                counts = previous;
+            }
+        }
+        return counts;
+    }
+
+    private CacheCounts getCacheCounts(String cache) {
+        CacheCounts counts = caches.get(cache);
+        if (counts == null) {
+            counts = new CacheCounts();
+            CacheCounts previous = caches.putIfAbsent(cache, counts);
+            if (previous != null) {
+                counts = previous;
+            }
+        }
+        return counts;
+    }
+
+    private static class DecisionCounts {
+        private final StripedCounter grants = new StripedCounter();
+        private final StripedCounter denials = new StripedCounter();
+    }
+
+    private static class CacheCounts {
+        private final StripedCounter hits = new StripedCounter();
+        private final StripedCounter misses = new StripedCounter();
+        private final StripedCounter coalescedMisses = new StripedCounter();
+        private final StripedCounter evictions = new StripedCounter();
+    }
+}
@@ -0,0 +1,350 @@
+package edu.baylor.cs.holder.security.service.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import edu.baylor.cs.holder.security.service.SecurityRepository;
+import edu.baylor.cs.holder.security.service.accessobjects.AccessRuleKey;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleDictionary;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleHierarchy;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMapping;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMappingKey;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleSet;
+
+/**
+ * This class compiles the content of a {@link SecurityRepository} into a
+ * compact binary snapshot that {@link MappedSnapshotLoader} can memory map at
+ * startup, skipping the parsing, class resolution and role validation that
+ * loading the repository itself takes.
+ *
+ * A snapshot holds, in order and all big endian:
+ * <ul>
+ * <li>the {@link #MAGIC} number and format {@link #VERSION}</li>
+ * <li>the role dictionary, each role in id order</li>
+ * <li>the context packages, in search order</li>
+ * <li>the context class dictionary, each class name in id order</li>
+ * <li>the bitmask of all available roles</li>
+ * <li>the role hierarchy, the bitmask of the roles each role implies directly
+ * in id order</li>
+ * <li>the active access rules, each with the ids of its context classes and
+ * the bitmask of its roles</li>
+ * <li>the active wildcard access rules in the same form, each with its action
+ * pattern</li>
+ * <li>the veto rules sorted by their content, each with its category, action
+ * pattern, the id of its context class, its condition and the bitmask of its
+ * roles</li>
+ * <li>the explicit role mappings as fixed size records sorted by userId, then
+ * contextType, then contextId, see {@link MappedRoleMappings}, holding the
+ * roles of each mapping already expanded by the role hierarchy</li>
+ * </ul>
+ * Compiling the same content always produces the same snapshot.
+ *
+ * @author holder
+ */
+public class SnapshotCompiler {
+
+    /**
+     * First four bytes of every snapshot, "UCIS".
+     */
+    public static final int MAGIC = 0x55434953;
+
+    /**
+     * Version of the snapshot format written by this class.
+     */
+    public static final int VERSION = 4;
+
+    /**
+     * Compile the given {@link SecurityRepository} into a snapshot file,
+     * replacing any existing file only once the snapshot is complete so that
+     * JVMs still mapping the old file are unaffected.
+     *
+     * @param securityRepository
+     *            repository to compile
+     * @param file
+     *            snapshot file to write
+     * @throws IOException
+     *             thrown when the snapshot can't be written
+     * @throws IllegalArgumentException
+     *             thrown when the repository content is invalid
+     */
+    public static void compile(SecurityRepository securityRepository, File file) throws IOException,
+            IllegalArgumentException {
+        File compiled = new File(file.getPath() + ".tmp");
+        OutputStream out = new FileOutputStream(compiled);
+        try {
+            compile(securityRepository, out);
+        } catch (IOException e) {
+            out.close();
+            compiled.delete();
+            throw e;
+        } catch (RuntimeException e) {
+            out.close();
+            compiled.delete();
+            throw e;
+        }
+        out.close();
+
+        if (!compiled.renameTo(file)) {
+            // some platforms won't rename over an existing file
+            file.delete();
+            if (!compiled.renameTo(file)) {
+                throw new IOException("Unable to replace snapshot: " + file);
+            }
+        }
+    }
+
+    /**
+     * Compile the given {@link SecurityRepository} into a snapshot written to
+     * the given stream, which is flushed but left open.
+     *
+     * @param securityRepository
+     *            repository to compile
+     * @param out
+     *            stream to write the snapshot to
+     * @throws IOException
+     *             thrown when the snapshot can't be written
+     * @throws IllegalArgumentException
+     *             thrown when the repository content is invalid
+     */
+    public static void compile(SecurityRepository securityRepository, OutputStream out) throws IOException,
+            IllegalArgumentException {
+
+        // validates the content and assigns each role its id
+        RepositorySnapshot snapshot = new RepositorySnapshot(securityRepository);
+        RoleDictionary roleDictionary = snapshot.getRoleDictionary();
+        Map<Class<?>, Integer> contextTypeIds = createContextTypeIds(snapshot, securityRepository);
+
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+
+        data.writeInt(roleDictionary.size());
+        for (int id = 0; id < roleDictionary.size(); id++) {
+            data.writeUTF(roleDictionary.getRole(id));
+        }
+
+        data.writeInt(snapshot.getContextPackages().size());
+        for (String contextPackage : snapshot.getContextPackages()) {
+            data.writeUTF(contextPackage);
+        }
+
+        data.writeInt(contextTypeIds.size());
+        for (Class<?> contextType : contextTypeIds.keySet()) {
+            data.writeUTF(contextType.getName());
+        }
+
+        writeRoles(data, (RoleSet) snapshot.getAllAvailableRoles());
+        writeRoleHierarchy(data, snapshot.getRoleHierarchy(), roleDictionary);
+        writeAccessRules(data, snapshot.getAccessRuleMap(), contextTypeIds);
+        writeAccessRules(data, snapshot.getWildcardRuleMap(), contextTypeIds);
+        writeVetoRules(data, snapshot, contextTypeIds);
+        writeRoleMappings(data, securityRepository, snapshot, contextTypeIds);
+        data.flush();
+    }
+
+    /**
+     * Return an id for every context class referenced by the given content,
+     * assigned in the order of the class names and iterated in id order.
+     */
+    private static Map<Class<?>, Integer> createContextTypeIds(RepositorySnapshot snapshot,
+            SecurityRepository securityRepository) {
+        Map<String, Class<?>> contextTypes = new TreeMap<String, Class<?>>();
+        List<AccessRuleKey> keys = new ArrayList<AccessRuleKey>(snapshot.getAccessRuleMap().keySet());
+        keys.addAll(snapshot.getWildcardRuleMap().keySet());
+        for (AccessRuleKey key : keys) {
+            if (key.getContexts() != null) {
+                for (Class<?> context : key.getContexts()) {
+                    contextTypes.put(context.getName(), context);
+                }
+            }
+        }
+        for (VetoRuleIndex.Entry vetoRule : snapshot.getVetoRules()) {
+            if (vetoRule.contextType != null) {
+                contextTypes.put(vetoRule.contextType.getName(), vetoRule.contextType);
+            }
+        }
+        for (RoleMapping roleMapping : securityRepository.getRoleMappings()) {
+            Class<?> contextType = roleMapping.getKey().getContextType();
+            if (contextType != null) {
+                contextTypes.put(contextType.getName(), contextType);
+            }
+        }
+
+        Map<Class<?>, Integer> ids = new LinkedHashMap<Class<?>, Integer>();
+        for (Class<?> contextType : contextTypes.values()) {
+            ids.put(contextType, ids.size());
+        }
+        return ids;
+    }
+
+    private static void writeRoleHierarchy(DataOutputStream data, RoleHierarchy roleHierarchy,
+            RoleDictionary roleDictionary) throws IOException {
+        for (int id = 0; id < roleDictionary.size(); id++) {
+            Set<String> implied = roleHierarchy.getImplications().get(roleDictionary.getRole(id));
+            writeRoles(data, implied == null ? roleDictionary.getEmptyRoles() : roleDictionary.encode(implied));
+        }
+    }
+
+    private static void writeAccessRules(DataOutputStream data, Map<AccessRuleKey, Set<String>> accessRuleMap,
+            Map<Class<?>, Integer> contextTypeIds) throws IOException {
+
+        List<AccessRuleKey> keys = new ArrayList<AccessRuleKey>(accessRuleMap.keySet());
+        Collections.sort(keys, new Comparator<AccessRuleKey>() {
+            public int compare(AccessRuleKey a, AccessRuleKey b) {
+                int c = String.valueOf(a.getCategory()).compareTo(String.valueOf(b.getCategory()));
+                if (c == 0) {
+                    c = String.valueOf(a.getAction()).compareTo(String.valueOf(b.getAction()));
+                }
+                if (c == 0) {
+                    c = contextOrder(a).compareTo(contextOrder(b));
+                }
+                return c;
+            }
+        });
+
+        data.writeInt(keys.size());
+        for (AccessRuleKey key : keys) {
+            writeString(data, key.getCategory());
+            writeString(data, key.getAction());
+            if (key.getContexts() == null) {
+                data.writeInt(-1);
+            } else {
+                data.writeInt(key.getContexts().size());
+                for (Class<?> context : key.getContexts()) {
+                    data.writeInt(contextTypeIds.get(context));
+                }
+            }
+            writeRoles(data, (RoleSet) accessRuleMap.get(key));
+        }
+    }
+
+    private static void writeVetoRules(DataOutputStream data, RepositorySnapshot snapshot,
+            Map<Class<?>, Integer> contextTypeIds) throws IOException {
+        List<VetoRuleIndex.Entry> vetoRules = new ArrayList<VetoRuleIndex.Entry>(snapshot.getVetoRules());
+        Collections.sort(vetoRules, new Comparator<VetoRuleIndex.Entry>() {
+            public int compare(VetoRuleIndex.Entry a, VetoRuleIndex.Entry b) {
+                return vetoOrder(a).compareTo(vetoOrder(b));
+            }
+        });
+
+        data.writeInt(vetoRules.size());
+        for (VetoRuleIndex.Entry vetoRule : vetoRules) {
+            writeString(data, vetoRule.category);
+            writeString(data, vetoRule.action == null ? null : vetoRule.action.pattern());
+            data.writeInt(vetoRule.contextType == null ? -1 : contextTypeIds.get(vetoRule.contextType));
+            writeString(data, vetoRule.condition);
+            writeRoles(data, vetoRule.roles);
+        }
+    }
+
+    /**
+     * Return a string that orders veto rules by their content.
+     */
+    private static String vetoOrder(VetoRuleIndex.Entry vetoRule) {
+        StringBuilder order = new StringBuilder();
+        order.append(vetoRule.category).append('\n').append(vetoRule.action).append('\n');
+        order.append(vetoRule.contextType == null ? "" : vetoRule.contextType.getName()).append('\n');
+        order.append(vetoRule.condition);
+        for (int i = 0; i < vetoRule.roles.getDictionary().getWordCount(); i++) {
+            order.append('\n').append(vetoRule.roles.getWord(i));
+        }
+        return order.toString();
+    }
+
+    /**
+     * Return a string that orders rules with equal categories and actions by
+     * their contexts.
+     */
+    private static String contextOrder(AccessRuleKey key) {
+        if (key.getContexts() == null) {
+            return "";
+        }
+        StringBuilder order = new StringBuilder();
+        order.append(key.getContexts().size());
+        for (Class<?> context : key.getContexts()) {
+            order.append(',').append(context.getName());
+        }
+        return order.toString();
+    }
+
+    private static void writeRoleMappings(DataOutputStream data, SecurityRepository securityRepository,
+            RepositorySnapshot snapshot, Map<Class<?>, Integer> contextTypeIds) throws IOException {
+
+        List<MappingRecord> records = new ArrayList<MappingRecord>();
+        for (RoleMapping roleMapping : securityRepository.getRoleMappings()) {
+            records.add(new MappingRecord(roleMapping.getKey(), snapshot.encodeUserRoles(roleMapping.getRoles()),
+                    contextTypeIds));
+        }
+        Collections.sort(records);
+
+        data.writeInt(records.size());
+        for (MappingRecord record : records) {
+            data.writeInt(record.flags);
+            data.writeInt(record.contextType);
+            data.writeLong(record.userId);
+            data.writeLong(record.contextId);
+            writeRoles(data, record.roles);
+        }
+    }
+
+    private static void writeRoles(DataOutputStream data, RoleSet roles) throws IOException {
+        for (int i = 0; i < roles.getDictionary().getWordCount(); i++) {
+            data.writeLong(roles.getWord(i));
+        }
+    }
+
+    /**
+     * Write a string that may be null.
+     */
+    private static void writeString(DataOutputStream data, String value) throws IOException {
+        data.writeBoolean(value != null);
+        if (value != null) {
+            data.writeUTF(value);
+        }
+    }
+
+    /**
+     * A role mapping in the form it is written to a snapshot.
+     */
+    private static class MappingRecord implements Comparable<MappingRecord> {
+
+        private final int flags;
+        private final int contextType;
+        private final long userId;
+        private final long contextId;
+        private final RoleSet roles;
+
+        public MappingRecord(RoleMappingKey key, RoleSet roles, Map<Class<?>, Integer> contextTypeIds) {
+            int flags = 0;
+            if (key.getUserId() == null) {
+                flags |= MappedRoleMappings.USER_WILDCARD;
+            }
+            if (key.getContextId() == null) {
+                flags |= MappedRoleMappings.CONTEXT_WILDCARD;
+            }
+            this.flags = flags;
+            this.contextType = key.getContextType() == null ? MappedRoleMappings.NO_CONTEXT_TYPE : contextTypeIds
+                    .get(key.getContextType());
+            this.userId = key.getUserId() == null ? 0 : key.getUserId();
+            this.contextId = key.getContextId() == null ? 0 : key.getContextId();
+            this.roles = roles;
+        }
+
+        public int compareTo(MappingRecord other) {
+            return MappedRoleMappings.compare(flags, userId, contextType, contextId, other.flags, other.userId,
+                    other.contextType, other.contextId);
+        }
+    }
+}
@@ -0,0 +1,555 @@
+package edu.baylor.cs.holder.security.service.impl;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import edu.baylor.cs.holder.security.service.SecurityRepository;
+import edu.baylor.cs.holder.security.service.accessobjects.AccessRule;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleHierarchy;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMapping;
+import edu.baylor.cs.holder.security.service.accessobjects.VetoRule;
+import edu.baylor.cs.holder.security.util.ContextClassResolver;
+
+/**
+ * This {@link SecurityRepository} reads the same XML as
+ * {@link Dom4jSecurityRepository} and produces the same content, but builds
+ * its {@link AccessRule}'s and {@link RoleMapping}'s in a single streaming
+ * pass over the document instead of loading it into a DOM first. Memory use is
+ * therefore proportional to the loaded content rather than to the document.
+ *
+ * Since the roles and context packages used to validate rules and mappings may
+ * be declared anywhere in the document, roles are validated and context
+ * classes resolved once the whole document has been read, in the same order
+ * as {@link Dom4jSecurityRepository} does it.
+ *
+ * @author holder
+ */
+public class StaxSecurityRepository implements SecurityRepository {
+
+    private static final String CONTEXT_PACKAGES = "contextPackages";
+    private static final String PACKAGE = "package";
+
+    private static final String CATEGORIES = "categories";
+    private static final String CATEGORY = "category";
+    private static final String NAME = "name";
+    private static final String ACCESS_RULE = "accessRule";
+    private static final String WILDCARD_RULE = "wildcardRule";
+    private static final String ACTION = "action";
+    private static final String CONTEXT = "context";
+    private static final String ACTIVE = "active";
+    private static final String VETO_RULE = "vetoRule";
+    private static final String CONDITION = "condition";
+    private static final String ROLES = "roles";
+    private static final String ROLE = "role";
+    private static final String IMPLIES = "implies";
+
+    private static final String ROLE_MAPPINGS = "roleMappings";
+    private static final String ROLE_MAPPING = "roleMapping";
+    private static final String USER_ID = "userId";
+    private static final String CONTEXT_TYPE = "contextType";
+    private static final String CONTEXT_ID = "contextId";
+
+    private Set<String> roles = new HashSet<String>();
+    private Set<String> packages = new TreeSet<String>(); // search order matters here
+
+    // roles implied directly by each role, and their closure
+    private Map<String, Set<String>> implications = new HashMap<String, Set<String>>();
+    private RoleHierarchy roleHierarchy = RoleHierarchy.EMPTY;
+
+    private Set<AccessRule> accessRules = new HashSet<AccessRule>();
+    private Set<AccessRule> wildcardAccessRules = new HashSet<AccessRule>();
+    private Set<VetoRule> vetoRules = new HashSet<VetoRule>();
+    private Set<RoleMapping> roleMappings = new HashSet<RoleMapping>();
+
+    // documents read but not yet resolved
+    private final List<Loader> loaders = new ArrayList<Loader>();
+
+    // shared resolver of context names, null to use one per resolve
+    private ContextClassResolver contextClassResolver;
+
+    /**
+     * Populate this {@link SecurityRepository} with XML input from the given
+     * stream.
+     *
+     * @param xmlInput
+     * @throws IllegalArgumentException
+     */
+    public void populate(InputStream xmlInput) throws IllegalArgumentException {
+        read(xmlInput);
+        resolve(roles, packages);
+    }
+
+    /**
+     * Read the XML input from the given stream, adding its roles and context
+     * packages to this repository but holding back its rules and mappings
+     * until {@link #resolve(Set, Set)} is called. This lets
+     * {@link FragmentedSecurityRepository} validate fragments against the
+     * roles and packages of every fragment.
+     *
+     * @param xmlInput
+     * @throws IllegalArgumentException
+     *             thrown when the input is not well formed
+     */
+    void read(InputStream xmlInput) throws IllegalArgumentException {
+        Loader loader = new Loader();
+        try {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+            XMLStreamReader reader = factory.createXMLStreamReader(xmlInput);
+            try {
+                loader.read(reader);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IllegalArgumentException("An error has occurred while parsing InputStream", e);
+        }
+        loaders.add(loader);
+    }
+
+    /**
+     * Validate the roles and resolve the context classes of the rules and
+     * mappings read since the last call against the given roles and packages,
+     * adding them to this repository. Roles implied by the roles of this
+     * repository are validated as well, and their closure computed.
+     *
+     * @param allRoles
+     *            roles that may be used
+     * @param allPackages
+     *            packages to search for context classes, in search order
+     * @throws IllegalArgumentException
+     *             thrown when an unknown role or context class is used, or
+     *             the roles imply each other in a cycle
+     */
+    void resolve(Set<String> allRoles, Set<String> allPackages) throws IllegalArgumentException {
+        try {
+            for (Set<String> impliedRoles : implications.values()) {
+                for (String impliedRole : impliedRoles) {
+                    if (!allRoles.contains(impliedRole)) {
+                        throw new XMLStreamException("An invalid role has been detected: " + impliedRole);
+                    }
+                }
+            }
+            roleHierarchy = new RoleHierarchy(implications);
+
+            // each distinct context name is only searched for once
+            ContextClassResolver contextClasses = getContextClassResolver(allPackages);
+            for (Loader loader : loaders) {
+                loader.resolve(allRoles, contextClasses);
+            }
+        } catch (XMLStreamException e) {
+            throw new IllegalArgumentException("An error has occurred while parsing InputStream", e);
+        } finally {
+            loaders.clear();
+        }
+    }
+
+    /**
+     * Set the {@link ContextClassResolver} that context names are resolved
+     * with, which then resolves them against its own packages rather than
+     * those of the input. This lets classes registered up front, or resolved
+     * before, be shared between repositories. Defaults to null, resolving
+     * with a new resolver for each input.
+     * 
+     * @param contextClassResolver
+     */
+    public void setContextClassResolver(ContextClassResolver contextClassResolver) {
+        this.contextClassResolver = contextClassResolver;
+    }
+
+    /**
+     * Return the {@link ContextClassResolver} to resolve context names
+     * against the given packages with.
+     */
+    private ContextClassResolver getContextClassResolver(Set<String> searchPackages) {
+        return contextClassResolver == null ? new ContextClassResolver(searchPackages) : contextClassResolver;
+    }
+
+    public Set<AccessRule> getAccessRules() {
+        return accessRules;
+    }
+
+    public Set<AccessRule> getWildcardAccessRules() {
+        return wildcardAccessRules;
+    }
+
+    public Set<VetoRule> getVetoRules() {
+        return vetoRules;
+    }
+
+    public Set<RoleMapping> getRoleMappings() {
+        return roleMappings;
+    }
+
+    public Set<String> getAllRoles() {
+        return roles;
+    }
+
+    public Set<String> getContextPackages() {
+        return packages;
+    }
+
+    public RoleHierarchy getRoleHierarchy() {
+        return roleHierarchy;
+    }
+
+    /**
+     * Return the roles implied directly by each role read so far.
+     *
+     * @return
+     */
+    Map<String, Set<String>> getImplications() {
+        return implications;
+    }
+
+    /**
+     * Holds the rules and mappings of a single document until every role and
+     * context package of the document is known.
+     */
+    private class Loader {
+
+        // rules in document order, along with their roles and context names
+        // and whether they are wildcard rules
+        private final List<AccessRule> pendingRules = new ArrayList<AccessRule>();
+        private final List<List<String>> pendingRuleRoles = new ArrayList<List<String>>();
+        private final List<List<String>> pendingRuleContexts = new ArrayList<List<String>>();
+        private final List<Boolean> pendingRuleWildcards = new ArrayList<Boolean>();
+
+        // veto rules in document order, along with their roles and context
+        // type names
+        private final List<VetoRule> pendingVetoRules = new ArrayList<VetoRule>();
+        private final List<List<String>> pendingVetoRuleRoles = new ArrayList<List<String>>();
+        private final List<String> pendingVetoRuleContextTypes = new ArrayList<String>();
+
+        // mappings in document order, along with their context type names
+        private final List<RoleMapping> pendingMappings = new ArrayList<RoleMapping>();
+        private final List<String> pendingMappingContextTypes = new ArrayList<String>();
+
+        // a single instance of each distinct name, shared by every rule and
+        // mapping that refers to it
+        private final Map<String, String> names = new HashMap<String, String>();
+
+        /**
+         * Read the children of the document root.
+         */
+        public void read(XMLStreamReader reader) throws XMLStreamException {
+            // move to the document root
+            reader.nextTag();
+            while (nextElement(reader)) {
+                String name = reader.getLocalName();
+                if (ROLES.equals(name)) {
+                    readRoles(reader);
+                } else if (CONTEXT_PACKAGES.equals(name)) {
+                    readPackages(reader);
+                } else if (CATEGORIES.equals(name)) {
+                    readCategories(reader);
+                } else if (ROLE_MAPPINGS.equals(name)) {
+                    readRoleMappings(reader);
+                } else {
+                    skipElement(reader);
+                }
+            }
+        }
+
+        private void readRoles(XMLStreamReader reader) throws XMLStreamException {
+            while (nextElement(reader)) {
+                if (ROLE.equals(reader.getLocalName())) {
+                    String implies = reader.getAttributeValue(null, IMPLIES);
+                    String role = name(readText(reader));
+                    roles.add(role);
+
+                    // a comma or space separated list of roles
+                    if (implies != null) {
+                        addImplications(role, implies.trim().split("[,\\s]+"));
+                    }
+                } else {
+                    skipElement(reader);
+                }
+            }
+        }
+
+        private void addImplications(String role, String[] impliedRoles) {
+            Set<String> implied = implications.get(role);
+            if (implied == null) {
+                implied = new HashSet<String>();
+                implications.put(role, implied);
+            }
+            for (String impliedRole : impliedRoles) {
+                if (impliedRole.length() > 0) {
+                    implied.add(name(impliedRole));
+                }
+            }
+        }
+
+        private void readPackages(XMLStreamReader reader) throws XMLStreamException {
+            while (nextElement(reader)) {
+                if (PACKAGE.equals(reader.getLocalName())) {
+                    packages.add(readText(reader));
+                } else {
+                    skipElement(reader);
+                }
+            }
+        }
+
+        private void readCategories(XMLStreamReader reader) throws XMLStreamException {
+            while (nextElement(reader)) {
+                if (CATEGORY.equals(reader.getLocalName())) {
+                    readAccessRules(reader, reader.getAttributeValue(null, NAME));
+                } else {
+                    skipElement(reader);
+                }
+            }
+        }
+
+        private void readAccessRules(XMLStreamReader reader, String category) throws XMLStreamException {
+            while (nextElement(reader)) {
+                if (VETO_RULE.equals(reader.getLocalName())) {
+                    readVetoRule(reader, category);
+                    continue;
+                }
+                boolean wildcard = WILDCARD_RULE.equals(reader.getLocalName());
+                if (!wildcard && !ACCESS_RULE.equals(reader.getLocalName())) {
+                    skipElement(reader);
+                    continue;
+                }
+
+                // use element attributes to create the new AccessRule
+                AccessRule accessRule = new AccessRule();
+                accessRule.setCategory(category);
+                accessRule.setAction(reader.getAttributeValue(null, ACTION));
+                accessRule.setActive(Boolean.valueOf(reader.getAttributeValue(null, ACTIVE)));
+
+                List<String> ruleRoles = new ArrayList<String>();
+                List<String> ruleContexts = new ArrayList<String>();
+                while (nextElement(reader)) {
+                    String name = reader.getLocalName();
+                    if (ROLE.equals(name)) {
+                        ruleRoles.add(name(readText(reader)));
+                    } else if (CONTEXT.equals(name)) {
+                        ruleContexts.add(name(readText(reader)));
+                    } else {
+                        skipElement(reader);
+                    }
+                }
+
+                pendingRules.add(accessRule);
+                pendingRuleRoles.add(ruleRoles);
+                pendingRuleContexts.add(ruleContexts);
+                pendingRuleWildcards.add(wildcard);
+            }
+        }
+
+        private void readVetoRule(XMLStreamReader reader, String category) throws XMLStreamException {
+
+            // use element attributes to create the new VetoRule
+            VetoRule vetoRule = new VetoRule();
+            vetoRule.setCategory(category);
+            vetoRule.setAction(reader.getAttributeValue(null, ACTION));
+            vetoRule.setCondition(reader.getAttributeValue(null, CONDITION));
+            String contextType = reader.getAttributeValue(null, CONTEXT);
+
+            List<String> vetoRuleRoles = new ArrayList<String>();
+            while (nextElement(reader)) {
+                if (ROLE.equals(reader.getLocalName())) {
+                    vetoRuleRoles.add(name(readText(reader)));
+                } else {
+                    skipElement(reader);
+                }
+            }
+
+            pendingVetoRules.add(vetoRule);
+            pendingVetoRuleRoles.add(vetoRuleRoles);
+            pendingVetoRuleContextTypes.add(contextType == null ? null : name(contextType));
+        }
+
+        private void readRoleMappings(XMLStreamReader reader) throws XMLStreamException {
+            while (nextElement(reader)) {
+                if (!ROLE_MAPPING.equals(reader.getLocalName())) {
+                    skipElement(reader);
+                    continue;
+                }
+
+                // use element attributes to create the new RoleMapping
+                String userId = reader.getAttributeValue(null, USER_ID);
+                String contextType = reader.getAttributeValue(null, CONTEXT_TYPE);
+                String contextId = reader.getAttributeValue(null, CONTEXT_ID);
+
+                RoleMapping roleMapping = new RoleMapping();
+                roleMapping.setUserId(userId == null ? null : Long.valueOf(userId));
+                roleMapping.setContextId(contextId == null ? null : Long.valueOf(contextId));
+
+                // roles are validated once every role has been declared
+                while (nextElement(reader)) {
+                    if (ROLE.equals(reader.getLocalName())) {
+                        roleMapping.addRole(name(readText(reader)));
+                    } else {
+                        skipElement(reader);
+                    }
+                }
+
+                pendingMappings.add(roleMapping);
+                pendingMappingContextTypes.add(contextType == null ? null : name(contextType));
+            }
+        }
+
+        /**
+         * Validate the roles and resolve the context classes of every rule and
+         * mapping that was read, adding them to this repository.
+         */
+        public void resolve(Set<String> allRoles, ContextClassResolver contextClasses) throws XMLStreamException {
+            for (int i = 0; i < pendingRules.size(); i++) {
+                AccessRule accessRule = pendingRules.get(i);
+                for (String role : pendingRuleRoles.get(i)) {
+                    validateRole(allRoles, role);
+                    accessRule.addRole(role);
+                }
+                for (String contextType : pendingRuleContexts.get(i)) {
+                    Class<?> contextClass = contextClasses.getContextClass(contextType);
+                    if (contextClass == null) {
+                        throw new XMLStreamException("No class found for context: " + contextType
+                                + " while searching through available contextPackages");
+                    }
+                    accessRule.addContext(contextClass);
+                }
+
+                if (!pendingRuleWildcards.get(i)) {
+                    accessRules.add(accessRule);
+                    continue;
+                }
+
+                // the action of a wildcard rule is a regular expression
+                if (accessRule.getKey().getAction() != null) {
+                    try {
+                        Pattern.compile(accessRule.getKey().getAction());
+                    } catch (PatternSyntaxException e) {
+                        throw new XMLStreamException("An invalid action pattern has been detected: "
+                                + accessRule.getKey().getAction());
+                    }
+                }
+                wildcardAccessRules.add(accessRule);
+            }
+
+            for (int i = 0; i < pendingVetoRules.size(); i++) {
+                VetoRule vetoRule = pendingVetoRules.get(i);
+
+                // the action is a regular expression
+                if (vetoRule.getAction() != null) {
+                    try {
+                        Pattern.compile(vetoRule.getAction());
+                    } catch (PatternSyntaxException e) {
+                        throw new XMLStreamException("An invalid action pattern has been detected: "
+                                + vetoRule.getAction());
+                    }
+                }
+                String contextType = pendingVetoRuleContextTypes.get(i);
+                if (contextType != null) {
+                    Class<?> contextClass = contextClasses.getContextClass(contextType);
+                    if (contextClass == null) {
+                        throw new XMLStreamException("No class found for context: " + contextType
+                                + " while searching through available contextPackages");
+                    }
+                    vetoRule.setContextType(contextClass);
+                }
+                for (String role : pendingVetoRuleRoles.get(i)) {
+                    validateRole(allRoles, role);
+                    vetoRule.addRole(role);
+                }
+                vetoRules.add(vetoRule);
+            }
+
+            for (int i = 0; i < pendingMappings.size(); i++) {
+                RoleMapping roleMapping = pendingMappings.get(i);
+                for (String role : roleMapping.getRoles()) {
+                    validateRole(allRoles, role);
+                }
+                String contextType = pendingMappingContextTypes.get(i);
+                roleMapping.setContextType(contextType == null ? null : contextClasses.getContextClass(contextType));
+                roleMappings.add(roleMapping);
+            }
+        }
+
+        private void validateRole(Set<String> allRoles, String role) throws XMLStreamException {
+            // validate against all roles specified in the root by
+            // <roles></roles>
+            if (!allRoles.contains(role)) {
+                throw new XMLStreamException("An invalid role has been detected: " + role);
+            }
+        }
+
+        /**
+         * Return the shared instance of the given name.
+         */
+        private String name(String name) {
+            String shared = names.get(name);
+            if (shared == null) {
+                names.put(name, name);
+                shared = name;
+            }
+            return shared;
+        }
+
+        /**
+         * Return the text directly inside the current element, as dom4j's
+         * Element.getText() does, leaving the reader on its end tag.
+         */
+        private String readText(XMLStreamReader reader) throws XMLStreamException {
+            StringBuilder text = new StringBuilder();
+            while (true) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+                        || event == XMLStreamConstants.SPACE || event == XMLStreamConstants.ENTITY_REFERENCE) {
+                    text.append(reader.getText());
+                } else if (event == XMLStreamConstants.START_ELEMENT) {
+                    skipElement(reader);
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    return text.toString();
+                }
+            }
+        }
+
+        /**
+         * Move to the start of the next child of the current element and
+         * return true, or to the end of the current element and return false,
+         * ignoring any text in between as dom4j's element iterators do.
+         */
+        private boolean nextElement(XMLStreamReader reader) throws XMLStreamException {
+            while (true) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    return true;
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * Skip the current element along with everything inside it, leaving the
+         * reader on its end tag.
+         */
+        private void skipElement(XMLStreamReader reader) throws XMLStreamException {
+            int depth = 1;
+            while (depth > 0) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package edu.baylor.cs.holder.security.service.impl;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import edu.baylor.cs.holder.security.service.accessobjects.AccessRuleKey;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMappingKey;
+
+/**
+ * A single access decision recorded by {@link DecisionTracer}, holding the
+ * keys that were looked up, the roles found for each and the outcome.
+ *
+ * @author holder
+ */
+public class TracedDecision {
+
+    private final long timeMillis;
+    private final long elapsedNanos;
+    private final long threadId;
+    private final boolean granted;
+    private final AccessRuleKey accessRuleKey;
+    private final Set<String> allowedRoles;
+    private final Set<String> availableRoles;
+    private final List<RoleMappingKey> roleMappingKeys;
+    private final List<Set<String>> userRoles;
+    private final List<Set<String>> vetoRoles;
+
+    TracedDecision(long timeMillis, long elapsedNanos, long threadId, boolean granted, AccessRuleKey accessRuleKey,
+            Set<String> allowedRoles, Set<String> availableRoles, List<RoleMappingKey> roleMappingKeys,
+            List<Set<String>> userRoles, List<Set<String>> vetoRoles) {
+        this.timeMillis = timeMillis;
+        this.elapsedNanos = elapsedNanos;
+        this.threadId = threadId;
+        this.granted = granted;
+        this.accessRuleKey = accessRuleKey;
+        this.allowedRoles = allowedRoles;
+        this.availableRoles = availableRoles;
+        this.roleMappingKeys = Collections.unmodifiableList(roleMappingKeys);
+        this.userRoles = Collections.unmodifiableList(userRoles);
+        this.vetoRoles = Collections.unmodifiableList(vetoRoles);
+    }
+
+    /**
+     * Return the time the decision was made, in milliseconds since the epoch.
+     *
+     * @return
+     */
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public long getThreadId() {
+        return threadId;
+    }
+
+    public boolean isGranted() {
+        return granted;
+    }
+
+    public AccessRuleKey getAccessRuleKey() {
+        return accessRuleKey;
+    }
+
+    /**
+     * Return the roles of the access rule, empty when there is no rule.
+     *
+     * @return
+     */
+    public Set<String> getAllowedRoles() {
+        return allowedRoles == null ? Collections.<String> emptySet() : allowedRoles;
+    }
+
+    /**
+     * Return the keys of the user role lookups, one for each context object
+     * or a single key without a context. Empty when no rule was found.
+     *
+     * @return
+     */
+    public List<RoleMappingKey> getRoleMappingKeys() {
+        return roleMappingKeys;
+    }
+
+    /**
+     * Return the user roles found for each role mapping key.
+     *
+     * @return
+     */
+    public List<Set<String>> getUserRoles() {
+        return userRoles;
+    }
+
+    /**
+     * Return the vetoed roles found for each role mapping key.
+     *
+     * @return
+     */
+    public List<Set<String>> getVetoRoles() {
+        return vetoRoles;
+    }
+
+    /**
+     * Return the union of the vetoed roles of every role mapping key.
+     *
+     * @return
+     */
+    public Set<String> getVetoedRoles() {
+        Set<String> vetoed = new TreeSet<String>();
+        for (Set<String> roles : vetoRoles) {
+            vetoed.addAll(roles);
+        }
+        return vetoed;
+    }
+
+    /**
+     * Return the allowed roles the user held for every context object and
+     * that were not vetoed, any of which grants access, as evaluated by
+     * {@link SecurityServiceImpl}.
+     *
+     * @return
+     */
+    public Set<String> getGrantedRoles() {
+        Set<String> granted = new TreeSet<String>(getAllowedRoles());
+        if (userRoles.isEmpty()) {
+            granted.clear();
+            return granted;
+        }
+        if (availableRoles != null) {
+            granted.retainAll(availableRoles);
+        }
+        for (Set<String> roles : userRoles) {
+            granted.retainAll(roles);
+        }
+        granted.removeAll(getVetoedRoles());
+        return granted;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        result.append(granted ? "Granted " : "Denied ");
+        result.append(accessRuleKey.getCategory()).append('.').append(accessRuleKey.getAction());
+        result.append(' ').append(accessRuleKey.getContexts());
+        for (RoleMappingKey key : roleMappingKeys) {
+            String contextType = key.getContextType() == null ? null : key.getContextType().getSimpleName();
+            result.append(" (").append(key.getUserId()).append(", ").append(contextType).append(", ");
+            result.append(key.getContextId()).append(')');
+        }
+        result.append(": allowed ").append(new TreeSet<String>(getAllowedRoles()));
+        result.append(", granted ").append(getGrantedRoles());
+        result.append(", vetoed ").append(getVetoedRoles());
+        result.append(" in ").append(elapsedNanos / 1000).append("us");
+        return result.toString();
+    }
+}
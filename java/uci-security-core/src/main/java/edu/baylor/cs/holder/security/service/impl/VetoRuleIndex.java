@@ -0,0 +1,266 @@
+package edu.baylor.cs.holder.security.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import edu.baylor.cs.holder.security.service.accessobjects.AccessRuleKey;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleSet;
+import edu.baylor.cs.holder.security.service.accessobjects.VetoRule;
+
+/**
+ * This class stores the veto rules of a {@link RepositorySnapshot} keyed by
+ * category, then action, then context type, so that looking up the rules
+ * that may veto roles for an access check takes a single probe no matter how
+ * many veto rules exist.
+ *
+ * Since the action of a veto rule is a pattern, rules are matched ahead of
+ * time against the category and action of every access rule. Access checks
+ * without an access rule never look up vetoed roles, so no other keys are
+ * needed. The context type is that of the role mapping key of the lookup,
+ * which is one of the contexts of the access rule, or null for an access rule
+ * without contexts.
+ *
+ * A key only matching a wildcard rule is looked up with the key of that rule,
+ * see {@link #getWildcardCandidates(AccessRuleKey, Class)}, so rules are also
+ * matched ahead of time against the category and action pattern of every
+ * wildcard rule. A wildcard rule of any contexts is matched with every context
+ * type.
+ *
+ * Instances of this class are never modified once built.
+ *
+ * @author holder
+ */
+class VetoRuleIndex {
+
+    /**
+     * An index without any veto rules.
+     */
+    static final VetoRuleIndex EMPTY = new VetoRuleIndex(Collections.<Entry> emptyList(),
+            Collections.<AccessRuleKey> emptySet(), Collections.<AccessRuleKey> emptySet());
+
+    // every veto rule
+    private final List<Entry> entries;
+
+    // category -> action -> context type -> candidate rules
+    private final Map<String, Map<String, Map<Class<?>, Entry[]>>> index;
+
+    // wildcard rule key -> context type -> candidate rules
+    private final Map<AccessRuleKey, Map<Class<?>, Entry[]>> wildcardIndex;
+
+    /**
+     * Build an index of the given veto rules for the given access rule keys
+     * and wildcard rule keys.
+     *
+     * @param entries
+     *            veto rules to index
+     * @param accessRuleKeys
+     *            keys of every access rule
+     * @param wildcardRuleKeys
+     *            keys of every wildcard rule, with their action patterns
+     */
+    VetoRuleIndex(List<Entry> entries, Collection<AccessRuleKey> accessRuleKeys,
+            Collection<AccessRuleKey> wildcardRuleKeys) {
+        this.entries = Collections.unmodifiableList(new ArrayList<Entry>(entries));
+        this.index = new HashMap<String, Map<String, Map<Class<?>, Entry[]>>>();
+        this.wildcardIndex = new HashMap<AccessRuleKey, Map<Class<?>, Entry[]>>();
+        addAll(accessRuleKeys);
+        addAllWildcards(wildcardRuleKeys);
+    }
+
+    private VetoRuleIndex(VetoRuleIndex vetoRuleIndex) {
+        this.entries = vetoRuleIndex.entries;
+        this.wildcardIndex = vetoRuleIndex.wildcardIndex;
+        this.index = new HashMap<String, Map<String, Map<Class<?>, Entry[]>>>();
+        for (Map.Entry<String, Map<String, Map<Class<?>, Entry[]>>> byAction : vetoRuleIndex.index.entrySet()) {
+            Map<String, Map<Class<?>, Entry[]>> copy = new HashMap<String, Map<Class<?>, Entry[]>>();
+            for (Map.Entry<String, Map<Class<?>, Entry[]>> byContextType : byAction.getValue().entrySet()) {
+                copy.put(byContextType.getKey(), new HashMap<Class<?>, Entry[]>(byContextType.getValue()));
+            }
+            index.put(byAction.getKey(), copy);
+        }
+    }
+
+    /**
+     * Return an index that also covers the given access rule keys, which is
+     * this index when none of them match a veto rule it doesn't already
+     * cover.
+     *
+     * @param accessRuleKeys
+     * @return
+     */
+    VetoRuleIndex with(Collection<AccessRuleKey> accessRuleKeys) {
+        for (AccessRuleKey key : accessRuleKeys) {
+            for (Class<?> contextType : getContextTypes(key)) {
+                if (getCandidates(key.getCategory(), key.getAction(), contextType) == null
+                        && !match(key, contextType).isEmpty()) {
+                    VetoRuleIndex copy = new VetoRuleIndex(this);
+                    copy.addAll(accessRuleKeys);
+                    return copy;
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Return the veto rules that may veto roles for the given category, action
+     * and context type, or null if there are none.
+     *
+     * @param category
+     * @param action
+     * @param contextType
+     * @return
+     */
+    Entry[] getCandidates(String category, String action, Class<?> contextType) {
+        Map<String, Map<Class<?>, Entry[]>> byAction = index.get(category);
+        if (byAction == null) {
+            return null;
+        }
+        Map<Class<?>, Entry[]> byContextType = byAction.get(action);
+        return byContextType == null ? null : byContextType.get(contextType);
+    }
+
+    /**
+     * Return the veto rules that may veto roles for the wildcard rule with the
+     * given key and the given context type, or null if there are none.
+     *
+     * @param wildcardRuleKey
+     *            key of the wildcard rule, with its action pattern
+     * @param contextType
+     * @return
+     */
+    Entry[] getWildcardCandidates(AccessRuleKey wildcardRuleKey, Class<?> contextType) {
+        Map<Class<?>, Entry[]> byContextType = wildcardIndex.get(wildcardRuleKey);
+        return byContextType == null ? null : byContextType.get(contextType);
+    }
+
+    /**
+     * Return every veto rule.
+     *
+     * @return
+     */
+    List<Entry> getEntries() {
+        return entries;
+    }
+
+    private void addAll(Collection<AccessRuleKey> accessRuleKeys) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        for (AccessRuleKey key : accessRuleKeys) {
+            for (Class<?> contextType : getContextTypes(key)) {
+                List<Entry> candidates = match(key, contextType);
+                if (candidates.isEmpty()) {
+                    continue;
+                }
+
+                Map<String, Map<Class<?>, Entry[]>> byAction = index.get(key.getCategory());
+                if (byAction == null) {
+                    byAction = new HashMap<String, Map<Class<?>, Entry[]>>();
+                    index.put(key.getCategory(), byAction);
+                }
+                Map<Class<?>, Entry[]> byContextType = byAction.get(key.getAction());
+                if (byContextType == null) {
+                    byContextType = new HashMap<Class<?>, Entry[]>();
+                    byAction.put(key.getAction(), byContextType);
+                }
+                byContextType.put(contextType, candidates.toArray(new Entry[candidates.size()]));
+            }
+        }
+    }
+
+    private void addAllWildcards(Collection<AccessRuleKey> wildcardRuleKeys) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        for (AccessRuleKey key : wildcardRuleKeys) {
+            List<Class<?>> contextTypes = getContextTypes(key);
+            if (key.getContexts() == null) {
+                // matches lookups of any context type
+                contextTypes = new ArrayList<Class<?>>();
+                for (Entry entry : entries) {
+                    if (!contextTypes.contains(entry.contextType)) {
+                        contextTypes.add(entry.contextType);
+                    }
+                }
+            }
+
+            Map<Class<?>, Entry[]> byContextType = new HashMap<Class<?>, Entry[]>();
+            for (Class<?> contextType : contextTypes) {
+                List<Entry> candidates = match(key, contextType, true);
+                if (!candidates.isEmpty()) {
+                    byContextType.put(contextType, candidates.toArray(new Entry[candidates.size()]));
+                }
+            }
+            if (!byContextType.isEmpty()) {
+                wildcardIndex.put(key, byContextType);
+            }
+        }
+    }
+
+    private List<Entry> match(AccessRuleKey key, Class<?> contextType) {
+        return match(key, contextType, false);
+    }
+
+    /**
+     * Return the veto rules matching the category and action of the given key
+     * along with the given context type. When the action of the key is a
+     * pattern, a veto rule matches it if its own pattern is the same or matches
+     * the text of the pattern.
+     */
+    private List<Entry> match(AccessRuleKey key, Class<?> contextType, boolean pattern) {
+        List<Entry> candidates = new ArrayList<Entry>();
+        String action = key.getAction();
+        for (Entry entry : entries) {
+            if ((entry.category == null || entry.category.equals(key.getCategory()))
+                    && (entry.action == null || (action != null && ((pattern && entry.action.pattern().equals(action))
+                            || entry.action.matcher(action).matches())))
+                    && (entry.contextType == null ? contextType == null : entry.contextType.equals(contextType))) {
+                candidates.add(entry);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Return the context types that lookups for an access rule with the given
+     * key are made with.
+     */
+    private static List<Class<?>> getContextTypes(AccessRuleKey key) {
+        if (key.getContexts() == null || key.getContexts().isEmpty()) {
+            return Collections.<Class<?>> singletonList(null);
+        }
+        return key.getContexts();
+    }
+
+    /**
+     * A veto rule with its action pattern compiled and its roles encoded.
+     */
+    static class Entry {
+
+        final String category;
+        final Pattern action;
+        final Class<?> contextType;
+        final String condition;
+        final RoleSet roles;
+
+        Entry(VetoRule vetoRule, RoleSet roles) throws IllegalArgumentException {
+            this(vetoRule.getCategory(), vetoRule.getAction(), vetoRule.getContextType(), vetoRule.getCondition(),
+                    roles);
+        }
+
+        Entry(String category, String action, Class<?> contextType, String condition, RoleSet roles)
+                throws IllegalArgumentException {
+            this.category = category;
+            this.action = action == null ? null : Pattern.compile(action);
+            this.contextType = contextType;
+            this.condition = condition;
+            this.roles = roles;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package edu.baylor.cs.holder.security.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import edu.baylor.cs.holder.security.service.accessobjects.AccessRuleKey;
+
+/**
+ * This class stores the wildcard access rules of a {@link RepositorySnapshot},
+ * whose action is a regular expression rather than the name of an action, see
+ * {@link AccessRuleKey#wildMatches(AccessRuleKey)}. Rules are grouped by
+ * category, and within a category by contexts. Actions without any regular
+ * expression syntax are kept in a map by name, while every other action
+ * pattern is compiled once when the index is built rather than on every
+ * lookup.
+ *
+ * A lookup returns the roles of the most specific rule matching the key. A
+ * rule of the category of the key comes before a rule of any category (a null
+ * category), then a literal action before a pattern, then rules with the
+ * contexts of the key before rules of any contexts (null contexts). Patterns
+ * are tried in the order of the length of the literal text they start with,
+ * then of their own length, longest first, and a rule of any action (a null
+ * action) is tried last.
+ *
+ * Instances of this class are never modified once built.
+ *
+ * @author holder
+ */
+class WildcardRuleIndex {
+
+    /**
+     * An index without any wildcard rules.
+     */
+    static final WildcardRuleIndex EMPTY = new WildcardRuleIndex(Collections.<AccessRuleKey, Set<String>> emptyMap());
+
+    // characters that make an action a pattern rather than a name
+    private static final String META_CHARACTERS = "\\[](){}.*+?^$|";
+
+    // every wildcard rule keyed with its action pattern
+    private final Map<AccessRuleKey, Set<String>> rules;
+
+    // category -> rules of the category, a null category holds rules of any
+    private final Map<String, CategoryRules> index;
+
+    /**
+     * Build an index of the given wildcard rules.
+     *
+     * @param rules
+     *            roles of each wildcard rule keyed with its action pattern
+     * @throws IllegalArgumentException
+     *             thrown when an action pattern is not a valid regular
+     *             expression
+     */
+    WildcardRuleIndex(Map<AccessRuleKey, Set<String>> rules) throws IllegalArgumentException {
+        this.rules = Collections.unmodifiableMap(rules);
+        this.index = new HashMap<String, CategoryRules>();
+
+        Map<String, List<AccessRuleKey>> patternsByCategory = new HashMap<String, List<AccessRuleKey>>();
+        for (Map.Entry<AccessRuleKey, Set<String>> rule : rules.entrySet()) {
+            AccessRuleKey key = rule.getKey();
+            CategoryRules categoryRules = index.get(key.getCategory());
+            if (categoryRules == null) {
+                categoryRules = new CategoryRules();
+                index.put(key.getCategory(), categoryRules);
+            }
+
+            if (isLiteral(key.getAction())) {
+                Map<List<Class<?>>, CompiledRule> byContexts = categoryRules.literals.get(key.getAction());
+                if (byContexts == null) {
+                    byContexts = new HashMap<List<Class<?>>, CompiledRule>();
+                    categoryRules.literals.put(key.getAction(), byContexts);
+                }
+                byContexts.put(key.getContexts(), new CompiledRule(key, rule.getValue()));
+            } else {
+                List<AccessRuleKey> patterns = patternsByCategory.get(key.getCategory());
+                if (patterns == null) {
+                    patterns = new ArrayList<AccessRuleKey>();
+                    patternsByCategory.put(key.getCategory(), patterns);
+                }
+                patterns.add(key);
+            }
+        }
+
+        // compile the patterns of each category in the order they're tried
+        for (Map.Entry<String, List<AccessRuleKey>> patterns : patternsByCategory.entrySet()) {
+            Collections.sort(patterns.getValue(), new Comparator<AccessRuleKey>() {
+                public int compare(AccessRuleKey a, AccessRuleKey b) {
+                    return compareSpecificity(a.getAction(), b.getAction());
+                }
+            });
+
+            Map<List<Class<?>>, List<CompiledRule>> byContexts = index.get(patterns.getKey()).patterns;
+            for (AccessRuleKey key : patterns.getValue()) {
+                List<CompiledRule> compiledRules = byContexts.get(key.getContexts());
+                if (compiledRules == null) {
+                    compiledRules = new ArrayList<CompiledRule>();
+                    byContexts.put(key.getContexts(), compiledRules);
+                }
+                compiledRules.add(new CompiledRule(key, rules.get(key)));
+            }
+        }
+    }
+
+    /**
+     * Return the roles of the most specific wildcard rule matching the given
+     * key, or null if no rule matches.
+     *
+     * @param key
+     *            key of the access rule being looked up
+     * @return
+     */
+    Set<String> get(AccessRuleKey key) {
+        CompiledRule rule = find(key);
+        return rule == null ? null : rule.roles;
+    }
+
+    /**
+     * Return the key, with its action pattern, of the most specific wildcard
+     * rule matching the given key, or null if no rule matches.
+     *
+     * @param key
+     *            key of the access rule being looked up
+     * @return
+     */
+    AccessRuleKey getMatchingRule(AccessRuleKey key) {
+        CompiledRule rule = find(key);
+        return rule == null ? null : rule.key;
+    }
+
+    /**
+     * Return every wildcard rule keyed with its action pattern.
+     *
+     * @return
+     */
+    Map<AccessRuleKey, Set<String>> getRules() {
+        return rules;
+    }
+
+    /**
+     * Return true if there are no wildcard rules.
+     *
+     * @return
+     */
+    boolean isEmpty() {
+        return rules.isEmpty();
+    }
+
+    /**
+     * Return the most specific rule matching the given key, or null if no rule
+     * matches.
+     */
+    private CompiledRule find(AccessRuleKey key) {
+        if (index.isEmpty()) {
+            return null;
+        }
+        CompiledRule rule = find(index.get(key.getCategory()), key);
+        if (rule == null && key.getCategory() != null) {
+            rule = find(index.get(null), key);
+        }
+        return rule;
+    }
+
+    private static CompiledRule find(CategoryRules categoryRules, AccessRuleKey key) {
+        if (categoryRules == null) {
+            return null;
+        }
+
+        Map<List<Class<?>>, CompiledRule> literals = categoryRules.literals.get(key.getAction());
+        if (literals != null) {
+            CompiledRule rule = literals.get(key.getContexts());
+            if (rule == null && key.getContexts() != null) {
+                rule = literals.get(null);
+            }
+            if (rule != null) {
+                return rule;
+            }
+        }
+
+        CompiledRule rule = match(categoryRules.patterns.get(key.getContexts()), key.getAction());
+        if (rule == null && key.getContexts() != null) {
+            rule = match(categoryRules.patterns.get(null), key.getAction());
+        }
+        return rule;
+    }
+
+    /**
+     * Return the first of the given rules matching the given action, or null
+     * if none of them do.
+     */
+    private static CompiledRule match(List<CompiledRule> compiledRules, String action) {
+        if (compiledRules == null || action == null) {
+            return null;
+        }
+        for (CompiledRule compiledRule : compiledRules) {
+            if (compiledRule.action == null || compiledRule.action.matcher(action).matches()) {
+                return compiledRule;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return true if the given action holds no regular expression syntax, so
+     * that it only matches itself.
+     */
+    private static boolean isLiteral(String action) {
+        return action != null && getLiteralPrefixLength(action) == action.length();
+    }
+
+    /**
+     * Return the length of the literal text the given pattern starts with,
+     * which excludes a character that a quantifier applies to.
+     */
+    private static int getLiteralPrefixLength(String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (META_CHARACTERS.indexOf(c) >= 0) {
+                boolean quantifier = c == '*' || c == '+' || c == '?' || c == '{';
+                return quantifier && i > 0 ? i - 1 : i;
+            }
+        }
+        return pattern.length();
+    }
+
+    /**
+     * Order the given patterns most specific first, a null pattern matching
+     * any action last.
+     */
+    private static int compareSpecificity(String a, String b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : 1) : -1;
+        }
+        int c = getLiteralPrefixLength(b) - getLiteralPrefixLength(a);
+        if (c == 0) {
+            c = b.length() - a.length();
+        }
+        return c == 0 ? a.compareTo(b) : c;
+    }
+
+    /**
+     * The wildcard rules of a single category.
+     */
+    private static class CategoryRules {
+
+        // action -> contexts -> rule, null contexts hold rules of any
+        private final Map<String, Map<List<Class<?>>, CompiledRule>> literals =
+                new HashMap<String, Map<List<Class<?>>, CompiledRule>>();
+
+        // contexts -> rules in the order they're tried
+        private final Map<List<Class<?>>, List<CompiledRule>> patterns =
+                new HashMap<List<Class<?>>, List<CompiledRule>>();
+    }
+
+    /**
+     * A wildcard rule with its action pattern compiled.
+     */
+    private static class CompiledRule {
+
+        private final AccessRuleKey key;
+        private final Pattern action;
+        private final Set<String> roles;
+
+        public CompiledRule(AccessRuleKey key, Set<String> roles) throws IllegalArgumentException {
+            String action = key.getAction();
+            this.key = key;
+            try {
+                this.action = action == null ? null : Pattern.compile(action);
+            } catch (PatternSyntaxException e) {
+                throw new IllegalArgumentException("An invalid action pattern has been detected: " + action, e);
+            }
+            this.roles = roles;
+        }
+    }
+}
@@ -0,0 +1,656 @@
+package edu.baylor.cs.holder.security.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread safe {@link Map} meant for caching that holds at most a maximum
+ * total weight of entries and forgets each entry a fixed time after it was
+ * written. Null keys and values are not supported.
+ *
+ * Reads never wait. Entries live in a {@link ConcurrentHashMap}, and a read
+ * only marks the entry as recently used and records the hash of its key in a
+ * small buffer picked by thread. Writes take a single lock to keep the
+ * eviction order, which is cheap since in a cache writes follow misses, and
+ * count the recorded keys in a frequency sketch while they hold it. A read
+ * that fills its buffer counts them too if the lock is free, otherwise later
+ * reads are dropped until the buffer is drained.
+ *
+ * When a write pushes the total weight over the maximum, a victim is chosen
+ * from the oldest entries giving a second chance to those read since they were
+ * last considered (CLOCK). The new entry is then only admitted if its key has
+ * been seen more often than the key of the victim (TinyLFU), which keeps a
+ * burst of one-off lookups from flushing out the popular entries.
+ *
+ * @author holder
+ */
+public class BoundedCacheMap<K, V> extends AbstractMap<K, V> {
+
+    // keys seen before the sketch is aged, per unit of maximum weight
+    private static final int SAMPLE_FACTOR = 10;
+
+    // largest number of counters in the frequency sketch
+    private static final int MAXIMUM_SKETCH_SIZE = 1 << 22;
+
+    // hashes each read buffer holds, a power of two
+    private static final int READ_BUFFER_SIZE = 16;
+
+    // largest number of read buffers
+    private static final int MAXIMUM_READ_BUFFERS = 64;
+
+    // recorded in place of a hash by a read buffer slot that is free
+    private static final int EMPTY = 0;
+
+    // seeds of the hash functions of the frequency sketch
+    private static final int[] SEEDS = { 0x97cb3127, 0xb7e15162, 0x2545f491, 0x9e3779b9 };
+
+    // live entries, read without locking
+    private final ConcurrentHashMap<K, Node<K, V>> data;
+
+    // guards the eviction order and the total weight
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    // sentinel of the circular list of entries in eviction order, oldest first
+    private final Node<K, V> order = new Node<K, V>(null, null, 0, 0L);
+
+    // maximum total weight of the entries
+    private final long maximumWeight;
+
+    // nanoseconds an entry lives after being written, 0 to never expire
+    private final long expireAfterWriteNanos;
+
+    // total weight of the entries in the eviction order
+    private long weight = 0;
+
+    // approximate counts of recent key lookups, guarded by the eviction lock
+    private final int[] sketch;
+
+    // lookups counted since the sketch was last aged, guarded by the eviction
+    // lock
+    private int samples = 0;
+
+    // hashes of the keys read, READ_BUFFER_SIZE slots per buffer
+    private final AtomicIntegerArray readBuffers;
+
+    // number of hashes ever recorded in each read buffer
+    private final AtomicLongArray readBufferTails;
+
+    // number of hashes ever counted from each read buffer, only advanced while
+    // holding the eviction lock
+    private final AtomicLongArray readBufferHeads;
+
+    // read buffers minus one, the number of buffers being a power of two
+    private final int readBufferMask;
+
+    // lookups to count before halving every count in the sketch
+    private final int sampleSize;
+
+    /**
+     * Create a map that holds at most the given weight of entries, where each
+     * entry weighs 1 unless {@link #weigh(Object, Object)} is overridden, and
+     * that forgets each entry the given time after it was written.
+     *
+     * @param maximumWeight
+     *            maximum total weight of the entries
+     * @param expireAfterWrite
+     *            time an entry lives after being written, 0 to never expire
+     * @param unit
+     *            unit of expireAfterWrite
+     */
+    public BoundedCacheMap(long maximumWeight, long expireAfterWrite, TimeUnit unit) {
+        if (maximumWeight < 0) {
+            throw new IllegalArgumentException("Maximum weight may not be negative: " + maximumWeight);
+        }
+        if (expireAfterWrite < 0) {
+            throw new IllegalArgumentException("Expire after write may not be negative: " + expireAfterWrite);
+        }
+        this.maximumWeight = maximumWeight;
+        this.expireAfterWriteNanos = unit.toNanos(expireAfterWrite);
+        this.data = new ConcurrentHashMap<K, Node<K, V>>((int) Math.min(maximumWeight, 1024), 0.75f, 64);
+
+        // four counters per entry in the spirit of a count-min sketch
+        int sketchSize = 16;
+        while (sketchSize < MAXIMUM_SKETCH_SIZE && sketchSize < maximumWeight * 4) {
+            sketchSize <<= 1;
+        }
+        this.sketch = new int[sketchSize];
+        this.sampleSize = (int) Math.min(Integer.MAX_VALUE, Math.max(maximumWeight, 16) * SAMPLE_FACTOR);
+
+        // enough buffers for the readers to rarely share one
+        int readBufferCount = 1;
+        while (readBufferCount < MAXIMUM_READ_BUFFERS
+                && readBufferCount < Runtime.getRuntime().availableProcessors() * 2) {
+            readBufferCount <<= 1;
+        }
+        this.readBuffers = new AtomicIntegerArray(readBufferCount * READ_BUFFER_SIZE);
+        this.readBufferTails = new AtomicLongArray(readBufferCount);
+        this.readBufferHeads = new AtomicLongArray(readBufferCount);
+        this.readBufferMask = readBufferCount - 1;
+
+        order.previous = order;
+        order.next = order;
+    }
+
+    /**
+     * Return the weight of the given entry, which must not change while the
+     * entry is in this map. Every entry weighs 1 unless overridden.
+     *
+     * @param key
+     * @param value
+     * @return
+     */
+    protected int weigh(K key, V value) {
+        return 1;
+    }
+
+    /**
+     * Called after an entry has been removed to bound the weight of this map
+     * or because it expired, but not when it was removed or replaced
+     * explicitly. Does nothing unless overridden.
+     *
+     * @param key
+     * @param value
+     */
+    protected void onEviction(K key, V value) {
+    }
+
+    /**
+     * Return the current time in nanoseconds, as used for expiry.
+     *
+     * @return
+     */
+    protected long currentTime() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public V get(Object key) {
+        if (key == null) {
+            return null;
+        }
+        recordRead(key);
+
+        Node<K, V> node = data.get(key);
+        if (node == null) {
+            return null;
+        }
+        if (isExpired(node, currentTime())) {
+            // the eviction order is cleaned up by the next write
+            if (data.remove(key, node)) {
+                onEviction(node.key, node.value);
+            }
+            return null;
+        }
+
+        // only write when needed to keep the cache line shared between readers
+        if (!node.accessed) {
+            node.accessed = true;
+        }
+        return node.value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        Node<K, V> node = key == null ? null : data.get(key);
+        return node != null && !isExpired(node, currentTime());
+    }
+
+    /**
+     * Add the given entry, which may be rejected straight away or evict
+     * another entry when this map is full, see {@link BoundedCacheMap}.
+     */
+    @Override
+    public V put(K key, V value) {
+        if (key == null || value == null) {
+            throw new IllegalArgumentException("Null keys and values are not supported");
+        }
+        long now = currentTime();
+        Node<K, V> node = new Node<K, V>(key, value, weigh(key, value), now);
+
+        evictionLock.lock();
+        try {
+            drainReads();
+            age();
+            Node<K, V> previous = data.put(key, node);
+            if (previous != null) {
+                unlink(previous);
+            }
+            boolean replaced = previous != null && !isExpired(previous, now);
+            link(node);
+            expire(now);
+            // a key already in the map is not admitted again
+            evict(replaced ? null : node, node);
+            return replaced ? previous.value : null;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public V remove(Object key) {
+        if (key == null) {
+            return null;
+        }
+        evictionLock.lock();
+        try {
+            Node<K, V> node = data.remove(key);
+            if (node == null) {
+                return null;
+            }
+            unlink(node);
+            return isExpired(node, currentTime()) ? null : node.value;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        evictionLock.lock();
+        try {
+            data.clear();
+            order.previous = order;
+            order.next = order;
+            weight = 0;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Return the number of entries, which may include entries that have
+     * expired but not yet been removed.
+     */
+    @Override
+    public int size() {
+        return data.size();
+    }
+
+    /**
+     * Return the total weight of the entries.
+     *
+     * @return
+     */
+    public long getWeight() {
+        evictionLock.lock();
+        try {
+            return weight;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    /**
+     * Return a view of the unexpired entries, which supports removal but not
+     * {@link Map.Entry#setValue(Object)}.
+     */
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new AbstractSet<Map.Entry<K, V>>() {
+
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return BoundedCacheMap.this.size();
+            }
+
+            @Override
+            public void clear() {
+                BoundedCacheMap.this.clear();
+            }
+        };
+    }
+
+    /**
+     * Evict entries until the total weight is within the maximum, comparing
+     * the frequency of each victim with that of the given candidate, if any,
+     * which has just been added. The given added entry is only evicted when it
+     * is the candidate, or when it alone weighs more than the maximum.
+     */
+    private void evict(Node<K, V> candidate, Node<K, V> added) {
+        while (weight > maximumWeight) {
+            Node<K, V> victim = nextVictim(added);
+            if (weight <= maximumWeight) {
+                // removing entries left behind by expired reads was enough
+                break;
+            }
+            if (victim == null && candidate == null) {
+                // only the added entry is left
+                break;
+            }
+            if (victim == null || (candidate != null && frequency(candidate.key) <= frequency(victim.key))) {
+                // the candidate is not worth keeping, or is all that's left
+                victim = candidate;
+            }
+            data.remove(victim.key, victim);
+            unlink(victim);
+            onEviction(victim.key, victim.value);
+            if (victim == candidate) {
+                // the weight is back to what it was before the candidate
+                break;
+            }
+        }
+        // a candidate heavier than the maximum may still leave us over
+        while (weight > maximumWeight && order.next != order) {
+            Node<K, V> oldest = order.next;
+            data.remove(oldest.key, oldest);
+            unlink(oldest);
+            onEviction(oldest.key, oldest.value);
+        }
+    }
+
+    /**
+     * Return the oldest entry other than the candidate that has not been read
+     * since it was last considered, moving any read entries to the back of the
+     * eviction order. Return null if only the candidate remains.
+     */
+    private Node<K, V> nextVictim(Node<K, V> candidate) {
+        // every entry is passed over at most once before its flag is cleared
+        Node<K, V> node = order.next;
+        while (node != order) {
+            Node<K, V> next = node.next;
+            if (node != candidate) {
+                if (data.get(node.key) != node) {
+                    // removed by an expired read
+                    unlink(node);
+                } else if (node.accessed) {
+                    node.accessed = false;
+                    unlink(node);
+                    linkBefore(node, candidate);
+                } else {
+                    return node;
+                }
+            }
+            node = next;
+        }
+        // every other entry has been read, the oldest of them is the victim
+        node = order.next;
+        if (node == candidate) {
+            node = node.next;
+        }
+        return node == order ? null : node;
+    }
+
+    /**
+     * Remove expired entries from the front of the eviction order.
+     */
+    private void expire(long now) {
+        if (expireAfterWriteNanos == 0) {
+            return;
+        }
+        Node<K, V> node = order.next;
+        while (node != order && isExpired(node, now)) {
+            Node<K, V> next = node.next;
+            if (data.remove(node.key, node)) {
+                onEviction(node.key, node.value);
+            }
+            unlink(node);
+            node = next;
+        }
+    }
+
+    private boolean isExpired(Node<K, V> node, long now) {
+        return expireAfterWriteNanos != 0 && now - node.writeTime >= expireAfterWriteNanos;
+    }
+
+    private void link(Node<K, V> node) {
+        linkBefore(node, order);
+    }
+
+    private void linkBefore(Node<K, V> node, Node<K, V> successor) {
+        node.previous = successor.previous;
+        node.next = successor;
+        successor.previous.next = node;
+        successor.previous = node;
+        weight += node.weight;
+    }
+
+    private void unlink(Node<K, V> node) {
+        if (node.next == null) {
+            return;
+        }
+        node.previous.next = node.next;
+        node.next.previous = node.previous;
+        node.previous = null;
+        node.next = null;
+        weight -= node.weight;
+    }
+
+    /**
+     * Record a lookup of the given key in the read buffer of the current
+     * thread, dropping it when the buffer is full. The read that fills the
+     * buffer drains every buffer if the eviction lock is free.
+     */
+    private void recordRead(Object key) {
+        int hash = hashOf(key);
+        int buffer = spread((int) Thread.currentThread().getId()) & readBufferMask;
+        long tail = readBufferTails.get(buffer);
+        long size = tail - readBufferHeads.get(buffer);
+        if (size < READ_BUFFER_SIZE && readBufferTails.compareAndSet(buffer, tail, tail + 1)) {
+            int slot = buffer * READ_BUFFER_SIZE + (int) (tail & (READ_BUFFER_SIZE - 1));
+            readBuffers.set(slot, hash);
+            size++;
+        }
+        if (size >= READ_BUFFER_SIZE && evictionLock.tryLock()) {
+            try {
+                drainReads();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Count the lookups recorded in the read buffers in the frequency sketch.
+     * Must be called while holding the eviction lock.
+     */
+    private void drainReads() {
+        for (int buffer = 0; buffer <= readBufferMask; buffer++) {
+            long head = readBufferHeads.get(buffer);
+            long tail = readBufferTails.get(buffer);
+            for (; head < tail; head++) {
+                int slot = buffer * READ_BUFFER_SIZE + (int) (head & (READ_BUFFER_SIZE - 1));
+                int hash = readBuffers.get(slot);
+                if (hash == EMPTY) {
+                    // claimed by a read that hasn't recorded it yet
+                    break;
+                }
+                readBuffers.set(slot, EMPTY);
+                increment(hash);
+            }
+            readBufferHeads.set(buffer, head);
+        }
+    }
+
+    /**
+     * Count a lookup of the given spread hash in the frequency sketch. Must be
+     * called while holding the eviction lock.
+     */
+    private void increment(int hash) {
+        for (int i = 0; i < SEEDS.length; i++) {
+            int index = indexOf(hash, i);
+            if (sketch[index] < Integer.MAX_VALUE) {
+                sketch[index]++;
+            }
+        }
+        samples++;
+    }
+
+    /**
+     * Halve every count in the frequency sketch once enough lookups have been
+     * counted so that old popularity fades. Must be called while holding the
+     * eviction lock, and is only called by writes to keep it off reads.
+     */
+    private void age() {
+        if (samples >= sampleSize) {
+            samples = 0;
+            for (int i = 0; i < sketch.length; i++) {
+                sketch[i] >>>= 1;
+            }
+        }
+    }
+
+    /**
+     * Return the estimated number of recent lookups of the given key.
+     */
+    private int frequency(Object key) {
+        int hash = hashOf(key);
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < SEEDS.length; i++) {
+            frequency = Math.min(frequency, sketch[indexOf(hash, i)]);
+        }
+        return frequency;
+    }
+
+    private int indexOf(int hash, int i) {
+        int h = (hash ^ SEEDS[i]) * SEEDS[(i + 1) % SEEDS.length];
+        h ^= h >>> 16;
+        return h & (sketch.length - 1);
+    }
+
+    /**
+     * Return the hash of the given key used by the frequency sketch, which is
+     * never {@link #EMPTY}.
+     */
+    private static int hashOf(Object key) {
+        int hash = spread(key.hashCode());
+        return hash == EMPTY ? 1 : hash;
+    }
+
+    private static int spread(int h) {
+        h ^= (h >>> 20) ^ (h >>> 12);
+        return h ^ (h >>> 7) ^ (h >>> 4);
+    }
+
+    /**
+     * An entry along with its place in the eviction order.
+     */
+    private static final class Node<K, V> {
+
+        private final K key;
+        private final V value;
+        private final int weight;
+        private final long writeTime;
+
+        // set by reads, cleared when passed over for eviction
+        private volatile boolean accessed = false;
+
+        // neighbours in the eviction order, null once removed
+        private Node<K, V> previous;
+        private Node<K, V> next;
+
+        public Node(K key, V value, int weight, long writeTime) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.writeTime = writeTime;
+        }
+    }
+
+    /**
+     * An immutable copy of an entry handed out by the entry set.
+     */
+    private static final class Entry<K, V> implements Map.Entry<K, V> {
+
+        private final K key;
+        private final V value;
+
+        public Entry(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        public K getKey() {
+            return key;
+        }
+
+        public V getValue() {
+            return value;
+        }
+
+        public V setValue(V value) {
+            throw new UnsupportedOperationException("Entries can't be modified");
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Map.Entry<?, ?>)) {
+                return false;
+            }
+            Map.Entry<?, ?> other = (Map.Entry<?, ?>) obj;
+            return key.equals(other.getKey()) && value.equals(other.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ value.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+
+    /**
+     * Iterates the unexpired entries.
+     */
+    private class EntryIterator implements Iterator<Map.Entry<K, V>> {
+
+        private final Iterator<Node<K, V>> nodes = data.values().iterator();
+        private final long now = currentTime();
+        private Node<K, V> next;
+        private Node<K, V> current;
+
+        public boolean hasNext() {
+            while (next == null && nodes.hasNext()) {
+                Node<K, V> node = nodes.next();
+                if (!isExpired(node, now)) {
+                    next = node;
+                }
+            }
+            return next != null;
+        }
+
+        public Map.Entry<K, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            current = next;
+            next = null;
+            return new Entry<K, V>(current.key, current.value);
+        }
+
+        public void remove() {
+            if (current == null) {
+                throw new IllegalStateException();
+            }
+            evictionLock.lock();
+            try {
+                if (data.remove(current.key, current)) {
+                    unlink(current);
+                }
+            } finally {
+                evictionLock.unlock();
+            }
+            current = null;
+        }
+    }
+}
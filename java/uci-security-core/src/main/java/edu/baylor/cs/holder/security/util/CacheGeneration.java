@@ -0,0 +1,103 @@
+package edu.baylor.cs.holder.security.util;
+
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Counts the invalidations of a cache, so that a reader can tell whether the
+ * entries it reads were loaded from the content it expects. The content the
+ * entries are loaded from is changed, and the affected entries removed,
+ * between {@link #beginInvalidation()} and {@link #endInvalidation()}.
+ *
+ * The generation is odd while an invalidation is in progress and even
+ * otherwise, and each invalidation changes it. A reader that sees the same
+ * even generation before and after reading therefore knows that no
+ * invalidation overlapped its read.
+ *
+ * Invalidations are made one at a time, and may be nested by a single thread.
+ * Entries put with {@link #putIfCurrent(Map, Object, Object, long)} can't
+ * overlap an invalidation, so an entry loaded before an invalidation is never
+ * put after the invalidation removed it.
+ *
+ * @author holder
+ */
+public class CacheGeneration {
+
+    // write lock held by the thread making an invalidation, read lock by puts
+    private final ReentrantReadWriteLock invalidationLock = new ReentrantReadWriteLock();
+
+    // changed at the beginning and end of each invalidation
+    private volatile long generation = 0;
+
+    /**
+     * Return the current generation.
+     *
+     * @return
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Return true if the given generation has no invalidation in progress.
+     *
+     * @param generation
+     * @return
+     */
+    public static boolean isSettled(long generation) {
+        return (generation & 1) == 0;
+    }
+
+    /**
+     * Begin an invalidation, waiting for any invalidation in progress on
+     * another thread to end first.
+     */
+    public void beginInvalidation() {
+        invalidationLock.writeLock().lock();
+        if (invalidationLock.getWriteHoldCount() == 1) {
+            generation++;
+        }
+    }
+
+    /**
+     * End the invalidation begun by the current thread.
+     *
+     * @throws IllegalStateException
+     *             thrown when the current thread hasn't begun an invalidation
+     */
+    public void endInvalidation() {
+        if (!invalidationLock.isWriteLockedByCurrentThread()) {
+            throw new IllegalStateException("No invalidation in progress");
+        }
+        if (invalidationLock.getWriteHoldCount() == 1) {
+            generation++;
+        }
+        invalidationLock.writeLock().unlock();
+    }
+
+    /**
+     * Put the given entry in the given map if the generation is still the
+     * given one, without waiting for an invalidation in progress.
+     *
+     * @param map
+     * @param key
+     * @param value
+     * @param generation
+     *            generation the value was loaded in
+     * @return true if the entry was put; false otherwise
+     */
+    public <K, V> boolean putIfCurrent(Map<K, V> map, K key, V value, long generation) {
+        if (!invalidationLock.readLock().tryLock()) {
+            return false;
+        }
+        try {
+            if (this.generation != generation) {
+                return false;
+            }
+            map.put(key, value);
+            return true;
+        } finally {
+            invalidationLock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package edu.baylor.cs.holder.security.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * This class resolves the simple class names used as contexts against an
+ * ordered list of packages, returning the class from the first package that
+ * has one, as {@link ReflectionUtils#getContextClass(java.util.Set, String)}
+ * does.
+ *
+ * Both found and missing classes are remembered, so each name is only
+ * searched for once, which avoids building a {@link ClassNotFoundException}
+ * per package on every lookup. Classes may also be registered up front, by
+ * {@link #register(Class)}, {@link #scanPackages()} or
+ * {@link #registerManifest(InputStream)}. The latter two mark the registry
+ * complete, after which every lookup is a single map probe and names that
+ * were not registered resolve to null without searching.
+ *
+ * Classes are loaded by the class loader of this class. Instances are thread
+ * safe.
+ *
+ * @author holder
+ */
+public class ContextClassResolver {
+
+    // stands in for a missing class, since a context can never be void
+    private static final Class<?> MISSING = Void.TYPE;
+
+    // packages to search, in search order
+    private final List<String> searchPackages;
+
+    // simple class name -> class, or MISSING if no package has one
+    private final ConcurrentMap<String, Class<?>> classes = new ConcurrentHashMap<String, Class<?>>();
+
+    // true once every class of the packages has been registered
+    private volatile boolean complete = false;
+
+    /**
+     * Resolve names against the given packages, searched in iteration order.
+     *
+     * @param searchPackages
+     */
+    public ContextClassResolver(Collection<String> searchPackages) {
+        this.searchPackages = Collections.unmodifiableList(new ArrayList<String>(searchPackages));
+    }
+
+    /**
+     * Return the class with the given simple name from the first search
+     * package that has one, or null if no package has one.
+     *
+     * @param className
+     * @return
+     */
+    public Class<?> getContextClass(String className) {
+        Class<?> contextClass = classes.get(className);
+        if (contextClass == null) {
+            if (complete) {
+                return null;
+            }
+            contextClass = findContextClass(className);
+            Class<?> previous = classes.putIfAbsent(className, contextClass);
+            if (previous != null) {
+                contextClass = previous;
+            }
+        }
+        return contextClass == MISSING ? null : contextClass;
+    }
+
+    /**
+     * Register the given class, which must belong to one of the search
+     * packages. A class registered for the same simple name from an earlier
+     * search package takes precedence, but registered classes are otherwise
+     * trusted to be the ones a search would find.
+     *
+     * @param contextClass
+     * @return true if the given class is now resolved for its simple name
+     * @throws IllegalArgumentException
+     *             thrown when the class is not in a search package
+     */
+    public boolean register(Class<?> contextClass) throws IllegalArgumentException {
+        String packageName = getPackageName(contextClass.getName());
+        int index = searchPackages.indexOf(packageName);
+        if (index < 0) {
+            throw new IllegalArgumentException("Class " + contextClass.getName()
+                    + " is not in one of the context packages " + searchPackages);
+        }
+
+        String className = contextClass.getName().substring(packageName.length() + 1);
+        while (true) {
+            Class<?> existing = classes.get(className);
+            if (existing == null) {
+                if (classes.putIfAbsent(className, contextClass) == null) {
+                    return true;
+                }
+            } else if (existing == contextClass) {
+                return true;
+            } else if (existing != MISSING
+                    && searchPackages.indexOf(getPackageName(existing.getName())) <= index) {
+                return false;
+            } else if (classes.replace(className, existing, contextClass)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Register every class named by the given manifest, one fully qualified
+     * class name per line, and mark the registry complete. Blank lines, lines
+     * starting with '#' and classes outside the search packages are ignored.
+     * The stream is left open.
+     *
+     * @param manifest
+     * @throws IOException
+     *             thrown when the manifest can't be read
+     * @throws IllegalArgumentException
+     *             thrown when a named class can't be loaded
+     */
+    public void registerManifest(InputStream manifest) throws IOException, IllegalArgumentException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(manifest, "UTF-8"));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.length() == 0 || line.startsWith("#")) {
+                continue;
+            }
+            if (searchPackages.contains(getPackageName(line))) {
+                register(loadClass(line));
+            }
+        }
+        complete = true;
+    }
+
+    /**
+     * Register every class found in the search packages on the class path,
+     * in directories or jar files, and mark the registry complete.
+     *
+     * @throws IOException
+     *             thrown when the class path can't be read
+     * @throws IllegalArgumentException
+     *             thrown when a found class can't be loaded
+     */
+    public void scanPackages() throws IOException, IllegalArgumentException {
+        ClassLoader classLoader = getClassLoader();
+        for (String searchPackage : searchPackages) {
+            String path = searchPackage.replace('.', '/');
+            Enumeration<URL> resources = classLoader.getResources(path);
+            while (resources.hasMoreElements()) {
+                for (String className : listClasses(resources.nextElement(), path)) {
+                    register(loadClass(searchPackage + "." + className));
+                }
+            }
+        }
+        complete = true;
+    }
+
+    /**
+     * Return true once the registry holds every class of the search packages.
+     *
+     * @return
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Forget every resolved and registered class.
+     */
+    public void clear() {
+        complete = false;
+        classes.clear();
+    }
+
+    /**
+     * Search each package in order, returning MISSING if none has the class.
+     */
+    private Class<?> findContextClass(String className) {
+        ClassLoader classLoader = getClassLoader();
+        for (String contextPackage : searchPackages) {
+            try {
+                // break on the first class we find
+                return Class.forName(contextPackage + "." + className, true, classLoader);
+            } catch (ClassNotFoundException e) {
+                ; // ignore
+            }
+        }
+        return MISSING;
+    }
+
+    /**
+     * Load a class to register without initializing it, since most of them
+     * may never be used as contexts.
+     */
+    private Class<?> loadClass(String name) throws IllegalArgumentException {
+        try {
+            return Class.forName(name, false, getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("No class found for context: " + name, e);
+        }
+    }
+
+    /**
+     * Return the simple names of the class files directly inside the given
+     * package resource.
+     */
+    private static List<String> listClasses(URL resource, String path) throws IOException {
+        List<String> classNames = new ArrayList<String>();
+        if ("file".equals(resource.getProtocol())) {
+            File directory;
+            try {
+                directory = new File(resource.toURI());
+            } catch (URISyntaxException e) {
+                directory = new File(resource.getPath());
+            }
+            String[] fileNames = directory.list();
+            if (fileNames != null) {
+                for (String fileName : fileNames) {
+                    if (fileName.endsWith(".class")) {
+                        classNames.add(fileName.substring(0, fileName.length() - ".class".length()));
+                    }
+                }
+            }
+        } else {
+            URLConnection connection = resource.openConnection();
+            if (connection instanceof JarURLConnection) {
+                JarFile jarFile = ((JarURLConnection) connection).getJarFile();
+                String prefix = path + "/";
+                for (Enumeration<JarEntry> entries = jarFile.entries(); entries.hasMoreElements();) {
+                    String name = entries.nextElement().getName();
+                    if (name.startsWith(prefix) && name.endsWith(".class")
+                            && name.indexOf('/', prefix.length()) < 0) {
+                        classNames.add(name.substring(prefix.length(), name.length() - ".class".length()));
+                    }
+                }
+            }
+        }
+        Collections.sort(classNames);
+        return classNames;
+    }
+
+    private static String getPackageName(String className) {
+        int index = className.lastIndexOf('.');
+        return index < 0 ? "" : className.substring(0, index);
+    }
+
+    private static ClassLoader getClassLoader() {
+        ClassLoader classLoader = ContextClassResolver.class.getClassLoader();
+        return classLoader == null ? ClassLoader.getSystemClassLoader() : classLoader;
+    }
+}
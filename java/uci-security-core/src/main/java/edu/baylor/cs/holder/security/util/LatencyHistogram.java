@@ -0,0 +1,165 @@
+package edu.baylor.cs.holder.security.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies in nanoseconds. Each power of two range
+ * of latencies is split into {@link #SUB_BUCKETS} equal buckets, so every
+ * latency is counted in a bucket no more than 12.5% wider than the latency
+ * itself, using a fixed amount of memory whatever the latencies recorded.
+ *
+ * Recording is a single atomic increment of a bucket, while reading
+ * percentiles walks every bucket and may miss concurrent recordings.
+ *
+ * @author holder
+ */
+public class LatencyHistogram {
+
+    /**
+     * Buckets per power of two.
+     */
+    public static final int SUB_BUCKETS = 8;
+
+    private static final int SUB_BUCKET_BITS = 3;
+
+    // enough buckets for any positive long
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final StripedCounter total = new StripedCounter();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record the given latency, negative latencies are recorded as 0.
+     *
+     * @param nanos
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(getBucket(nanos));
+        total.add(nanos);
+
+        long current = max.get();
+        while (nanos > current && !max.compareAndSet(current, nanos)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Return the number of recorded latencies.
+     *
+     * @return
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Return the mean of the recorded latencies in nanoseconds, or 0 if none
+     * were recorded.
+     *
+     * @return
+     */
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) total.sum() / count;
+    }
+
+    /**
+     * Return the largest recorded latency in nanoseconds.
+     *
+     * @return
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Return the latency in nanoseconds that the given percentage of recorded
+     * latencies are at or below, rounded up to the top of its bucket but
+     * never above the largest recorded latency. Returns 0 if nothing was
+     * recorded.
+     *
+     * @param percentile
+     *            from 0 to 100
+     * @return
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be from 0 to 100: " + percentile);
+        }
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(getBucketMax(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Return a summary of the recorded latencies in the given unit.
+     */
+    public String toString(TimeUnit unit) {
+        return "count=" + getCount() + ", mean=" + convert(getMean(), unit) + ", p50="
+                + convert(getPercentile(50), unit) + ", p99=" + convert(getPercentile(99), unit) + ", p99.9="
+                + convert(getPercentile(99.9), unit) + ", max=" + convert(getMax(), unit) + " " + unit;
+    }
+
+    @Override
+    public String toString() {
+        return toString(TimeUnit.MICROSECONDS);
+    }
+
+    private static double convert(double nanos, TimeUnit unit) {
+        return nanos / unit.toNanos(1);
+    }
+
+    /**
+     * Return the bucket of the given latency.
+     */
+    static int getBucket(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Return the largest latency counted in the given bucket.
+     */
+    static long getBucketMax(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        long lowest = (SUB_BUCKETS + subBucket) * width;
+        return lowest + width - 1;
+    }
+}
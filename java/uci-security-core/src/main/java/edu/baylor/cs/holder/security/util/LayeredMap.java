@@ -0,0 +1,165 @@
+package edu.baylor.cs.holder.security.util;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable {@link Map} made of a base map and layers of changes on top of
+ * it, where {@link #with(Map)} returns a new map with one more layer while this
+ * one stays as it is. Building the new map costs time proportional to the
+ * number of changes rather than the number of entries, since the base and the
+ * existing layers are shared. Null keys and values are not supported.
+ *
+ * Lookups check the layers newest first before the base. To keep their number
+ * down, a new layer is merged with the layer below it whenever that one holds
+ * no more entries, so the layers roughly halve in size from the bottom up and
+ * each change is copied only a logarithmic number of times. The base is never
+ * modified, so removed keys are remembered by the layers.
+ *
+ * @author holder
+ */
+public class LayeredMap<K, V> extends AbstractMap<K, V> {
+
+    // marks a key removed by a layer
+    private static final Object REMOVED = new Object();
+
+    // entries below every layer, never modified
+    private final Map<K, V> base;
+
+    // changed values of each layer, newest first, REMOVED for removed keys
+    private final List<Map<Object, Object>> layers;
+
+    // number of entries
+    private final int size;
+
+    // entries of the base and every layer, built on first iteration
+    private volatile Map<K, V> merged;
+
+    /**
+     * Create a map of the given entries, which must not be modified later.
+     *
+     * @param base
+     */
+    public LayeredMap(Map<K, V> base) {
+        this(base, Collections.<Map<Object, Object>> emptyList(), base.size());
+    }
+
+    private LayeredMap(Map<K, V> base, List<Map<Object, Object>> layers, int size) {
+        this.base = base;
+        this.layers = layers;
+        this.size = size;
+    }
+
+    /**
+     * Return a new map holding the entries of this map with the given changes
+     * applied, where a null value removes its key.
+     *
+     * @param changes
+     *            new value of each changed key, or null to remove it
+     * @return the changed map
+     */
+    public LayeredMap<K, V> with(Map<K, V> changes) {
+        if (changes.isEmpty()) {
+            return this;
+        }
+
+        int updatedSize = size;
+        Map<Object, Object> layer = new HashMap<Object, Object>(changes.size() * 2);
+        for (Map.Entry<K, V> change : changes.entrySet()) {
+            boolean existed = containsKey(change.getKey());
+            if (change.getValue() == null) {
+                layer.put(change.getKey(), REMOVED);
+                updatedSize -= existed ? 1 : 0;
+            } else {
+                layer.put(change.getKey(), change.getValue());
+                updatedSize += existed ? 0 : 1;
+            }
+        }
+
+        // merge the new layer with any layers that are no bigger
+        int next = 0;
+        while (next < layers.size() && layers.get(next).size() <= layer.size()) {
+            Map<Object, Object> lower = new HashMap<Object, Object>(layers.get(next));
+            lower.putAll(layer);
+            layer = lower;
+            next++;
+        }
+
+        List<Map<Object, Object>> updatedLayers = new ArrayList<Map<Object, Object>>(layers.size() - next + 1);
+        updatedLayers.add(layer);
+        updatedLayers.addAll(layers.subList(next, layers.size()));
+        return new LayeredMap<K, V>(base, updatedLayers, updatedSize);
+    }
+
+    /**
+     * Return the number of layers on top of the base.
+     *
+     * @return
+     */
+    public int getLayerCount() {
+        return layers.size();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        for (int i = 0; i < layers.size(); i++) {
+            Object value = layers.get(i).get(key);
+            if (value != null) {
+                return value == REMOVED ? null : (V) value;
+            }
+        }
+        return base.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Return an unmodifiable view of the entries, which are merged into a
+     * single map the first time it's needed.
+     */
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        Map<K, V> entries = merged;
+        if (entries == null) {
+            if (layers.isEmpty()) {
+                entries = Collections.unmodifiableMap(base);
+            } else {
+                entries = merge();
+            }
+            merged = entries;
+        }
+        return entries.entrySet();
+    }
+
+    /**
+     * Return a copy of the base with every layer applied, oldest first.
+     */
+    @SuppressWarnings("unchecked")
+    private Map<K, V> merge() {
+        Map<K, V> entries = new HashMap<K, V>(base);
+        for (int i = layers.size() - 1; i >= 0; i--) {
+            for (Map.Entry<Object, Object> change : layers.get(i).entrySet()) {
+                if (change.getValue() == REMOVED) {
+                    entries.remove(change.getKey());
+                } else {
+                    entries.put((K) change.getKey(), (V) change.getValue());
+                }
+            }
+        }
+        return Collections.unmodifiableMap(entries);
+    }
+}
@@ -81,6 +81,9 @@ public class ReflectionUtils {
      * Return a {@link Class} based on the given String, searching the given
      * {@link Set} of packages. Return null if no {@link Class} is found.
      * 
+     * Nothing is cached, see {@link ContextClassResolver} to resolve many
+     * names against the same packages.
+     * 
      * @param contextType
      * @return
      */
@@ -0,0 +1,65 @@
+package edu.baylor.cs.holder.security.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that many threads can add to at once without contending on a
+ * single value, along the lines of Java 8's LongAdder. Each thread adds to
+ * one of several cells picked by its id, and reading the count sums the
+ * cells, so reads are slower than writes and may miss concurrent additions.
+ *
+ * @author holder
+ */
+public class StripedCounter {
+
+    // longs between used cells, keeping each cell on its own cache line
+    private static final int PADDING = 8;
+
+    // number of cells, a power of two
+    private static final int CELLS = cellCount();
+
+    private final AtomicLongArray cells = new AtomicLongArray(CELLS * PADDING);
+
+    /**
+     * Add one to this counter.
+     */
+    public void increment() {
+        add(1);
+    }
+
+    /**
+     * Add the given amount to this counter.
+     *
+     * @param amount
+     */
+    public void add(long amount) {
+        int cell = (int) Thread.currentThread().getId() & (CELLS - 1);
+        cells.addAndGet(cell * PADDING, amount);
+    }
+
+    /**
+     * Return the sum of everything added to this counter.
+     *
+     * @return
+     */
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < CELLS; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    /**
+     * Return enough cells for two threads per processor to rarely collide,
+     * up to a limit.
+     */
+    private static int cellCount() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int cells = 1;
+        while (cells < 2 * processors && cells < 64) {
+            cells <<= 1;
+        }
+        return cells;
+    }
+}
@@ -2,4 +2,20 @@ package edu.baylor.cs.holder.security.test.model;
 
 public class Contest {
 
+    private Long id;
+
+    public Contest() {
+    }
+
+    public Contest(Long id) {
+        this.id = id;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
 }
@@ -2,4 +2,20 @@ package edu.baylor.cs.holder.security.test.model;
 
 public class Institution {
 
+    private Long id;
+
+    public Institution() {
+    }
+
+    public Institution(Long id) {
+        this.id = id;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
 }
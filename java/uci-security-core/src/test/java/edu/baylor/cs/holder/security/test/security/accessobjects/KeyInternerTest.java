@@ -0,0 +1,86 @@
+package edu.baylor.cs.holder.security.test.security.accessobjects;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.baylor.cs.holder.security.service.accessobjects.AccessRuleKey;
+import edu.baylor.cs.holder.security.service.accessobjects.ImmutableAccessRuleKey;
+import edu.baylor.cs.holder.security.service.accessobjects.ImmutableRoleMappingKey;
+import edu.baylor.cs.holder.security.service.accessobjects.KeyInterner;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMappingKey;
+import edu.baylor.cs.holder.security.test.model.Contest;
+import edu.baylor.cs.holder.security.test.model.Person;
+
+public class KeyInternerTest {
+
+    @Test
+    public void testAccessRuleKeys() {
+        KeyInterner keyInterner = new KeyInterner();
+        List<Class<?>> contexts = new ArrayList<Class<?>>();
+        contexts.add(Contest.class);
+        AccessRuleKey probe = new AccessRuleKey("contestManager", "select", contexts);
+
+        ImmutableAccessRuleKey interned = keyInterner.intern(probe);
+        Assert.assertSame(interned, keyInterner.intern(new AccessRuleKey(probe)));
+        Assert.assertSame(interned, keyInterner.intern(interned));
+        Assert.assertEquals(probe, interned);
+        Assert.assertEquals(interned, probe);
+        Assert.assertEquals(probe.hashCode(), interned.hashCode());
+        Assert.assertEquals(probe.hashCode(), new AccessRuleKey("contestManager", "select", new LinkedList<Class<?>>(
+                contexts)).hashCode());
+
+        // reusing the probe leaves the interned key as it was
+        contexts.add(Person.class);
+        probe.setAction("update");
+        Assert.assertEquals("select", interned.getAction());
+        Assert.assertEquals(1, interned.getContexts().size());
+        Assert.assertNotSame(interned, keyInterner.intern(probe));
+        Assert.assertFalse(interned.equals(ImmutableAccessRuleKey.copyOf(probe)));
+
+        try {
+            interned.setAction("update");
+            Assert.fail("Expected the key to be immutable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            interned.getContexts().add(Person.class);
+            Assert.fail("Expected the contexts to be immutable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testRoleMappingKeys() {
+        KeyInterner keyInterner = new KeyInterner();
+        RoleMappingKey probe = new RoleMappingKey(1L, Contest.class, 2L);
+
+        ImmutableRoleMappingKey interned = keyInterner.intern(probe);
+        Assert.assertSame(interned, keyInterner.getRoleMappingKey(1L, Contest.class, 2L));
+        Assert.assertEquals(probe, interned);
+        Assert.assertEquals(interned, probe);
+        Assert.assertEquals(probe.hashCode(), interned.hashCode());
+
+        // copies that aren't interned compare by their primitive ids
+        Assert.assertEquals(interned, ImmutableRoleMappingKey.copyOf(probe));
+        Assert.assertEquals(ImmutableRoleMappingKey.copyOf(new RoleMappingKey(null, null, null)),
+                keyInterner.getRoleMappingKey(null, null, null));
+
+        // a wildcard id differs from an id of 0
+        Assert.assertFalse(keyInterner.getRoleMappingKey(0L, null, null).equals(
+                keyInterner.getRoleMappingKey(null, null, null)));
+        Assert.assertFalse(interned.equals(keyInterner.getRoleMappingKey(1L, Person.class, 2L)));
+
+        try {
+            interned.setContextId(3L);
+            Assert.fail("Expected the key to be immutable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+}
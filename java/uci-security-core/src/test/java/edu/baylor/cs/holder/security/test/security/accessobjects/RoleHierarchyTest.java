@@ -0,0 +1,59 @@
+package edu.baylor.cs.holder.security.test.security.accessobjects;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.baylor.cs.holder.security.service.accessobjects.RoleHierarchy;
+
+public class RoleHierarchyTest {
+
+    @Test
+    public void testClosure() {
+        Map<String, List<String>> implications = new HashMap<String, List<String>>();
+        implications.put("ROLE_ADMIN", Arrays.asList("ROLE_CONTEST_MANAGER", "ROLE_AUDITOR"));
+        implications.put("ROLE_CONTEST_MANAGER", Arrays.asList("ROLE_TEAM_MANAGER"));
+        implications.put("ROLE_TEAM_MANAGER", Arrays.asList("ROLE_TEAM_MEMBER"));
+        implications.put("ROLE_AUDITOR", Arrays.asList("ROLE_TEAM_MEMBER"));
+        RoleHierarchy roleHierarchy = new RoleHierarchy(implications);
+
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("ROLE_CONTEST_MANAGER", "ROLE_AUDITOR",
+                "ROLE_TEAM_MANAGER", "ROLE_TEAM_MEMBER")), roleHierarchy.getImpliedRoles("ROLE_ADMIN"));
+        Assert.assertEquals(Collections.singleton("ROLE_TEAM_MEMBER"), roleHierarchy.getImpliedRoles("ROLE_AUDITOR"));
+        Assert.assertTrue(roleHierarchy.getImpliedRoles("ROLE_TEAM_MEMBER").isEmpty());
+        Assert.assertTrue(roleHierarchy.getImpliedRoles("ROLE_UNKNOWN").isEmpty());
+
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("ROLE_USER", "ROLE_TEAM_MANAGER", "ROLE_TEAM_MEMBER")),
+                roleHierarchy.expand(Arrays.asList("ROLE_USER", "ROLE_TEAM_MANAGER")));
+        Assert.assertTrue(RoleHierarchy.EMPTY.isEmpty());
+    }
+
+    @Test
+    public void testCycleIsRejected() {
+        Map<String, List<String>> implications = new HashMap<String, List<String>>();
+        implications.put("ROLE_A", Arrays.asList("ROLE_B"));
+        implications.put("ROLE_B", Arrays.asList("ROLE_C"));
+        implications.put("ROLE_C", Arrays.asList("ROLE_A"));
+        try {
+            new RoleHierarchy(implications);
+            Assert.fail("Expected the cycle to be rejected");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("A cycle has been detected"));
+        }
+
+        implications.clear();
+        implications.put("ROLE_A", Arrays.asList("ROLE_A"));
+        try {
+            new RoleHierarchy(implications);
+            Assert.fail("Expected the cycle to be rejected");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("ROLE_A -> ROLE_A"));
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package edu.baylor.cs.holder.security.test.security.accessobjects;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.baylor.cs.holder.security.service.accessobjects.RoleDictionary;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleSet;
+
+public class RoleSetTest {
+
+    @Test
+    public void testSetView() {
+        List<String> roles = new ArrayList<String>();
+        for (int i = 0; i < 150; i++) {
+            roles.add("ROLE_" + i);
+        }
+        RoleDictionary dictionary = new RoleDictionary(roles);
+        Assert.assertEquals(150, dictionary.size());
+        Assert.assertEquals(3, dictionary.getWordCount());
+
+        Set<String> expected = new HashSet<String>(Arrays.asList("ROLE_0", "ROLE_63", "ROLE_64", "ROLE_149"));
+        RoleSet encoded = dictionary.encode(expected);
+        Assert.assertEquals(expected, encoded);
+        Assert.assertEquals(encoded, expected);
+        Assert.assertEquals(expected.hashCode(), encoded.hashCode());
+        Assert.assertEquals(expected, new HashSet<String>(encoded));
+        Assert.assertTrue(encoded.contains("ROLE_64"));
+        Assert.assertFalse(encoded.contains("ROLE_65"));
+        Assert.assertFalse(encoded.contains("ROLE_UNKNOWN"));
+        Assert.assertEquals(roles.size(), dictionary.getAllRoles().size());
+        Assert.assertTrue(dictionary.getEmptyRoles().isEmpty());
+    }
+
+    @Test
+    public void testMerge() {
+        RoleDictionary dictionary = new RoleDictionary(Arrays.asList("ROLE_A", "ROLE_B", "ROLE_C"));
+        RoleSet a = dictionary.encode(Arrays.asList("ROLE_A"));
+        RoleSet b = dictionary.encode(Arrays.asList("ROLE_B"));
+
+        Set<String> merged = RoleSet.merge(a, b);
+        Assert.assertTrue(merged instanceof RoleSet);
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("ROLE_A", "ROLE_B")), merged);
+        Assert.assertSame(a, RoleSet.merge(a, dictionary.getEmptyRoles()));
+
+        merged = RoleSet.merge(a, new HashSet<String>(Arrays.asList("ROLE_D")));
+        Assert.assertFalse(merged instanceof RoleSet);
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("ROLE_A", "ROLE_D")), merged);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownRole() {
+        new RoleDictionary(Arrays.asList("ROLE_A")).encode(Arrays.asList("ROLE_B"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testImmutable() {
+        new RoleDictionary(Arrays.asList("ROLE_A")).getAllRoles().add("ROLE_A");
+    }
+}
@@ -0,0 +1,235 @@
+package edu.baylor.cs.holder.security.test.security.service;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.baylor.cs.holder.security.service.AccessService;
+import edu.baylor.cs.holder.security.service.accessobjects.AccessHandle;
+import edu.baylor.cs.holder.security.service.accessobjects.AccessRuleKey;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMappingKey;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleSet;
+import edu.baylor.cs.holder.security.service.impl.SecurityServiceImpl;
+import edu.baylor.cs.holder.security.test.model.Contest;
+import edu.baylor.cs.holder.security.test.model.Institution;
+import edu.baylor.cs.holder.security.test.model.Person;
+import edu.baylor.cs.holder.security.test.security.AbstractSecurityTestBase;
+import edu.baylor.cs.holder.security.test.tools.SecurityFixtures;
+
+public abstract class AbstractHasAccessTestBase extends AbstractSecurityTestBase {
+
+    private static final String ROLE_ADMIN = "ROLE_ADMIN";
+
+    @Test
+    public void testNoContextAccess() {
+        checkAccess(true, "institutionManager", "select", 1L);
+        checkAccess(false, "institutionManager", "select", 2L);
+        checkAccess(true, "institutionManager", "save", 1L);
+        checkAccess(false, "institutionManager", "save", 3L);
+    }
+
+    @Test
+    public void testSingleContextAccess() {
+        checkAccess(true, "contestManager", "select", 1L, new Contest(8L));
+        checkAccess(true, "contestManager", "select", 2L, new Contest(8L));
+        checkAccess(false, "contestManager", "select", 3L, new Contest(8L));
+        checkAccess(true, "contestManager", "select", 3L, new Contest(4L));
+        checkAccess(true, "contestManager", "select", 5L, new Contest(6L));
+        checkAccess(true, "institutionManager", "select", 2L, new Institution(9L));
+        checkAccess(false, "institutionManager", "select", 2L, new Institution(8L));
+    }
+
+    @Test
+    public void testMultipleContextAccess() {
+        checkAccess(true, "contestManager", "register", 1L, new Contest(8L), new Institution(8L));
+        checkAccess(true, "contestManager", "register", 5L, new Contest(6L), new Institution(6L));
+        checkAccess(false, "contestManager", "register", 5L, new Contest(6L), new Institution(7L));
+        checkAccess(false, "contestManager", "register", 2L, new Contest(8L), new Institution(9L));
+    }
+
+    @Test
+    public void testMissingRuleAccess() {
+        checkAccess(false, "contestManager", "remove", 1L, new Contest(8L));
+        checkAccess(false, "contestManager", "select", 1L, new Institution(8L));
+        checkAccess(false, "contestManager", "select", 1L, new Contest(8L), new Contest(8L));
+        checkAccess(false, "institutionManager-BROKEN", "select", 1L);
+    }
+
+    @Test
+    public void testVetoedAccess() {
+        SecurityServiceImpl securityService = createSecurityService(new VetoingAccessService(accessService, ROLE_ADMIN));
+        Assert.assertFalse(securityService.hasAccess("institutionManager", "save", createPerson(1L)));
+        Assert.assertFalse(securityService.hasAccess("contestManager", "select", createPerson(1L), new Contest(8L)));
+        Assert.assertTrue(securityService.hasAccess("contestManager", "select", createPerson(2L), new Contest(8L)));
+
+        securityService = createSecurityService(new VetoingAccessService(new PlainAccessService(accessService), ROLE_ADMIN));
+        Assert.assertFalse(securityService.hasAccess("institutionManager", "save", createPerson(1L)));
+        Assert.assertFalse(securityService.hasAccess("contestManager", "select", createPerson(1L), new Contest(8L)));
+        Assert.assertTrue(securityService.hasAccess("contestManager", "select", createPerson(2L), new Contest(8L)));
+    }
+
+    @Test
+    public void testFilterAccessible() {
+        List<Object> contexts = new ArrayList<Object>();
+        contexts.add(new Contest(6L));
+        contexts.add(new Contest(8L));
+        contexts.add(new Institution(9L));
+        contexts.add(new Institution(8L));
+        contexts.add(new Contest(4L));
+        contexts.add(null);
+
+        for (long userId = 1; userId <= 5; userId++) {
+            for (AccessService service : new AccessService[] { accessService, new PlainAccessService(accessService) }) {
+                checkFilterAccessible(createSecurityService(service), "contestManager", "select", userId, contexts);
+                checkFilterAccessible(createSecurityService(service), "institutionManager", "select", userId, contexts);
+            }
+        }
+
+        SecurityServiceImpl securityService = createSecurityService(accessService);
+        List<Object> accessible = securityService.filterAccessible("contestManager", "select", createPerson(3L),
+                contexts);
+        Assert.assertEquals(1, accessible.size());
+        Assert.assertSame(contexts.get(4), accessible.get(0));
+        Assert.assertEquals(0, securityService.filterAccessible("contestManager", "remove", createPerson(1L), contexts)
+                .size());
+    }
+
+    /**
+     * Check that filtering a collection gives the same result as checking
+     * each element on its own.
+     */
+    protected void checkFilterAccessible(SecurityServiceImpl securityService, String category, String action,
+            Long userId, List<Object> contexts) {
+        Person person = createPerson(userId);
+        BitSet accessible = securityService.getAccessiblePositions(category, action, person, contexts);
+        List<Object> expected = new ArrayList<Object>();
+        for (int i = 0; i < contexts.size(); i++) {
+            boolean hasAccess = securityService.hasAccess(category, action, person, contexts.get(i));
+            Assert.assertEquals(hasAccess, accessible.get(i));
+            if (hasAccess) {
+                expected.add(contexts.get(i));
+            }
+        }
+        Assert.assertEquals(expected, securityService.filterAccessible(category, action, person, contexts));
+    }
+
+    /**
+     * Check access both for the configured access service and for one that
+     * only returns plain {@link HashSet}'s of roles, through each overload
+     * that takes the given number of context objects.
+     */
+    protected void checkAccess(boolean expected, String category, String action, Long userId, Object... context) {
+        Person person = createPerson(userId);
+        Assert.assertEquals(expected, createSecurityService(accessService).hasAccess(category, action, person, context));
+        Assert.assertEquals(expected,
+                createSecurityService(new PlainAccessService(accessService)).hasAccess(category, action, person, context));
+
+        AccessHandle handle = new AccessHandle(category, action);
+        for (AccessService service : new AccessService[] { accessService, new PlainAccessService(accessService) }) {
+            SecurityServiceImpl securityService = createSecurityService(service);
+            Assert.assertEquals(expected, securityService.hasAccess(handle, person, context));
+
+            // the second check finds the key kept by the handle
+            for (int i = 0; i < 2; i++) {
+                switch (context.length) {
+                case 0:
+                    Assert.assertEquals(expected, securityService.hasAccess(category, action, person));
+                    Assert.assertEquals(expected, securityService.hasAccess(handle, person));
+                    break;
+                case 1:
+                    Assert.assertEquals(expected, securityService.hasAccess(category, action, person, context[0]));
+                    Assert.assertEquals(expected, securityService.hasAccess(handle, person, context[0]));
+                    break;
+                case 2:
+                    Assert.assertEquals(expected, securityService.hasAccess(category, action, person, context[0],
+                            context[1]));
+                    Assert.assertEquals(expected, securityService.hasAccess(handle, person, context[0], context[1]));
+                    break;
+                }
+            }
+        }
+    }
+
+    protected SecurityServiceImpl createSecurityService(AccessService accessService) {
+        return SecurityFixtures.createSecurityService(accessService);
+    }
+
+    protected Person createPerson(Long id) {
+        return SecurityFixtures.createPerson(id);
+    }
+
+    /**
+     * Copies every set of roles from the delegate into a {@link HashSet}.
+     */
+    private static class PlainAccessService implements AccessService {
+
+        private final AccessService delegate;
+
+        public PlainAccessService(AccessService delegate) {
+            this.delegate = delegate;
+        }
+
+        public Set<String> getAccessRuleRoles(AccessRuleKey key) {
+            return new HashSet<String>(delegate.getAccessRuleRoles(key));
+        }
+
+        public Set<String> getUserRoles(RoleMappingKey key) {
+            return new HashSet<String>(delegate.getUserRoles(key));
+        }
+
+        public Set<String> getVetoRoles(AccessRuleKey accessRuleKey, RoleMappingKey roleMappingKey) {
+            return new HashSet<String>(delegate.getVetoRoles(accessRuleKey, roleMappingKey));
+        }
+
+        public Set<String> getAllAvailableRoles() {
+            return new HashSet<String>(delegate.getAllAvailableRoles());
+        }
+
+        public Set<String> getContextPackages() {
+            return delegate.getContextPackages();
+        }
+    }
+
+    /**
+     * Vetoes the given role for every lookup, encoding it with the dictionary
+     * of the delegate when there is one.
+     */
+    private static class VetoingAccessService extends PlainAccessService {
+
+        private final AccessService delegate;
+        private final Set<String> vetoRoles;
+
+        public VetoingAccessService(AccessService delegate, String vetoRole) {
+            super(delegate);
+            this.delegate = delegate;
+            Set<String> availableRoles = delegate.getAllAvailableRoles();
+            if (availableRoles instanceof RoleSet) {
+                vetoRoles = ((RoleSet) availableRoles).getDictionary().encode(Collections.singleton(vetoRole));
+            } else {
+                vetoRoles = Collections.singleton(vetoRole);
+            }
+        }
+
+        public Set<String> getAccessRuleRoles(AccessRuleKey key) {
+            return delegate.getAccessRuleRoles(key);
+        }
+
+        public Set<String> getUserRoles(RoleMappingKey key) {
+            return delegate.getUserRoles(key);
+        }
+
+        public Set<String> getVetoRoles(AccessRuleKey accessRuleKey, RoleMappingKey roleMappingKey) {
+            return vetoRoles;
+        }
+
+        public Set<String> getAllAvailableRoles() {
+            return delegate.getAllAvailableRoles();
+        }
+    }
+}
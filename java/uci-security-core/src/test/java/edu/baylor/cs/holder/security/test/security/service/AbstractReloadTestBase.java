@@ -0,0 +1,154 @@
+package edu.baylor.cs.holder.security.test.security.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.baylor.cs.holder.security.service.AccessService;
+import edu.baylor.cs.holder.security.service.accessobjects.AccessRule;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMapping;
+import edu.baylor.cs.holder.security.service.impl.BoundedSecurityCache;
+import edu.baylor.cs.holder.security.service.impl.GenericCachingAccessServiceImpl;
+import edu.baylor.cs.holder.security.service.impl.RepositoryAccessServiceImpl;
+import edu.baylor.cs.holder.security.service.impl.SecurityServiceImpl;
+import edu.baylor.cs.holder.security.test.model.Person;
+import edu.baylor.cs.holder.security.test.security.AbstractSecurityTestBase;
+import edu.baylor.cs.holder.security.test.tools.MemorySecurityRepository;
+import edu.baylor.cs.holder.security.test.tools.SecurityFixtures;
+
+public abstract class AbstractReloadTestBase extends AbstractSecurityTestBase {
+
+    @Test
+    public void testReloadReplacesContent() {
+        SecurityServiceImpl securityService = createSecurityService();
+        Assert.assertTrue(securityService.hasAccess("institutionManager", "save", createPerson(1L)));
+        Assert.assertFalse(securityService.hasAccess("institutionManager", "save", createPerson(4L)));
+
+        MemorySecurityRepository reloaded = new MemorySecurityRepository(securityRepository);
+        reloaded.putAccessRule(createAccessRule("institutionManager", "save", true,
+                Collections.<Class<?>> emptyList(), Collections.singletonList("ROLE_TEAM_MEMBER")));
+        reloaded.putRoleMapping(createRoleMapping(4L, null, null, "ROLE_TEAM_MEMBER"));
+        getRepositoryAccessService().update(reloaded);
+
+        Assert.assertFalse(securityService.hasAccess("institutionManager", "save", createPerson(1L)));
+        Assert.assertTrue(securityService.hasAccess("institutionManager", "save", createPerson(4L)));
+    }
+
+    @Test
+    public void testInvalidReloadKeepsContent() {
+        MemorySecurityRepository invalid = new MemorySecurityRepository(securityRepository);
+        AccessRule duplicate = createAccessRule("institutionManager", "duplicate", true,
+                Collections.<Class<?>> emptyList(), Collections.singletonList("ROLE_USER"));
+        invalid.putAccessRule(duplicate);
+
+        // make the rule collide with an existing rule once it's in the set
+        duplicate.setAction("save");
+
+        try {
+            getRepositoryAccessService().update(invalid);
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            ; // expected
+        }
+
+        SecurityServiceImpl securityService = createSecurityService();
+        Assert.assertTrue(securityService.hasAccess("institutionManager", "save", createPerson(1L)));
+        Assert.assertFalse(securityService.hasAccess("institutionManager", "save", createPerson(4L)));
+    }
+
+    /**
+     * Alternate between two repositories that each grant user 4 access through
+     * a different role. A check that mixed the rule of one repository with the
+     * mappings of the other would be denied.
+     */
+    @Test
+    public void testConcurrentReload() throws Exception {
+        checkConcurrentReload(createSecurityService());
+    }
+
+    /**
+     * Same as {@link #testConcurrentReload()} with the lookups cached by a
+     * {@link GenericCachingAccessServiceImpl} whose cache is cleared on each
+     * reload.
+     */
+    @Test
+    public void testConcurrentCachedReload() throws Exception {
+        BoundedSecurityCache securityCache = new BoundedSecurityCache();
+        getRepositoryAccessService().setSecurityCache(securityCache);
+        GenericCachingAccessServiceImpl cachingAccessService = new GenericCachingAccessServiceImpl();
+        cachingAccessService.setAccessServices(Collections.<AccessService> singletonList(accessService));
+        cachingAccessService.setSecurityCache(securityCache);
+
+        checkConcurrentReload(SecurityFixtures.createSecurityService(cachingAccessService));
+    }
+
+    private void checkConcurrentReload(final SecurityServiceImpl securityService) throws Exception {
+        final MemorySecurityRepository first = createGrantingRepository("ROLE_ADMIN");
+        final MemorySecurityRepository second = createGrantingRepository("ROLE_TEAM_MEMBER");
+        getRepositoryAccessService().update(first);
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicInteger denied = new AtomicInteger();
+        final Person person = createPerson(4L);
+
+        List<Thread> readers = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            Thread reader = new Thread() {
+                @Override
+                public void run() {
+                    while (running.get()) {
+                        if (!securityService.hasAccess("institutionManager", "save", person)) {
+                            denied.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            reader.start();
+            readers.add(reader);
+        }
+
+        try {
+            for (int i = 0; i < 2000; i++) {
+                getRepositoryAccessService().update(i % 2 == 0 ? second : first);
+            }
+        } finally {
+            running.set(false);
+            for (Thread reader : readers) {
+                reader.join();
+            }
+        }
+
+        Assert.assertEquals(0, denied.get());
+    }
+
+    private MemorySecurityRepository createGrantingRepository(String role) {
+        MemorySecurityRepository repository = new MemorySecurityRepository(securityRepository);
+        repository.putAccessRule(createAccessRule("institutionManager", "save", true,
+                Collections.<Class<?>> emptyList(), Collections.singletonList(role)));
+        repository.putRoleMapping(createRoleMapping(4L, null, null, role));
+        return repository;
+    }
+
+    private RoleMapping createRoleMapping(Long userId, Class<?> contextType, Long contextId, String role) {
+        RoleMapping roleMapping = createRoleMapping(userId, contextType, contextId);
+        roleMapping.addRole(role);
+        return roleMapping;
+    }
+
+    protected RepositoryAccessServiceImpl getRepositoryAccessService() {
+        return (RepositoryAccessServiceImpl) accessService;
+    }
+
+    protected SecurityServiceImpl createSecurityService() {
+        return SecurityFixtures.createSecurityService(accessService);
+    }
+
+    protected Person createPerson(Long id) {
+        return SecurityFixtures.createPerson(id);
+    }
+}
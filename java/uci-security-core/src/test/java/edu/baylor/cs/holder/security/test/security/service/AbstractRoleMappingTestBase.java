@@ -61,6 +61,27 @@ public abstract class AbstractRoleMappingTestBase extends AbstractSecurityTestBa
         checkRoleMappingMatch(createRoleMappingKey(4L, Contest.class, 4L), ROLE_USER);
     }
 
+    @Test
+    public void testWildcardRoleMappingMatching() {
+        // *, Institution, 9
+        checkRoleMappingMatch(createRoleMappingKey(null, Institution.class, 9L), ROLE_TEAM_MEMBER, ROLE_USER);
+        checkRoleMappingMatch(createRoleMappingKey(2L, Institution.class, 9L), ROLE_TEAM_MEMBER, ROLE_USER);
+        checkRoleMappingMatch(createRoleMappingKey(1L, Institution.class, 9L), ROLE_ADMIN, ROLE_TEAM_MEMBER, ROLE_USER);
+        checkRoleMappingMatch(createRoleMappingKey(2L, Institution.class, null), ROLE_USER);
+        checkRoleMappingMatch(createRoleMappingKey(2L, Contest.class, 9L), ROLE_CONTEST_MANAGER, ROLE_USER);
+
+        // 5, *, 6
+        checkRoleMappingMatch(createRoleMappingKey(5L, Institution.class, 6L), ROLE_TEAM_MANAGER, ROLE_USER);
+        checkRoleMappingMatch(createRoleMappingKey(5L, Contest.class, 6L), ROLE_TEAM_MANAGER, ROLE_USER);
+        checkRoleMappingMatch(createRoleMappingKey(5L, null, 6L), ROLE_TEAM_MANAGER, ROLE_USER);
+        checkRoleMappingMatch(createRoleMappingKey(5L, Contest.class, null), ROLE_USER);
+        checkRoleMappingMatch(createRoleMappingKey(6L, Contest.class, 6L), ROLE_USER);
+
+        // wildcard lookups only match mappings stored with wildcards
+        checkRoleMappingMatch(createRoleMappingKey(null, null, null), ROLE_USER);
+        checkRoleMappingMatch(createRoleMappingKey(null, Contest.class, null), ROLE_USER);
+    }
+
 
     private void checkAccessRuleMatch(AccessRuleKey accessRuleKey, String... expectedRolesArray) {
         Set<String> expectedRoles = new HashSet<String>(Arrays.asList(expectedRolesArray));
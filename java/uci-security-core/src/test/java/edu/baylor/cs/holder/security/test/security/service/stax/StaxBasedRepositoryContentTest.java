@@ -0,0 +1,38 @@
+package edu.baylor.cs.holder.security.test.security.service.stax;
+
+import java.io.InputStream;
+
+import edu.baylor.cs.holder.security.service.AccessService;
+import edu.baylor.cs.holder.security.service.SecurityRepository;
+import edu.baylor.cs.holder.security.service.impl.RepositoryAccessServiceImpl;
+import edu.baylor.cs.holder.security.service.impl.StaxSecurityRepository;
+import edu.baylor.cs.holder.security.test.security.service.AbstractRepositoryContentTestBase;
+
+public class StaxBasedRepositoryContentTest extends AbstractRepositoryContentTestBase {
+
+    protected AccessService getAccessService() throws Exception {
+
+        // bootstrap an access service
+        if (accessService == null) {
+            RepositoryAccessServiceImpl RepositoryAccessService = new RepositoryAccessServiceImpl();
+            RepositoryAccessService.update(getSecurityRepository());
+            accessService = RepositoryAccessService;
+        }
+
+        return accessService;
+    }
+
+    protected SecurityRepository getSecurityRepository() throws Exception {
+        
+        // populate a SecurityRepository
+        if (securityRepository == null) {
+            InputStream xmlInput = AbstractRepositoryContentTestBase.class.getResourceAsStream("/security-test.xml");
+            StaxSecurityRepository staxSecurityRepository = new StaxSecurityRepository();
+            staxSecurityRepository.populate(xmlInput);
+            xmlInput.close();
+            securityRepository = staxSecurityRepository;
+        }
+        
+        return securityRepository;
+    }
+}
@@ -0,0 +1,128 @@
+package edu.baylor.cs.holder.security.test.security.service.stax;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.baylor.cs.holder.security.service.SecurityRepository;
+import edu.baylor.cs.holder.security.service.accessobjects.AccessRule;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMapping;
+import edu.baylor.cs.holder.security.service.impl.Dom4jSecurityRepository;
+import edu.baylor.cs.holder.security.service.impl.StaxSecurityRepository;
+
+/**
+ * Checks that {@link StaxSecurityRepository} loads the same content and
+ * rejects the same documents as {@link Dom4jSecurityRepository}.
+ */
+public class StaxEquivalenceTest {
+
+    private static final String HEADER = "<securityRepository>"
+            + "<contextPackages><package>edu.baylor.cs.holder.security.test.model</package></contextPackages>";
+
+    @Test
+    public void testSameContent() throws Exception {
+        byte[] xml = readResource("/security-test.xml");
+        assertSameContent(populateDom4j(xml), populateStax(xml));
+    }
+
+    @Test
+    public void testDeclarationsAfterUse() throws Exception {
+        // roles and packages are declared after the rules and mappings using them
+        byte[] xml = ("<securityRepository>"
+                + "<roleMappings><roleMapping userId=\"1\" contextType=\"Contest\"><role>ROLE_A</role></roleMapping></roleMappings>"
+                + "<categories><category name=\"c\"><accessRule action=\"a\" active=\"true\">"
+                + "<context>Contest</context><role>ROLE_A</role></accessRule></category></categories>"
+                + "<!-- comments and stray text are ignored --> text"
+                + "<roles><role>ROLE_A</role><role><![CDATA[ROLE_B]]></role></roles>"
+                + "<contextPackages><package>edu.baylor.cs.holder.security.test.model</package></contextPackages>"
+                + "</securityRepository>").getBytes("UTF-8");
+        assertSameContent(populateDom4j(xml), populateStax(xml));
+    }
+
+    @Test
+    public void testSameValidation() throws Exception {
+        assertSameFailure(HEADER + "<roles><role>ROLE_A</role></roles><categories><category name=\"c\">"
+                + "<accessRule action=\"a\" active=\"true\"><role>ROLE_MISSING</role></accessRule>"
+                + "</category></categories></securityRepository>");
+        assertSameFailure(HEADER + "<roles><role>ROLE_A</role></roles><categories><category name=\"c\">"
+                + "<accessRule action=\"a\" active=\"true\"><context>Missing</context><role>ROLE_A</role></accessRule>"
+                + "</category></categories></securityRepository>");
+        assertSameFailure(HEADER + "<roles><role>ROLE_A</role></roles><roleMappings>"
+                + "<roleMapping userId=\"1\"><role>ROLE_MISSING</role></roleMapping></roleMappings></securityRepository>");
+        assertSameFailure(HEADER + "<roles><role>ROLE_A</role></roles>");
+    }
+
+    private void assertSameFailure(String xml) throws Exception {
+        byte[] bytes = xml.getBytes("UTF-8");
+        String expected = null;
+        try {
+            populateDom4j(bytes);
+            Assert.fail("Expected IllegalArgumentException for " + xml);
+        } catch (IllegalArgumentException e) {
+            expected = e.getCause().getMessage();
+        }
+        try {
+            populateStax(bytes);
+            Assert.fail("Expected IllegalArgumentException for " + xml);
+        } catch (IllegalArgumentException e) {
+            // parser messages differ for malformed documents, so only compare
+            // validation messages
+            if (expected.startsWith("An invalid role") || expected.startsWith("No class found")) {
+                Assert.assertEquals(expected, e.getCause().getMessage());
+            }
+        }
+    }
+
+    private void assertSameContent(SecurityRepository expected, SecurityRepository actual) {
+        Assert.assertEquals(expected.getAllRoles(), actual.getAllRoles());
+        Assert.assertEquals(expected.getContextPackages(), actual.getContextPackages());
+
+        // rules and mappings are equal by key, so compare their other content
+        Assert.assertEquals(expected.getAccessRules(), actual.getAccessRules());
+        Map<AccessRule, AccessRule> rules = new HashMap<AccessRule, AccessRule>();
+        for (AccessRule rule : actual.getAccessRules()) {
+            rules.put(rule, rule);
+        }
+        for (AccessRule rule : expected.getAccessRules()) {
+            Assert.assertEquals(rule.getRoles(), rules.get(rule).getRoles());
+            Assert.assertEquals(rule.getActive(), rules.get(rule).getActive());
+        }
+
+        Assert.assertEquals(expected.getRoleMappings(), actual.getRoleMappings());
+        Map<RoleMapping, RoleMapping> mappings = new HashMap<RoleMapping, RoleMapping>();
+        for (RoleMapping mapping : actual.getRoleMappings()) {
+            mappings.put(mapping, mapping);
+        }
+        for (RoleMapping mapping : expected.getRoleMappings()) {
+            Assert.assertEquals(mapping.getRoles(), mappings.get(mapping).getRoles());
+        }
+    }
+
+    private SecurityRepository populateDom4j(byte[] xml) {
+        Dom4jSecurityRepository repository = new Dom4jSecurityRepository();
+        repository.populate(new ByteArrayInputStream(xml));
+        return repository;
+    }
+
+    private SecurityRepository populateStax(byte[] xml) {
+        StaxSecurityRepository repository = new StaxSecurityRepository();
+        repository.populate(new ByteArrayInputStream(xml));
+        return repository;
+    }
+
+    private byte[] readResource(String name) throws Exception {
+        InputStream input = StaxEquivalenceTest.class.getResourceAsStream(name);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int read = input.read(buffer); read != -1; read = input.read(buffer)) {
+            output.write(buffer, 0, read);
+        }
+        input.close();
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,157 @@
+package edu.baylor.cs.holder.security.test.security.service.xml;
+
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.baylor.cs.holder.security.service.AccessService;
+import edu.baylor.cs.holder.security.service.accessobjects.AccessHandle;
+import edu.baylor.cs.holder.security.service.impl.DecisionTracer;
+import edu.baylor.cs.holder.security.service.impl.Dom4jSecurityRepository;
+import edu.baylor.cs.holder.security.service.impl.GenericCachingAccessServiceImpl;
+import edu.baylor.cs.holder.security.service.impl.RepositoryAccessServiceImpl;
+import edu.baylor.cs.holder.security.service.impl.SecurityServiceImpl;
+import edu.baylor.cs.holder.security.service.impl.SimpleSecurityMetrics;
+import edu.baylor.cs.holder.security.test.model.Contest;
+import edu.baylor.cs.holder.security.test.model.Institution;
+import edu.baylor.cs.holder.security.test.model.Person;
+import edu.baylor.cs.holder.security.test.tools.ModelDomainService;
+
+/**
+ * Checks that access checks made with reused evaluation state against cached
+ * roles allocate nothing once warmed up.
+ */
+public class XMLBasedAllocationTest {
+
+    private static final int WARMUP_ITERATIONS = 200000;
+    private static final int MEASURED_ITERATIONS = 100000;
+
+    private static final AccessHandle SAVE_INSTITUTION = new AccessHandle("institutionManager", "save");
+    private static final AccessHandle SELECT_CONTEST = new AccessHandle("contestManager", "select");
+    private static final AccessHandle REGISTER_CONTEST = new AccessHandle("contestManager", "register");
+
+    private SecurityServiceImpl securityService;
+    private GenericCachingAccessServiceImpl cachingAccessService;
+
+    @Before
+    public void setup() throws Exception {
+        InputStream xmlInput = XMLBasedAllocationTest.class.getResourceAsStream("/security-test.xml");
+        Dom4jSecurityRepository securityRepository = new Dom4jSecurityRepository();
+        securityRepository.populate(xmlInput);
+        xmlInput.close();
+
+        RepositoryAccessServiceImpl repositoryAccessService = new RepositoryAccessServiceImpl();
+        repositoryAccessService.update(securityRepository);
+
+        // roles are cached by the default BoundedSecurityCache
+        cachingAccessService = new GenericCachingAccessServiceImpl();
+        cachingAccessService.setAccessServices(Collections.<AccessService> singletonList(repositoryAccessService));
+
+        securityService = new SecurityServiceImpl();
+        securityService.setAccessService(cachingAccessService);
+        securityService.setDomainService(new ModelDomainService());
+        securityService.setReuseEvaluationState(true);
+    }
+
+    @Test
+    public void testSteadyStateHasAccessAllocatesNothing() {
+        assertSteadyStateAllocatesNothing(false);
+    }
+
+    @Test
+    public void testSteadyStateFixedArityHasAccessAllocatesNothing() {
+        assertSteadyStateAllocatesNothing(true);
+    }
+
+    @Test
+    public void testSteadyStateMeteredHasAccessAllocatesNothing() {
+        SimpleSecurityMetrics metrics = new SimpleSecurityMetrics();
+        securityService.setSecurityMetrics(metrics);
+        cachingAccessService.setSecurityMetrics(metrics);
+        assertSteadyStateAllocatesNothing(false);
+
+        Assert.assertEquals(3 * (WARMUP_ITERATIONS + MEASURED_ITERATIONS), metrics.getDecisionLatency().getCount());
+    }
+
+    @Test
+    public void testSteadyStateTracedHasAccessAllocatesNothing() {
+        DecisionTracer tracer = new DecisionTracer();
+        securityService.setDecisionTracer(tracer);
+        assertSteadyStateAllocatesNothing(false);
+
+        Assert.assertEquals(tracer.getCapacity(), tracer.getEvents().size());
+    }
+
+    /**
+     * @param fixedArity
+     *            true to check access with {@link AccessHandle}'s and the
+     *            fixed arity overloads, false with context arrays
+     */
+    private void assertSteadyStateAllocatesNothing(boolean fixedArity) {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+        Assume.assumeTrue(allocationBean.isThreadAllocatedMemorySupported());
+        allocationBean.setThreadAllocatedMemoryEnabled(true);
+
+        Person admin = new Person();
+        admin.setId(1L);
+        Person manager = new Person();
+        manager.setId(5L);
+        Object[] noContext = new Object[0];
+        Object[] contest = new Object[] { new Contest(6L) };
+        Object[] registration = new Object[] { new Contest(6L), new Institution(6L) };
+
+        int granted = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            granted += fixedArity ? checkFixedArity(admin, manager, contest, registration)
+                    : check(admin, manager, noContext, contest, registration);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = allocationBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            granted += fixedArity ? checkFixedArity(admin, manager, contest, registration)
+                    : check(admin, manager, noContext, contest, registration);
+        }
+        long allocated = allocationBean.getThreadAllocatedBytes(threadId) - before;
+
+        Assert.assertEquals(3 * (WARMUP_ITERATIONS + MEASURED_ITERATIONS), granted);
+        Assert.assertTrue("Allocated " + allocated + " bytes over " + MEASURED_ITERATIONS + " iterations",
+                allocated < MEASURED_ITERATIONS);
+    }
+
+    private int check(Person admin, Person manager, Object[] noContext, Object[] contest, Object[] registration) {
+        int granted = 0;
+        if (securityService.hasAccess("institutionManager", "save", admin, noContext)) {
+            granted++;
+        }
+        if (securityService.hasAccess("contestManager", "select", manager, contest)) {
+            granted++;
+        }
+        if (securityService.hasAccess("contestManager", "register", manager, registration)) {
+            granted++;
+        }
+        return granted;
+    }
+
+    private int checkFixedArity(Person admin, Person manager, Object[] contest, Object[] registration) {
+        int granted = 0;
+        if (securityService.hasAccess(SAVE_INSTITUTION, admin)) {
+            granted++;
+        }
+        if (securityService.hasAccess(SELECT_CONTEST, manager, contest[0])) {
+            granted++;
+        }
+        if (securityService.hasAccess(REGISTER_CONTEST, manager, registration[0], registration[1])) {
+            granted++;
+        }
+        return granted;
+    }
+}
@@ -0,0 +1,236 @@
+package edu.baylor.cs.holder.security.test.security.service.xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.baylor.cs.holder.security.service.impl.AuditLog;
+import edu.baylor.cs.holder.security.service.impl.AuditLogReader;
+import edu.baylor.cs.holder.security.service.impl.AuditRecord;
+import edu.baylor.cs.holder.security.service.impl.Dom4jSecurityRepository;
+import edu.baylor.cs.holder.security.service.impl.RepositoryAccessServiceImpl;
+import edu.baylor.cs.holder.security.service.impl.SecurityServiceImpl;
+import edu.baylor.cs.holder.security.test.model.Contest;
+import edu.baylor.cs.holder.security.test.model.Institution;
+import edu.baylor.cs.holder.security.test.tools.SecurityFixtures;
+
+/**
+ * Checks that access decisions are written to an {@link AuditLog} and can be
+ * read back.
+ */
+public class XMLBasedAuditLogTest {
+
+    private SecurityServiceImpl securityService;
+    private File directory;
+    private File file;
+
+    @Before
+    public void setup() throws Exception {
+        Dom4jSecurityRepository securityRepository = SecurityFixtures.loadRepository();
+
+        RepositoryAccessServiceImpl repositoryAccessService =
+                SecurityFixtures.createRepositoryAccessService(securityRepository);
+
+        securityService = SecurityFixtures.createSecurityService(repositoryAccessService);
+
+        directory = File.createTempFile("security-test", ".audit");
+        Assert.assertTrue(directory.delete() && directory.mkdir());
+        file = new File(directory, "audit.log");
+    }
+
+    @After
+    public void teardown() {
+        for (File child : directory.listFiles()) {
+            child.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testDecisionsAreAudited() throws Exception {
+        AuditLog auditLog = new AuditLog(file);
+        securityService.setAuditLog(auditLog);
+
+        Assert.assertTrue(securityService.hasAccess("institutionManager", "save", SecurityFixtures.createPerson(1L)));
+        Assert.assertFalse(securityService.hasAccess("contestManager", "register", SecurityFixtures.createPerson(5L),
+                new Contest(6L), new Institution(7L)));
+        auditLog.setAuditGranted(true);
+        Assert.assertTrue(securityService.hasAccess("contestManager", "select", SecurityFixtures.createPerson(5L),
+                new Contest(6L)));
+        Assert.assertFalse(securityService.hasAccess("contestManager", "remove", null, new Contest(8L)));
+        auditLog.close();
+        Assert.assertEquals(3, auditLog.getWrittenCount());
+
+        List<AuditRecord> records = readAll(file);
+        Assert.assertEquals(3, records.size());
+
+        AuditRecord register = records.get(0);
+        Assert.assertFalse(register.isGranted());
+        Assert.assertEquals("contestManager", register.getCategory());
+        Assert.assertEquals("register", register.getAction());
+        Assert.assertEquals(Long.valueOf(5L), register.getUserId());
+        Assert.assertEquals(Arrays.asList(Contest.class.getName(), Institution.class.getName()), register
+                .getContextTypes());
+        Assert.assertEquals(Arrays.asList(6L, 7L), register.getContextIds());
+
+        Assert.assertTrue(records.get(1).isGranted());
+        Assert.assertEquals("select", records.get(1).getAction());
+
+        // denied without a user, since there is no rule
+        Assert.assertNull(records.get(2).getUserId());
+        Assert.assertEquals(Arrays.asList(8L), records.get(2).getContextIds());
+
+        // decisions made once closed are dropped
+        securityService.hasAccess("contestManager", "remove", SecurityFixtures.createPerson(1L), new Contest(8L));
+        Assert.assertEquals(1, auditLog.getDroppedCount());
+    }
+
+    @Test
+    public void testFilteredDecisionsAreAudited() throws Exception {
+        AuditLog auditLog = new AuditLog(file);
+        auditLog.setAuditGranted(true);
+        securityService.setAuditLog(auditLog);
+
+        List<Object> contexts = Arrays.<Object> asList(new Contest(6L), new Contest(8L), new Institution(7L));
+        List<Object> accessible = securityService.filterAccessible("contestManager", "select", SecurityFixtures
+                .createPerson(5L), contexts);
+        Assert.assertEquals(Arrays.asList(contexts.get(0)), accessible);
+        auditLog.close();
+        Assert.assertEquals(3, auditLog.getWrittenCount());
+
+        List<AuditRecord> records = readAll(file);
+        Assert.assertEquals(3, records.size());
+        boolean[] granted = { true, false, false };
+        Class<?>[] types = { Contest.class, Contest.class, Institution.class };
+        long[] ids = { 6L, 8L, 7L };
+        for (int i = 0; i < 3; i++) {
+            AuditRecord record = records.get(i);
+            Assert.assertEquals(granted[i], record.isGranted());
+            Assert.assertEquals(Long.valueOf(5L), record.getUserId());
+            Assert.assertEquals("select", record.getAction());
+            Assert.assertEquals(Arrays.asList(types[i].getName()), record.getContextTypes());
+            Assert.assertEquals(Arrays.asList(ids[i]), record.getContextIds());
+        }
+    }
+
+    @Test
+    public void testRotation() throws Exception {
+        AuditLog auditLog = new AuditLog(file, 64, AuditLog.OverflowPolicy.BLOCK, 1024, 100);
+        securityService.setAuditLog(auditLog);
+        for (long id = 0; id < 500; id++) {
+            securityService.hasAccess("institutionManager", "save", SecurityFixtures.createPerson(id + 10));
+            if (id % 50 == 0) {
+                auditLog.flush();
+            }
+        }
+        auditLog.close();
+
+        List<AuditRecord> records = new ArrayList<AuditRecord>();
+        int files = directory.listFiles().length;
+        Assert.assertTrue("Only " + files + " files", files > 2);
+        for (int i = files - 1; i >= 1; i--) {
+            File backup = new File(file.getPath() + "." + i);
+            Assert.assertTrue(backup.length() <= 1024);
+            records.addAll(readAll(backup));
+        }
+        records.addAll(readAll(file));
+
+        Assert.assertEquals(500, records.size());
+        for (int i = 0; i < 500; i++) {
+            Assert.assertEquals(Long.valueOf(i + 10), records.get(i).getUserId());
+        }
+    }
+
+    @Test
+    public void testFailedRotationKeepsAppending() throws Exception {
+        // a backup that can't be deleted makes every rotation fail
+        File backup = new File(file.getPath() + ".1");
+        File blocking = new File(backup, "blocking");
+        Assert.assertTrue(backup.mkdir() && blocking.createNewFile());
+        try {
+            AuditLog auditLog = new AuditLog(file, 64, AuditLog.OverflowPolicy.BLOCK, 1024, 1);
+            securityService.setAuditLog(auditLog);
+            for (long id = 0; id < 100; id++) {
+                securityService.hasAccess("institutionManager", "save", SecurityFixtures.createPerson(id + 10));
+            }
+            try {
+                auditLog.close();
+                Assert.fail("Expected IOException");
+            } catch (IOException e) {
+                ; // expected
+            }
+
+            Assert.assertEquals(0, auditLog.getDroppedCount());
+            Assert.assertEquals(100, auditLog.getWrittenCount());
+            Assert.assertEquals(100, readAll(file).size());
+        } finally {
+            blocking.delete();
+        }
+    }
+
+    @Test
+    public void testUnencodableDecisionIsDropped() throws Exception {
+        AuditLog auditLog = new AuditLog(file, 2, AuditLog.OverflowPolicy.BLOCK,
+                AuditLog.DEFAULT_MAXIMUM_FILE_SIZE, 0);
+        securityService.setAuditLog(auditLog);
+
+        // too long to be written as a modified UTF-8 string
+        char[] action = new char[70000];
+        Arrays.fill(action, 'x');
+        Assert.assertFalse(securityService.hasAccess("institutionManager", new String(action), SecurityFixtures
+                .createPerson(1L)));
+
+        // more than the queue holds, so these would block without a writer
+        for (long id = 0; id < 10; id++) {
+            securityService.hasAccess("institutionManager", "save", SecurityFixtures.createPerson(id + 10));
+        }
+        auditLog.close();
+
+        Assert.assertEquals(1, auditLog.getDroppedCount());
+        Assert.assertEquals(10, auditLog.getWrittenCount());
+        Assert.assertEquals(10, readAll(file).size());
+    }
+
+    @Test
+    public void testBlockingPolicyKeepsEveryDecision() throws Exception {
+        final AuditLog auditLog = new AuditLog(file, 2, AuditLog.OverflowPolicy.BLOCK,
+                AuditLog.DEFAULT_MAXIMUM_FILE_SIZE, 0);
+        securityService.setAuditLog(auditLog);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 4; t++) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < 2500; i++) {
+                        securityService.hasAccess("institutionManager", "save", SecurityFixtures.createPerson(3L));
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        auditLog.close();
+
+        Assert.assertEquals(0, auditLog.getDroppedCount());
+        Assert.assertEquals(10000, auditLog.getWrittenCount());
+        Assert.assertEquals(10000, readAll(file).size());
+    }
+
+    private static List<AuditRecord> readAll(File file) throws Exception {
+        AuditLogReader reader = new AuditLogReader(file);
+        try {
+            return reader.readAll();
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package edu.baylor.cs.holder.security.test.security.service.xml;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.LogFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.baylor.cs.holder.security.service.AccessService;
+import edu.baylor.cs.holder.security.service.accessobjects.AccessRuleKey;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMappingKey;
+import edu.baylor.cs.holder.security.service.impl.Dom4jSecurityRepository;
+import edu.baylor.cs.holder.security.service.impl.GenericCachingAccessServiceImpl;
+import edu.baylor.cs.holder.security.service.impl.MissingRuleReporter;
+import edu.baylor.cs.holder.security.service.impl.RepositoryAccessServiceImpl;
+
+/**
+ * Checks that concurrent cache misses for the same key only query the
+ * underlying access services once, and that missing access rules are cached
+ * and reported in aggregate.
+ */
+public class XMLBasedCachingTest {
+
+    private static final int THREADS = 8;
+
+    private RepositoryAccessServiceImpl repositoryAccessService;
+    private GenericCachingAccessServiceImpl cachingAccessService;
+    private ExecutorService executor;
+
+    // calls made to the underlying service
+    private final AtomicInteger accessRuleCalls = new AtomicInteger();
+    private final AtomicInteger userRoleCalls = new AtomicInteger();
+    private final AtomicInteger vetoRoleCalls = new AtomicInteger();
+
+    @Before
+    public void setup() throws Exception {
+        InputStream xmlInput = XMLBasedCachingTest.class.getResourceAsStream("/security-test.xml");
+        Dom4jSecurityRepository securityRepository = new Dom4jSecurityRepository();
+        securityRepository.populate(xmlInput);
+        xmlInput.close();
+
+        repositoryAccessService = new RepositoryAccessServiceImpl();
+        repositoryAccessService.update(securityRepository);
+
+        cachingAccessService = new GenericCachingAccessServiceImpl();
+        cachingAccessService.setAccessServices(Collections.<AccessService> singletonList(new SlowAccessService()));
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrentUserRoleMissesLoadOnce() throws Exception {
+        List<Set<String>> results = runConcurrently(new Callable<Set<String>>() {
+            public Set<String> call() {
+                return cachingAccessService.getUserRoles(new RoleMappingKey(1L, null, null));
+            }
+        });
+
+        Set<String> expected = repositoryAccessService.getUserRoles(new RoleMappingKey(1L, null, null));
+        for (Set<String> roles : results) {
+            Assert.assertEquals(expected, roles);
+        }
+        Assert.assertEquals(1, userRoleCalls.get());
+        Assert.assertEquals(THREADS - 1, cachingAccessService.getCoalescedMissCount());
+
+        // later lookups are served by the cache
+        cachingAccessService.getUserRoles(new RoleMappingKey(1L, null, null));
+        Assert.assertEquals(1, userRoleCalls.get());
+    }
+
+    @Test
+    public void testConcurrentVetoRoleMissesLoadOnce() throws Exception {
+        final AccessRuleKey accessRuleKey = new AccessRuleKey("institutionManager", "save",
+                Collections.<Class<?>> emptyList());
+        runConcurrently(new Callable<Set<String>>() {
+            public Set<String> call() {
+                return cachingAccessService.getVetoRoles(accessRuleKey, new RoleMappingKey(1L, null, null));
+            }
+        });
+
+        Assert.assertEquals(1, vetoRoleCalls.get());
+        Assert.assertEquals(THREADS - 1, cachingAccessService.getCoalescedMissCount());
+    }
+
+    @Test
+    public void testAccessRuleLookupsAreCached() {
+        AccessRuleKey found = new AccessRuleKey("institutionManager", "save", Collections.<Class<?>> emptyList());
+        AccessRuleKey missing = new AccessRuleKey("institutionManager", "missingAction",
+                Collections.<Class<?>> emptyList());
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(repositoryAccessService.getAccessRuleRoles(found),
+                    cachingAccessService.getAccessRuleRoles(found));
+            Assert.assertTrue(cachingAccessService.getAccessRuleRoles(missing).isEmpty());
+        }
+        Assert.assertEquals(2, accessRuleCalls.get());
+    }
+
+    @Test
+    public void testMissingRulesAreReportedPeriodically() {
+        final long[] now = { 0 };
+        MissingRuleReporter reporter = new MissingRuleReporter(LogFactory.getLog(XMLBasedCachingTest.class), 1000) {
+            @Override
+            protected long currentTimeMillis() {
+                return now[0];
+            }
+        };
+        AccessRuleKey missing = new AccessRuleKey("institutionManager", "missingAction",
+                Collections.<Class<?>> emptyList());
+
+        // the first lookup is logged straight away, later ones are counted
+        for (int i = 0; i < 5; i++) {
+            reporter.missing(missing);
+        }
+        Assert.assertEquals(4, reporter.getCount(missing));
+
+        // the first lookup after the interval reports and resets the counts
+        now[0] = 1000;
+        reporter.missing(missing);
+        Assert.assertEquals(0, reporter.getCount(missing));
+        reporter.missing(missing);
+        Assert.assertEquals(1, reporter.getCount(missing));
+    }
+
+    @Test
+    public void testMissingRulesAreReportedPerService() {
+        RepositoryAccessServiceImpl otherAccessService = new RepositoryAccessServiceImpl();
+        otherAccessService.update(repositoryAccessService.getSnapshot());
+        AccessRuleKey missing = new AccessRuleKey("institutionManager", "missingAction",
+                Collections.<Class<?>> emptyList());
+
+        for (int i = 0; i < 3; i++) {
+            repositoryAccessService.getAccessRuleRoles(missing);
+        }
+        Assert.assertEquals(2, repositoryAccessService.getMissingRuleReporter().getCount(missing));
+        Assert.assertEquals(0, otherAccessService.getMissingRuleReporter().getCount(missing));
+
+        // the reporter is kept across updates
+        repositoryAccessService.update(repositoryAccessService.getSnapshot());
+        repositoryAccessService.getAccessRuleRoles(missing);
+        Assert.assertEquals(3, repositoryAccessService.getMissingRuleReporter().getCount(missing));
+    }
+
+    private List<Set<String>> runConcurrently(Callable<Set<String>> lookup) throws Exception {
+        List<Future<Set<String>>> futures = new ArrayList<Future<Set<String>>>();
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(executor.submit(lookup));
+        }
+        List<Set<String>> results = new ArrayList<Set<String>>();
+        for (Future<Set<String>> future : futures) {
+            results.add(future.get());
+        }
+        return results;
+    }
+
+    /**
+     * Holds each lookup until every other thread is waiting on it, or a few
+     * seconds have passed.
+     */
+    private void awaitCoalescedMisses() {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (cachingAccessService.getCoalescedMissCount() < THREADS - 1 && System.currentTimeMillis() < deadline) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Counts lookups made against the repository, each of which is slow.
+     */
+    private class SlowAccessService implements AccessService {
+
+        public Set<String> getAccessRuleRoles(AccessRuleKey key) {
+            accessRuleCalls.incrementAndGet();
+            return repositoryAccessService.getAccessRuleRoles(key);
+        }
+
+        public Set<String> getUserRoles(RoleMappingKey key) {
+            userRoleCalls.incrementAndGet();
+            awaitCoalescedMisses();
+            return repositoryAccessService.getUserRoles(key);
+        }
+
+        public Set<String> getVetoRoles(AccessRuleKey accessRuleKey, RoleMappingKey roleMappingKey) {
+            vetoRoleCalls.incrementAndGet();
+            awaitCoalescedMisses();
+            return repositoryAccessService.getVetoRoles(accessRuleKey, roleMappingKey);
+        }
+
+        public Set<String> getAllAvailableRoles() {
+            return repositoryAccessService.getAllAvailableRoles();
+        }
+
+        public Set<String> getContextPackages() {
+            return repositoryAccessService.getContextPackages();
+        }
+    }
+}
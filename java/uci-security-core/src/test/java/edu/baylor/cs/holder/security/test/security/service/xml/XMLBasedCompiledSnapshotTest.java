@@ -0,0 +1,114 @@
+package edu.baylor.cs.holder.security.test.security.service.xml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.baylor.cs.holder.security.service.AccessService;
+import edu.baylor.cs.holder.security.service.SecurityRepository;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMapping;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMappingKey;
+import edu.baylor.cs.holder.security.service.impl.Dom4jSecurityRepository;
+import edu.baylor.cs.holder.security.service.impl.MappedSnapshotLoader;
+import edu.baylor.cs.holder.security.service.impl.RepositoryAccessServiceImpl;
+import edu.baylor.cs.holder.security.service.impl.RepositorySnapshot;
+import edu.baylor.cs.holder.security.service.impl.SnapshotCompiler;
+import edu.baylor.cs.holder.security.test.model.Contest;
+import edu.baylor.cs.holder.security.test.model.Institution;
+import edu.baylor.cs.holder.security.test.model.Person;
+import edu.baylor.cs.holder.security.test.security.service.AbstractHasAccessTestBase;
+import edu.baylor.cs.holder.security.test.security.service.AbstractRepositoryContentTestBase;
+
+/**
+ * Runs the access checks against a compiled snapshot of the XML repository
+ * that has been memory mapped, and compares its content to the repository.
+ */
+public class XMLBasedCompiledSnapshotTest extends AbstractHasAccessTestBase {
+
+    @Test
+    public void testSameContent() throws Exception {
+        RepositorySnapshot expected = new RepositorySnapshot(securityRepository);
+        RepositorySnapshot mapped = ((RepositoryAccessServiceImpl) accessService).getSnapshot();
+
+        Assert.assertEquals(expected.getAccessRuleMap(), mapped.getAccessRuleMap());
+        Assert.assertEquals(expected.getRoleMappingCount(), mapped.getRoleMappingCount());
+        Assert.assertEquals(expected.getAllAvailableRoles(), mapped.getAllAvailableRoles());
+        Assert.assertEquals(expected.getContextPackages(), mapped.getContextPackages());
+
+        // every stored key along with lookups around them
+        Class<?>[] contextTypes = new Class<?>[] { null, Contest.class, Institution.class, Person.class };
+        for (RoleMapping roleMapping : securityRepository.getRoleMappings()) {
+            Long userId = roleMapping.getKey().getUserId();
+            Long contextId = roleMapping.getKey().getContextId();
+            for (Class<?> contextType : contextTypes) {
+                assertSameRoles(expected, mapped, new RoleMappingKey(userId, contextType, contextId));
+                assertSameRoles(expected, mapped, new RoleMappingKey(userId, contextType, null));
+                assertSameRoles(expected, mapped, new RoleMappingKey(userId, contextType, 99L));
+                assertSameRoles(expected, mapped, new RoleMappingKey(99L, contextType, contextId));
+            }
+        }
+        assertSameRoles(expected, mapped, new RoleMappingKey(1L, String.class, 1L));
+    }
+
+    @Test
+    public void testRejectsOtherVersions() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SnapshotCompiler.compile(securityRepository, out);
+        byte[] snapshot = out.toByteArray();
+
+        ByteBuffer otherVersion = ByteBuffer.wrap(snapshot.clone());
+        otherVersion.putInt(4, SnapshotCompiler.VERSION + 1);
+        try {
+            MappedSnapshotLoader.load(otherVersion);
+            Assert.fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("Unsupported snapshot version: " + (SnapshotCompiler.VERSION + 1), e.getMessage());
+        }
+
+        try {
+            MappedSnapshotLoader.load(ByteBuffer.wrap(snapshot, 0, snapshot.length - 1));
+            Assert.fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private void assertSameRoles(RepositorySnapshot expected, RepositorySnapshot mapped, RoleMappingKey key) {
+        Assert.assertEquals(key.getUserId() + ":" + key.getContextType() + ":" + key.getContextId(),
+                expected.getUserRoles(key), mapped.getUserRoles(key));
+    }
+
+    protected AccessService getAccessService() throws Exception {
+
+        // bootstrap an access service from a compiled snapshot
+        if (accessService == null) {
+            File file = File.createTempFile("security-test", ".snapshot");
+            file.deleteOnExit();
+            SnapshotCompiler.compile(getSecurityRepository(), file);
+
+            RepositoryAccessServiceImpl repositoryAccessService = new RepositoryAccessServiceImpl();
+            repositoryAccessService.update(MappedSnapshotLoader.load(file));
+            accessService = repositoryAccessService;
+        }
+
+        return accessService;
+    }
+
+    protected SecurityRepository getSecurityRepository() throws Exception {
+
+        // populate a SecurityRepository
+        if (securityRepository == null) {
+            InputStream xmlInput = AbstractRepositoryContentTestBase.class.getResourceAsStream("/security-test.xml");
+            Dom4jSecurityRepository dom4jSecurityRepository = new Dom4jSecurityRepository();
+            dom4jSecurityRepository.populate(xmlInput);
+            xmlInput.close();
+            securityRepository = dom4jSecurityRepository;
+        }
+
+        return securityRepository;
+    }
+}
@@ -0,0 +1,120 @@
+package edu.baylor.cs.holder.security.test.security.service.xml;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMappingKey;
+import edu.baylor.cs.holder.security.service.impl.DecisionTracer;
+import edu.baylor.cs.holder.security.service.impl.Dom4jSecurityRepository;
+import edu.baylor.cs.holder.security.service.impl.RepositoryAccessServiceImpl;
+import edu.baylor.cs.holder.security.service.impl.SecurityServiceImpl;
+import edu.baylor.cs.holder.security.service.impl.TracedDecision;
+import edu.baylor.cs.holder.security.test.model.Contest;
+import edu.baylor.cs.holder.security.test.model.Institution;
+import edu.baylor.cs.holder.security.test.tools.SecurityFixtures;
+
+/**
+ * Checks that sampled access decisions are recorded by a
+ * {@link DecisionTracer}.
+ */
+public class XMLBasedDecisionTracerTest {
+
+    private SecurityServiceImpl securityService;
+
+    @Before
+    public void setup() throws Exception {
+        Dom4jSecurityRepository securityRepository = SecurityFixtures.loadRepository();
+
+        RepositoryAccessServiceImpl repositoryAccessService =
+                SecurityFixtures.createRepositoryAccessService(securityRepository);
+
+        securityService = SecurityFixtures.createSecurityService(repositoryAccessService);
+        securityService.setReuseEvaluationState(true);
+    }
+
+    @Test
+    public void testRecordedDecisions() {
+        DecisionTracer tracer = new DecisionTracer();
+        securityService.setDecisionTracer(tracer);
+
+        Assert.assertTrue(securityService.hasAccess("institutionManager", "save", SecurityFixtures.createPerson(1L)));
+        Assert.assertFalse(securityService.hasAccess("contestManager", "register", SecurityFixtures.createPerson(5L),
+                new Contest(6L), new Institution(7L)));
+        Assert.assertFalse(securityService.hasAccess("contestManager", "remove", SecurityFixtures.createPerson(1L),
+                new Contest(8L)));
+
+        List<TracedDecision> events = tracer.drain();
+        Assert.assertEquals(3, events.size());
+
+        TracedDecision save = events.get(0);
+        Assert.assertTrue(save.isGranted());
+        Assert.assertEquals("institutionManager", save.getAccessRuleKey().getCategory());
+        Assert.assertEquals(Collections.singleton("ROLE_ADMIN"), save.getAllowedRoles());
+        Assert.assertEquals(Collections.singleton("ROLE_ADMIN"), save.getGrantedRoles());
+        Assert.assertEquals(1, save.getRoleMappingKeys().size());
+        Assert.assertEquals(new RoleMappingKey(1L, null, null), save.getRoleMappingKeys().get(0));
+        Assert.assertTrue(save.getVetoedRoles().isEmpty());
+
+        // keys of reused evaluation state are copied when recorded
+        TracedDecision register = events.get(1);
+        Assert.assertFalse(register.isGranted());
+        Assert.assertEquals(Arrays.<Class<?>> asList(Contest.class, Institution.class), register.getAccessRuleKey()
+                .getContexts());
+        Assert.assertEquals(new RoleMappingKey(5L, Contest.class, 6L), register.getRoleMappingKeys().get(0));
+        Assert.assertEquals(new RoleMappingKey(5L, Institution.class, 7L), register.getRoleMappingKeys().get(1));
+        Assert.assertEquals(new TreeSet<String>(Arrays.asList("ROLE_ADMIN", "ROLE_TEAM_MANAGER")), register
+                .getAllowedRoles());
+        Assert.assertTrue(register.getGrantedRoles().isEmpty());
+
+        // no rule, so no roles were looked up
+        TracedDecision remove = events.get(2);
+        Assert.assertFalse(remove.isGranted());
+        Assert.assertTrue(remove.getAllowedRoles().isEmpty());
+        Assert.assertTrue(remove.getRoleMappingKeys().isEmpty());
+        Assert.assertTrue(remove.toString().startsWith("Denied contestManager.remove"));
+
+        Assert.assertTrue(tracer.drain().isEmpty());
+        Assert.assertEquals(0, tracer.getDroppedCount());
+    }
+
+    @Test
+    public void testBufferKeepsLatestEvents() {
+        DecisionTracer tracer = new DecisionTracer(3, 1);
+        Assert.assertEquals(4, tracer.getCapacity());
+        securityService.setDecisionTracer(tracer);
+
+        for (long id = 1; id <= 10; id++) {
+            securityService.hasAccess("institutionManager", "save", SecurityFixtures.createPerson(id));
+        }
+        List<TracedDecision> events = tracer.getEvents();
+        Assert.assertEquals(4, events.size());
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals(Long.valueOf(7 + i), events.get(i).getRoleMappingKeys().get(0).getUserId());
+        }
+        Assert.assertEquals(4, tracer.drain().size());
+        Assert.assertTrue(tracer.getEvents().isEmpty());
+    }
+
+    @Test
+    public void testSampling() {
+        DecisionTracer tracer = new DecisionTracer(1024, 0);
+        securityService.setDecisionTracer(tracer);
+        for (int i = 0; i < 100; i++) {
+            securityService.hasAccess("institutionManager", "save", SecurityFixtures.createPerson(1L));
+        }
+        Assert.assertTrue(tracer.drain().isEmpty());
+
+        tracer.setSampleRate(0.25);
+        for (int i = 0; i < 1000; i++) {
+            securityService.hasAccess("institutionManager", "save", SecurityFixtures.createPerson(1L));
+        }
+        int sampled = tracer.drain().size();
+        Assert.assertTrue("Sampled " + sampled, sampled > 150 && sampled < 350);
+    }
+}
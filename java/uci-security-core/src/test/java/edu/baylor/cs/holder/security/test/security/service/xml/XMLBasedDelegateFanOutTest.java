@@ -0,0 +1,197 @@
+package edu.baylor.cs.holder.security.test.security.service.xml;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.baylor.cs.holder.security.service.AccessService;
+import edu.baylor.cs.holder.security.service.accessobjects.AccessRuleKey;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMappingKey;
+import edu.baylor.cs.holder.security.service.impl.DebugAccessServiceImpl;
+import edu.baylor.cs.holder.security.service.impl.DelegateFanOut;
+import edu.baylor.cs.holder.security.service.impl.Dom4jSecurityRepository;
+import edu.baylor.cs.holder.security.service.impl.GenericCachingAccessServiceImpl;
+import edu.baylor.cs.holder.security.service.impl.RepositoryAccessServiceImpl;
+
+/**
+ * Checks that delegate access services are queried concurrently when a
+ * {@link DelegateFanOut} is set, and how delegates that time out are handled.
+ */
+public class XMLBasedDelegateFanOutTest {
+
+    private static final RoleMappingKey ADMIN_KEY = new RoleMappingKey(1L, null, null);
+
+    private RepositoryAccessServiceImpl repositoryAccessService;
+
+    @Before
+    public void setup() throws Exception {
+        InputStream xmlInput = XMLBasedDelegateFanOutTest.class.getResourceAsStream("/security-test.xml");
+        Dom4jSecurityRepository securityRepository = new Dom4jSecurityRepository();
+        securityRepository.populate(xmlInput);
+        xmlInput.close();
+
+        repositoryAccessService = new RepositoryAccessServiceImpl();
+        repositoryAccessService.update(securityRepository);
+    }
+
+    @Test
+    public void testDelegatesRunConcurrently() {
+        // each delegate only returns once every delegate has started
+        CountDownLatch started = new CountDownLatch(2);
+        GenericCachingAccessServiceImpl cachingAccessService = new GenericCachingAccessServiceImpl();
+        cachingAccessService.setAccessServices(createDelegates(new BlockingAccessService(started, "ROLE_ONE"),
+                new BlockingAccessService(started, "ROLE_TWO")));
+        cachingAccessService.setDelegateFanOut(new DelegateFanOut());
+
+        Set<String> roles = cachingAccessService.getUserRoles(ADMIN_KEY);
+        Assert.assertTrue(roles.containsAll(repositoryAccessService.getUserRoles(ADMIN_KEY)));
+        Assert.assertTrue(roles.contains("ROLE_ONE"));
+        Assert.assertTrue(roles.contains("ROLE_TWO"));
+    }
+
+    @Test
+    public void testTimedOutDelegateIsLeftOut() {
+        // never released, so the delegate runs until it is cancelled
+        CountDownLatch never = new CountDownLatch(2);
+        GenericCachingAccessServiceImpl cachingAccessService = new GenericCachingAccessServiceImpl();
+        cachingAccessService.setAccessServices(createDelegates(new BlockingAccessService(never, "ROLE_SLOW")));
+        cachingAccessService.setDelegateFanOut(new DelegateFanOut(DelegateFanOut.getDefaultExecutor(), 200,
+                TimeUnit.MILLISECONDS));
+
+        Assert.assertEquals(repositoryAccessService.getUserRoles(ADMIN_KEY), cachingAccessService
+                .getUserRoles(ADMIN_KEY));
+    }
+
+    @Test
+    public void testTimedOutLookupIsNotCached() {
+        GenericCachingAccessServiceImpl cachingAccessService = new GenericCachingAccessServiceImpl();
+        cachingAccessService.setAccessServices(createDelegates(new RecoveringAccessService("ROLE_SLOW")));
+        cachingAccessService.setDelegateFanOut(new DelegateFanOut(DelegateFanOut.getDefaultExecutor(), 200,
+                TimeUnit.MILLISECONDS));
+
+        Assert.assertFalse(cachingAccessService.getUserRoles(ADMIN_KEY).contains("ROLE_SLOW"));
+        // the delegate has recovered, and the partial roles weren't cached
+        Assert.assertTrue(cachingAccessService.getUserRoles(ADMIN_KEY).contains("ROLE_SLOW"));
+        Assert.assertTrue(cachingAccessService.getUserRoles(ADMIN_KEY).contains("ROLE_SLOW"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTimedOutVetoFails() {
+        CountDownLatch never = new CountDownLatch(2);
+        DebugAccessServiceImpl debugAccessService = new DebugAccessServiceImpl();
+        debugAccessService.setAccessServices(createDelegates(new BlockingAccessService(never, "ROLE_SLOW")));
+        debugAccessService.setDelegateFanOut(new DelegateFanOut(DelegateFanOut.getDefaultExecutor(), 200,
+                TimeUnit.MILLISECONDS));
+
+        debugAccessService.getVetoRoles(new AccessRuleKey("institutionManager", "save", Collections
+                .<Class<?>> emptyList()), ADMIN_KEY);
+    }
+
+    private List<AccessService> createDelegates(AccessService... others) {
+        List<AccessService> delegates = new ArrayList<AccessService>();
+        delegates.add(repositoryAccessService);
+        Collections.addAll(delegates, others);
+        return delegates;
+    }
+
+    /**
+     * Blocks the first lookup until it is cancelled and returns the given role
+     * for every lookup after that.
+     */
+    private static class RecoveringAccessService implements AccessService {
+
+        private final AtomicBoolean slow = new AtomicBoolean(true);
+        private final Set<String> roles;
+
+        public RecoveringAccessService(String role) {
+            this.roles = Collections.singleton(role);
+        }
+
+        private Set<String> lookup() {
+            if (slow.getAndSet(false)) {
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException("Cancelled", e);
+                }
+            }
+            return roles;
+        }
+
+        public Set<String> getAccessRuleRoles(AccessRuleKey key) {
+            return lookup();
+        }
+
+        public Set<String> getUserRoles(RoleMappingKey key) {
+            return lookup();
+        }
+
+        public Set<String> getVetoRoles(AccessRuleKey accessRuleKey, RoleMappingKey roleMappingKey) {
+            return lookup();
+        }
+
+        public Set<String> getAllAvailableRoles() {
+            return Collections.emptySet();
+        }
+
+        public Set<String> getContextPackages() {
+            return Collections.emptySet();
+        }
+    }
+
+    /**
+     * Counts down the given latch and then waits for it to reach zero before
+     * returning the given role for every lookup.
+     */
+    private static class BlockingAccessService implements AccessService {
+
+        private final CountDownLatch latch;
+        private final Set<String> roles;
+
+        public BlockingAccessService(CountDownLatch latch, String role) {
+            this.latch = latch;
+            this.roles = Collections.singleton(role);
+        }
+
+        private Set<String> await() {
+            latch.countDown();
+            try {
+                if (!latch.await(10, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException("Delegates were not queried concurrently");
+                }
+            } catch (InterruptedException e) {
+                throw new IllegalStateException("Cancelled", e);
+            }
+            return roles;
+        }
+
+        public Set<String> getAccessRuleRoles(AccessRuleKey key) {
+            return await();
+        }
+
+        public Set<String> getUserRoles(RoleMappingKey key) {
+            return await();
+        }
+
+        public Set<String> getVetoRoles(AccessRuleKey accessRuleKey, RoleMappingKey roleMappingKey) {
+            return await();
+        }
+
+        public Set<String> getAllAvailableRoles() {
+            return Collections.emptySet();
+        }
+
+        public Set<String> getContextPackages() {
+            return Collections.emptySet();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package edu.baylor.cs.holder.security.test.security.service.xml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMappingKey;
+import edu.baylor.cs.holder.security.service.impl.RepositoryAccessServiceImpl;
+import edu.baylor.cs.holder.security.service.impl.RepositoryFileWatcher;
+
+/**
+ * Checks that edits of a watched repository file are reloaded once they settle
+ * and that invalid edits leave the previous content in place.
+ */
+public class XMLBasedFileWatcherTest {
+
+    // mapping added by the edits
+    private static final String EDITED_MAPPING = "<roleMapping userId=\"7\"><role>ROLE_ADMIN</role></roleMapping>";
+
+    private static final RoleMappingKey EDITED_KEY = new RoleMappingKey(7L, null, null);
+
+    private String xml;
+    private File file;
+    private RepositoryAccessServiceImpl repositoryAccessService;
+    private RepositoryFileWatcher watcher;
+
+    @Before
+    public void setup() throws Exception {
+        InputStream xmlInput = XMLBasedFileWatcherTest.class.getResourceAsStream("/security-test.xml");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = xmlInput.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        xmlInput.close();
+        xml = bytes.toString("UTF-8");
+
+        file = File.createTempFile("security", ".xml");
+        write(xml);
+
+        repositoryAccessService = new RepositoryAccessServiceImpl();
+        watcher = new RepositoryFileWatcher(repositoryAccessService, Collections.singletonList(file));
+        watcher.setQuietPeriodMillis(300);
+        watcher.start();
+    }
+
+    @After
+    public void teardown() {
+        watcher.stop();
+        file.delete();
+    }
+
+    @Test
+    public void testEditIsReloaded() throws Exception {
+        Assert.assertTrue(repositoryAccessService.getUserRoles(EDITED_KEY).contains("ROLE_USER"));
+        Assert.assertFalse(repositoryAccessService.getUserRoles(EDITED_KEY).contains("ROLE_ADMIN"));
+
+        write(xml.replace("</roleMappings>", EDITED_MAPPING + "</roleMappings>"));
+        awaitReloads(1);
+        Assert.assertTrue(repositoryAccessService.getUserRoles(EDITED_KEY).contains("ROLE_ADMIN"));
+        Assert.assertEquals(0, watcher.getFailureCount());
+    }
+
+    @Test
+    public void testBurstOfWritesReloadsOnce() throws Exception {
+        // a half written file followed by the finished one
+        for (int i = 0; i < 5; i++) {
+            write(xml.substring(0, xml.length() / 2 + i));
+            Thread.sleep(20);
+        }
+        write(xml.replace("</roleMappings>", EDITED_MAPPING + "</roleMappings>"));
+        awaitReloads(1);
+
+        Thread.sleep(400);
+        Assert.assertEquals(1, watcher.getReloadCount());
+        Assert.assertEquals(0, watcher.getFailureCount());
+        Assert.assertTrue(repositoryAccessService.getUserRoles(EDITED_KEY).contains("ROLE_ADMIN"));
+    }
+
+    @Test
+    public void testInvalidEditKeepsPreviousContent() throws Exception {
+        Object snapshot = repositoryAccessService.getSnapshot();
+        write(xml.replace("</roleMappings>", "<roleMapping><role>ROLE_MISSING</role></roleMapping></roleMappings>"));
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (watcher.getFailureCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(1, watcher.getFailureCount());
+        Assert.assertNotNull(watcher.getLastFailure());
+        Assert.assertSame(snapshot, repositoryAccessService.getSnapshot());
+
+        // a fixed file is picked up again
+        write(xml.replace("</roleMappings>", EDITED_MAPPING + "</roleMappings>"));
+        awaitReloads(1);
+        Assert.assertNull(watcher.getLastFailure());
+    }
+
+    private void awaitReloads(long reloads) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (watcher.getReloadCount() < reloads && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(reloads, watcher.getReloadCount());
+    }
+
+    private void write(String content) throws IOException {
+        OutputStream output = new FileOutputStream(file);
+        try {
+            output.write(content.getBytes("UTF-8"));
+        } finally {
+            output.close();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package edu.baylor.cs.holder.security.test.security.service.xml;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMappingKey;
+import edu.baylor.cs.holder.security.service.impl.Dom4jSecurityRepository;
+import edu.baylor.cs.holder.security.service.impl.FragmentedSecurityRepository;
+import edu.baylor.cs.holder.security.service.impl.RepositorySnapshot;
+import edu.baylor.cs.holder.security.test.model.Contest;
+
+/**
+ * Checks that a repository split into fragments loads the same content as the
+ * whole repository, and that fragments are validated against each other.
+ */
+public class XMLBasedFragmentedRepositoryTest {
+
+    private static final String ROLES = "<securityRepository><roles><role>ROLE_ADMIN</role>"
+            + "<role>ROLE_CONTEST_MANAGER</role><role>ROLE_TEAM_MANAGER</role><role>ROLE_TEAM_MEMBER</role>"
+            + "<role>ROLE_USER</role></roles><contextPackages>"
+            + "<package>edu.baylor.cs.holder.security.test.model</package></contextPackages></securityRepository>";
+
+    private static final String INSTITUTION_RULES = "<securityRepository><categories>"
+            + "<category name=\"institutionManager\">"
+            + "<accessRule action=\"select\" active=\"true\"><role>ROLE_ADMIN</role>"
+            + "<role>ROLE_CONTEST_MANAGER</role></accessRule>"
+            + "<accessRule action=\"select\" active=\"true\"><context>Institution</context><role>ROLE_ADMIN</role>"
+            + "<role>ROLE_CONTEST_MANAGER</role><role>ROLE_TEAM_MEMBER</role></accessRule>"
+            + "<accessRule action=\"save\" active=\"true\"><role>ROLE_ADMIN</role></accessRule>"
+            + "<accessRule action=\"remove\" active=\"true\"><role>ROLE_ADMIN</role></accessRule>"
+            + "<accessRule action=\"remove\" active=\"true\"><context>Institution</context>"
+            + "<role>ROLE_ADMIN</role></accessRule>"
+            + "</category></categories></securityRepository>";
+
+    private static final String CONTEST_RULES = "<securityRepository><categories>"
+            + "<category name=\"contestManager\">"
+            + "<accessRule action=\"select\" active=\"true\"><context>Contest</context><role>ROLE_ADMIN</role>"
+            + "<role>ROLE_CONTEST_MANAGER</role><role>ROLE_TEAM_MANAGER</role><role>ROLE_TEAM_MEMBER</role>"
+            + "</accessRule>"
+            + "<accessRule action=\"register\" active=\"true\"><context>Contest</context>"
+            + "<context>Institution</context><role>ROLE_ADMIN</role><role>ROLE_TEAM_MANAGER</role></accessRule>"
+            + "</category></categories></securityRepository>";
+
+    private static final String MAPPINGS_A = "<securityRepository><roleMappings>"
+            + "<roleMapping><role>ROLE_USER</role></roleMapping>"
+            + "<roleMapping userId=\"1\"><role>ROLE_ADMIN</role></roleMapping>"
+            + "<roleMapping userId=\"2\" contextType=\"Contest\"><role>ROLE_CONTEST_MANAGER</role></roleMapping>"
+            + "</roleMappings></securityRepository>";
+
+    private static final String MAPPINGS_B = "<securityRepository><roleMappings>"
+            + "<roleMapping userId=\"3\" contextType=\"Contest\" contextId=\"4\">"
+            + "<role>ROLE_CONTEST_MANAGER</role></roleMapping>"
+            + "<roleMapping contextType=\"Institution\" contextId=\"9\"><role>ROLE_TEAM_MEMBER</role></roleMapping>"
+            + "<roleMapping userId=\"5\" contextId=\"6\"><role>ROLE_TEAM_MANAGER</role></roleMapping>"
+            + "</roleMappings></securityRepository>";
+
+    private final List<File> files = new ArrayList<File>();
+
+    @After
+    public void teardown() {
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testFragmentsMatchWholeRepository() throws Exception {
+        InputStream xmlInput = XMLBasedFragmentedRepositoryTest.class.getResourceAsStream("/security-test.xml");
+        Dom4jSecurityRepository wholeRepository = new Dom4jSecurityRepository();
+        wholeRepository.populate(xmlInput);
+        xmlInput.close();
+        RepositorySnapshot expected = new RepositorySnapshot(wholeRepository);
+
+        // mappings come before the roles they use
+        FragmentedSecurityRepository fragmentedRepository = new FragmentedSecurityRepository();
+        fragmentedRepository.populate(fragments(MAPPINGS_A, CONTEST_RULES, ROLES, INSTITUTION_RULES, MAPPINGS_B));
+        RepositorySnapshot actual = new RepositorySnapshot(fragmentedRepository);
+
+        Assert.assertEquals(expected.getAccessRuleMap(), actual.getAccessRuleMap());
+        Assert.assertEquals(expected.getRoleMappingCount(), actual.getRoleMappingCount());
+        Assert.assertEquals(wholeRepository.getAllRoles(), fragmentedRepository.getAllRoles());
+        for (long userId = 1; userId <= 5; userId++) {
+            RoleMappingKey key = new RoleMappingKey(userId, Contest.class, 4L);
+            Assert.assertEquals(expected.getUserRoles(key), actual.getUserRoles(key));
+        }
+    }
+
+    @Test
+    public void testDuplicatesAcrossFragments() throws Exception {
+        assertRejected("Duplicate mapping detected", ROLES, MAPPINGS_A, MAPPINGS_B, MAPPINGS_A);
+        assertRejected("Duplicate access rule detected", ROLES, CONTEST_RULES, CONTEST_RULES);
+    }
+
+    @Test
+    public void testFragmentsAreValidated() throws Exception {
+        // no fragment declares the roles
+        assertRejected("An invalid role has been detected", CONTEST_RULES, MAPPINGS_A);
+        assertRejected("Failed to load fragment", ROLES, "<securityRepository><roles>");
+    }
+
+    private void assertRejected(String message, String... fragments) throws IOException {
+        FragmentedSecurityRepository fragmentedRepository = new FragmentedSecurityRepository();
+        try {
+            fragmentedRepository.populate(fragments(fragments));
+            Assert.fail("Expected the fragments to be rejected");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+        Assert.assertTrue(fragmentedRepository.getAccessRules().isEmpty());
+    }
+
+    private List<File> fragments(String... contents) throws IOException {
+        List<File> fragments = new ArrayList<File>();
+        for (String content : contents) {
+            File file = File.createTempFile("fragment", ".xml");
+            files.add(file);
+            OutputStream output = new FileOutputStream(file);
+            try {
+                output.write(content.getBytes("UTF-8"));
+            } finally {
+                output.close();
+            }
+            fragments.add(file);
+        }
+        return fragments;
+    }
+}
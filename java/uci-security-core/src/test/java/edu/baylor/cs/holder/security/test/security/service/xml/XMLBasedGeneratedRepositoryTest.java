@@ -0,0 +1,104 @@
+package edu.baylor.cs.holder.security.test.security.service.xml;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.baylor.cs.holder.security.service.SecurityRepository;
+import edu.baylor.cs.holder.security.service.accessobjects.AccessRule;
+import edu.baylor.cs.holder.security.service.accessobjects.AccessRuleKey;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMapping;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMappingKey;
+import edu.baylor.cs.holder.security.service.impl.Dom4jSecurityRepository;
+import edu.baylor.cs.holder.security.service.impl.RepositoryAccessServiceImpl;
+import edu.baylor.cs.holder.security.test.tools.SecurityRepositoryGenerator;
+
+/**
+ * Checks that {@link SecurityRepositoryGenerator} generates the same valid
+ * repository as XML and in memory.
+ */
+public class XMLBasedGeneratedRepositoryTest {
+
+    @Test
+    public void testSameSeedSameRepository() {
+        SecurityRepositoryGenerator generator = createGenerator(42L);
+        byte[] xml = generator.generateXml();
+        Assert.assertTrue(Arrays.equals(xml, createGenerator(42L).generateXml()));
+        Assert.assertFalse(Arrays.equals(xml, createGenerator(43L).generateXml()));
+    }
+
+    @Test
+    public void testXmlMatchesRepository() {
+        SecurityRepositoryGenerator generator = createGenerator(7L);
+        Dom4jSecurityRepository parsed = new Dom4jSecurityRepository();
+        parsed.populate(new ByteArrayInputStream(generator.generateXml()));
+        SecurityRepository generated = generator.generateRepository();
+
+        Assert.assertEquals(generated.getAllRoles(), parsed.getAllRoles());
+        Assert.assertEquals(generated.getContextPackages(), parsed.getContextPackages());
+        Assert.assertEquals(getRuleRoles(generated), getRuleRoles(parsed));
+        Assert.assertEquals(getMappingRoles(generated), getMappingRoles(parsed));
+
+        // 5 categories of 6 actions, 200 users with 3 mappings plus 4 shared mappings
+        Assert.assertEquals(30, parsed.getAccessRules().size());
+        Assert.assertEquals(604, parsed.getRoleMappings().size());
+
+        // no duplicates
+        new RepositoryAccessServiceImpl().update(parsed);
+    }
+
+    @Test
+    public void testWildcardMix() {
+        SecurityRepositoryGenerator generator = createGenerator(1L);
+        generator.setSharedMappingCount(0);
+        generator.setWildcardMix(0, 0, 1, 0);
+        for (RoleMapping roleMapping : generator.generateRepository().getRoleMappings()) {
+            Assert.assertNotNull(roleMapping.getKey().getUserId());
+            Assert.assertNotNull(roleMapping.getKey().getContextType());
+            Assert.assertNotNull(roleMapping.getKey().getContextId());
+        }
+
+        try {
+            generator.setMaxContextLength(SecurityRepositoryGenerator.MAXCONTEXTLENGTH + 1);
+            Assert.fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private SecurityRepositoryGenerator createGenerator(long seed) {
+        SecurityRepositoryGenerator generator = new SecurityRepositoryGenerator();
+        generator.setSeed(seed);
+        generator.setRoleCount(8);
+        generator.setCategoryCount(5);
+        generator.setActionsPerCategory(6);
+        generator.setMaxContextLength(SecurityRepositoryGenerator.MAXCONTEXTLENGTH);
+        generator.setUserCount(200);
+        generator.setMappingsPerUser(3);
+        generator.setRolesPerMapping(2);
+        generator.setContextIdCount(100);
+        generator.setSharedMappingCount(4);
+        return generator;
+    }
+
+    private Map<AccessRuleKey, Set<String>> getRuleRoles(SecurityRepository repository) {
+        Map<AccessRuleKey, Set<String>> roles = new HashMap<AccessRuleKey, Set<String>>();
+        for (AccessRule accessRule : repository.getAccessRules()) {
+            roles.put(accessRule.getKey(), accessRule.getRoles());
+        }
+        return roles;
+    }
+
+    private Map<RoleMappingKey, Set<String>> getMappingRoles(SecurityRepository repository) {
+        Map<RoleMappingKey, Set<String>> roles = new HashMap<RoleMappingKey, Set<String>>();
+        for (RoleMapping roleMapping : repository.getRoleMappings()) {
+            roles.put(roleMapping.getKey(), roleMapping.getRoles());
+        }
+        return roles;
+    }
+}
@@ -0,0 +1,110 @@
+package edu.baylor.cs.holder.security.test.security.service.xml;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.baylor.cs.holder.security.service.AccessService;
+import edu.baylor.cs.holder.security.service.SecurityMetrics;
+import edu.baylor.cs.holder.security.service.impl.BoundedSecurityCache;
+import edu.baylor.cs.holder.security.service.impl.Dom4jSecurityRepository;
+import edu.baylor.cs.holder.security.service.impl.GenericCachingAccessServiceImpl;
+import edu.baylor.cs.holder.security.service.impl.RepositoryAccessServiceImpl;
+import edu.baylor.cs.holder.security.service.impl.SecurityServiceImpl;
+import edu.baylor.cs.holder.security.service.impl.SimpleSecurityMetrics;
+import edu.baylor.cs.holder.security.test.model.Contest;
+import edu.baylor.cs.holder.security.test.model.Person;
+import edu.baylor.cs.holder.security.test.tools.SecurityFixtures;
+
+/**
+ * Checks that access decisions, cache activity and repository loads are
+ * reported to the configured {@link SecurityMetrics}.
+ */
+public class XMLBasedMetricsTest {
+
+    private SimpleSecurityMetrics metrics;
+    private Dom4jSecurityRepository securityRepository;
+    private RepositoryAccessServiceImpl repositoryAccessService;
+    private GenericCachingAccessServiceImpl cachingAccessService;
+    private SecurityServiceImpl securityService;
+
+    @Before
+    public void setup() throws Exception {
+        securityRepository = SecurityFixtures.loadRepository();
+
+        metrics = new SimpleSecurityMetrics();
+
+        repositoryAccessService = new RepositoryAccessServiceImpl();
+        repositoryAccessService.setSecurityMetrics(metrics);
+        repositoryAccessService.update(securityRepository);
+
+        cachingAccessService = new GenericCachingAccessServiceImpl();
+        cachingAccessService.setAccessServices(Collections.<AccessService> singletonList(repositoryAccessService));
+        cachingAccessService.setSecurityMetrics(metrics);
+
+        securityService = SecurityFixtures.createSecurityService(cachingAccessService);
+        securityService.setSecurityMetrics(metrics);
+    }
+
+    @Test
+    public void testAccessDecisions() {
+        Person admin = SecurityFixtures.createPerson(1L);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(securityService.hasAccess("institutionManager", "save", admin));
+        }
+        Assert.assertFalse(securityService.hasAccess("institutionManager", "missingAction", admin));
+        Assert.assertTrue(securityService.hasAccess("contestManager", "select", admin, new Contest(8L)));
+
+        Assert.assertEquals(3, metrics.getGrantCount("institutionManager", "save"));
+        Assert.assertEquals(0, metrics.getDenialCount("institutionManager", "save"));
+        Assert.assertEquals(1, metrics.getDenialCount("institutionManager", "missingAction"));
+        Assert.assertEquals(1, metrics.getGrantCount("contestManager", "select"));
+        Assert.assertEquals(0, metrics.getGrantCount("contestManager", "unknown"));
+        Assert.assertEquals(5, metrics.getDecisionLatency().getCount());
+        Assert.assertTrue(metrics.getDecisionLatency().getPercentile(99) > 0);
+
+        // the first save misses both caches, the others hit them
+        Assert.assertEquals(2, metrics.getCacheMissCount(SecurityMetrics.USER_ROLE_CACHE));
+        Assert.assertEquals(2, metrics.getCacheHitCount(SecurityMetrics.USER_ROLE_CACHE));
+        Assert.assertEquals(2, metrics.getCacheMissCount(SecurityMetrics.VETO_ROLE_CACHE));
+        Assert.assertEquals(2, metrics.getCacheHitCount(SecurityMetrics.VETO_ROLE_CACHE));
+
+        Assert.assertEquals(1, metrics.getRepositoryLoadLatency().getCount());
+    }
+
+    @Test
+    public void testFilteredDecisions() {
+        List<Contest> contexts = Arrays.asList(new Contest(6L), new Contest(8L));
+        Assert.assertEquals(1, securityService.filterAccessible("contestManager", "select",
+                SecurityFixtures.createPerson(5L), contexts).size());
+        Assert.assertEquals(1, metrics.getGrantCount("contestManager", "select"));
+        Assert.assertEquals(1, metrics.getDenialCount("contestManager", "select"));
+        Assert.assertEquals(2, metrics.getDecisionLatency().getCount());
+    }
+
+    @Test
+    public void testCacheEvictions() {
+        cachingAccessService.setSecurityCache(new BoundedSecurityCache(2, 0, TimeUnit.SECONDS));
+
+        for (long id = 1; id <= 10; id++) {
+            securityService.hasAccess("institutionManager", "save", SecurityFixtures.createPerson(id));
+        }
+        Assert.assertEquals(10, metrics.getCacheMissCount(SecurityMetrics.USER_ROLE_CACHE));
+        Assert.assertEquals(8, metrics.getCacheEvictionCount(SecurityMetrics.USER_ROLE_CACHE));
+        Assert.assertEquals(8, metrics.getCacheEvictionCount(SecurityMetrics.VETO_ROLE_CACHE));
+    }
+
+    @Test
+    public void testMetricsAreOptional() {
+        securityService.setSecurityMetrics(null);
+        cachingAccessService.setSecurityMetrics(null);
+        Assert.assertTrue(securityService.hasAccess("institutionManager", "save", SecurityFixtures.createPerson(1L)));
+        Assert.assertEquals(0, metrics.getDecisionLatency().getCount());
+        Assert.assertEquals(0, metrics.getCacheMissCount(SecurityMetrics.USER_ROLE_CACHE));
+    }
+}
@@ -0,0 +1,247 @@
+package edu.baylor.cs.holder.security.test.security.service.xml;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.baylor.cs.holder.security.service.AccessService;
+import edu.baylor.cs.holder.security.service.SecurityCache;
+import edu.baylor.cs.holder.security.service.accessobjects.AccessRule;
+import edu.baylor.cs.holder.security.service.accessobjects.AccessRuleKey;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMapping;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMappingKey;
+import edu.baylor.cs.holder.security.service.impl.BoundedSecurityCache;
+import edu.baylor.cs.holder.security.service.impl.Dom4jSecurityRepository;
+import edu.baylor.cs.holder.security.service.impl.GenericCachingAccessServiceImpl;
+import edu.baylor.cs.holder.security.service.impl.RepositoryAccessServiceImpl;
+import edu.baylor.cs.holder.security.service.impl.RepositoryDelta;
+import edu.baylor.cs.holder.security.service.impl.RepositorySnapshot;
+import edu.baylor.cs.holder.security.service.impl.SecurityServiceImpl;
+import edu.baylor.cs.holder.security.test.model.Contest;
+import edu.baylor.cs.holder.security.test.model.Institution;
+import edu.baylor.cs.holder.security.test.model.Person;
+import edu.baylor.cs.holder.security.test.tools.SecurityFixtures;
+import edu.baylor.cs.holder.security.util.Pair;
+
+/**
+ * Checks that incremental changes take effect without a reload and only evict
+ * the cache entries they affect.
+ */
+public class XMLBasedRepositoryDeltaTest {
+
+    private BoundedSecurityCache securityCache;
+    private RepositoryAccessServiceImpl repositoryAccessService;
+    private SecurityServiceImpl securityService;
+
+    @Before
+    public void setup() throws Exception {
+        Dom4jSecurityRepository securityRepository = SecurityFixtures.loadRepository();
+
+        securityCache = new BoundedSecurityCache();
+
+        repositoryAccessService = SecurityFixtures.createRepositoryAccessService(securityRepository);
+        repositoryAccessService.setSecurityCache(securityCache);
+
+        GenericCachingAccessServiceImpl cachingAccessService = new GenericCachingAccessServiceImpl();
+        cachingAccessService.setAccessServices(Collections.<AccessService> singletonList(repositoryAccessService));
+        cachingAccessService.setSecurityCache(securityCache);
+
+        securityService = SecurityFixtures.createSecurityService(cachingAccessService);
+    }
+
+    @Test
+    public void testRoleMappingChanges() {
+        Person user = SecurityFixtures.createPerson(7L);
+        Assert.assertFalse(securityService.hasAccess("contestManager", "select", user, new Contest(4L)));
+        Assert.assertTrue(securityService.hasAccess("contestManager", "select", SecurityFixtures.createPerson(3L),
+                new Contest(4L)));
+
+        repositoryAccessService.addRoleMapping(createRoleMapping(7L, Contest.class, 4L, "ROLE_CONTEST_MANAGER"));
+        Assert.assertTrue(securityService.hasAccess("contestManager", "select", user, new Contest(4L)));
+        Assert.assertEquals(7, repositoryAccessService.getSnapshot().getRoleMappingCount());
+
+        // only the lookup of the changed mapping was evicted
+        Assert.assertTrue(securityCache.getUserRoleCache().containsKey(new RoleMappingKey(3L, Contest.class, 4L)));
+
+        repositoryAccessService.replaceRoleMapping(createRoleMapping(7L, Contest.class, 4L, "ROLE_USER"));
+        Assert.assertFalse(securityService.hasAccess("contestManager", "select", user, new Contest(4L)));
+
+        repositoryAccessService.removeRoleMapping(new RoleMappingKey(7L, Contest.class, 4L));
+        Assert.assertFalse(securityService.hasAccess("contestManager", "select", user, new Contest(4L)));
+        Assert.assertEquals(6, repositoryAccessService.getSnapshot().getRoleMappingCount());
+    }
+
+    @Test
+    public void testWildcardRoleMappingChanges() {
+        Person user = SecurityFixtures.createPerson(7L);
+        Assert.assertFalse(securityService.hasAccess("contestManager", "select", user, new Contest(4L)));
+        Assert.assertFalse(securityService.hasAccess("contestManager", "select", SecurityFixtures.createPerson(8L),
+                new Contest(5L)));
+        Assert.assertTrue(securityService.hasAccess("institutionManager", "select", user, new Institution(9L)));
+
+        // every user manages every contest
+        repositoryAccessService.addRoleMapping(createRoleMapping(null, Contest.class, null, "ROLE_CONTEST_MANAGER"));
+        Assert.assertTrue(securityService.hasAccess("contestManager", "select", user, new Contest(4L)));
+        Assert.assertTrue(securityService.hasAccess("contestManager", "select", SecurityFixtures.createPerson(8L),
+                new Contest(5L)));
+        Assert.assertTrue(securityCache.getUserRoleCache().containsKey(new RoleMappingKey(7L, Institution.class, 9L)));
+
+        repositoryAccessService.removeRoleMapping(new RoleMappingKey(null, Contest.class, null));
+        Assert.assertFalse(securityService.hasAccess("contestManager", "select", user, new Contest(4L)));
+    }
+
+    @Test
+    public void testAccessRuleChanges() {
+        Person user = SecurityFixtures.createPerson(7L);
+        Assert.assertFalse(securityService.hasAccess("institutionManager", "audit", user));
+
+        repositoryAccessService.addAccessRule(createAccessRule("institutionManager", "audit", "ROLE_USER"));
+        Assert.assertTrue(securityService.hasAccess("institutionManager", "audit", user));
+
+        repositoryAccessService.replaceAccessRule(createAccessRule("institutionManager", "audit", "ROLE_ADMIN"));
+        Assert.assertFalse(securityService.hasAccess("institutionManager", "audit", user));
+        Assert.assertTrue(securityService.hasAccess("institutionManager", "audit", SecurityFixtures.createPerson(1L)));
+
+        repositoryAccessService.removeAccessRule(new AccessRuleKey("institutionManager", "audit",
+                Collections.<Class<?>> emptyList()));
+        Assert.assertFalse(securityService.hasAccess("institutionManager", "audit", SecurityFixtures.createPerson(1L)));
+        Assert.assertEquals(7, repositoryAccessService.getSnapshot().getAccessRuleMap().size());
+    }
+
+    @Test
+    public void testDefaultCacheSeesChanges() throws Exception {
+        // the caching service keeps its own default cache
+        RepositoryAccessServiceImpl repositoryAccessService = SecurityFixtures.createRepositoryAccessService(
+                SecurityFixtures.loadRepository());
+        GenericCachingAccessServiceImpl cachingAccessService = new GenericCachingAccessServiceImpl();
+        cachingAccessService.setAccessServices(Collections.<AccessService> singletonList(repositoryAccessService));
+        SecurityServiceImpl securityService = SecurityFixtures.createSecurityService(cachingAccessService);
+
+        Person user = SecurityFixtures.createPerson(3L);
+        Assert.assertTrue(securityService.hasAccess("contestManager", "select", user, new Contest(4L)));
+        Assert.assertTrue(securityService.hasAccess("contestManager", "select", user, new Contest(4L)));
+
+        // a delta revoking the role
+        repositoryAccessService.removeRoleMapping(new RoleMappingKey(3L, Contest.class, 4L));
+        Assert.assertFalse(securityService.hasAccess("contestManager", "select", user, new Contest(4L)));
+
+        // a reload granting it again
+        repositoryAccessService.update(SecurityFixtures.loadRepository());
+        Assert.assertTrue(securityService.hasAccess("contestManager", "select", user, new Contest(4L)));
+    }
+
+    @Test
+    public void testPlainCacheSeesChanges() throws Exception {
+        // a cache implementing only SecurityCache
+        PlainSecurityCache plainCache = new PlainSecurityCache();
+        RepositoryAccessServiceImpl repositoryAccessService = SecurityFixtures.createRepositoryAccessService(
+                SecurityFixtures.loadRepository());
+        GenericCachingAccessServiceImpl cachingAccessService = new GenericCachingAccessServiceImpl();
+        cachingAccessService.setAccessServices(Collections.<AccessService> singletonList(repositoryAccessService));
+        cachingAccessService.setSecurityCache(plainCache);
+        SecurityServiceImpl securityService = SecurityFixtures.createSecurityService(cachingAccessService);
+
+        Person user = SecurityFixtures.createPerson(3L);
+        Assert.assertTrue(securityService.hasAccess("contestManager", "select", user, new Contest(4L)));
+        Assert.assertFalse(plainCache.getUserRoleCache().isEmpty());
+
+        repositoryAccessService.removeRoleMapping(new RoleMappingKey(3L, Contest.class, 4L));
+        Assert.assertFalse(securityService.hasAccess("contestManager", "select", user, new Contest(4L)));
+
+        repositoryAccessService.update(SecurityFixtures.loadRepository());
+        Assert.assertTrue(securityService.hasAccess("contestManager", "select", user, new Contest(4L)));
+    }
+
+    @Test
+    public void testBatchIsAtomic() {
+        RepositorySnapshot snapshot = repositoryAccessService.getSnapshot();
+
+        // the second change adds a mapping that already exists
+        RepositoryDelta delta = new RepositoryDelta();
+        delta.addRoleMapping(createRoleMapping(7L, null, null, "ROLE_ADMIN"));
+        delta.addRoleMapping(createRoleMapping(1L, null, null, "ROLE_ADMIN"));
+        assertRejected(delta);
+
+        delta = new RepositoryDelta();
+        delta.addAccessRule(createAccessRule("institutionManager", "audit", "ROLE_MISSING"));
+        assertRejected(delta);
+        Assert.assertSame(snapshot, repositoryAccessService.getSnapshot());
+        Assert.assertFalse(securityService.hasAccess("institutionManager", "save", SecurityFixtures.createPerson(7L)));
+
+        // changes are applied in order within a batch
+        delta = new RepositoryDelta();
+        delta.removeRoleMapping(new RoleMappingKey(1L, null, null));
+        delta.addRoleMapping(createRoleMapping(1L, null, null, "ROLE_USER"));
+        delta.addRoleMapping(createRoleMapping(7L, null, null, "ROLE_ADMIN"));
+        repositoryAccessService.apply(delta);
+        Assert.assertFalse(securityService.hasAccess("institutionManager", "save", SecurityFixtures.createPerson(1L)));
+        Assert.assertTrue(securityService.hasAccess("institutionManager", "save", SecurityFixtures.createPerson(7L)));
+
+        // earlier snapshots are left as they were
+        Assert.assertTrue(snapshot.getUserRoles(new RoleMappingKey(1L, null, null)).contains("ROLE_ADMIN"));
+    }
+
+    private void assertRejected(RepositoryDelta delta) {
+        try {
+            repositoryAccessService.apply(delta);
+            Assert.fail("Expected the delta to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static RoleMapping createRoleMapping(Long userId, Class<?> contextType, Long contextId, String role) {
+        RoleMapping roleMapping = new RoleMapping();
+        roleMapping.setUserId(userId);
+        roleMapping.setContextType(contextType);
+        roleMapping.setContextId(contextId);
+        roleMapping.addRole(role);
+        return roleMapping;
+    }
+
+    private static AccessRule createAccessRule(String category, String action, String role) {
+        AccessRule accessRule = new AccessRule();
+        accessRule.setCategory(category);
+        accessRule.setAction(action);
+        accessRule.addRole(role);
+        return accessRule;
+    }
+
+    /**
+     * A {@link SecurityCache} backed by plain concurrent maps.
+     */
+    private static class PlainSecurityCache implements SecurityCache {
+
+        private final Map<RoleMappingKey, Set<String>> userRoleCache =
+                new ConcurrentHashMap<RoleMappingKey, Set<String>>();
+
+        private final Map<Pair<AccessRuleKey, RoleMappingKey>, Set<String>> vetoRoleCache =
+                new ConcurrentHashMap<Pair<AccessRuleKey, RoleMappingKey>, Set<String>>();
+
+        private final Map<AccessRule, Set<String>> accessRuleCache = new ConcurrentHashMap<AccessRule, Set<String>>();
+
+        public Map<RoleMappingKey, Set<String>> getUserRoleCache() {
+            return userRoleCache;
+        }
+
+        public Map<Pair<AccessRuleKey, RoleMappingKey>, Set<String>> getVetoRoleCache() {
+            return vetoRoleCache;
+        }
+
+        @Deprecated
+        public Map<AccessRule, Set<String>> getAccessRuleCache() {
+            return accessRuleCache;
+        }
+
+        public void clear() {
+            userRoleCache.clear();
+            vetoRoleCache.clear();
+            accessRuleCache.clear();
+        }
+    }
+}
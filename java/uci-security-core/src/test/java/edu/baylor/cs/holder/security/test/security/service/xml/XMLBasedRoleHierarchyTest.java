@@ -0,0 +1,124 @@
+package edu.baylor.cs.holder.security.test.security.service.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMapping;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMappingKey;
+import edu.baylor.cs.holder.security.service.impl.Dom4jSecurityRepository;
+import edu.baylor.cs.holder.security.service.impl.MappedSnapshotLoader;
+import edu.baylor.cs.holder.security.service.impl.RepositoryAccessServiceImpl;
+import edu.baylor.cs.holder.security.service.impl.RepositoryDelta;
+import edu.baylor.cs.holder.security.service.impl.RepositorySnapshot;
+import edu.baylor.cs.holder.security.service.impl.SecurityServiceImpl;
+import edu.baylor.cs.holder.security.service.impl.SnapshotCompiler;
+import edu.baylor.cs.holder.security.service.impl.StaxSecurityRepository;
+import edu.baylor.cs.holder.security.test.model.Contest;
+import edu.baylor.cs.holder.security.test.tools.SecurityFixtures;
+
+/**
+ * Checks that roles declared to imply other roles grant the access of those
+ * roles, and that cycles are rejected while loading.
+ */
+public class XMLBasedRoleHierarchyTest {
+
+    private static final String XML = "<securityRepository><roles>"
+            + "<role implies=\"ROLE_CONTEST_MANAGER\">ROLE_ADMIN</role>"
+            + "<role implies=\"ROLE_TEAM_MANAGER, ROLE_USER\">ROLE_CONTEST_MANAGER</role>"
+            + "<role>ROLE_TEAM_MANAGER</role><role>ROLE_USER</role></roles>"
+            + "<contextPackages><package>edu.baylor.cs.holder.security.test.model</package></contextPackages>"
+            + "<categories><category name=\"contestManager\">"
+            + "<accessRule action=\"register\" active=\"true\"><context>Contest</context>"
+            + "<role>ROLE_TEAM_MANAGER</role></accessRule>"
+            + "<accessRule action=\"remove\" active=\"true\"><context>Contest</context>"
+            + "<role>ROLE_ADMIN</role></accessRule>"
+            + "</category></categories><roleMappings>"
+            + "<roleMapping userId=\"1\"><role>ROLE_ADMIN</role></roleMapping>"
+            + "<roleMapping userId=\"2\" contextType=\"Contest\" contextId=\"4\">"
+            + "<role>ROLE_CONTEST_MANAGER</role></roleMapping>"
+            + "</roleMappings></securityRepository>";
+
+    @Test
+    public void testImpliedRolesGrantAccess() throws Exception {
+        Dom4jSecurityRepository securityRepository = SecurityFixtures.parseRepository(XML);
+        RepositoryAccessServiceImpl repositoryAccessService =
+                SecurityFixtures.createRepositoryAccessService(securityRepository);
+
+        SecurityServiceImpl securityService = SecurityFixtures.createSecurityService(repositoryAccessService);
+
+        Assert.assertTrue(securityService.hasAccess("contestManager", "register", SecurityFixtures.createPerson(1L),
+                new Contest(5L)));
+        Assert.assertTrue(securityService.hasAccess("contestManager", "register", SecurityFixtures.createPerson(2L),
+                new Contest(4L)));
+        Assert.assertFalse(securityService.hasAccess("contestManager", "register", SecurityFixtures.createPerson(2L),
+                new Contest(5L)));
+
+        // implications only go one way
+        Assert.assertFalse(securityService.hasAccess("contestManager", "remove", SecurityFixtures.createPerson(2L),
+                new Contest(4L)));
+
+        // mappings added later are expanded as well
+        RoleMapping roleMapping = new RoleMapping();
+        roleMapping.setUserId(3L);
+        roleMapping.addRole("ROLE_CONTEST_MANAGER");
+        RepositoryDelta delta = new RepositoryDelta();
+        delta.addRoleMapping(roleMapping);
+        repositoryAccessService.apply(delta);
+        Assert.assertTrue(securityService.hasAccess("contestManager", "register", SecurityFixtures.createPerson(3L),
+                new Contest(5L)));
+    }
+
+    @Test
+    public void testParsersAndSnapshotsAgree() throws Exception {
+        Dom4jSecurityRepository dom4jRepository = SecurityFixtures.parseRepository(XML);
+        StaxSecurityRepository staxRepository = new StaxSecurityRepository();
+        staxRepository.populate(new ByteArrayInputStream(XML.getBytes("UTF-8")));
+        Assert.assertEquals(dom4jRepository.getRoleHierarchy().getImplications(), staxRepository.getRoleHierarchy()
+                .getImplications());
+
+        ByteArrayOutputStream compiled = new ByteArrayOutputStream();
+        SnapshotCompiler.compile(dom4jRepository, compiled);
+        RepositorySnapshot mapped = MappedSnapshotLoader.load(ByteBuffer.wrap(compiled.toByteArray()));
+        RepositorySnapshot expected = new RepositorySnapshot(staxRepository);
+        Assert.assertEquals(expected.getRoleHierarchy().getImplications(), mapped.getRoleHierarchy()
+                .getImplications());
+
+        RoleMappingKey key = new RoleMappingKey(1L, Contest.class, 4L);
+        Assert.assertEquals(4, expected.getUserRoles(key).size());
+        Assert.assertEquals(expected.getUserRoles(key), mapped.getUserRoles(key));
+    }
+
+    @Test
+    public void testInvalidHierarchiesAreRejected() throws Exception {
+        String cycle = XML.replace("<role>ROLE_TEAM_MANAGER</role>",
+                "<role implies=\"ROLE_ADMIN\">ROLE_TEAM_MANAGER</role>");
+        assertRejected(cycle, "A cycle has been detected in the role hierarchy");
+
+        String unknown = XML.replace("<role>ROLE_USER</role>", "<role implies=\"ROLE_MISSING\">ROLE_USER</role>");
+        assertRejected(unknown, "An invalid role has been detected: ROLE_MISSING");
+    }
+
+    private void assertRejected(String xml, String message) throws Exception {
+        try {
+            new Dom4jSecurityRepository().populate(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+            Assert.fail("Expected the hierarchy to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertReason(e, message);
+        }
+        try {
+            new StaxSecurityRepository().populate(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+            Assert.fail("Expected the hierarchy to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertReason(e, message);
+        }
+    }
+
+    private static void assertReason(IllegalArgumentException e, String message) {
+        String reason = e.getCause() == null ? e.getMessage() : e.getCause().getMessage();
+        Assert.assertTrue(reason, reason.contains(message));
+    }
+}
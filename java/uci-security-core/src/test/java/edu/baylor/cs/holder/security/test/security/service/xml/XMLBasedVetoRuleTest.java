@@ -0,0 +1,166 @@
+package edu.baylor.cs.holder.security.test.security.service.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.baylor.cs.holder.security.service.AccessService;
+import edu.baylor.cs.holder.security.service.VetoCondition;
+import edu.baylor.cs.holder.security.service.accessobjects.AccessRuleKey;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMappingKey;
+import edu.baylor.cs.holder.security.service.impl.BoundedSecurityCache;
+import edu.baylor.cs.holder.security.service.impl.Dom4jSecurityRepository;
+import edu.baylor.cs.holder.security.service.impl.GenericCachingAccessServiceImpl;
+import edu.baylor.cs.holder.security.service.impl.MappedSnapshotLoader;
+import edu.baylor.cs.holder.security.service.impl.RepositoryAccessServiceImpl;
+import edu.baylor.cs.holder.security.service.impl.RepositorySnapshot;
+import edu.baylor.cs.holder.security.service.impl.SecurityServiceImpl;
+import edu.baylor.cs.holder.security.service.impl.SnapshotCompiler;
+import edu.baylor.cs.holder.security.service.impl.StaxSecurityRepository;
+import edu.baylor.cs.holder.security.test.model.Contest;
+import edu.baylor.cs.holder.security.test.tools.SecurityFixtures;
+
+/**
+ * Checks that veto rules remove roles only for the actions and context types
+ * they declare, and only when their condition holds.
+ */
+public class XMLBasedVetoRuleTest {
+
+    private static final String XML = "<securityRepository><roles><role>ROLE_ADMIN</role>"
+            + "<role>ROLE_TEAM_MANAGER</role><role>ROLE_USER</role></roles>"
+            + "<contextPackages><package>edu.baylor.cs.holder.security.test.model</package></contextPackages>"
+            + "<categories><category name=\"contestManager\">"
+            + "<accessRule action=\"select\" active=\"true\"><context>Contest</context>"
+            + "<role>ROLE_ADMIN</role><role>ROLE_TEAM_MANAGER</role></accessRule>"
+            + "<accessRule action=\"register\" active=\"true\"><context>Contest</context>"
+            + "<role>ROLE_ADMIN</role><role>ROLE_TEAM_MANAGER</role></accessRule>"
+            + "<accessRule action=\"remove\" active=\"true\"><role>ROLE_ADMIN</role><role>ROLE_USER</role>"
+            + "</accessRule>"
+            + "<vetoRule action=\"register|update\" context=\"Contest\" condition=\"closed\">"
+            + "<role>ROLE_TEAM_MANAGER</role></vetoRule>"
+            + "<vetoRule action=\"remove\"><role>ROLE_USER</role></vetoRule>"
+            + "</category></categories><roleMappings>"
+            + "<roleMapping><role>ROLE_USER</role></roleMapping>"
+            + "<roleMapping userId=\"1\"><role>ROLE_ADMIN</role></roleMapping>"
+            + "<roleMapping userId=\"2\" contextType=\"Contest\"><role>ROLE_TEAM_MANAGER</role></roleMapping>"
+            + "</roleMappings></securityRepository>";
+
+    private final AtomicInteger conditionCalls = new AtomicInteger();
+
+    private RepositoryAccessServiceImpl repositoryAccessService;
+    private SecurityServiceImpl securityService;
+
+    @Before
+    public void setup() throws Exception {
+        Dom4jSecurityRepository securityRepository = SecurityFixtures.parseRepository(XML);
+        repositoryAccessService = SecurityFixtures.createRepositoryAccessService(securityRepository);
+
+        // contest 4 is closed for registration
+        VetoCondition closed = new VetoCondition() {
+            public boolean holds(AccessRuleKey accessRuleKey, RoleMappingKey roleMappingKey) {
+                conditionCalls.incrementAndGet();
+                return Long.valueOf(4L).equals(roleMappingKey.getContextId());
+            }
+        };
+        repositoryAccessService.setVetoConditions(Collections.singletonMap("closed", closed));
+
+        securityService = SecurityFixtures.createSecurityService(repositoryAccessService);
+    }
+
+    @Test
+    public void testVetoRulesApplyWhenTheirConditionHolds() {
+        Assert.assertFalse(securityService.hasAccess("contestManager", "register", SecurityFixtures.createPerson(2L),
+                new Contest(4L)));
+        Assert.assertTrue(securityService.hasAccess("contestManager", "register", SecurityFixtures.createPerson(2L),
+                new Contest(5L)));
+
+        // other actions and roles aren't vetoed
+        Assert.assertTrue(securityService.hasAccess("contestManager", "select", SecurityFixtures.createPerson(2L),
+                new Contest(4L)));
+        Assert.assertTrue(securityService.hasAccess("contestManager", "register", SecurityFixtures.createPerson(1L),
+                new Contest(4L)));
+
+        // a rule without a condition always vetoes
+        Assert.assertFalse(securityService.hasAccess("contestManager", "remove", SecurityFixtures.createPerson(3L)));
+        Assert.assertTrue(securityService.hasAccess("contestManager", "remove", SecurityFixtures.createPerson(1L)));
+
+        // a missing condition vetoes too
+        repositoryAccessService.setVetoConditions(Collections.<String, VetoCondition> emptyMap());
+        Assert.assertFalse(securityService.hasAccess("contestManager", "register", SecurityFixtures.createPerson(2L),
+                new Contest(5L)));
+    }
+
+    @Test
+    public void testVetoedRolesAreCached() {
+        BoundedSecurityCache securityCache = new BoundedSecurityCache();
+        GenericCachingAccessServiceImpl cachingAccessService = new GenericCachingAccessServiceImpl();
+        cachingAccessService.setAccessServices(Collections.<AccessService> singletonList(repositoryAccessService));
+        cachingAccessService.setSecurityCache(securityCache);
+        securityService.setAccessService(cachingAccessService);
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertFalse(securityService.hasAccess("contestManager", "register",
+                    SecurityFixtures.createPerson(2L), new Contest(4L)));
+        }
+        Assert.assertEquals(1, conditionCalls.get());
+
+        // the select action has no candidate rules to check
+        Assert.assertTrue(securityService.hasAccess("contestManager", "select", SecurityFixtures.createPerson(2L),
+                new Contest(4L)));
+        Assert.assertEquals(1, conditionCalls.get());
+    }
+
+    @Test
+    public void testParsersAndSnapshotsAgree() throws Exception {
+        Dom4jSecurityRepository dom4jRepository = SecurityFixtures.parseRepository(XML);
+        StaxSecurityRepository staxRepository = new StaxSecurityRepository();
+        staxRepository.populate(new ByteArrayInputStream(XML.getBytes("UTF-8")));
+        Assert.assertEquals(2, dom4jRepository.getVetoRules().size());
+        Assert.assertEquals(dom4jRepository.getVetoRules(), staxRepository.getVetoRules());
+
+        ByteArrayOutputStream compiled = new ByteArrayOutputStream();
+        SnapshotCompiler.compile(dom4jRepository, compiled);
+        RepositorySnapshot mapped = MappedSnapshotLoader.load(ByteBuffer.wrap(compiled.toByteArray()));
+        RepositorySnapshot expected = new RepositorySnapshot(staxRepository);
+
+        AccessRuleKey register = new AccessRuleKey("contestManager", "register",
+                Collections.<Class<?>> singletonList(Contest.class));
+        AccessRuleKey remove = new AccessRuleKey("contestManager", "remove", Collections.<Class<?>> emptyList());
+        RoleMappingKey contest = new RoleMappingKey(2L, Contest.class, 4L);
+        RoleMappingKey user = new RoleMappingKey(2L, null, null);
+        Assert.assertEquals(Collections.singleton("ROLE_TEAM_MANAGER"), expected.getVetoRoles(register, contest));
+        Assert.assertEquals(expected.getVetoRoles(register, contest), mapped.getVetoRoles(register, contest));
+        Assert.assertEquals(Collections.singleton("ROLE_USER"), mapped.getVetoRoles(remove, user));
+        Assert.assertTrue(mapped.getVetoRoles(register, user).isEmpty());
+    }
+
+    @Test
+    public void testInvalidVetoRulesAreRejected() throws Exception {
+        assertRejected(XML.replace("action=\"register|update\"", "action=\"register(\""),
+                "An invalid action pattern has been detected");
+        assertRejected(XML.replace("context=\"Contest\"", "context=\"Missing\""), "No class found for context");
+        assertRejected(XML.replace("<role>ROLE_USER</role></vetoRule>", "<role>ROLE_MISSING</role></vetoRule>"),
+                "An invalid role has been detected: ROLE_MISSING");
+    }
+
+    private void assertRejected(String xml, String message) throws Exception {
+        try {
+            new Dom4jSecurityRepository().populate(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+            Assert.fail("Expected the veto rule to be rejected");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains(message));
+        }
+        try {
+            new StaxSecurityRepository().populate(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+            Assert.fail("Expected the veto rule to be rejected");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains(message));
+        }
+    }
+}
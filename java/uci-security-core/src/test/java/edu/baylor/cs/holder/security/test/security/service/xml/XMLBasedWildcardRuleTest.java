@@ -0,0 +1,197 @@
+package edu.baylor.cs.holder.security.test.security.service.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.baylor.cs.holder.security.service.accessobjects.AccessRule;
+import edu.baylor.cs.holder.security.service.accessobjects.AccessRuleKey;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMappingKey;
+import edu.baylor.cs.holder.security.service.accessobjects.VetoRule;
+import edu.baylor.cs.holder.security.service.impl.Dom4jSecurityRepository;
+import edu.baylor.cs.holder.security.service.impl.MappedSnapshotLoader;
+import edu.baylor.cs.holder.security.service.impl.RepositoryAccessServiceImpl;
+import edu.baylor.cs.holder.security.service.impl.RepositorySnapshot;
+import edu.baylor.cs.holder.security.service.impl.SecurityServiceImpl;
+import edu.baylor.cs.holder.security.service.impl.SnapshotCompiler;
+import edu.baylor.cs.holder.security.service.impl.StaxSecurityRepository;
+import edu.baylor.cs.holder.security.test.model.Contest;
+import edu.baylor.cs.holder.security.test.model.Person;
+import edu.baylor.cs.holder.security.test.tools.MemorySecurityRepository;
+import edu.baylor.cs.holder.security.test.tools.SecurityFixtures;
+
+/**
+ * Checks that wildcard access rules are only used when no access rule has the
+ * exact key of a lookup, that the most specific of them is used, and that veto
+ * rules apply to them.
+ */
+public class XMLBasedWildcardRuleTest {
+
+    private static final String XML = "<securityRepository><roles><role>ROLE_ADMIN</role>"
+            + "<role>ROLE_TEAM_MANAGER</role><role>ROLE_USER</role></roles>"
+            + "<contextPackages><package>edu.baylor.cs.holder.security.test.model</package></contextPackages>"
+            + "<categories><category name=\"contestManager\">"
+            + "<accessRule action=\"select\" active=\"true\"><context>Contest</context>"
+            + "<role>ROLE_ADMIN</role></accessRule>"
+            + "<wildcardRule action=\"select.*\" active=\"true\"><context>Contest</context>"
+            + "<role>ROLE_ADMIN</role><role>ROLE_TEAM_MANAGER</role></wildcardRule>"
+            + "<wildcardRule action=\"selectAll\" active=\"true\"><context>Contest</context>"
+            + "<role>ROLE_ADMIN</role></wildcardRule>"
+            + "<wildcardRule action=\".*\" active=\"true\"><role>ROLE_USER</role></wildcardRule>"
+            + "<wildcardRule action=\"remove.*\" active=\"false\"><role>ROLE_USER</role></wildcardRule>"
+            + "</category></categories><roleMappings>"
+            + "<roleMapping><role>ROLE_USER</role></roleMapping>"
+            + "<roleMapping userId=\"2\" contextType=\"Contest\"><role>ROLE_TEAM_MANAGER</role></roleMapping>"
+            + "</roleMappings></securityRepository>";
+
+    private static final List<Class<?>> CONTEST = Collections.<Class<?>> singletonList(Contest.class);
+
+    private static final List<Class<?>> NONE = Collections.<Class<?>> emptyList();
+
+    private RepositorySnapshot snapshot;
+
+    @Before
+    public void setup() throws Exception {
+        Dom4jSecurityRepository securityRepository = SecurityFixtures.parseRepository(XML);
+        snapshot = new RepositorySnapshot(securityRepository);
+    }
+
+    @Test
+    public void testMostSpecificRuleMatches() {
+        // an access rule with the exact key comes first
+        assertRoles(snapshot, "select", CONTEST, "ROLE_ADMIN");
+
+        // a literal action comes before a pattern
+        assertRoles(snapshot, "selectAll", CONTEST, "ROLE_ADMIN");
+        assertRoles(snapshot, "selectMany", CONTEST, "ROLE_ADMIN", "ROLE_TEAM_MANAGER");
+        assertRoles(snapshot, "register", NONE, "ROLE_USER");
+
+        // contexts must be equal, and inactive rules don't exist
+        Assert.assertNull(snapshot.findAccessRuleRoles(new AccessRuleKey("contestManager", "register", CONTEST)));
+        Assert.assertNull(snapshot.findAccessRuleRoles(new AccessRuleKey("teamManager", "register", NONE)));
+        Assert.assertEquals(3, snapshot.getWildcardRuleMap().size());
+    }
+
+    @Test
+    public void testWildcardRulesGrantAccess() {
+        RepositoryAccessServiceImpl repositoryAccessService = new RepositoryAccessServiceImpl();
+        repositoryAccessService.update(snapshot);
+        SecurityServiceImpl securityService = SecurityFixtures.createSecurityService(repositoryAccessService);
+
+        Assert.assertTrue(securityService.hasAccess("contestManager", "selectMany", SecurityFixtures.createPerson(2L),
+                new Contest(4L)));
+        Assert.assertFalse(securityService.hasAccess("contestManager", "select", SecurityFixtures.createPerson(2L),
+                new Contest(4L)));
+        Assert.assertFalse(securityService.hasAccess("contestManager", "selectAll", SecurityFixtures.createPerson(2L),
+                new Contest(4L)));
+        Assert.assertTrue(securityService.hasAccess("contestManager", "register", SecurityFixtures.createPerson(3L)));
+    }
+
+    @Test
+    public void testSpecificContextsComeFirst() {
+        MemorySecurityRepository securityRepository = new MemorySecurityRepository();
+        securityRepository.getAllRoles().addAll(Arrays.asList("ROLE_ADMIN", "ROLE_USER"));
+        securityRepository.getWildcardAccessRules().add(createRule("update.*", null, "ROLE_USER"));
+        securityRepository.getWildcardAccessRules().add(createRule("u.*", CONTEST, "ROLE_USER"));
+        securityRepository.getWildcardAccessRules().add(createRule("update.*", CONTEST, "ROLE_ADMIN"));
+        RepositorySnapshot snapshot = new RepositorySnapshot(securityRepository);
+
+        assertRoles(snapshot, "updateName", CONTEST, "ROLE_ADMIN");
+        assertRoles(snapshot, "upgrade", CONTEST, "ROLE_USER");
+        assertRoles(snapshot, "updateName", Collections.<Class<?>> singletonList(Person.class), "ROLE_USER");
+    }
+
+    @Test
+    public void testVetoRulesMatchTheWildcardRule() {
+        MemorySecurityRepository securityRepository = new MemorySecurityRepository();
+        securityRepository.getAllRoles().addAll(Arrays.asList("ROLE_ADMIN", "ROLE_USER"));
+        securityRepository.getWildcardAccessRules().add(createRule("update.*", CONTEST, "ROLE_USER"));
+        securityRepository.getWildcardAccessRules().add(createRule(".*", null, "ROLE_USER"));
+        securityRepository.getVetoRules().add(createVetoRule("update.*", Contest.class, "ROLE_USER"));
+        securityRepository.getVetoRules().add(createVetoRule(null, Person.class, "ROLE_ADMIN"));
+        RepositorySnapshot snapshot = new RepositorySnapshot(securityRepository);
+
+        RoleMappingKey contest = new RoleMappingKey(2L, Contest.class, 4L);
+        RoleMappingKey person = new RoleMappingKey(2L, Person.class, 3L);
+        Assert.assertEquals(Collections.singleton("ROLE_USER"), snapshot.getVetoRoles(new AccessRuleKey(
+                "contestManager", "updateName", CONTEST), contest));
+
+        // the rule of any action and contexts is only vetoed by the rule of any action
+        Assert.assertTrue(snapshot.getVetoRoles(new AccessRuleKey("contestManager", "register", NONE), contest)
+                .isEmpty());
+        Assert.assertEquals(Collections.singleton("ROLE_ADMIN"), snapshot.getVetoRoles(new AccessRuleKey(
+                "contestManager", "register", Collections.<Class<?>> singletonList(Person.class)), person));
+
+        // keys without a matching rule are never vetoed
+        Assert.assertTrue(snapshot.getVetoRoles(new AccessRuleKey("teamManager", "updateName", CONTEST), contest)
+                .isEmpty());
+    }
+
+    @Test
+    public void testParsersAndSnapshotsAgree() throws Exception {
+        Dom4jSecurityRepository dom4jRepository = SecurityFixtures.parseRepository(XML);
+        StaxSecurityRepository staxRepository = new StaxSecurityRepository();
+        staxRepository.populate(new ByteArrayInputStream(XML.getBytes("UTF-8")));
+        Assert.assertEquals(4, dom4jRepository.getWildcardAccessRules().size());
+        Assert.assertEquals(dom4jRepository.getWildcardAccessRules(), staxRepository.getWildcardAccessRules());
+        Assert.assertEquals(1, staxRepository.getAccessRules().size());
+
+        ByteArrayOutputStream compiled = new ByteArrayOutputStream();
+        SnapshotCompiler.compile(staxRepository, compiled);
+        RepositorySnapshot mapped = MappedSnapshotLoader.load(ByteBuffer.wrap(compiled.toByteArray()));
+        Assert.assertEquals(snapshot.getWildcardRuleMap(), mapped.getWildcardRuleMap());
+        assertRoles(mapped, "selectMany", CONTEST, "ROLE_ADMIN", "ROLE_TEAM_MANAGER");
+        assertRoles(mapped, "selectAll", CONTEST, "ROLE_ADMIN");
+    }
+
+    @Test
+    public void testInvalidWildcardRulesAreRejected() throws Exception {
+        String xml = XML.replace("action=\"select.*\"", "action=\"select(\"");
+        try {
+            new Dom4jSecurityRepository().populate(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+            Assert.fail("Expected the wildcard rule to be rejected");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getCause().getMessage().contains("An invalid action pattern has been detected"));
+        }
+        try {
+            new StaxSecurityRepository().populate(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+            Assert.fail("Expected the wildcard rule to be rejected");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getCause().getMessage().contains("An invalid action pattern has been detected"));
+        }
+    }
+
+    private static void assertRoles(RepositorySnapshot snapshot, String action, List<Class<?>> contexts,
+            String... roles) {
+        Set<String> expected = new HashSet<String>(Arrays.asList(roles));
+        Assert.assertEquals(expected, snapshot.findAccessRuleRoles(new AccessRuleKey("contestManager", action,
+                contexts)));
+    }
+
+    private static AccessRule createRule(String action, List<Class<?>> contexts, String role) {
+        AccessRule accessRule = new AccessRule();
+        accessRule.setCategory("contestManager");
+        accessRule.setAction(action);
+        accessRule.setContexts(contexts);
+        accessRule.addRole(role);
+        return accessRule;
+    }
+
+    private static VetoRule createVetoRule(String action, Class<?> contextType, String role) {
+        VetoRule vetoRule = new VetoRule();
+        vetoRule.setCategory("contestManager");
+        vetoRule.setAction(action);
+        vetoRule.setContextType(contextType);
+        vetoRule.addRole(role);
+        return vetoRule;
+    }
+}
@@ -0,0 +1,176 @@
+package edu.baylor.cs.holder.security.test.security.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.baylor.cs.holder.security.util.BoundedCacheMap;
+
+public class BoundedCacheMapTest {
+
+    @Test
+    public void testMaximumWeight() {
+        BoundedCacheMap<Integer, String> cache = new BoundedCacheMap<Integer, String>(100, 0, TimeUnit.SECONDS);
+        for (int i = 0; i < 1000; i++) {
+            cache.get(i);
+            cache.put(i, "value" + i);
+            Assert.assertTrue(cache.size() <= 100);
+            Assert.assertTrue(cache.getWeight() <= 100);
+        }
+        Assert.assertEquals(100, cache.size());
+        Assert.assertEquals(100, cache.getWeight());
+
+        BoundedCacheMap<Integer, String> weighted = new BoundedCacheMap<Integer, String>(100, 0, TimeUnit.SECONDS) {
+            @Override
+            protected int weigh(Integer key, String value) {
+                return value.length();
+            }
+        };
+        for (int i = 0; i < 1000; i++) {
+            weighted.get(i);
+            weighted.put(i, "value" + i);
+            Assert.assertTrue(weighted.getWeight() <= 100);
+        }
+        Assert.assertTrue(weighted.size() < 20);
+    }
+
+    @Test
+    public void testFrequentEntriesSurviveScan() {
+        BoundedCacheMap<Integer, String> cache = new BoundedCacheMap<Integer, String>(100, 0, TimeUnit.SECONDS);
+
+        // a working set that keeps being read while many keys are each looked
+        // up once, too many for the cache to hold when ordered by recency
+        for (int i = 0; i < 20000; i++) {
+            int hot = i % 60;
+            if (cache.get(hot) == null) {
+                cache.put(hot, "hot" + hot);
+            }
+            int cold = 1000 + i;
+            if (cache.get(cold) == null) {
+                cache.put(cold, "cold" + cold);
+            }
+        }
+
+        for (int i = 0; i < 60; i++) {
+            Assert.assertEquals("hot" + i, cache.get(i));
+        }
+        Assert.assertEquals(100, cache.size());
+    }
+
+    @Test
+    public void testExpireAfterWrite() {
+        final long[] time = new long[] { 0 };
+        BoundedCacheMap<String, String> cache = new BoundedCacheMap<String, String>(10, 5, TimeUnit.SECONDS) {
+            @Override
+            protected long currentTime() {
+                return time[0];
+            }
+        };
+
+        cache.put("a", "1");
+        time[0] = TimeUnit.SECONDS.toNanos(3);
+        cache.put("b", "2");
+        Assert.assertEquals("1", cache.get("a"));
+        Assert.assertTrue(cache.containsKey("a"));
+
+        time[0] = TimeUnit.SECONDS.toNanos(5);
+        Assert.assertNull(cache.get("a"));
+        Assert.assertFalse(cache.containsKey("a"));
+        Assert.assertEquals("2", cache.get("b"));
+
+        // writing again starts a new lifetime
+        cache.put("b", "3");
+        time[0] = TimeUnit.SECONDS.toNanos(9);
+        Assert.assertEquals("3", cache.get("b"));
+        Assert.assertEquals(1, cache.entrySet().size());
+        Assert.assertEquals(1, cache.getWeight());
+    }
+
+    @Test
+    public void testRemoveAndClear() {
+        BoundedCacheMap<String, String> cache = new BoundedCacheMap<String, String>(10, 0, TimeUnit.SECONDS);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        Assert.assertEquals("1", cache.put("a", "3"));
+        Assert.assertEquals(2, cache.getWeight());
+
+        Assert.assertEquals("3", cache.remove("a"));
+        Assert.assertNull(cache.remove("a"));
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(1, cache.getWeight());
+
+        cache.clear();
+        Assert.assertTrue(cache.isEmpty());
+        Assert.assertEquals(0, cache.getWeight());
+        Assert.assertNull(cache.get("b"));
+    }
+
+    @Test
+    public void testReplaceIsNotEvicted() {
+        BoundedCacheMap<Integer, String> cache = new BoundedCacheMap<Integer, String>(10, 0, TimeUnit.SECONDS);
+        for (int i = 0; i < 10; i++) {
+            cache.put(i, "value" + i);
+        }
+        // every other key is more popular than the one being replaced
+        for (int i = 1; i < 10; i++) {
+            for (int j = 0; j < 5; j++) {
+                cache.get(i);
+            }
+        }
+
+        Assert.assertEquals("value0", cache.put(0, "replaced"));
+        Assert.assertEquals("replaced", cache.get(0));
+        Assert.assertEquals(10, cache.size());
+        Assert.assertEquals(10, cache.getWeight());
+    }
+
+    @Test
+    public void testConcurrentReads() throws Exception {
+        final BoundedCacheMap<Integer, String> cache = new BoundedCacheMap<Integer, String>(100, 0,
+                TimeUnit.SECONDS);
+        for (int i = 0; i < 100; i++) {
+            cache.put(i, "value" + i);
+        }
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicInteger misses = new AtomicInteger();
+        List<Thread> readers = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            Thread reader = new Thread() {
+                @Override
+                public void run() {
+                    while (running.get()) {
+                        // only the hot keys are read, so they are never evicted
+                        for (int key = 0; key < 50; key++) {
+                            if (cache.get(key) == null) {
+                                misses.incrementAndGet();
+                            }
+                        }
+                    }
+                }
+            };
+            reader.start();
+            readers.add(reader);
+        }
+
+        try {
+            for (int i = 0; i < 20000; i++) {
+                cache.put(1000 + i, "cold" + i);
+                Assert.assertTrue(cache.getWeight() <= 100);
+            }
+        } finally {
+            running.set(false);
+            for (Thread reader : readers) {
+                reader.join();
+            }
+        }
+
+        Assert.assertEquals(0, misses.get());
+        Assert.assertEquals(100, cache.size());
+    }
+}
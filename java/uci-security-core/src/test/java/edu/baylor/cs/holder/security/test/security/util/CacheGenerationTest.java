@@ -0,0 +1,75 @@
+package edu.baylor.cs.holder.security.test.security.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.baylor.cs.holder.security.util.CacheGeneration;
+
+public class CacheGenerationTest {
+
+    @Test
+    public void testInvalidationChangesGeneration() {
+        CacheGeneration cacheGeneration = new CacheGeneration();
+        long settled = cacheGeneration.getGeneration();
+        Assert.assertTrue(CacheGeneration.isSettled(settled));
+
+        cacheGeneration.beginInvalidation();
+        cacheGeneration.beginInvalidation();
+        Assert.assertFalse(CacheGeneration.isSettled(cacheGeneration.getGeneration()));
+        cacheGeneration.endInvalidation();
+        Assert.assertFalse(CacheGeneration.isSettled(cacheGeneration.getGeneration()));
+        cacheGeneration.endInvalidation();
+
+        Assert.assertTrue(CacheGeneration.isSettled(cacheGeneration.getGeneration()));
+        Assert.assertTrue(cacheGeneration.getGeneration() != settled);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testEndWithoutBegin() {
+        new CacheGeneration().endInvalidation();
+    }
+
+    @Test
+    public void testStalePutIsDropped() {
+        CacheGeneration cacheGeneration = new CacheGeneration();
+        Map<String, String> map = new HashMap<String, String>();
+        long generation = cacheGeneration.getGeneration();
+
+        cacheGeneration.beginInvalidation();
+        cacheGeneration.endInvalidation();
+
+        Assert.assertFalse(cacheGeneration.putIfCurrent(map, "key", "stale", generation));
+        Assert.assertTrue(map.isEmpty());
+        Assert.assertTrue(cacheGeneration.putIfCurrent(map, "key", "fresh", cacheGeneration.getGeneration()));
+        Assert.assertEquals("fresh", map.get("key"));
+    }
+
+    @Test
+    public void testPutDuringInvalidationIsDropped() throws Exception {
+        final CacheGeneration cacheGeneration = new CacheGeneration();
+        final Map<String, String> map = new HashMap<String, String>();
+        final long generation = cacheGeneration.getGeneration();
+        final AtomicBoolean put = new AtomicBoolean(true);
+
+        cacheGeneration.beginInvalidation();
+        try {
+            Thread loader = new Thread() {
+                @Override
+                public void run() {
+                    put.set(cacheGeneration.putIfCurrent(map, "key", "stale", generation));
+                }
+            };
+            loader.start();
+            loader.join();
+        } finally {
+            cacheGeneration.endInvalidation();
+        }
+
+        Assert.assertFalse(put.get());
+        Assert.assertTrue(map.isEmpty());
+    }
+}
@@ -0,0 +1,122 @@
+package edu.baylor.cs.holder.security.test.security.util;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.baylor.cs.holder.security.service.impl.Dom4jSecurityRepository;
+import edu.baylor.cs.holder.security.service.impl.StaxSecurityRepository;
+import edu.baylor.cs.holder.security.test.model.Contest;
+import edu.baylor.cs.holder.security.test.model.Institution;
+import edu.baylor.cs.holder.security.test.model.Person;
+import edu.baylor.cs.holder.security.util.ContextClassResolver;
+
+public class ContextClassResolverTest {
+
+    private static final String MODEL_PACKAGE = "edu.baylor.cs.holder.security.test.model";
+    private static final String LANG_PACKAGE = "java.lang";
+
+    @Test
+    public void testSearchOrder() {
+        ContextClassResolver resolver = new ContextClassResolver(Arrays.asList("missing.pkg", MODEL_PACKAGE,
+                LANG_PACKAGE));
+        Assert.assertSame(Contest.class, resolver.getContextClass("Contest"));
+        Assert.assertSame(String.class, resolver.getContextClass("String"));
+        Assert.assertNull(resolver.getContextClass("Missing"));
+
+        // cached hits and misses give the same answers
+        Assert.assertSame(Contest.class, resolver.getContextClass("Contest"));
+        Assert.assertNull(resolver.getContextClass("Missing"));
+        Assert.assertFalse(resolver.isComplete());
+    }
+
+    @Test
+    public void testRegisterPrecedence() {
+        ContextClassResolver resolver = new ContextClassResolver(Arrays.asList("java.util", "java.sql"));
+        Assert.assertTrue(resolver.register(java.sql.Date.class));
+        Assert.assertSame(java.sql.Date.class, resolver.getContextClass("Date"));
+
+        // a class of an earlier package replaces one of a later package, but not the reverse
+        Assert.assertTrue(resolver.register(java.util.Date.class));
+        Assert.assertFalse(resolver.register(java.sql.Date.class));
+        Assert.assertSame(java.util.Date.class, resolver.getContextClass("Date"));
+
+        try {
+            resolver.register(Contest.class);
+            Assert.fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testManifestCompletesRegistry() throws Exception {
+        ContextClassResolver resolver = new ContextClassResolver(Arrays.asList(MODEL_PACKAGE));
+        String manifest = "# generated\n" + Contest.class.getName() + "\n\n" + String.class.getName() + "\n";
+        resolver.registerManifest(new ByteArrayInputStream(manifest.getBytes("UTF-8")));
+
+        Assert.assertTrue(resolver.isComplete());
+        Assert.assertSame(Contest.class, resolver.getContextClass("Contest"));
+
+        // only registered classes resolve once the registry is complete
+        Assert.assertNull(resolver.getContextClass("Institution"));
+    }
+
+    @Test
+    public void testScanPackages() throws Exception {
+        ContextClassResolver resolver = new ContextClassResolver(Arrays.asList(MODEL_PACKAGE));
+        resolver.scanPackages();
+
+        Assert.assertTrue(resolver.isComplete());
+        Assert.assertSame(Contest.class, resolver.getContextClass("Contest"));
+        Assert.assertSame(Institution.class, resolver.getContextClass("Institution"));
+        Assert.assertSame(Person.class, resolver.getContextClass("Person"));
+        Assert.assertNull(resolver.getContextClass("Missing"));
+    }
+
+    @Test
+    public void testRepositoriesUseAnOptInResolver() throws Exception {
+        String xml = "<securityRepository><roles><role>ROLE_USER</role></roles>"
+                + "<contextPackages><package>" + LANG_PACKAGE + "</package></contextPackages>"
+                + "<categories><category name=\"contestManager\">"
+                + "<accessRule action=\"select\" active=\"true\"><context>Contest</context>"
+                + "<role>ROLE_USER</role></accessRule></category></categories>"
+                + "<roleMappings/></securityRepository>";
+
+        // by default only the packages of the input are searched
+        assertRejected(new Dom4jSecurityRepository(), xml);
+        assertRejected(new StaxSecurityRepository(), xml);
+
+        // a resolver that is set searches its own packages instead
+        ContextClassResolver resolver = new ContextClassResolver(Arrays.asList(MODEL_PACKAGE));
+        Dom4jSecurityRepository dom4jRepository = new Dom4jSecurityRepository();
+        dom4jRepository.setContextClassResolver(resolver);
+        dom4jRepository.populate(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+        StaxSecurityRepository staxRepository = new StaxSecurityRepository();
+        staxRepository.setContextClassResolver(resolver);
+        staxRepository.populate(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+
+        Assert.assertEquals(1, staxRepository.getAccessRules().size());
+        Assert.assertEquals(dom4jRepository.getAccessRules(), staxRepository.getAccessRules());
+    }
+
+    private static void assertRejected(Dom4jSecurityRepository repository, String xml) throws Exception {
+        try {
+            repository.populate(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            ; // expected
+        }
+    }
+
+    private static void assertRejected(StaxSecurityRepository repository, String xml) throws Exception {
+        try {
+            repository.populate(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            ; // expected
+        }
+    }
+}
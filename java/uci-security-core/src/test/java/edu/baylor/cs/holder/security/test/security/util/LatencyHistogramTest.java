@@ -0,0 +1,74 @@
+package edu.baylor.cs.holder.security.test.security.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.baylor.cs.holder.security.util.LatencyHistogram;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0, histogram.getPercentile(50));
+
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000);
+        }
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(1000000, histogram.getMax());
+        Assert.assertEquals(500500, histogram.getMean(), 0.001);
+        Assert.assertEquals(1000000, histogram.getPercentile(100));
+
+        // each percentile is at most one bucket above the exact value
+        double[] percentiles = { 0, 10, 50, 90, 99, 99.9 };
+        for (double percentile : percentiles) {
+            long exact = Math.max(1, (long) Math.ceil(percentile * 10)) * 1000;
+            long estimate = histogram.getPercentile(percentile);
+            Assert.assertTrue(percentile + ": " + estimate, estimate >= exact);
+            Assert.assertTrue(percentile + ": " + estimate, estimate <= exact * 1.125);
+        }
+    }
+
+    @Test
+    public void testExtremes() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(0);
+        histogram.record(Long.MAX_VALUE);
+        Assert.assertEquals(3, histogram.getCount());
+        Assert.assertEquals(0, histogram.getPercentile(50));
+        Assert.assertEquals(Long.MAX_VALUE, histogram.getPercentile(100));
+        try {
+            histogram.getPercentile(101);
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            ; // expected
+        }
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 4; t++) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < 100000; i++) {
+                        histogram.record(i);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        Assert.assertEquals(400000, histogram.getCount());
+        Assert.assertEquals(99999, histogram.getMax());
+        Assert.assertEquals(49999.5, histogram.getMean(), 0.001);
+    }
+}
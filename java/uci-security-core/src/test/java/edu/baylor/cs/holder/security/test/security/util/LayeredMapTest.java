@@ -0,0 +1,60 @@
+package edu.baylor.cs.holder.security.test.security.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.baylor.cs.holder.security.util.LayeredMap;
+
+public class LayeredMapTest {
+
+    @Test
+    public void testChangesLeaveEarlierMapsAlone() {
+        Map<Integer, String> base = new HashMap<Integer, String>();
+        base.put(1, "one");
+        base.put(2, "two");
+        LayeredMap<Integer, String> original = new LayeredMap<Integer, String>(base);
+
+        Map<Integer, String> changes = new HashMap<Integer, String>();
+        changes.put(1, null);
+        changes.put(2, "TWO");
+        changes.put(3, "three");
+        changes.put(4, null);
+        LayeredMap<Integer, String> changed = original.with(changes);
+
+        Assert.assertNull(changed.get(1));
+        Assert.assertEquals("TWO", changed.get(2));
+        Assert.assertEquals("three", changed.get(3));
+        Assert.assertEquals(2, changed.size());
+        Assert.assertEquals(2, changed.entrySet().size());
+
+        Assert.assertEquals(base, original);
+        Assert.assertEquals("one", original.get(1));
+    }
+
+    @Test
+    public void testLayersStayFew() {
+        Map<Integer, String> expected = new HashMap<Integer, String>();
+        LayeredMap<Integer, String> map = new LayeredMap<Integer, String>(new HashMap<Integer, String>());
+        for (int i = 0; i < 1000; i++) {
+            Map<Integer, String> changes = new HashMap<Integer, String>();
+            changes.put(i % 300, "value" + i);
+            if (i % 7 == 0) {
+                changes.put((i + 150) % 300, null);
+            }
+            for (Map.Entry<Integer, String> change : changes.entrySet()) {
+                if (change.getValue() == null) {
+                    expected.remove(change.getKey());
+                } else {
+                    expected.put(change.getKey(), change.getValue());
+                }
+            }
+            map = map.with(changes);
+            Assert.assertTrue(map.getLayerCount() <= 11);
+        }
+        Assert.assertEquals(expected.size(), map.size());
+        Assert.assertEquals(expected, map);
+    }
+}
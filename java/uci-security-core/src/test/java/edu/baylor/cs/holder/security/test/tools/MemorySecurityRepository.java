@@ -0,0 +1,92 @@
+package edu.baylor.cs.holder.security.test.tools;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import edu.baylor.cs.holder.security.service.SecurityRepository;
+import edu.baylor.cs.holder.security.service.accessobjects.AccessRule;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleHierarchy;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMapping;
+import edu.baylor.cs.holder.security.service.accessobjects.VetoRule;
+
+/**
+ * {@link SecurityRepository} backed by modifiable {@link HashSet}'s, which
+ * tests can change directly. Since {@link AccessRule}'s and
+ * {@link RoleMapping}'s are equal by key, adding a replacement requires
+ * removing the original first.
+ */
+public class MemorySecurityRepository implements SecurityRepository {
+
+    private Set<AccessRule> accessRules = new HashSet<AccessRule>();
+    private Set<AccessRule> wildcardAccessRules = new HashSet<AccessRule>();
+    private Set<VetoRule> vetoRules = new HashSet<VetoRule>();
+    private Set<RoleMapping> roleMappings = new HashSet<RoleMapping>();
+    private Set<String> allRoles = new HashSet<String>();
+    private Set<String> contextPackages = new HashSet<String>();
+    private RoleHierarchy roleHierarchy;
+
+    public MemorySecurityRepository() {
+    }
+
+    /**
+     * Create a repository holding the same rules, wildcard rules, veto rules,
+     * mappings, roles, packages and role hierarchy as the given repository.
+     */
+    public MemorySecurityRepository(SecurityRepository securityRepository) {
+        accessRules.addAll(securityRepository.getAccessRules());
+        if (securityRepository.getWildcardAccessRules() != null) {
+            wildcardAccessRules.addAll(securityRepository.getWildcardAccessRules());
+        }
+        if (securityRepository.getVetoRules() != null) {
+            vetoRules.addAll(securityRepository.getVetoRules());
+        }
+        roleMappings.addAll(securityRepository.getRoleMappings());
+        allRoles.addAll(securityRepository.getAllRoles());
+        contextPackages.addAll(securityRepository.getContextPackages());
+        roleHierarchy = securityRepository.getRoleHierarchy();
+    }
+
+    /**
+     * Add the given rule, replacing any rule with the same key.
+     */
+    public void putAccessRule(AccessRule accessRule) {
+        accessRules.remove(accessRule);
+        accessRules.add(accessRule);
+    }
+
+    /**
+     * Add the given mapping, replacing any mapping with the same key.
+     */
+    public void putRoleMapping(RoleMapping roleMapping) {
+        roleMappings.remove(roleMapping);
+        roleMappings.add(roleMapping);
+    }
+
+    public Set<AccessRule> getAccessRules() {
+        return accessRules;
+    }
+
+    public Set<AccessRule> getWildcardAccessRules() {
+        return wildcardAccessRules;
+    }
+
+    public Set<VetoRule> getVetoRules() {
+        return vetoRules;
+    }
+
+    public Set<RoleMapping> getRoleMappings() {
+        return roleMappings;
+    }
+
+    public Set<String> getAllRoles() {
+        return allRoles;
+    }
+
+    public Set<String> getContextPackages() {
+        return contextPackages;
+    }
+
+    public RoleHierarchy getRoleHierarchy() {
+        return roleHierarchy;
+    }
+}
@@ -0,0 +1,92 @@
+package edu.baylor.cs.holder.security.test.tools;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+
+import edu.baylor.cs.holder.security.service.AccessService;
+import edu.baylor.cs.holder.security.service.SecurityRepository;
+import edu.baylor.cs.holder.security.service.impl.Dom4jSecurityRepository;
+import edu.baylor.cs.holder.security.service.impl.RepositoryAccessServiceImpl;
+import edu.baylor.cs.holder.security.service.impl.SecurityServiceImpl;
+import edu.baylor.cs.holder.security.test.model.Person;
+
+/**
+ * Builds the repositories, services and model objects shared by the tests.
+ */
+public class SecurityFixtures {
+
+    // classpath resource holding the default test repository
+    public static final String SECURITY_TEST_XML = "/security-test.xml";
+
+    /**
+     * Return a {@link Dom4jSecurityRepository} populated from the default
+     * test repository.
+     *
+     * @return
+     * @throws IOException
+     */
+    public static Dom4jSecurityRepository loadRepository() throws IOException {
+        InputStream xmlInput = SecurityFixtures.class.getResourceAsStream(SECURITY_TEST_XML);
+        try {
+            Dom4jSecurityRepository securityRepository = new Dom4jSecurityRepository();
+            securityRepository.populate(xmlInput);
+            return securityRepository;
+        } finally {
+            xmlInput.close();
+        }
+    }
+
+    /**
+     * Return a {@link Dom4jSecurityRepository} populated from the given XML.
+     *
+     * @param xml
+     * @return
+     * @throws UnsupportedEncodingException
+     */
+    public static Dom4jSecurityRepository parseRepository(String xml) throws UnsupportedEncodingException {
+        Dom4jSecurityRepository securityRepository = new Dom4jSecurityRepository();
+        securityRepository.populate(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+        return securityRepository;
+    }
+
+    /**
+     * Return a {@link RepositoryAccessServiceImpl} updated from the given
+     * repository.
+     *
+     * @param securityRepository
+     * @return
+     */
+    public static RepositoryAccessServiceImpl createRepositoryAccessService(SecurityRepository securityRepository) {
+        RepositoryAccessServiceImpl repositoryAccessService = new RepositoryAccessServiceImpl();
+        repositoryAccessService.update(securityRepository);
+        return repositoryAccessService;
+    }
+
+    /**
+     * Return a {@link SecurityServiceImpl} checking the given access service
+     * against the test model.
+     *
+     * @param accessService
+     * @return
+     */
+    public static SecurityServiceImpl createSecurityService(AccessService accessService) {
+        SecurityServiceImpl securityService = new SecurityServiceImpl();
+        securityService.setAccessService(accessService);
+        securityService.setDomainService(new ModelDomainService());
+        return securityService;
+    }
+
+    /**
+     * Return a {@link Person} with the given id.
+     *
+     * @param id
+     * @return
+     */
+    public static Person createPerson(Long id) {
+        Person person = new Person();
+        person.setId(id);
+        return person;
+    }
+}
@@ -0,0 +1,545 @@
+package edu.baylor.cs.holder.security.test.tools;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import edu.baylor.cs.holder.security.service.SecurityRepository;
+import edu.baylor.cs.holder.security.service.accessobjects.AccessRule;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMapping;
+import edu.baylor.cs.holder.security.service.accessobjects.RoleMappingKey;
+import edu.baylor.cs.holder.security.test.model.Contest;
+import edu.baylor.cs.holder.security.test.model.Institution;
+import edu.baylor.cs.holder.security.test.model.Person;
+
+/**
+ * Generates security repositories of any size for load tests, benchmarks and
+ * regression tests, either as XML or as a {@link MemorySecurityRepository}.
+ * The same seed and parameters always generate the same repository, in either
+ * form.
+ *
+ * A generated repository has roles "ROLE_0" and up, categories "category0"
+ * and up, each with actions "action0" and up. Every action has one active
+ * rule whose number of contexts is drawn from 0 to the maximum context
+ * length. Each user, numbered from 1, gets the same number of distinct
+ * mappings whose key forms are drawn from the wildcard mix, along with any
+ * number of mappings shared by every user.
+ */
+public class SecurityRepositoryGenerator {
+
+    /**
+     * Maximum number of contexts of a rule, as enforced by the security
+     * service.
+     */
+    public static final int MAXCONTEXTLENGTH = 5;
+
+    /**
+     * Key forms of the mappings of a single user.
+     */
+    public enum MappingForm {
+        /** userId, *, * */
+        USER,
+        /** userId, contextType, * */
+        USER_TYPE,
+        /** userId, contextType, contextId */
+        USER_TYPE_ID,
+        /** userId, *, contextId */
+        USER_ID
+    }
+
+    // attempts at drawing a distinct mapping key before giving up on it
+    private static final int MAX_ATTEMPTS = 16;
+
+    private long seed = 0;
+    private int roleCount = 16;
+    private int categoryCount = 8;
+    private int actionsPerCategory = 8;
+    private int maxContextLength = 2;
+    private int rolesPerRule = 2;
+    private int userCount = 1000;
+    private int mappingsPerUser = 4;
+    private int rolesPerMapping = 1;
+    private int contextIdCount = 1000;
+    private int sharedMappingCount = 1;
+
+    // relative weight of each MappingForm
+    private int[] wildcardMix = new int[] { 1, 2, 4, 1 };
+
+    private List<Class<?>> contextTypes = Arrays.<Class<?>> asList(Contest.class, Institution.class, Person.class);
+
+    /**
+     * Write the XML of the repository to the given stream, which is flushed
+     * but left open.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeXml(OutputStream out) throws IOException {
+        XmlSink sink = new XmlSink(new BufferedWriter(new OutputStreamWriter(out, "UTF-8")));
+        try {
+            generate(sink);
+        } catch (WriteException e) {
+            throw e.getCause();
+        }
+        sink.finish();
+    }
+
+    /**
+     * Return the XML of the repository.
+     *
+     * @return
+     */
+    public byte[] generateXml() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            writeXml(out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Return the repository, built directly without any XML.
+     *
+     * @return
+     */
+    public MemorySecurityRepository generateRepository() {
+        RepositorySink sink = new RepositorySink();
+        generate(sink);
+        return sink.repository;
+    }
+
+    private void generate(Sink sink) {
+        Random random = new Random(seed);
+
+        for (int i = 0; i < roleCount; i++) {
+            sink.role(role(i));
+        }
+
+        Set<String> contextPackages = new LinkedHashSet<String>();
+        for (Class<?> contextType : contextTypes) {
+            contextPackages.add(contextType.getPackage().getName());
+        }
+        for (String contextPackage : contextPackages) {
+            sink.contextPackage(contextPackage);
+        }
+
+        for (int c = 0; c < categoryCount; c++) {
+            String category = "category" + c;
+            sink.startCategory(category);
+            for (int a = 0; a < actionsPerCategory; a++) {
+                int contextLength = random.nextInt(maxContextLength + 1);
+                List<Class<?>> contexts = new ArrayList<Class<?>>(contextLength);
+                for (int i = 0; i < contextLength; i++) {
+                    contexts.add(contextTypes.get(random.nextInt(contextTypes.size())));
+                }
+                sink.accessRule(category, "action" + a, contexts, roles(random, rolesPerRule));
+            }
+            sink.endCategory();
+        }
+
+        sink.startRoleMappings();
+        Set<RoleMappingKey> keys = new HashSet<RoleMappingKey>();
+        for (int i = 0; i < sharedMappingCount; i++) {
+            // shared mappings have every wildcard user form, (*, *, *) first
+            RoleMappingKey key = i == 0 ? new RoleMappingKey() : drawSharedKey(random, keys);
+            if (key != null) {
+                sink.roleMapping(key, roles(random, rolesPerMapping));
+            }
+        }
+        for (long userId = 1; userId <= userCount; userId++) {
+            keys.clear();
+            for (int i = 0; i < mappingsPerUser; i++) {
+                RoleMappingKey key = drawUserKey(random, keys, userId);
+                if (key != null) {
+                    sink.roleMapping(key, roles(random, rolesPerMapping));
+                }
+            }
+        }
+        sink.endRoleMappings();
+    }
+
+    /**
+     * Draw a key of the given user that is not yet in the given keys, or
+     * return null if none could be found.
+     */
+    private RoleMappingKey drawUserKey(Random random, Set<RoleMappingKey> keys, long userId) {
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            MappingForm form = drawMappingForm(random);
+            Class<?> contextType = null;
+            Long contextId = null;
+            if (form == MappingForm.USER_TYPE || form == MappingForm.USER_TYPE_ID) {
+                contextType = contextTypes.get(random.nextInt(contextTypes.size()));
+            }
+            if (form == MappingForm.USER_TYPE_ID || form == MappingForm.USER_ID) {
+                contextId = Long.valueOf(random.nextInt(contextIdCount) + 1);
+            }
+            RoleMappingKey key = new RoleMappingKey(userId, contextType, contextId);
+            if (keys.add(key)) {
+                return key;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Draw a key without a user that is not yet in the given keys, or return
+     * null if none could be found.
+     */
+    private RoleMappingKey drawSharedKey(Random random, Set<RoleMappingKey> keys) {
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            int form = random.nextInt(3);
+            Class<?> contextType = form < 2 ? contextTypes.get(random.nextInt(contextTypes.size())) : null;
+            Long contextId = form > 0 ? Long.valueOf(random.nextInt(contextIdCount) + 1) : null;
+            RoleMappingKey key = new RoleMappingKey(null, contextType, contextId);
+            if (keys.add(key)) {
+                return key;
+            }
+        }
+        return null;
+    }
+
+    private MappingForm drawMappingForm(Random random) {
+        int total = 0;
+        for (int weight : wildcardMix) {
+            total += weight;
+        }
+        int draw = random.nextInt(total);
+        for (MappingForm form : MappingForm.values()) {
+            draw -= wildcardMix[form.ordinal()];
+            if (draw < 0) {
+                return form;
+            }
+        }
+        throw new IllegalStateException("Unreachable");
+    }
+
+    /**
+     * Draw the given number of distinct roles.
+     */
+    private List<String> roles(Random random, int count) {
+        Set<String> roles = new LinkedHashSet<String>();
+        while (roles.size() < Math.min(count, roleCount)) {
+            roles.add(role(random.nextInt(roleCount)));
+        }
+        return new ArrayList<String>(roles);
+    }
+
+    private static String role(int i) {
+        return "ROLE_" + i;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public void setRoleCount(int roleCount) {
+        if (roleCount < 1) {
+            throw new IllegalArgumentException("At least one role is required");
+        }
+        this.roleCount = roleCount;
+    }
+
+    public void setCategoryCount(int categoryCount) {
+        this.categoryCount = categoryCount;
+    }
+
+    public void setActionsPerCategory(int actionsPerCategory) {
+        this.actionsPerCategory = actionsPerCategory;
+    }
+
+    /**
+     * Set the largest number of contexts of a rule, up to
+     * {@link #MAXCONTEXTLENGTH}.
+     *
+     * @param maxContextLength
+     */
+    public void setMaxContextLength(int maxContextLength) {
+        if (maxContextLength < 0 || maxContextLength > MAXCONTEXTLENGTH) {
+            throw new IllegalArgumentException("Context length must be from 0 to " + MAXCONTEXTLENGTH + ": "
+                    + maxContextLength);
+        }
+        this.maxContextLength = maxContextLength;
+    }
+
+    public void setRolesPerRule(int rolesPerRule) {
+        this.rolesPerRule = rolesPerRule;
+    }
+
+    public void setUserCount(int userCount) {
+        this.userCount = userCount;
+    }
+
+    public void setMappingsPerUser(int mappingsPerUser) {
+        this.mappingsPerUser = mappingsPerUser;
+    }
+
+    public void setRolesPerMapping(int rolesPerMapping) {
+        this.rolesPerMapping = rolesPerMapping;
+    }
+
+    /**
+     * Set the number of distinct context ids mappings are drawn from.
+     *
+     * @param contextIdCount
+     */
+    public void setContextIdCount(int contextIdCount) {
+        this.contextIdCount = contextIdCount;
+    }
+
+    /**
+     * Set the number of mappings without a user, the first of which is the
+     * (*, *, *) mapping.
+     *
+     * @param sharedMappingCount
+     */
+    public void setSharedMappingCount(int sharedMappingCount) {
+        this.sharedMappingCount = sharedMappingCount;
+    }
+
+    /**
+     * Set the relative weight of each {@link MappingForm} of the mappings of
+     * a user, in the order the forms are declared.
+     *
+     * @param wildcardMix
+     */
+    public void setWildcardMix(int... wildcardMix) {
+        if (wildcardMix.length != MappingForm.values().length) {
+            throw new IllegalArgumentException("Expected a weight for each of " + Arrays.asList(MappingForm.values()));
+        }
+        int total = 0;
+        for (int weight : wildcardMix) {
+            if (weight < 0) {
+                throw new IllegalArgumentException("Weights must not be negative: " + weight);
+            }
+            total += weight;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("At least one weight must be positive");
+        }
+        this.wildcardMix = wildcardMix.clone();
+    }
+
+    /**
+     * Set the classes used as contexts, which must be resolvable through a
+     * {@link edu.baylor.cs.holder.security.service.DomainService} to be used
+     * for access checks.
+     *
+     * @param contextTypes
+     */
+    public void setContextTypes(List<Class<?>> contextTypes) {
+        if (contextTypes.isEmpty()) {
+            throw new IllegalArgumentException("At least one context type is required");
+        }
+        this.contextTypes = new ArrayList<Class<?>>(contextTypes);
+    }
+
+    /**
+     * Receives the content of a repository in document order.
+     */
+    private static abstract class Sink {
+
+        public abstract void role(String role);
+
+        public abstract void contextPackage(String contextPackage);
+
+        public void startCategory(String category) {
+        }
+
+        public abstract void accessRule(String category, String action, List<Class<?>> contexts, List<String> roles);
+
+        public void endCategory() {
+        }
+
+        public void startRoleMappings() {
+        }
+
+        public abstract void roleMapping(RoleMappingKey key, List<String> roles);
+
+        public void endRoleMappings() {
+        }
+    }
+
+    /**
+     * Builds a {@link MemorySecurityRepository}.
+     */
+    private static class RepositorySink extends Sink {
+
+        private final MemorySecurityRepository repository = new MemorySecurityRepository();
+
+        @Override
+        public void role(String role) {
+            repository.getAllRoles().add(role);
+        }
+
+        @Override
+        public void contextPackage(String contextPackage) {
+            repository.getContextPackages().add(contextPackage);
+        }
+
+        @Override
+        public void accessRule(String category, String action, List<Class<?>> contexts, List<String> roles) {
+            AccessRule accessRule = new AccessRule();
+            accessRule.setCategory(category);
+            accessRule.setAction(action);
+            accessRule.setActive(Boolean.TRUE);
+            for (Class<?> context : contexts) {
+                accessRule.addContext(context);
+            }
+            for (String role : roles) {
+                accessRule.addRole(role);
+            }
+            repository.getAccessRules().add(accessRule);
+        }
+
+        @Override
+        public void roleMapping(RoleMappingKey key, List<String> roles) {
+            RoleMapping roleMapping = new RoleMapping();
+            roleMapping.setUserId(key.getUserId());
+            roleMapping.setContextType(key.getContextType());
+            roleMapping.setContextId(key.getContextId());
+            for (String role : roles) {
+                roleMapping.addRole(role);
+            }
+            repository.getRoleMappings().add(roleMapping);
+        }
+    }
+
+    /**
+     * Writes the XML read by {@link SecurityRepository} implementations such
+     * as Dom4jSecurityRepository, one section at a time.
+     */
+    private static class XmlSink extends Sink {
+
+        private final Writer writer;
+
+        // the section currently being written
+        private String section = null;
+
+        public XmlSink(Writer writer) throws IOException {
+            this.writer = writer;
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<securityRepository>\n");
+        }
+
+        @Override
+        public void role(String role) {
+            section("roles");
+            write("\t\t<role>" + role + "</role>\n");
+        }
+
+        @Override
+        public void contextPackage(String contextPackage) {
+            section("contextPackages");
+            write("\t\t<package>" + contextPackage + "</package>\n");
+        }
+
+        @Override
+        public void startCategory(String category) {
+            section("categories");
+            write("\t\t<category name=\"" + category + "\">\n");
+        }
+
+        @Override
+        public void accessRule(String category, String action, List<Class<?>> contexts, List<String> roles) {
+            StringBuilder xml = new StringBuilder();
+            xml.append("\t\t\t<accessRule action=\"").append(action).append("\" active=\"true\">\n");
+            for (Class<?> context : contexts) {
+                xml.append("\t\t\t\t<context>").append(context.getSimpleName()).append("</context>\n");
+            }
+            for (String role : roles) {
+                xml.append("\t\t\t\t<role>").append(role).append("</role>\n");
+            }
+            xml.append("\t\t\t</accessRule>\n");
+            write(xml.toString());
+        }
+
+        @Override
+        public void endCategory() {
+            write("\t\t</category>\n");
+        }
+
+        @Override
+        public void startRoleMappings() {
+            section("roleMappings");
+        }
+
+        @Override
+        public void roleMapping(RoleMappingKey key, List<String> roles) {
+            StringBuilder xml = new StringBuilder("\t\t<roleMapping");
+            if (key.getUserId() != null) {
+                xml.append(" userId=\"").append(key.getUserId()).append('"');
+            }
+            if (key.getContextType() != null) {
+                xml.append(" contextType=\"").append(key.getContextType().getSimpleName()).append('"');
+            }
+            if (key.getContextId() != null) {
+                xml.append(" contextId=\"").append(key.getContextId()).append('"');
+            }
+            xml.append('>');
+            for (String role : roles) {
+                xml.append("<role>").append(role).append("</role>");
+            }
+            xml.append("</roleMapping>\n");
+            write(xml.toString());
+        }
+
+        public void finish() throws IOException {
+            section(null);
+            writer.write("</securityRepository>\n");
+            writer.flush();
+        }
+
+        /**
+         * Close the current section and open the given one, unless it is
+         * already open.
+         */
+        private void section(String name) {
+            if (name != null && name.equals(section)) {
+                return;
+            }
+            if (section != null) {
+                write("\t</" + section + ">\n");
+            }
+            if (name != null) {
+                write("\t<" + name + ">\n");
+            }
+            section = name;
+        }
+
+        private void write(String xml) {
+            try {
+                writer.write(xml);
+            } catch (IOException e) {
+                throw new WriteException(e);
+            }
+        }
+    }
+
+    /**
+     * Carries an {@link IOException} out of {@link XmlSink}.
+     */
+    private static class WriteException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        public WriteException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+}